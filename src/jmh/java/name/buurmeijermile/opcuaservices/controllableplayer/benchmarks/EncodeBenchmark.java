@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementSample;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding the value string of a data record into an OPC UA variant and publishing it as the
+ * sample of its measurement point, per data type. Publishing is measured without a server, up to
+ * the data value that is handed to the variable node.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    private static final int VALUECOUNT = 1024;
+
+    @Param({ "Boolean", "Int16", "Int32", "Int64", "Float", "Double", "String", "DateTime" })
+    public String dataType;
+
+    private MeasurementPoint measurementPoint;
+    private List<String> values;
+    private Variant variant;
+    private LocalDateTime timestamp;
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData syntheticData = new SyntheticData();
+        this.measurementPoint = syntheticData.measurementPoint( this.dataType);
+        this.values = syntheticData.values( this.dataType, VALUECOUNT);
+        this.variant = this.measurementPoint.createVariant( this.values.get( 0));
+        this.timestamp = syntheticData.getStart();
+    }
+
+    @Benchmark
+    public Variant encode() {
+        return this.measurementPoint.createVariant( this.nextValue());
+    }
+
+    @Benchmark
+    public MeasurementSample createSample() {
+        return new MeasurementSample( this.variant, MeasurementSample.DATAQUALITY.Good, this.timestamp, this.measurementPoint.getZoneOffset());
+    }
+
+    @Benchmark
+    public DataValue publish() {
+        this.measurementPoint.setMeasurementSample( this.nextValue(), MeasurementSample.DATAQUALITY.Good, this.timestamp, this.measurementPoint.getZoneOffset());
+        return this.measurementPoint.getCurrentMeasurementSample().getUADateValue();
+    }
+
+    private String nextValue() {
+        this.index = (this.index + 1) % VALUECOUNT;
+        return this.values.get( this.index);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+/**
+ * Histogram of non negative long values with a bounded relative error, in the style of an HDR
+ * histogram: values below 128 have their own bucket, larger values share a bucket with the values
+ * that have the same 7 most significant bits, which keeps the error of a reported percentile below
+ * 1% with a fixed array of a few thousand counters.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class LatencyHistogram {
+
+    private static final int SUBBUCKETBITS = 7;
+    private static final int SUBBUCKETCOUNT = 1 << SUBBUCKETBITS;
+    private static final int SUBBUCKETHALF = SUBBUCKETCOUNT / 2;
+
+    private final long[] counts = new long[ SUBBUCKETCOUNT + (Long.SIZE - SUBBUCKETBITS) * SUBBUCKETHALF];
+    private long totalCount = 0;
+    private long maxValue = 0;
+    private long sum = 0;
+
+    /**
+     * @param value the value to count, negative values are counted as 0
+     */
+    public void record( long value) {
+        long countedValue = Math.max( 0, value);
+        this.counts[ indexOf( countedValue)]++;
+        this.totalCount++;
+        this.sum += countedValue;
+        this.maxValue = Math.max( this.maxValue, countedValue);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket that holds the given percentile, 0 when nothing is recorded
+     */
+    public long getValueAtPercentile( double percentile) {
+        if (this.totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max( 1, (long) Math.ceil( percentile / 100 * this.totalCount));
+        long cumulativeCount = 0;
+        for (int index = 0; index < this.counts.length; index++) {
+            cumulativeCount += this.counts[ index];
+            if (cumulativeCount >= countAtPercentile) {
+                return Math.min( highestValueOf( index), this.maxValue);
+            }
+        }
+        return this.maxValue;
+    }
+
+    /**
+     * @return the mean of the recorded values
+     */
+    public double getMean() {
+        return this.totalCount == 0 ? 0 : (double) this.sum / this.totalCount;
+    }
+
+    /**
+     * @return the totalCount
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return the maxValue
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    static int indexOf( long value) {
+        if (value < SUBBUCKETCOUNT) {
+            return (int) value;
+        }
+        // shift the value until its most significant bits fall in the upper half of the sub buckets
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros( value)) - (SUBBUCKETBITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUBBUCKETCOUNT + (shift - 1) * SUBBUCKETHALF + (subBucket - SUBBUCKETHALF);
+    }
+
+    static long highestValueOf( int index) {
+        if (index < SUBBUCKETCOUNT) {
+            return index;
+        }
+        int shift = (index - SUBBUCKETCOUNT) / SUBBUCKETHALF + 1;
+        long subBucket = (index - SUBBUCKETCOUNT) % SUBBUCKETHALF + SUBBUCKETHALF;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+}
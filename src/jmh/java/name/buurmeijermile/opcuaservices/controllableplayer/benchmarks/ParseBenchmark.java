@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.DataLineParser;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.LineComparator;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementDataRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of data lines into measurement data records, in both data file formats, and the
+ * comparison of lines that sorts a data file for backward play.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final int LINECOUNT = 4096;
+
+    @Param({ SyntheticData.SEMICOLONFORMAT, SyntheticData.RECORDEDFORMAT })
+    public String format;
+
+    private List<String> lines;
+    private DataLineParser parser;
+    private final LineComparator lineComparator = new LineComparator();
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.useFormat( this.format);
+        this.lines = new SyntheticData().dataLines( this.format, LINECOUNT);
+        this.parser = new DataLineParser();
+        // the first data line sets the time shift of the pass
+        this.parser.parse( this.lines.get( 0), 1);
+    }
+
+    @Benchmark
+    public MeasurementDataRecord parse() {
+        return this.parser.parse( this.nextLine(), this.index);
+    }
+
+    @Benchmark
+    public MeasurementDataRecord parseAndAdjust() {
+        return this.parser.adjustTimestamp( this.parser.parse( this.nextLine(), this.index));
+    }
+
+    @Benchmark
+    public int compareLines() {
+        String line = this.nextLine();
+        return this.lineComparator.compare( line, this.lines.get( (this.index + 1) % LINECOUNT));
+    }
+
+    private String nextLine() {
+        this.index = (this.index + 1) % LINECOUNT;
+        return this.lines.get( this.index);
+    }
+}
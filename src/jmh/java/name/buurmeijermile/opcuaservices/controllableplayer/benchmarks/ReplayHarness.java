@@ -0,0 +1,421 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.server.PlayerNamespace;
+import name.buurmeijermile.opcuaservices.controllableplayer.web.InProcessInstanceHost;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.client.DiscoveryClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+/**
+ * End to end replay harness: runs a player in process on a loopback port with a generated data
+ * file, subscribes to all its measurement points with a Milo client and measures how late each
+ * sample arrives compared with its transposed source timestamp, and how many samples are lost or
+ * arrive out of order. It runs a matrix of point counts and replay speeds and writes a report.
+ * <p>
+ * Every point gets one sample per tick, the value of a sample is its tick number so the subscriber
+ * can tell lost and reordered samples apart. The player plays a data file in real time, so a
+ * replay speed is simulated by generating the ticks closer together: at speed 10 a tick lasts
+ * 100 ms instead of 1 second.
+ * <p>
+ * Run with: mvn -P jmh compile exec:java -Dexec.mainClass=name.buurmeijermile.opcuaservices.controllableplayer.benchmarks.ReplayHarness -Dexec.args="-points 1000,10000 -speeds 1,10,100"
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class ReplayHarness {
+
+    private static final Logger LOGGER = Logger.getLogger( ReplayHarness.class.getName());
+    private static final String NAMESPACE = "urn:SmileSoft:OPC_UA_Player:replay-harness";
+    private static final String URI = "ReplayHarness";
+    private static final String TAGPREFIX = "Harness.Point";
+    private static final int BATCHSIZE = 1000; // monitored items created per call
+    private static final long STARTUPTIMEOUT = 120_000; // mS
+    private static final long QUIETPERIOD = 3_000; // mS without samples after the expected end that ends a run
+
+    private final List<Integer> pointCounts = new ArrayList<>();
+    private final List<Double> speeds = new ArrayList<>();
+    private int durationSeconds = 10;
+    private long maxSamples = 2_000_000;
+    private double publishingInterval = 50.0;
+    private File reportFile = new File( "target/replay-report.csv");
+
+    /**
+     * The measured results of one run.
+     */
+    private static class RunResult {
+        private final int points;
+        private final double speed;
+        private final int ticks;
+        private final long tickMillis;
+        private final LatencyHistogram lagHistogram = new LatencyHistogram();
+        private final int[] lastTick;
+        private final boolean[][] received;
+        private long receivedCount = 0;
+        private long duplicateCount = 0;
+        private long reorderedCount = 0;
+        private long earlyCount = 0;
+        private volatile long lastSampleMillis = 0;
+
+        RunResult( int thePoints, double theSpeed, int theTicks, long theTickMillis) {
+            this.points = thePoints;
+            this.speed = theSpeed;
+            this.ticks = theTicks;
+            this.tickMillis = theTickMillis;
+            this.lastTick = new int[ thePoints];
+            this.received = new boolean[ thePoints][ theTicks + 1];
+        }
+
+        synchronized void onSample( int point, DataValue value) {
+            long now = System.currentTimeMillis();
+            this.lastSampleMillis = now;
+            Object tickValue = value.getValue().getValue();
+            if (!(tickValue instanceof Number) || point < 0 || point >= this.points || value.getSourceTime() == null) {
+                return;
+            }
+            int tick = ((Number) tickValue).intValue();
+            if (tick < 1 || tick > this.ticks) {
+                return; // the initial value of the node
+            }
+            if (this.received[ point][ tick]) {
+                this.duplicateCount++;
+                return;
+            }
+            this.received[ point][ tick] = true;
+            this.receivedCount++;
+            if (tick < this.lastTick[ point]) {
+                this.reorderedCount++;
+            }
+            this.lastTick[ point] = Math.max( this.lastTick[ point], tick);
+            long lag = now - value.getSourceTime().getJavaTime();
+            if (lag < 0) {
+                this.earlyCount++;
+            }
+            this.lagHistogram.record( lag);
+        }
+
+        long getExpectedCount() {
+            return (long) this.points * this.ticks;
+        }
+
+        synchronized long getReceivedCount() {
+            return this.receivedCount;
+        }
+
+        synchronized String toCsvLine() {
+            return this.points + "," + this.speed + "," + this.ticks + "," + this.tickMillis + "," + this.getExpectedCount() + "," + this.receivedCount + ","
+                    + (this.getExpectedCount() - this.receivedCount) + "," + this.reorderedCount + "," + this.duplicateCount + "," + this.earlyCount + ","
+                    + String.format( java.util.Locale.ROOT, "%.1f", this.lagHistogram.getMean()) + "," + this.lagHistogram.getValueAtPercentile( 50) + ","
+                    + this.lagHistogram.getValueAtPercentile( 90) + "," + this.lagHistogram.getValueAtPercentile( 99) + ","
+                    + this.lagHistogram.getValueAtPercentile( 99.9) + "," + this.lagHistogram.getMaxValue();
+        }
+    }
+
+    public static void main( String[] args) throws Exception {
+        ReplayHarness harness = new ReplayHarness();
+        if (harness.processCommandLine( args)) {
+            harness.run();
+        }
+        // the stack of the client keeps non daemon threads
+        System.exit( 0);
+    }
+
+    private boolean processCommandLine( String[] args) {
+        Options options = new Options();
+        options.addOption( Option.builder( "points").hasArg().desc( "comma separated point counts, default 1000,10000,100000").build());
+        options.addOption( Option.builder( "speeds").hasArg().desc( "comma separated replay speeds, default 1,10,100").build());
+        options.addOption( Option.builder( "duration").hasArg().desc( "replay duration of a run in seconds, default 10").build());
+        options.addOption( Option.builder( "maxsamples").hasArg().desc( "maximum number of samples in a generated data file, default 2000000").build());
+        options.addOption( Option.builder( "publishinginterval").hasArg().desc( "publishing interval of the subscription in mS, default 50").build());
+        options.addOption( Option.builder( "report").hasArg().desc( "CSV report file, default target/replay-report.csv").build());
+        try {
+            CommandLine cmd = new DefaultParser().parse( options, args);
+            for (String points : cmd.getOptionValue( "points", "1000,10000,100000").split( ",")) {
+                this.pointCounts.add( Integer.parseInt( points.trim()));
+            }
+            for (String speed : cmd.getOptionValue( "speeds", "1,10,100").split( ",")) {
+                this.speeds.add( Double.parseDouble( speed.trim()));
+            }
+            this.durationSeconds = Integer.parseInt( cmd.getOptionValue( "duration", "10"));
+            this.maxSamples = Long.parseLong( cmd.getOptionValue( "maxsamples", "2000000"));
+            this.publishingInterval = Double.parseDouble( cmd.getOptionValue( "publishinginterval", "50"));
+            this.reportFile = new File( cmd.getOptionValue( "report", this.reportFile.getPath()));
+            return true;
+        } catch (ParseException | NumberFormatException ex) {
+            LOGGER.log(Level.SEVERE, "Wrong command line: " + ex.getMessage());
+            new HelpFormatter().printHelp( ReplayHarness.class.getSimpleName(), options);
+            return false;
+        }
+    }
+
+    private void run() throws IOException {
+        File reportDirectory = this.reportFile.getAbsoluteFile().getParentFile();
+        if (reportDirectory != null) {
+            reportDirectory.mkdirs();
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add( "points,speed,ticks,tickMillis,expected,received,lost,reordered,duplicates,early,meanLagMillis,p50LagMillis,p90LagMillis,p99LagMillis,p999LagMillis,maxLagMillis");
+        for (int points : this.pointCounts) {
+            for (double speed : this.speeds) {
+                RunResult result = this.runOnce( points, speed);
+                if (result != null) {
+                    lines.add( result.toCsvLine());
+                    // keep what was measured so far when a later run fails
+                    this.writeReport( lines);
+                }
+            }
+        }
+        System.out.println();
+        lines.forEach( System.out::println);
+        LOGGER.log(Level.INFO, "Replay report written to " + this.reportFile.getAbsolutePath());
+    }
+
+    private void writeReport( List<String> lines) throws IOException {
+        try (Writer writer = Files.newBufferedWriter( this.reportFile.toPath(), StandardCharsets.UTF_8);
+             PrintWriter printWriter = new PrintWriter( writer)) {
+            lines.forEach( printWriter::println);
+        }
+    }
+
+    private RunResult runOnce( int points, double speed) {
+        long tickMillis = Math.max( 1, Math.round( 1000 / speed));
+        long ticksInDuration = Math.max( 2, Math.round( this.durationSeconds * 1000.0 / tickMillis));
+        int ticks = (int) Math.max( 2, Math.min( ticksInDuration, this.maxSamples / points));
+        LOGGER.log(Level.INFO, "Run with " + points + " points at speed " + speed + ": " + ticks + " ticks of " + tickMillis + " mS");
+        File directory = null;
+        InProcessInstanceHost host = null;
+        OpcUaClient client = null;
+        CountDownLatch stopped = new CountDownLatch( 1);
+        try {
+            directory = Files.createTempDirectory( "replay-harness").toFile();
+            File configFile = new File( directory, "nodes.csv");
+            File dataFile = new File( directory, "data.csv");
+            this.generateFiles( configFile, dataFile, points, ticks, tickMillis);
+            int port = freePort();
+            host = new InProcessInstanceHost( "harness-" + points + "-" + speed, Arrays.asList(
+                    "-mode", "player", "-configfile", configFile.getPath(), "-datafile", dataFile.getPath(),
+                    "-port", Integer.toString( port), "-uri", URI, "-namespace", NAMESPACE),
+                    exitCode -> stopped.countDown());
+            host.start();
+            client = this.connect( port);
+            int namespaceIndex = this.waitForNamespace( client, points);
+            RunResult result = new RunResult( points, speed, ticks, tickMillis);
+            this.subscribe( client, namespaceIndex, result);
+            this.play( client, namespaceIndex);
+            long expectedEnd = System.currentTimeMillis() + ticks * tickMillis;
+            result.lastSampleMillis = System.currentTimeMillis();
+            while (result.getReceivedCount() < result.getExpectedCount()) {
+                long now = System.currentTimeMillis();
+                if (now > expectedEnd && now - result.lastSampleMillis > QUIETPERIOD) {
+                    break;
+                }
+                Thread.sleep( 100);
+            }
+            return result;
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Run with " + points + " points at speed " + speed + " failed", ex);
+            return null;
+        } finally {
+            if (client != null) {
+                try {
+                    client.disconnect().get( 10, TimeUnit.SECONDS);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.WARNING, "Disconnect failed", ex);
+                }
+            }
+            if (host != null) {
+                host.stop();
+                try {
+                    stopped.await( 30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            deleteDirectory( directory);
+        }
+    }
+
+    /**
+     * Writes a node list in the recorded format and a data file with one sample per point per tick.
+     */
+    private void generateFiles( File configFile, File dataFile, int points, int ticks, long tickMillis) throws IOException {
+        try (PrintWriter config = new PrintWriter( Files.newBufferedWriter( configFile.toPath(), StandardCharsets.UTF_8))) {
+            config.println( "FullNodeName");
+            for (int point = 0; point < points; point++) {
+                config.println( nodeId( 2, point).toParseableString());
+            }
+        }
+        Instant start = Instant.parse( "2024-01-01T00:00:00Z");
+        try (PrintWriter data = new PrintWriter( Files.newBufferedWriter( dataFile.toPath(), StandardCharsets.UTF_8))) {
+            data.println( "Timestamp,Tag,Value");
+            for (int tick = 1; tick <= ticks; tick++) {
+                String timestamp = start.plusMillis( tick * tickMillis).toString();
+                for (int point = 0; point < points; point++) {
+                    data.println( timestamp + "," + nodeId( 2, point).toParseableString() + "," + tick);
+                }
+            }
+        }
+    }
+
+    private OpcUaClient connect( int port) throws Exception {
+        String endpointUrl = "opc.tcp://127.0.0.1:" + port + "/" + URI;
+        long deadline = System.currentTimeMillis() + STARTUPTIMEOUT;
+        while (true) {
+            try {
+                List<EndpointDescription> endpoints = DiscoveryClient.getEndpoints( endpointUrl).get();
+                EndpointDescription endpoint = endpoints.stream()
+                        .filter( e -> e.getSecurityPolicyUri().equals( SecurityPolicy.None.getUri()))
+                        .findFirst()
+                        .orElse( endpoints.get( 0));
+                OpcUaClientConfig config = OpcUaClientConfig.builder()
+                        .setApplicationName( LocalizedText.english( "Replay harness client"))
+                        .setApplicationUri( "urn:replay-harness:client")
+                        .setEndpoint( endpoint)
+                        .setRequestTimeout( Unsigned.uint( 60_000))
+                        .build();
+                OpcUaClient client = OpcUaClient.create( config);
+                client.connect().get();
+                return client;
+            } catch (Exception ex) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw ex;
+                }
+                Thread.sleep( 500);
+            }
+        }
+    }
+
+    /**
+     * Waits until the player namespace holds the last point, the namespace is filled after the server started.
+     * @return the index of the player namespace
+     */
+    private int waitForNamespace( OpcUaClient client, int points) throws Exception {
+        long deadline = System.currentTimeMillis() + STARTUPTIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            client.readNamespaceTable();
+            UShort namespaceIndex = client.getNamespaceTable().getIndex( NAMESPACE);
+            if (namespaceIndex != null) {
+                DataValue value = client.readValue( 0, TimestampsToReturn.Neither, nodeId( namespaceIndex.intValue(), points - 1)).get();
+                if (value.getStatusCode() != null && value.getStatusCode().isGood()) {
+                    return namespaceIndex.intValue();
+                }
+            }
+            Thread.sleep( 500);
+        }
+        throw new IllegalStateException( "Player namespace not ready within " + STARTUPTIMEOUT + " mS");
+    }
+
+    private void subscribe( OpcUaClient client, int namespaceIndex, RunResult result) throws Exception {
+        UaSubscription subscription = client.getSubscriptionManager().createSubscription( this.publishingInterval).get();
+        // the queue holds the samples of a few publishing intervals, so a sampled node loses no values
+        long queueSize = Math.max( 10, Math.round( 4 * this.publishingInterval / result.tickMillis));
+        UaSubscription.ItemCreationCallback onItemCreated =
+                (item, index) -> item.setValueConsumer( (UaMonitoredItem anItem, DataValue value) -> result.onSample( anItem.getClientHandle().intValue(), value));
+        for (int first = 0; first < result.points; first += BATCHSIZE) {
+            List<MonitoredItemCreateRequest> requests = new ArrayList<>();
+            for (int point = first; point < Math.min( result.points, first + BATCHSIZE); point++) {
+                ReadValueId readValueId = new ReadValueId( nodeId( namespaceIndex, point), AttributeId.Value.uid(), null, null);
+                // sampling interval 0 asks for the fastest sampling the server supports
+                MonitoringParameters parameters = new MonitoringParameters( Unsigned.uint( point), 0.0, null, Unsigned.uint( queueSize), true);
+                requests.add( new MonitoredItemCreateRequest( readValueId, MonitoringMode.Reporting, parameters));
+            }
+            List<UaMonitoredItem> items = subscription.createMonitoredItems( TimestampsToReturn.Both, requests, onItemCreated).get();
+            long failed = items.stream().filter( item -> !item.getStatusCode().isGood()).count();
+            if (failed > 0) {
+                LOGGER.log(Level.WARNING, failed + " monitored items could not be created");
+            }
+        }
+        LOGGER.log(Level.INFO, "Subscribed to " + result.points + " points, queue size " + queueSize);
+    }
+
+    private void play( OpcUaClient client, int namespaceIndex) throws Exception {
+        NodeId parentNodeId = new NodeId( namespaceIndex, PlayerNamespace.PLAYERCONTROLFOLDER);
+        NodeId methodNodeId = new NodeId( namespaceIndex, PlayerNamespace.PLAYERCONTROLFOLDER + "/remote-control(x)");
+        CallMethodResult result = client.call( new CallMethodRequest( parentNodeId, methodNodeId, new Variant[]{ new Variant( 1)})).get();
+        if (result.getStatusCode().isBad()) {
+            throw new IllegalStateException( "Play command failed with status " + result.getStatusCode());
+        }
+    }
+
+    private static NodeId nodeId( int namespaceIndex, int point) {
+        return new NodeId( namespaceIndex, TAGPREFIX + point);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket( 0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteDirectory( File directory) {
+        if (directory == null) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.Assets;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.DataLineParser;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementDataRecord;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPointResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolving the measurement point a data record is for with the resolver the data stream
+ * controller uses: by tag through a cache for the recorded format, by asset id and measurement point id
+ * in the flat asset list for the semicolon format.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolveBenchmark {
+
+    private static final int RECORDCOUNT = 4096;
+
+    @Param({ SyntheticData.SEMICOLONFORMAT, SyntheticData.RECORDEDFORMAT })
+    public String format;
+
+    private MeasurementPointResolver resolver;
+    private final List<MeasurementDataRecord> records = new ArrayList<>();
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.useFormat( this.format);
+        SyntheticData syntheticData = new SyntheticData();
+        Assets assets = syntheticData.assets( this.format);
+        this.resolver = new MeasurementPointResolver( assets::getFlattenedAssets, null);
+        DataLineParser parser = new DataLineParser();
+        int lineCounter = 1;
+        for (String line : syntheticData.dataLines( this.format, RECORDCOUNT)) {
+            this.records.add( parser.parse( line, lineCounter++));
+        }
+    }
+
+    @Benchmark
+    public MeasurementPoint resolve() {
+        this.index = (this.index + 1) % RECORDCOUNT;
+        MeasurementDataRecord record = this.records.get( this.index);
+        return this.resolver.resolve( record.getAssetID(), record.getMeasurementPointID(), record.getTag());
+    }
+}
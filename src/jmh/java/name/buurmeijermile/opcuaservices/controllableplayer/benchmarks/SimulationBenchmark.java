@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint;
+import net.objecthunter.exp4j.ExpressionBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of simulated measurement points that depend on each other in a chain, the first point
+ * of the chain evaluates all points after it.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int chainLength;
+
+    private MeasurementPoint head;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData syntheticData = new SyntheticData();
+        List<MeasurementPoint> chain = new ArrayList<>();
+        for (int i = 0; i < this.chainLength; i++) {
+            chain.add( syntheticData.measurementPoint( "Double"));
+        }
+        // the last point only depends on the time, every other point on the next one
+        MeasurementPoint last = chain.get( this.chainLength - 1);
+        last.setSimulationExpression( new ExpressionBuilder( "sin(2*t)*10").variables( "t").build());
+        for (int i = 0; i < this.chainLength - 1; i++) {
+            MeasurementPoint measurementPoint = chain.get( i);
+            measurementPoint.setSimulationExpression( new ExpressionBuilder( "x*0.9+sin(t)").variables( "t", "x").build());
+            measurementPoint.setDependingMeasurementPoints( Collections.singletonMap( "x", chain.get( i + 1)));
+        }
+        this.head = chain.get( 0);
+    }
+
+    @Benchmark
+    public double evaluateChain() {
+        return this.head.getSimulatedValue();
+    }
+}
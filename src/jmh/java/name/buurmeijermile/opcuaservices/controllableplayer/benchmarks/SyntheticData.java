@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.benchmarks;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.Asset;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.AssetConfigurationItem;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.Assets;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPointBuilder;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Generates the synthetic configurations, data lines and values the benchmarks run on. The data is
+ * generated from a fixed seed so runs can be compared.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class SyntheticData {
+
+    public static final String SEMICOLONFORMAT = "semicolon";
+    public static final String RECORDEDFORMAT = "recorded";
+    public static final int ASSETCOUNT = 50;
+    public static final int POINTSPERASSET = 20;
+    private static final int NAMESPACEINDEX = 2;
+    private static final long SEED = 42;
+
+    private final Random random = new Random( SEED);
+    private final LocalDateTime start = LocalDateTime.of( 2024, 1, 1, 0, 0);
+
+    /**
+     * Sets the data file format the player code under benchmark reads from the configuration.
+     * @param aFormat SEMICOLONFORMAT or RECORDEDFORMAT
+     */
+    public static void useFormat( String aFormat) {
+        Configuration.getConfiguration().setRecordedFormat( RECORDEDFORMAT.equals( aFormat));
+    }
+
+    /**
+     * @return the assets of a configuration of ASSETCOUNT assets with POINTSPERASSET measurement points each, in the given format
+     */
+    public Assets assets( String aFormat) {
+        Assets assets = new Assets();
+        for (int asset = 0; asset < ASSETCOUNT; asset++) {
+            for (int point = 0; point < POINTSPERASSET; point++) {
+                if (RECORDEDFORMAT.equals( aFormat)) {
+                    assets.addRecordedNode( new NodeId( NAMESPACEINDEX, tag( asset, point)), "Double");
+                } else {
+                    String configLine = "A" + asset + ",Area.Unit" + asset + "," + point + ",Point" + point + ",Power,Voltage,Kilo,Read,Double";
+                    assets.addAsset( AssetConfigurationItem.procesConfigLine( configLine, asset * POINTSPERASSET + point + 1));
+                }
+            }
+        }
+        return assets;
+    }
+
+    /**
+     * @return data lines in the given format, for random measurement points of the assets made by assets(), in time order
+     */
+    public List<String> dataLines( String aFormat, int count) {
+        List<String> lines = new ArrayList<>( count);
+        LocalDateTime timestamp = this.start;
+        for (int i = 0; i < count; i++) {
+            timestamp = timestamp.plusNanos( (1 + this.random.nextInt( 100)) * 1_000_000L);
+            int asset = this.random.nextInt( ASSETCOUNT);
+            int point = this.random.nextInt( POINTSPERASSET);
+            String value = String.valueOf( this.random.nextDouble() * 1000);
+            if (RECORDEDFORMAT.equals( aFormat)) {
+                String instant = timestamp.toInstant( ZoneOffset.UTC).toString();
+                lines.add( instant + "," + new NodeId( NAMESPACEINDEX, tag( asset, point)).toParseableString() + "," + value);
+            } else {
+                lines.add( "A" + asset + ";" + point + ";" + timestamp.format( MeasurementPoint.TIMESTAMP_FORMATTER) + ";" + value.replace( '.', ','));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return a measurement point of the given data type, as the configuration would create it
+     */
+    public MeasurementPoint measurementPoint( String aDataType) {
+        return new MeasurementPointBuilder()
+                .setName( aDataType + "Point")
+                .setId( "0")
+                .setPhysicalQuantity( "NoQuantity")
+                .setUnitOfMeasure( "NoUoM")
+                .setUnitPrefix( "NoPrefix")
+                .setAccessRight( "Read")
+                .setDataType( aDataType)
+                .setParentAsset( new Asset( "Benchmark", "B"))
+                .build();
+    }
+
+    /**
+     * @return value strings, as read from a data file, that are valid for the given data type
+     */
+    public List<String> values( String aDataType, int count) {
+        List<String> values = new ArrayList<>( count);
+        for (int i = 0; i < count; i++) {
+            switch (aDataType) {
+                case "Boolean":
+                    values.add( this.random.nextBoolean() ? "true" : "false");
+                    break;
+                case "Int16":
+                case "Int32":
+                    values.add( String.valueOf( this.random.nextInt( Short.MAX_VALUE)));
+                    break;
+                case "Int64":
+                    values.add( String.valueOf( this.random.nextLong()));
+                    break;
+                case "String":
+                    values.add( "state-" + this.random.nextInt( 100));
+                    break;
+                case "DateTime":
+                    values.add( this.start.plusSeconds( this.random.nextInt( 86400)).format( MeasurementPoint.TIMESTAMP_FORMATTER));
+                    break;
+                default:
+                    values.add( String.valueOf( this.random.nextDouble() * 1000));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the start of the synthetic data
+     */
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    private static String tag( int asset, int point) {
+        return "Area.Unit" + asset + ".Point" + point;
+    }
+}
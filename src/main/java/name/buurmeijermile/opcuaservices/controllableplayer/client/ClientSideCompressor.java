@@ -0,0 +1,180 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+import java.util.Arrays;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+
+/**
+ * Optional compression stage between the subscription callbacks and the sample ring,
+ * for servers that ignore the deadband filters of the monitored items.
+ * Two algorithms are supported:
+ * - deadband: a value is only passed when it differs more than the deviation from the last passed value
+ * - swinging door: a value is held back until a later value no longer fits in the corridor
+ * of +/- deviation around the line from the last archived point, the held value is then archived.
+ * Non numeric values and status changes are always passed. All state is kept in primitive
+ * arrays indexed by client handle so compressing does not allocate.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class ClientSideCompressor {
+    public static enum Algorithm { DEADBAND, SWINGINGDOOR };
+
+    private final Algorithm algorithm;
+    private final SampleRing sampleRing;
+    private final double[] deviations;
+    // state per client handle
+    private final boolean[] hasArchive;
+    private final double[] archivedValue;
+    private final long[] archivedTicks;
+    private final long[] archivedStatus;
+    private final DataValue[] heldValue;
+    private final long[] heldTicks;
+    private final double[] slopeLow;
+    private final double[] slopeHigh;
+    private long receivedCounter = 0;
+    private long passedCounter = 0;
+
+    /**
+     * @param anAlgorithm the compression algorithm
+     * @param aSampleRing the ring that receives the values that pass the compression
+     * @param theDeviations the allowed deviation per client handle, 0 or less means no compression for that handle
+     */
+    public ClientSideCompressor( Algorithm anAlgorithm, SampleRing aSampleRing, double[] theDeviations) {
+        this.algorithm = anAlgorithm;
+        this.sampleRing = aSampleRing;
+        this.deviations = theDeviations;
+        int size = theDeviations.length;
+        this.hasArchive = new boolean[ size];
+        this.archivedValue = new double[ size];
+        this.archivedTicks = new long[ size];
+        this.archivedStatus = new long[ size];
+        this.heldValue = new DataValue[ size];
+        this.heldTicks = new long[ size];
+        this.slopeLow = new double[ size];
+        this.slopeHigh = new double[ size];
+        Arrays.fill( slopeLow, Double.NEGATIVE_INFINITY);
+        Arrays.fill( slopeHigh, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Feeds a received value through the compression, values that pass are offered to the sample ring.
+     * @param clientHandle the client handle of the monitored item
+     * @param value the received value
+     */
+    public synchronized void onValue( long clientHandle, DataValue value) {
+        receivedCounter++;
+        int handle = (int) clientHandle;
+        Object object = value.getValue().getValue();
+        DateTime serverTime = value.getServerTime();
+        StatusCode status = value.getStatusCode();
+        long statusValue = status != null ? status.getValue() : 0L;
+        if (handle < 0 || handle >= deviations.length || deviations[ handle] <= 0.0
+                || !(object instanceof Number) || serverTime == null
+                || (hasArchive[ handle] && statusValue != archivedStatus[ handle])) {
+            // not compressible or a status change, flush what is held and pass the value unchanged
+            if (handle >= 0 && handle < deviations.length) {
+                this.flushHeld( handle);
+                this.archive( handle, object instanceof Number ? ((Number) object).doubleValue() : Double.NaN,
+                        serverTime != null ? serverTime.getUtcTime() : 0L, statusValue);
+            }
+            this.pass( clientHandle, value);
+            return;
+        }
+        double newValue = ((Number) object).doubleValue();
+        long newTicks = serverTime.getUtcTime();
+        if (!hasArchive[ handle] || Double.isNaN( archivedValue[ handle])) {
+            this.archive( handle, newValue, newTicks, statusValue);
+            this.pass( clientHandle, value);
+            return;
+        }
+        double deviation = deviations[ handle];
+        if (algorithm == Algorithm.DEADBAND) {
+            if (Math.abs( newValue - archivedValue[ handle]) > deviation) {
+                this.archive( handle, newValue, newTicks, statusValue);
+                this.pass( clientHandle, value);
+            }
+            return;
+        }
+        // swinging door
+        long deltaTicks = newTicks - archivedTicks[ handle];
+        if (deltaTicks <= 0) {
+            return; // same or older timestamp than the archived point adds nothing to the trend
+        }
+        double low = Math.max( slopeLow[ handle], (newValue - deviation - archivedValue[ handle]) / deltaTicks);
+        double high = Math.min( slopeHigh[ handle], (newValue + deviation - archivedValue[ handle]) / deltaTicks);
+        if (low > high && heldValue[ handle] != null) {
+            // the doors opened too far, archive the held point and restart the corridor from there
+            DataValue held = heldValue[ handle];
+            this.archive( handle, ((Number) held.getValue().getValue()).doubleValue(), heldTicks[ handle], statusValue);
+            this.pass( clientHandle, held);
+            deltaTicks = newTicks - archivedTicks[ handle];
+            if (deltaTicks > 0) {
+                slopeLow[ handle] = (newValue - deviation - archivedValue[ handle]) / deltaTicks;
+                slopeHigh[ handle] = (newValue + deviation - archivedValue[ handle]) / deltaTicks;
+            }
+        } else {
+            slopeLow[ handle] = low;
+            slopeHigh[ handle] = high;
+        }
+        heldValue[ handle] = value;
+        heldTicks[ handle] = newTicks;
+    }
+
+    /**
+     * Passes all values still held back by the swinging door, to be called when recording stops.
+     */
+    public synchronized void flush() {
+        for (int handle = 0; handle < heldValue.length; handle++) {
+            this.flushHeld( handle);
+        }
+    }
+
+    private void flushHeld( int handle) {
+        DataValue held = heldValue[ handle];
+        if (held != null) {
+            heldValue[ handle] = null;
+            this.pass( handle, held);
+        }
+    }
+
+    private void archive( int handle, double value, long ticks, long status) {
+        hasArchive[ handle] = true;
+        archivedValue[ handle] = value;
+        archivedTicks[ handle] = ticks;
+        archivedStatus[ handle] = status;
+        heldValue[ handle] = null;
+        slopeLow[ handle] = Double.NEGATIVE_INFINITY;
+        slopeHigh[ handle] = Double.POSITIVE_INFINITY;
+    }
+
+    private void pass( long clientHandle, DataValue value) {
+        passedCounter++;
+        sampleRing.offer( clientHandle, value);
+    }
+
+    /**
+     * @return the number of values fed into the compressor
+     */
+    public synchronized long getReceivedCount() {
+        return receivedCounter;
+    }
+
+    /**
+     * @return the number of values passed on to the sample ring
+     */
+    public synchronized long getPassedCount() {
+        return passedCounter;
+    }
+
+    /**
+     * @return the algorithm
+     */
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+}
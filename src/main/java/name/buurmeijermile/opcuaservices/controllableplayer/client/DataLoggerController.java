@@ -9,75 +9,133 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.FlightRecorderEvents;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsRegistry;
 import name.buurmeijermile.opcuaservices.utils.Waiter;
-import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
-import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
-import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 
 /**
  *
  * @author Milé Buurmeijer <mbuurmei at netscape.net>
  */
 public class DataLoggerController {
+    private static final String HEADER = "Timestamp, Tag, Value\n";
+    private static final String MULTISERVERHEADER = "Timestamp, Tag, Value, Server\n";
+    private static final String MANIFESTSUFFIX = "-manifest.json";
     private BufferedWriter bufferedWriter = null;
     private final File outputFile;
     private final Logger logger = Logger.getLogger(DataLoggerController.class.getName());
-    private final Deque<Sample> sampleList;
-    private boolean continueWriting = true;
+    private final SampleRing sampleRing;
+    private final String[] tagsByClientHandle;
+    private final String[] serversByClientHandle;
+    private final String header;
+    private final StringBuilder lineBuilder = new StringBuilder( 128);
+    private char[] lineChars = new char[ 128];
+    private final Queue<GapRecord> gapRecords = new ConcurrentLinkedQueue<>();
+    private volatile boolean continueWriting = true;
     private boolean setup = false;
     private volatile long counter = 0;
     private long recordStartTime = 0;
     private long lastMetricsTime = 0;
     private long lastMetricsCounter = 0;
     private ScheduledExecutorService metricsScheduler = null;
+    private Thread writingThread = null;
+    // segment rotation settings and state, only used when segmented recording is configured
+    private final boolean segmented;
+    private final long segmentMaxBytes;
+    private final Duration segmentInterval;
+    private final List<RecordingSegment> finishedSegments = new ArrayList<>();
+    private RecordingSegment currentSegment = null;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
     
-    public DataLoggerController( Deque<Sample> aSampleList) {
-        this.outputFile = Configuration.getConfiguration().getDataFile();
-        this.sampleList = aSampleList;
+    /**
+     * @param aSampleRing the ring the subscription callbacks copy the received samples into
+     * @param aTagsByClientHandle the parseable node id string of each monitored item indexed by its client handle
+     * @param aServersByClientHandle the uri of the source server of each monitored item indexed by its client handle,
+     * null when recording from a single server in which case the server column is left out
+     */
+    public DataLoggerController( SampleRing aSampleRing, String[] aTagsByClientHandle, String[] aServersByClientHandle) {
+        Configuration configuration = Configuration.getConfiguration();
+        this.outputFile = configuration.getDataFile();
+        this.sampleRing = aSampleRing;
+        this.tagsByClientHandle = aTagsByClientHandle;
+        this.serversByClientHandle = aServersByClientHandle;
+        this.header = aServersByClientHandle != null ? MULTISERVERHEADER : HEADER;
+        this.segmented = configuration.isSegmentedRecording();
+        this.segmentMaxBytes = configuration.getSegmentMaxBytes();
+        this.segmentInterval = configuration.getSegmentInterval();
+        this.registerMetrics();
+        // samples dropped by a full ring leave a gap in the recording, just like a lost connection
+        this.sampleRing.setOverflowListener( (from, to, droppedCount) ->
+                this.writeGapRecord( from, to, "sample ring of " + this.sampleRing.capacity() + " slots full: " + droppedCount + " samples dropped"));
+    }
+
+    /**
+     * The recorder metrics read the counters the writing thread and the ring keep anyway.
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        String instance = MetricsRegistry.currentInstance();
+        registry.counter( "opcua_recorder_samples_written_total", "Samples written to the recording", () -> this.counter, MetricsRegistry.INSTANCELABEL, instance);
+        registry.counter( "opcua_recorder_samples_dropped_total", "Samples dropped because the sample ring was full", this.sampleRing::getDroppedCount, MetricsRegistry.INSTANCELABEL, instance);
+        registry.gauge( "opcua_recorder_ring_size", "Samples received but not yet written", this.sampleRing::size, MetricsRegistry.INSTANCELABEL, instance);
+        registry.gauge( "opcua_recorder_ring_capacity", "Slots of the sample ring", this.sampleRing::capacity, MetricsRegistry.INSTANCELABEL, instance);
     }
     
     public void startWriting() {
         try {
             logger.log(Level.INFO, "Starting up output file writing");
             this.continueWriting = true;
-            this.bufferedWriter = new BufferedWriter( new FileWriter( outputFile));
-            this.writeHeader( bufferedWriter);
+            if (segmented) {
+                this.finishedSegments.clear();
+                this.openSegment();
+            } else {
+                this.bufferedWriter = new BufferedWriter( new FileWriter( outputFile));
+                this.writeHeader( bufferedWriter);
+            }
             this.recordStartTime = System.currentTimeMillis();
             this.lastMetricsTime = this.recordStartTime;
             this.lastMetricsCounter = 0;
             this.startMetricsScheduler();
             DataLoggerController thisController  = this;
-            Thread writingThread = new Thread() {
-                @Override
-                public void run() {
-                    thisController.continueWriting();
-                }
-            };
-            writingThread.start();
+            writingThread = new Thread( Configuration.withCurrentConfiguration( () -> thisController.continueWriting()));
             this.setup = true;
+            writingThread.start();
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Can't create the output file", ex);
         }
     }
     
     private void writeHeader( BufferedWriter bufferedWriter) throws IOException {
-        String header = "Timestamp, Tag, Value\n";
         bufferedWriter.append(header);
     }
     
     private synchronized void startMetricsScheduler() {
         stopMetricsScheduler();
         metricsScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "RecordingMetricsLogger");
+            Thread t = new Thread(Configuration.withCurrentConfiguration(r), "RecordingMetricsLogger");
             t.setDaemon(true);
             return t;
         });
@@ -112,6 +170,10 @@ public class DataLoggerController {
         logger.log(Level.INFO, 
             String.format("Recording progress - Total lines processed: %d (average: %.1f lines/min, current: %.1f lines/min)", 
                 counter, totalRate, intervalRate));
+        long dropped = sampleRing.getDroppedCount();
+        if (dropped > 0) {
+            logger.log(Level.WARNING, "Sample ring of " + sampleRing.capacity() + " slots overflowed, samples dropped so far: " + dropped);
+        }
         
         lastMetricsTime = now;
         lastMetricsCounter = counter;
@@ -119,54 +181,252 @@ public class DataLoggerController {
 
     public void continueWriting() {
         logger.log( Level.INFO, "Entering continue writing method");
+        long drainStart = 0; // start of writing the samples that are in the ring
+        long drainCount = 0; // samples written since the ring was last empty
         while (setup && continueWriting) {
-            if ( !this.sampleList.isEmpty()) {
+            GapRecord gapRecord = this.gapRecords.peek();
+            if (gapRecord != null && this.sampleRing.getReadSequence() >= gapRecord.ringSequence) {
+                // all samples received before the gap was closed are written, now write the gap itself
+                this.writeGap( gapRecords.poll());
+                continue;
+            }
+            SampleSlot aSlot = this.sampleRing.peek(); // peeks at the head of the ring
+            if ( aSlot != null) {
+                if (drainCount++ == 0) {
+                    drainStart = System.nanoTime();
+                }
                 counter++;
-                Sample aSample = this.sampleList.peek(); // peeks at the head of the queue
-                this.writeSample( aSample);
-                // remove the just written sample from the head of the queue
-                this.sampleList.remove(); 
+                this.writeSample( aSlot);
+                // hand the just written slot back to the ring
+                this.sampleRing.release();
                 if (counter%100==0) {
-                    int queueSize = this.sampleList.size();
+                    int queueSize = this.sampleRing.size();
                     logger.log( Level.INFO, "The current queue size = " +  queueSize);
                 }
             } else {
+                if (drainCount > 0) {
+                    FlightRecorderEvents.recorderDrain( drainCount, System.nanoTime() - drainStart);
+                    drainCount = 0;
+                }
                 Waiter.waitMilliseconds(10); // wait for 10 mS till there are more samples in the queue
             }
+            if (segmented) {
+                this.rotateSegmentIfNeeded();
+            }
         }
     }
     
     public void stopWriting() {
         try {
             logger.log(Level.INFO, "Stopping with output file writing");
-            this.continueWriting = false;
             this.stopMetricsScheduler();
+            // give the writing thread the chance to drain the queue before it is stopped
             LocalDateTime stopWritingCommandTimestamp = LocalDateTime.now();
-            while (!this.sampleList.isEmpty() && !Waiter.hasTimePassed(stopWritingCommandTimestamp, Duration.ofSeconds( 10))) {
+            while (!this.sampleRing.isEmpty() && !Waiter.hasTimePassed(stopWritingCommandTimestamp, Duration.ofSeconds( 10))) {
                 Waiter.waitMilliseconds( 500); // do nothing && wait 500mS
             }
-            this.bufferedWriter.close();
-            logger.log(Level.INFO, "Output file closed");
+            this.continueWriting = false;
+            if (writingThread != null) {
+                // the writer is only used by this thread once the writing thread has ended
+                writingThread.join();
+                writingThread = null;
+            }
+            // gap records that are still pending are written at the end, including a ring overflow that has not ended yet
+            this.sampleRing.endOverflow();
+            GapRecord gapRecord;
+            while ((gapRecord = gapRecords.poll()) != null) {
+                this.writeGap( gapRecord);
+            }
+            if (segmented) {
+                this.finishSegment();
+                logger.log(Level.INFO, "Output segments closed, " + finishedSegments.size() + " segments listed in " + this.getManifestFile().getName());
+            } else {
+                this.closeOutput( outputFile.getName());
+                logger.log(Level.INFO, "Output file closed");
+            }
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "Exception occured during clsing the output file", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted while waiting for the writing thread to end", ex);
         }
     }
 
-    private void writeSample(Sample aSample) {
+    private void writeSample(SampleSlot aSlot) {
         try {
-            NodeId nodeId = aSample.getNodeId();
-            DataValue value = aSample.getValue();
-            DateTime timestamp = value.getServerTime();
-            String timestampString;
-            if (timestamp != null) {
-                timestampString = timestamp.getJavaInstant().toString();
+            lineBuilder.setLength( 0);
+            // the timestamp is formatted straight into the line, the steady state allocates nothing
+            if (aSlot.getServerTimeTicks() != 0L) {
+                UtcTicksFormat.append( lineBuilder, aSlot.getServerTimeTicks());
             } else {
-                timestampString = "null";
+                lineBuilder.append( "null");
+            }
+            lineBuilder.append( ", ");
+            lineBuilder.append( this.getTag( aSlot.getClientHandle())).append( ", ");
+            aSlot.appendValue( lineBuilder);
+            if (serversByClientHandle != null) {
+                lineBuilder.append( ", ").append( this.getServer( aSlot.getClientHandle()));
+            }
+            lineBuilder.append( '\n');
+            // copied into a reused buffer, appending the builder to the writer would turn it into a new string
+            int length = lineBuilder.length();
+            if (length > lineChars.length) {
+                lineChars = new char[ Math.max( length, 2 * lineChars.length)];
+            }
+            lineBuilder.getChars( 0, length, lineChars, 0);
+            this.bufferedWriter.write( lineChars, 0, length);
+            if (segmented) {
+                currentSegment.addSample( aSlot.getServerTimeTicks(), length);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Queues a gap record that marks a period in which no data could be recorded. It is written
+     * as comment line, which the player skips, after all samples received before this call.
+     * @param from the start of the gap
+     * @param to the end of the gap
+     * @param reason the reason of the gap
+     */
+    public void writeGapRecord( Instant from, Instant to, String reason) {
+        String line = "# GAP, from=" + from + ", to=" + to + ", duration=" + Duration.between( from, to) + ", reason=" + reason + "\n";
+        gapRecords.add( new GapRecord( sampleRing.getWriteSequence(), line));
+    }
+
+    private void writeGap( GapRecord gapRecord) {
+        try {
+            this.bufferedWriter.write( gapRecord.line);
+            if (segmented) {
+                currentSegment.addGap( gapRecord.line.length());
             }
-            String outputFormat = value.getServerTime().getJavaInstant() + ", " + nodeId.toParseableString() + ", " + value.getValue().getValue();
-            this.bufferedWriter.write( outputFormat + "\n");
         } catch (IOException ex) {
             logger.log(Level.SEVERE, null, ex);
         }
     }
+
+    private String getTag( long clientHandle) {
+        if (clientHandle >= 0 && clientHandle < tagsByClientHandle.length && tagsByClientHandle[ (int) clientHandle] != null) {
+            return tagsByClientHandle[ (int) clientHandle];
+        }
+        return "unknown-handle-" + clientHandle;
+    }
+
+    private String getServer( long clientHandle) {
+        if (clientHandle >= 0 && clientHandle < serversByClientHandle.length && serversByClientHandle[ (int) clientHandle] != null) {
+            return serversByClientHandle[ (int) clientHandle];
+        }
+        return "unknown-server";
+    }
+
+    /**
+     * Rolls over to a new segment when the current one exceeds its size or wall clock
+     * bound. Empty segments are never rolled over so that idle periods don't produce
+     * a trail of header only files.
+     */
+    private void rotateSegmentIfNeeded() {
+        if (currentSegment == null || currentSegment.getSampleCount() == 0) {
+            return;
+        }
+        boolean sizeExceeded = segmentMaxBytes > 0 && currentSegment.getSizeInBytes() >= segmentMaxBytes;
+        boolean intervalExceeded = segmentInterval != null && currentSegment.getAgeMillis() >= segmentInterval.toMillis();
+        if (sizeExceeded || intervalExceeded) {
+            try {
+                this.finishSegment();
+                this.openSegment();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Can't roll over to the next output segment", ex);
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        int sequenceNumber = finishedSegments.size() + 1;
+        currentSegment = new RecordingSegment( sequenceNumber, this.getSegmentFile( sequenceNumber));
+        this.bufferedWriter = new BufferedWriter( new FileWriter( currentSegment.getPartFile()));
+        this.writeHeader( bufferedWriter);
+        currentSegment.addBytes( header.length());
+        logger.log(Level.INFO, "Opened output segment " + currentSegment.getPartFile().getName());
+    }
+
+    /**
+     * Closes the current segment, moves it atomically to its final name and republishes
+     * the manifest. A segment file under its final name is therefore always complete.
+     * @throws IOException
+     */
+    private void finishSegment() throws IOException {
+        if (currentSegment == null) {
+            return;
+        }
+        this.closeOutput( currentSegment.getPartFile().getName());
+        currentSegment.close();
+        this.atomicMove( currentSegment.getPartFile().toPath(), currentSegment.getFinalFile().toPath());
+        finishedSegments.add( currentSegment);
+        logger.log(Level.INFO, "Finished output segment " + currentSegment.getFileName() + " with " + currentSegment.getSampleCount() + " samples");
+        currentSegment = null;
+        this.writeManifest();
+    }
+
+    /**
+     * Flushes and closes the current output file.
+     * @param fileName the name of the output file
+     * @throws IOException
+     */
+    private void closeOutput( String fileName) throws IOException {
+        long flushStart = System.nanoTime();
+        this.bufferedWriter.close();
+        FlightRecorderEvents.recorderFlush( fileName, System.nanoTime() - flushStart);
+    }
+
+    private void writeManifest() throws IOException {
+        Map<String, Object> manifest = new HashMap<>();
+        manifest.put("dataFile", outputFile.getName());
+        manifest.put("segmentCount", finishedSegments.size());
+        manifest.put("sampleCount", finishedSegments.stream().mapToLong( RecordingSegment::getSampleCount).sum());
+        manifest.put("segments", finishedSegments);
+        File manifestFile = this.getManifestFile();
+        File tmpManifestFile = new File( manifestFile.getParentFile(), manifestFile.getName() + ".part");
+        try (Writer writer = Files.newBufferedWriter( tmpManifestFile.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson( manifest, writer);
+        }
+        this.atomicMove( tmpManifestFile.toPath(), manifestFile.toPath());
+    }
+
+    private void atomicMove( Path source, Path target) throws IOException {
+        try {
+            Files.move( source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move( source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param sequenceNumber the sequence number of the segment
+     * @return the data file name with the sequence number inserted before its extension
+     */
+    private File getSegmentFile( int sequenceNumber) {
+        String name = outputFile.getName();
+        int dotIndex = name.lastIndexOf('.');
+        String baseName = dotIndex > 0 ? name.substring( 0, dotIndex) : name;
+        String extension = dotIndex > 0 ? name.substring( dotIndex) : "";
+        return new File( outputFile.getAbsoluteFile().getParentFile(), String.format( "%s-%05d%s", baseName, sequenceNumber, extension));
+    }
+
+    private File getManifestFile() {
+        String name = outputFile.getName();
+        int dotIndex = name.lastIndexOf('.');
+        String baseName = dotIndex > 0 ? name.substring( 0, dotIndex) : name;
+        return new File( outputFile.getAbsoluteFile().getParentFile(), baseName + MANIFESTSUFFIX);
+    }
+
+    private static class GapRecord {
+        private final long ringSequence;
+        private final String line;
+
+        private GapRecord( long aRingSequence, String aLine) {
+            this.ringSequence = aRingSequence;
+            this.line = aLine;
+        }
+    }
 }
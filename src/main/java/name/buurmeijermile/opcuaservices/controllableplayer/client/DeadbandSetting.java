@@ -0,0 +1,93 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DeadbandType;
+import org.eclipse.milo.opcua.stack.core.types.structured.DataChangeFilter;
+
+/**
+ * Deadband filter setting of a monitored item, either the global one from the command
+ * line or a per node override from the node list config file.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class DeadbandSetting {
+    public static final DeadbandSetting NONE = new DeadbandSetting( DeadbandType.None, 0.0);
+
+    private final DeadbandType type;
+    private final double value;
+
+    public DeadbandSetting( DeadbandType aType, double aValue) {
+        this.type = aType;
+        this.value = aValue;
+    }
+
+    /**
+     * @param typeString "none", "absolute" or "percent", case insensitive
+     * @param aValue the deadband value
+     * @return the matching setting or null if the type string is not recognized
+     */
+    public static DeadbandSetting parse( String typeString, double aValue) {
+        if (typeString == null) {
+            return null;
+        }
+        switch (typeString.trim().toLowerCase()) {
+            case "none":
+                return NONE;
+            case "absolute":
+                return new DeadbandSetting( DeadbandType.Absolute, aValue);
+            case "percent":
+                return new DeadbandSetting( DeadbandType.Percent, aValue);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if this setting actually filters value changes
+     */
+    public boolean isActive() {
+        return type != DeadbandType.None && value > 0.0;
+    }
+
+    /**
+     * @param context the serialization context of the client
+     * @return the encoded data change filter for the monitoring parameters, or null for no filter
+     */
+    public ExtensionObject toFilter( SerializationContext context) {
+        if (!this.isActive()) {
+            return null; // null means the server uses its default filter
+        }
+        DataChangeFilter filter = new DataChangeFilter(
+                DataChangeTrigger.StatusValue,
+                Unsigned.uint( type.getValue()),
+                value
+        );
+        return ExtensionObject.encode( context, filter);
+    }
+
+    /**
+     * @return the type
+     */
+    public DeadbandType getType() {
+        return type;
+    }
+
+    /**
+     * @return the value
+     */
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + value + ")";
+    }
+}
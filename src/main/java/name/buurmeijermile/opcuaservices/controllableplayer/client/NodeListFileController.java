@@ -11,16 +11,17 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeConfig;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeConfigReader;
 
 /**
  *
@@ -30,6 +31,15 @@ public class NodeListFileController {
 
     private File configFile;
     private Logger logger = Logger.getLogger(NodeListFileController.class.getName());
+    private final Map<NodeId, DeadbandSetting> deadbandSettings = new HashMap<>();
+
+    /**
+     * Reads the node list from the given file, used when recording from more servers that each have their own node list.
+     * @param aConfigFile the node list file to read
+     */
+    public NodeListFileController( File aConfigFile) {
+        configFile = aConfigFile;
+    }
 
     public NodeListFileController() {
         boolean captureNodeList = Configuration.getConfiguration().isCaptureInformationModel();
@@ -46,7 +56,7 @@ public class NodeListFileController {
                 if (!isCreated) {
                     configFile = null;
                     logger.log(Level.SEVERE, "Can not create the configuration file");
-                    System.exit(Configuration.ExitCode.CONFIGFILEEXISTS.ordinal());
+                    Configuration.getConfiguration().exit(Configuration.ExitCode.CONFIGFILEEXISTS.ordinal());
                 }
             } catch (IOException ex) {
                 logger.log(Level.SEVERE, "IO error occured when working with the config file", ex);
@@ -83,34 +93,34 @@ public class NodeListFileController {
             return nodeIdList;
         }
         if (this.configFile.getName().endsWith(".json")) {
-            try (FileReader fileReader = new FileReader(this.configFile)) {
-                Gson gson = new Gson();
-                java.lang.reflect.Type listType = new TypeToken<List<OpcNodeConfig>>(){}.getType();
-                List<OpcNodeConfig> configs = gson.fromJson(fileReader, listType);
-                if (configs != null) {
-                    for (OpcNodeConfig config : configs) {
-                        if (config.nodeClass != null && config.nodeClass.equalsIgnoreCase("Variable")) {
-                            boolean isProperty = false;
-                            if (config.typeDefinition != null && (config.typeDefinition.equals("ns=0;i=68") || config.typeDefinition.endsWith("i=68"))) {
-                                isProperty = true;
-                            } else if (config.references != null) {
-                                for (OpcNodeConfig.OpcReference ref : config.references) {
-                                    if (!ref.isForward && (ref.referenceTypeId.equals("ns=0;i=46") || ref.referenceTypeId.endsWith("i=46"))) {
-                                        isProperty = true;
-                                        break;
-                                    }
+            try {
+                // streamed, only the node ids of the variables are kept
+                new OpcNodeConfigReader(this.configFile).forEach( config -> {
+                    if (config.nodeClass != null && config.nodeClass.equalsIgnoreCase("Variable")) {
+                        boolean isProperty = false;
+                        if (config.typeDefinition != null && (config.typeDefinition.equals("ns=0;i=68") || config.typeDefinition.endsWith("i=68"))) {
+                            isProperty = true;
+                        } else if (config.references != null) {
+                            for (OpcNodeConfig.OpcReference ref : config.references) {
+                                if (!ref.isForward && (ref.referenceTypeId.equals("ns=0;i=46") || ref.referenceTypeId.endsWith("i=46"))) {
+                                    isProperty = true;
+                                    break;
                                 }
                             }
-                            if (!isProperty && config.nodeId != null) {
-                                try {
-                                    nodeIdList.add(NodeId.parse(config.nodeId));
-                                } catch (Exception ex) {
-                                    logger.log(Level.WARNING, "Failed to parse NodeId: " + config.nodeId, ex);
+                        }
+                        if (!isProperty && config.nodeId != null) {
+                            try {
+                                NodeId aNodeId = NodeId.parse(config.nodeId);
+                                nodeIdList.add(aNodeId);
+                                if (config.deadbandType != null) {
+                                    this.addDeadbandSetting( aNodeId, config.deadbandType, config.deadbandValue != null ? config.deadbandValue.toString() : "0");
                                 }
+                            } catch (Exception ex) {
+                                logger.log(Level.WARNING, "Failed to parse NodeId: " + config.nodeId, ex);
                             }
                         }
                     }
-                }
+                });
             } catch (Exception ex) {
                 logger.log(Level.SEVERE, "Error reading JSON config file", ex);
             }
@@ -121,8 +131,17 @@ public class NodeListFileController {
                 BufferedReader bufferedReader = new BufferedReader( fileReader);
                 this.readHeader( bufferedReader);
                 bufferedReader.lines().forEach( line -> {
-                    NodeId aNodeId = NodeId.parse(line);
-                    nodeIdList.add(aNodeId);
+                    // optional per node deadband: '<node id>, <deadband type>, <deadband value>'
+                    String[] items = line.split(",");
+                    if (items.length >= 3 && DeadbandSetting.parse( items[ items.length - 2], 0.0) != null) {
+                        int cut = line.lastIndexOf( ',', line.lastIndexOf( ',') - 1);
+                        NodeId aNodeId = NodeId.parse( line.substring( 0, cut).trim());
+                        nodeIdList.add(aNodeId);
+                        this.addDeadbandSetting( aNodeId, items[ items.length - 2], items[ items.length - 1]);
+                    } else {
+                        NodeId aNodeId = NodeId.parse(line);
+                        nodeIdList.add(aNodeId);
+                    }
                 });
             } catch (Exception ex) {
                 logger.log( Level.SEVERE, "Error reading from the config file", ex);
@@ -138,6 +157,26 @@ public class NodeListFileController {
         }
         return nodeIdList;
     } 
+
+    /**
+     * @return the per node deadband overrides found while reading the node list config file
+     */
+    public Map<NodeId, DeadbandSetting> getDeadbandSettings() {
+        return deadbandSettings;
+    }
+
+    private void addDeadbandSetting( NodeId aNodeId, String typeString, String valueString) {
+        try {
+            DeadbandSetting setting = DeadbandSetting.parse( typeString, Double.parseDouble( valueString.trim()));
+            if (setting != null) {
+                deadbandSettings.put( aNodeId, setting);
+            } else {
+                logger.log(Level.WARNING, "Unknown deadband type '" + typeString + "' for node " + aNodeId + ", global setting is used");
+            }
+        } catch (NumberFormatException nfe) {
+            logger.log(Level.WARNING, "Wrong deadband value '" + valueString + "' for node " + aNodeId + ", global setting is used");
+        }
+    }
     
     private void writeNodeName( FileWriter theFileWriter, String fullNodeName) {
         try {
@@ -5,57 +5,49 @@
  */
 package name.buurmeijermile.opcuaservices.controllableplayer.client;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.cert.CertificateEncodingException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
-import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
 import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
-import org.eclipse.milo.opcua.stack.core.Stack;
-import org.eclipse.milo.opcua.stack.core.UaException;
-import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
-import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.ApplicationType;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DeadbandType;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.UserTokenType;
-import org.eclipse.milo.opcua.stack.core.types.structured.ApplicationDescription;
 import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePath;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePathResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePathTarget;
 import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
-import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
 import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
 import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
-import org.eclipse.milo.opcua.stack.core.types.structured.UserTokenPolicy;
+import org.eclipse.milo.opcua.stack.core.types.structured.RelativePath;
+import org.eclipse.milo.opcua.stack.core.types.structured.RelativePathElement;
 import org.eclipse.milo.opcua.stack.core.util.ConversionUtil;
 
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
@@ -65,7 +57,6 @@ import org.eclipse.milo.opcua.stack.core.types.enumerated.IdType;
 import static org.eclipse.milo.opcua.stack.core.types.enumerated.IdType.Numeric;
 import static org.eclipse.milo.opcua.stack.core.types.enumerated.IdType.String;
 import static name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration.ExitCode.CONNECTIONFAILED;
-import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
@@ -86,18 +77,13 @@ import org.eclipse.milo.opcua.stack.core.types.structured.EUInformation;
  */
 public class RecorderClient {
 
-    private static final String CLIENTAPPLICATIONNAME = "Smiles OPC-UA client";
-    private static final String CLIENTAPPLICATIONURI = "urn:smiles:player:examples:client" + UUID.randomUUID();
-
-    private static final String SERVERAPPLICATIONURI = "urn:SmileSoft:OPCUA:playerserver";
     private static final String VERSION = "0.5.5";
-    private static final String PRODUCTURI = "urn:SmileSoft:OPCUA:player-server";
     private static final String SERVERNAME = "OPCUA-Player";
 
     private final Logger logger = Logger.getLogger(RecorderClient.class.getName());
 
     private final AtomicLong clientHandleIdCounter = new AtomicLong(1L);
-    private long valueUpdatedCounter = 0;
+    private final AtomicLong valueUpdatedCounter = new AtomicLong(0);
     
     private final Map<String, String> propertyNodeIdMap = new java.util.HashMap<>();
     private int propertyCounter = 0;
@@ -108,8 +94,9 @@ public class RecorderClient {
     private OpcUaClient client;
     private Configuration configuration = Configuration.getConfiguration();
     private NodeListFileController nodeListFileController;
-    private int monitoredItemQueueSize = 10_000; // default queue size
-    private Deque<Sample> sampleQueue = new ConcurrentLinkedDeque<>();
+    private final SampleRing sampleRing = new SampleRing( configuration.getSampleRingCapacity());
+    private ClientSideCompressor clientSideCompressor = null;
+    private final List<RecorderSession> sessions = new ArrayList<>();
 
     public RecorderClient() {
         client = null;
@@ -118,73 +105,25 @@ public class RecorderClient {
             Files.createDirectories(securityTempDir);
             if (!Files.exists(securityTempDir)) {
                 logger.log(Level.SEVERE, "temp dir does not exist");
-                System.exit(ExitCode.TMPDIRFAILS.ordinal());
+                configuration.exit(ExitCode.TMPDIRFAILS.ordinal());
             } else {
                 logger.log(Level.INFO, "security temp dir: " + securityTempDir.toAbsolutePath());
             }
 
             KeystoreLoader loader = new KeystoreLoader().load(securityTempDir);
 
-            // create the application description of the server from where we want to record the data
-            ApplicationDescription applicationDescription
-                    = new ApplicationDescription(
-                            SERVERAPPLICATIONURI,
-                            PRODUCTURI,
-                            LocalizedText.english("Smiles"),
-                            ApplicationType.Server,
-                            null,
-                            null,
-                            null
-                    );
-            // create appropriate use token policy, currently only anonymous is supported
-            // TODO: make this configurable
-            UserTokenPolicy[] userTokenPolicies = {new UserTokenPolicy("anonymous", UserTokenType.Anonymous, null, null, null)};
-            // create end point description of the target OPC UA server
-            String serverUri = configuration.getUri();
-            EndpointDescription endpoint
-                    = new EndpointDescription(
-                            serverUri,
-                            applicationDescription,
-                            new ByteString(loader.getClientCertificate().getEncoded()),
-                            MessageSecurityMode.None,
-                            SecurityPolicy.None.getUri(),
-                            userTokenPolicies,
-                            Stack.TCP_UASC_UABINARY_TRANSPORT_URI,
-                            UByte.valueOf(0)
-                    );
-
-            OpcUaClientConfig config = OpcUaClientConfig.builder()
-                    .setApplicationName(LocalizedText.english(CLIENTAPPLICATIONNAME))
-                    .setApplicationUri(CLIENTAPPLICATIONURI)
-                    .setEndpoint(endpoint)
-                    //                .setIdentityProvider( new UsernameProvider("user","8h5%32@!~"))
-                    .setRequestTimeout(Unsigned.uint(5000))
-                    .setCertificate(loader.getClientCertificate())
-                    .setKeyPair(loader.getClientKeyPair())
-                    .build();
-            
-            logger.log(Level.INFO, "Before creating the OPC UA client");
-            client = OpcUaClient.create(config);
-            logger.log(Level.INFO, "After the OPC UA client is created");
-        } catch (UaException | CertificateEncodingException | IOException ex) {
+            // create a session per server to record from, they share the Milo stack's event loop and executor
+            for (String serverUri : configuration.getUris()) {
+                sessions.add( new RecorderSession( serverUri, loader));
+            }
+            // capturing the information model is done from the first server
+            client = sessions.get(0).getClient();
+        } catch (IOException ex) {
             logger.log(Level.SEVERE, "Exception occured in creating the client", ex);
             client = null;
         }
     }
 
-    private void connect() {
-        if (client != null) {
-            try {
-                client.connect().get();
-            } catch (InterruptedException | ExecutionException ex) {
-                logger.log(Level.SEVERE, "Connecting of client failed", ex);
-                System.exit(CONNECTIONFAILED.ordinal());
-            }
-        } else {
-            logger.log(Level.SEVERE, "Can not connect, because client is null");
-        }
-    }
-
     private java.util.concurrent.CompletableFuture<DataValue> readAttribute(NodeId nodeId, AttributeId attributeId) {
         ReadValueId readValueId = new ReadValueId(
             nodeId,
@@ -207,14 +146,28 @@ public class RecorderClient {
     }
     
     public void start() {
-        this.connect();
-        nodeListFileController = new NodeListFileController();
         if ( configuration.isCaptureInformationModel()) {
+            if (!sessions.get(0).connect()) {
+                configuration.exit(CONNECTIONFAILED.ordinal());
+            }
+            nodeListFileController = new NodeListFileController();
             this.getServerConfiguration();
         } else {
-            this.recordServerData();
+            // connect to all servers, servers that can not be reached are left out of the recording
+            List<RecorderSession> connectedSessions = new ArrayList<>();
+            for (RecorderSession session : sessions) {
+                if (session.connect()) {
+                    connectedSessions.add( session);
+                } else {
+                    logger.log(Level.SEVERE, "Server " + session.getServerUri() + " is left out of the recording");
+                }
+            }
+            if (connectedSessions.isEmpty()) {
+                configuration.exit(CONNECTIONFAILED.ordinal());
+            }
+            this.recordServerData( connectedSessions);
         }
-        System.exit(0);
+        configuration.exit(0);
     }
     
     private void getServerConfiguration() {
@@ -492,71 +445,194 @@ public class RecorderClient {
         }
     }
     
-    private void recordServerData( ) {
+    /**
+     * Turns percent deadbands into the absolute deviations the client side compression works with,
+     * a percentage of the span of the EURange property of the node. The EURange properties of all
+     * nodes are looked up and read in one request each.
+     * @param client the client of the server of the nodes
+     * @param clientHandles the client handles of the nodes
+     * @param nodeIds the nodes with a percent deadband
+     * @param percentages the deadband percentage per node
+     * @param deviationsByClientHandle the deviations to fill in
+     * @return the number of nodes whose EU range could not be read, their deviation stays 0
+     */
+    private int resolvePercentDeviations( OpcUaClient client, List<Integer> clientHandles, List<NodeId> nodeIds, List<Double> percentages, double[] deviationsByClientHandle) {
+        List<BrowsePath> browsePaths = new ArrayList<>();
+        for (NodeId aNodeId : nodeIds) {
+            RelativePathElement euRangeElement = new RelativePathElement(
+                    Identifiers.HasProperty, false, true, new QualifiedName( 0, "EURange"));
+            browsePaths.add( new BrowsePath( aNodeId, new RelativePath( new RelativePathElement[] { euRangeElement })));
+        }
+        int unresolved = nodeIds.size();
+        try {
+            BrowsePathResult[] pathResults = client.translateBrowsePaths( browsePaths).get().getResults();
+            // the positions in the node list of the nodes that have an EURange property
+            List<Integer> positions = new ArrayList<>();
+            List<NodeId> euRangeNodeIds = new ArrayList<>();
+            for (int i = 0; pathResults != null && i < pathResults.length; i++) {
+                BrowsePathTarget[] targets = pathResults[i].getTargets();
+                if (pathResults[i].getStatusCode().isGood() && targets != null && targets.length > 0) {
+                    NodeId euRangeNodeId = targets[0].getTargetId().toNodeId( client.getNamespaceTable()).orElse( null);
+                    if (euRangeNodeId != null) {
+                        positions.add( i);
+                        euRangeNodeIds.add( euRangeNodeId);
+                    }
+                }
+            }
+            if (euRangeNodeIds.isEmpty()) {
+                return unresolved;
+            }
+            List<DataValue> euRanges = client.readValues( 0.0, TimestampsToReturn.Neither, euRangeNodeIds).get();
+            for (int j = 0; j < euRanges.size(); j++) {
+                Object value = euRanges.get(j).getValue().getValue();
+                if (value instanceof ExtensionObject) {
+                    value = ((ExtensionObject) value).decode( client.getStaticSerializationContext());
+                }
+                if (value instanceof Range) {
+                    Range euRange = (Range) value;
+                    double span = euRange.getHigh() - euRange.getLow();
+                    if (span > 0.0) {
+                        int position = positions.get(j);
+                        deviationsByClientHandle[ clientHandles.get( position)] = percentages.get( position) / 100.0 * span;
+                        unresolved--;
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Failed to read the EU ranges of the nodes with a percent deadband", ex);
+        }
+        return unresolved;
+    }
+
+    private void recordServerData( List<RecorderSession> recordingSessions) {
         try{
-            Double publishingInterval = configuration.getPublishingInterval();
-            UaSubscription subscription = client.getSubscriptionManager().createSubscription( publishingInterval).get();
             // when creating items in MonitoringMode.Reporting this callback is where each item needs to have its
             // value/event consumer hooked up. The alternative is to create the item in sampling mode, hook up the
             // consumer after the creation call completes, and then change the mode for all items to reporting.
             UaSubscription.ItemCreationCallback onItemCreated
                     = (item, id) -> item.setValueConsumer(this::onSubscriptionValue);
-            // Read node list
-            List<NodeId> nodeIdList = nodeListFileController.readNodeIdConfigFile();
-            // create a list of monitored item 'create' requests
-            List<MonitoredItemCreateRequest> monitoredItemCreateRequests = new ArrayList<>();
+            // Read the node list of every server, a single config file is shared by all servers
+            List<File> configFiles = configuration.getConfigFiles();
+            List<List<NodeId>> nodeIdLists = new ArrayList<>();
+            List<NodeListFileController> nodeListFileControllers = new ArrayList<>();
+            int totalNodeCount = 0;
+            for (int i = 0; i < recordingSessions.size(); i++) {
+                int sessionIndex = sessions.indexOf( recordingSessions.get(i));
+                File configFile = configFiles.get( Math.min( sessionIndex, configFiles.size() - 1));
+                NodeListFileController aNodeListFileController = new NodeListFileController( configFile);
+                List<NodeId> nodeIdList = aNodeListFileController.readNodeIdConfigFile();
+                nodeListFileControllers.add( aNodeListFileController);
+                nodeIdLists.add( nodeIdList);
+                totalNodeCount += nodeIdList.size();
+            }
+            // lookup table from client handle to the tag written to the output, handles are handed out consecutively
+            // over all servers so that they share one sample ring and one data logger
+            String[] tagsByClientHandle = new String[ (int) clientHandleIdCounter.get() + totalNodeCount];
+            // lookup table from client handle to the source server, only used when recording from more servers
+            String[] serversByClientHandle = recordingSessions.size() > 1 ? new String[ tagsByClientHandle.length] : null;
+            // deviation per client handle for the optional client side compression
+            double[] deviationsByClientHandle = new double[ tagsByClientHandle.length];
+            // global deadband filter and per node overrides from the node list file
+            DeadbandSetting globalDeadband = DeadbandSetting.parse( configuration.getDeadbandType(), configuration.getDeadbandValue());
+            List<List<MonitoredItemCreateRequest>> requestLists = new ArrayList<>();
+            int requestCount = 0;
 
-            // loop through nodes for which monitored item create requests need to be created
-            for (NodeId aNodeId : nodeIdList) {
-                // important: client handle must be unique per item
-                UInteger clientHandleId = Unsigned.uint(clientHandleIdCounter.getAndIncrement());
-                // set monitoring parameters, since it includes a unique client handle it needs to be created for each item
-                Double samplingInterval = configuration.getSamplingInterval();
-                MonitoringParameters monitoringParameters = new MonitoringParameters(
-                        clientHandleId,
-                        samplingInterval, // sampling interval 0.0 means recieve all reported value changes
-                        null, // filter, null means use default
-                        Unsigned.uint( monitoredItemQueueSize),// queue size
-                        true // discard oldest
-                );
-                // subscribe to the value attribute of the nodes in the node list
-                ReadValueId aReadValueId
-                        = new ReadValueId(
-                                aNodeId,
-                                AttributeId.Value.uid(),
-                                null,
-                                QualifiedName.NULL_VALUE
-                        );
-                // create a request for this read value id
-                MonitoredItemCreateRequest aRequest = new MonitoredItemCreateRequest(
-                        aReadValueId, MonitoringMode.Reporting, monitoringParameters);
-                monitoredItemCreateRequests.add(aRequest);
+            for (int i = 0; i < recordingSessions.size(); i++) {
+                RecorderSession session = recordingSessions.get(i);
+                Map<NodeId, DeadbandSetting> nodeDeadbands = nodeListFileControllers.get(i).getDeadbandSettings();
+                logger.log(Level.INFO, "Deadband filter of " + session.getServerUri() + ": global=" + globalDeadband + ", per node overrides=" + nodeDeadbands.size());
+                // the nodes of this server with a percent deadband, for the client side compression
+                List<Integer> percentHandles = new ArrayList<>();
+                List<NodeId> percentNodeIds = new ArrayList<>();
+                List<Double> percentValues = new ArrayList<>();
+                // create a list of monitored item 'create' requests
+                List<MonitoredItemCreateRequest> monitoredItemCreateRequests = new ArrayList<>();
+                // loop through nodes for which monitored item create requests need to be created
+                for (NodeId aNodeId : nodeIdLists.get(i)) {
+                    // important: client handle must be unique per item
+                    long clientHandle = clientHandleIdCounter.getAndIncrement();
+                    UInteger clientHandleId = Unsigned.uint(clientHandle);
+                    tagsByClientHandle[ (int) clientHandle] = aNodeId.toParseableString();
+                    if (serversByClientHandle != null) {
+                        serversByClientHandle[ (int) clientHandle] = session.getServerUri();
+                    }
+                    DeadbandSetting deadband = nodeDeadbands.getOrDefault( aNodeId, globalDeadband);
+                    if (deadband.getType() == DeadbandType.Absolute) {
+                        deviationsByClientHandle[ (int) clientHandle] = deadband.getValue();
+                    } else if (deadband.getType() == DeadbandType.Percent && deadband.isActive()) {
+                        // percent deadbands are turned into a deviation from the EU range of the node below
+                        percentHandles.add( (int) clientHandle);
+                        percentNodeIds.add( aNodeId);
+                        percentValues.add( deadband.getValue());
+                    }
+                    // set monitoring parameters, since it includes a unique client handle it needs to be created for each item
+                    Double samplingInterval = configuration.getSamplingInterval();
+                    MonitoringParameters monitoringParameters = new MonitoringParameters(
+                            clientHandleId,
+                            samplingInterval, // sampling interval 0.0 means recieve all reported value changes
+                            deadband.toFilter( session.getClient().getStaticSerializationContext()), // filter, null means use default
+                            Unsigned.uint( session.getMonitoredItemQueueSize()),// queue size
+                            true // discard oldest
+                    );
+                    // subscribe to the value attribute of the nodes in the node list
+                    ReadValueId aReadValueId
+                            = new ReadValueId(
+                                    aNodeId,
+                                    AttributeId.Value.uid(),
+                                    null,
+                                    QualifiedName.NULL_VALUE
+                            );
+                    // create a request for this read value id
+                    MonitoredItemCreateRequest aRequest = new MonitoredItemCreateRequest(
+                            aReadValueId, MonitoringMode.Reporting, monitoringParameters);
+                    monitoredItemCreateRequests.add(aRequest);
+                }
+                if (!percentNodeIds.isEmpty() && !"none".equals( configuration.getClientCompression())) {
+                    int unresolved = this.resolvePercentDeviations( session.getClient(), percentHandles, percentNodeIds, percentValues, deviationsByClientHandle);
+                    if (unresolved > 0) {
+                        logger.log(Level.WARNING, "Client side compression is inactive for " + unresolved + " of " + percentNodeIds.size()
+                                + " nodes of " + session.getServerUri() + " with a percent deadband, their EU range could not be read");
+                    }
+                }
+                requestLists.add( monitoredItemCreateRequests);
+                requestCount += monitoredItemCreateRequests.size();
             }
             // start data logger controller who is responsible for writing the data to disk
-            // this controller works on the sample queue
-            DataLoggerController dataLoggerController = new DataLoggerController( this.sampleQueue);
+            // this controller works on the sample ring
+            DataLoggerController dataLoggerController = new DataLoggerController( this.sampleRing, tagsByClientHandle, serversByClientHandle);
             dataLoggerController.startWriting();
+            // put the optional client side compression stage in front of the data logger
+            switch (configuration.getClientCompression()) {
+                case "deadband":
+                    clientSideCompressor = new ClientSideCompressor( ClientSideCompressor.Algorithm.DEADBAND, sampleRing, deviationsByClientHandle);
+                    break;
+                case "swingingdoor":
+                    clientSideCompressor = new ClientSideCompressor( ClientSideCompressor.Algorithm.SWINGINGDOOR, sampleRing, deviationsByClientHandle);
+                    break;
+                default:
+                    clientSideCompressor = null;
+            }
+            if (clientSideCompressor != null) {
+                logger.log(Level.INFO, "Client side compression enabled: " + clientSideCompressor.getAlgorithm());
+            }
             
             LocalDateTime startRecordingTimestamp = LocalDateTime.now(); // save timestamp at start of monitoring
 
-            // create the monitored items within the subscription
-            List<UaMonitoredItem> uaMonitoredItems = subscription.createMonitoredItems(
-                    TimestampsToReturn.Both,
-                    monitoredItemCreateRequests,
-                    onItemCreated
-            ).get(); // returns when subscribing is finished.
-
+            // create the subscription and its monitored items per server and watch the sessions from now on
             int goodCount = 0;
             int failedCount = 0;
-            for (UaMonitoredItem uaMonitoredItem : uaMonitoredItems) {
-                if (uaMonitoredItem.getStatusCode().isGood()) {
-                    goodCount++;
-                } else {
-                    failedCount++;
-                    logger.log(Level.WARNING, "Failed to create monitored item for nodeId=" + uaMonitoredItem.getReadValueId().getNodeId() + " (status=" + uaMonitoredItem.getStatusCode() + ")");
+            for (int i = 0; i < recordingSessions.size(); i++) {
+                List<UaMonitoredItem> uaMonitoredItems = recordingSessions.get(i).startRecording( requestLists.get(i), onItemCreated, dataLoggerController);
+                for (UaMonitoredItem uaMonitoredItem : uaMonitoredItems) {
+                    if (uaMonitoredItem.getStatusCode().isGood()) {
+                        goodCount++;
+                    } else {
+                        failedCount++;
+                        logger.log(Level.WARNING, "Failed to create monitored item for nodeId=" + uaMonitoredItem.getReadValueId().getNodeId() + " (status=" + uaMonitoredItem.getStatusCode() + ")");
+                    }
                 }
             }
-            logger.log(Level.INFO, "Recorder configuration finished. Created " + monitoredItemCreateRequests.size() + " monitored item requests. Subscription created: " + goodCount + " items succeeded, " + failedCount + " items failed.");
+            logger.log(Level.INFO, "Recorder configuration finished. Created " + requestCount + " monitored item requests on " + recordingSessions.size() + " servers. Subscriptions created: " + goodCount + " items succeeded, " + failedCount + " items failed.");
             // wait for the set duration to record
             Duration durationToRecord = configuration.getRecordingDuration();
             Waiter.waitADuration(durationToRecord);
@@ -564,19 +640,32 @@ public class RecorderClient {
             // OK ready with recording, wind down & cleanup
             // create astop recording timestamp
             LocalDateTime stopRecordingTimestamp = LocalDateTime.now();
-            // delete the subscriptions
-            subscription.deleteMonitoredItems(uaMonitoredItems);
+            // delete the subscriptions and close the clients properly
+            long reconnects = 0;
+            long timeLost = 0;
+            for (RecorderSession session : recordingSessions) {
+                session.stopRecording();
+                reconnects += session.getReconnectCount();
+                timeLost += session.getTimeLostMillis();
+            }
             // calculate the exact runtime duration
             Duration duration = Duration.between(startRecordingTimestamp, stopRecordingTimestamp);
             logger.log(Level.INFO, "Duration of actual recording: " + duration);
             // log the number of item values recieved
-            logger.log(Level.INFO, "Item values received: " + valueUpdatedCounter);
+            logger.log(Level.INFO, "Item values received: " + valueUpdatedCounter.get());
             // calc samples per second
-            double samplesPerSecond = this.valueUpdatedCounter / (duration.getNano() / 1E9d + duration.getSeconds());
+            double samplesPerSecond = this.valueUpdatedCounter.get() / (duration.getNano() / 1E9d + duration.getSeconds());
             logger.log(Level.INFO, "Recorded samples per second: " + samplesPerSecond);
+            logger.log(Level.INFO, "Reconnects: " + reconnects + ", time lost in gaps: " + Duration.ofMillis( timeLost));
+            if (clientSideCompressor != null) {
+                // pass the values the swinging door still holds back
+                clientSideCompressor.flush();
+                long received = clientSideCompressor.getReceivedCount();
+                long passed = clientSideCompressor.getPassedCount();
+                logger.log(Level.INFO, "Client side compression passed " + passed + " of " + received + " values"
+                        + (passed > 0 ? String.format(" (ratio %.1f:1)", (double) received / passed) : ""));
+            }
 
-            // close client properly
-            client.disconnect();
             // close data logger
             dataLoggerController.stopWriting();
         } catch (InterruptedException | ExecutionException ex) {
@@ -626,17 +715,14 @@ public class RecorderClient {
     }
 
     private void onSubscriptionValue(UaMonitoredItem item, DataValue value) {
-        NodeId nodeId = item.getReadValueId().getNodeId();
-        String timestampString;
-        DateTime timestamp = value.getServerTime();
-        if (timestamp != null) {
-            timestampString = timestamp.toString();
+//        logger.log(Level.INFO, "Subscription value received: item={0}, value={1}, server timestamp={2}", new Object[]{item.getReadValueId().getNodeId(), value, value.getServerTime()});
+        valueUpdatedCounter.incrementAndGet();
+        // copy the sample into the next free slot of the ring, keyed by the client handle instead of the node id
+        ClientSideCompressor compressor = this.clientSideCompressor;
+        if (compressor != null) {
+            compressor.onValue( item.getClientHandle().longValue(), value);
         } else {
-            timestampString = "null";
+            this.sampleRing.offer( item.getClientHandle().longValue(), value);
         }
-//        logger.log(Level.INFO, "Subscription value received: item={0}, value={1}, server timestamp={2}", new Object[]{nodeId, value, value.getServerTime()});
-        valueUpdatedCounter++;
-        Sample aSample = new Sample( nodeId, value);
-        this.sampleQueue.add(aSample); // add the sample at the tail of the queue
     }
 }
@@ -0,0 +1,344 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+import java.security.cert.CertificateEncodingException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscriptionManager;
+import org.eclipse.milo.opcua.stack.core.Stack;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.ApplicationType;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MessageSecurityMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.UserTokenType;
+import org.eclipse.milo.opcua.stack.core.types.structured.ApplicationDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.UserTokenPolicy;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.utils.Waiter;
+
+/**
+ * The session of the recorder with one OPC UA server: its client, subscription and monitored
+ * items, plus the reconnect and gap book keeping. All sessions of a recorder share the Milo
+ * stack's event loop, executor and timer (the OpcUaClient defaults) and feed one sample ring.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class RecorderSession {
+
+    private static final String CLIENTAPPLICATIONNAME = "Smiles OPC-UA client";
+    private static final String CLIENTAPPLICATIONURI = "urn:smiles:player:examples:client" + UUID.randomUUID();
+
+    private static final String SERVERAPPLICATIONURI = "urn:SmileSoft:OPCUA:playerserver";
+    private static final String PRODUCTURI = "urn:SmileSoft:OPCUA:player-server";
+
+    // session resilience: reconnect backoff, subscription recreation and gap book keeping
+    private static final long INITIALRECONNECTDELAY = 1_000; // mS
+    private static final long MAXRECONNECTDELAY = 60_000; // mS
+    private static final int MAXCONNECTATTEMPTS = 10;
+
+    private final Logger logger = Logger.getLogger(RecorderSession.class.getName());
+    private final Configuration configuration = Configuration.getConfiguration();
+    private final String serverUri;
+    private OpcUaClient client = null;
+    private int monitoredItemQueueSize = 10_000; // default queue size
+    private final AtomicLong reconnectCounter = new AtomicLong(0);
+    private final AtomicLong timeLostMillis = new AtomicLong(0);
+    private volatile Instant gapStart = null;
+    private volatile boolean recording = false;
+    private volatile DataLoggerController dataLoggerController = null;
+    private volatile UaSubscription subscription = null;
+    private volatile List<UaMonitoredItem> uaMonitoredItems = new ArrayList<>();
+    private List<MonitoredItemCreateRequest> monitoredItemCreateRequests = new ArrayList<>();
+    private UaSubscription.ItemCreationCallback onItemCreated = null;
+
+    /**
+     * @param aServerUri the endpoint url of the server to record from
+     * @param loader the loaded client certificate and key pair
+     */
+    public RecorderSession( String aServerUri, KeystoreLoader loader) {
+        this.serverUri = aServerUri;
+        try {
+            // create the application description of the server from where we want to record the data
+            ApplicationDescription applicationDescription
+                    = new ApplicationDescription(
+                            SERVERAPPLICATIONURI,
+                            PRODUCTURI,
+                            LocalizedText.english("Smiles"),
+                            ApplicationType.Server,
+                            null,
+                            null,
+                            null
+                    );
+            // create appropriate use token policy, currently only anonymous is supported
+            // TODO: make this configurable
+            UserTokenPolicy[] userTokenPolicies = {new UserTokenPolicy("anonymous", UserTokenType.Anonymous, null, null, null)};
+            // create end point description of the target OPC UA server
+            EndpointDescription endpoint
+                    = new EndpointDescription(
+                            serverUri,
+                            applicationDescription,
+                            new ByteString(loader.getClientCertificate().getEncoded()),
+                            MessageSecurityMode.None,
+                            SecurityPolicy.None.getUri(),
+                            userTokenPolicies,
+                            Stack.TCP_UASC_UABINARY_TRANSPORT_URI,
+                            UByte.valueOf(0)
+                    );
+
+            OpcUaClientConfig config = OpcUaClientConfig.builder()
+                    .setApplicationName(LocalizedText.english(CLIENTAPPLICATIONNAME))
+                    .setApplicationUri(CLIENTAPPLICATIONURI)
+                    .setEndpoint(endpoint)
+                    //                .setIdentityProvider( new UsernameProvider("user","8h5%32@!~"))
+                    .setRequestTimeout(Unsigned.uint(5000))
+                    .setCertificate(loader.getClientCertificate())
+                    .setKeyPair(loader.getClientKeyPair())
+                    .build();
+
+            logger.log(Level.INFO, "Before creating the OPC UA client for " + serverUri);
+            client = OpcUaClient.create(config);
+            logger.log(Level.INFO, "After the OPC UA client is created");
+        } catch (UaException | CertificateEncodingException ex) {
+            logger.log(Level.SEVERE, "Exception occured in creating the client for " + serverUri, ex);
+            client = null;
+        }
+    }
+
+    /**
+     * Connects the client to the server, retrying with an exponential backoff.
+     * @return true if connected
+     */
+    public boolean connect() {
+        if (client == null) {
+            logger.log(Level.SEVERE, "Can not connect, because client is null");
+            return false;
+        }
+        long delay = INITIALRECONNECTDELAY;
+        for (int attempt = 1; attempt <= MAXCONNECTATTEMPTS; attempt++) {
+            try {
+                client.connect().get();
+                return true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                logger.log(Level.SEVERE, "Connecting of client interrupted", ex);
+                return false;
+            } catch (ExecutionException ex) {
+                logger.log(Level.WARNING, "Connecting of client to " + serverUri + " failed (attempt " + attempt + " of " + MAXCONNECTATTEMPTS + "): " + ex.getCause());
+                if (attempt < MAXCONNECTATTEMPTS) {
+                    logger.log(Level.INFO, "Retrying to connect in " + delay + " mS");
+                    Waiter.waitMilliseconds( delay);
+                    delay = Math.min( delay * 2, MAXRECONNECTDELAY);
+                }
+            }
+        }
+        logger.log(Level.SEVERE, "Connecting of client to " + serverUri + " failed after " + MAXCONNECTATTEMPTS + " attempts");
+        return false;
+    }
+
+    /**
+     * Starts recording: creates the subscription with the given monitored items and watches the session from now on.
+     * @param requests the monitored item create requests of this server
+     * @param anItemCreationCallback the callback that hooks up the value consumer of each created item
+     * @param aDataLoggerController the data logger that receives the gap records
+     * @return the created monitored items
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public List<UaMonitoredItem> startRecording( List<MonitoredItemCreateRequest> requests,
+            UaSubscription.ItemCreationCallback anItemCreationCallback, DataLoggerController aDataLoggerController)
+            throws InterruptedException, ExecutionException {
+        this.monitoredItemCreateRequests = requests;
+        this.onItemCreated = anItemCreationCallback;
+        this.dataLoggerController = aDataLoggerController;
+        this.recording = true;
+        this.addSessionResilienceListeners();
+        this.createSubscription();
+        return uaMonitoredItems;
+    }
+
+    /**
+     * Stops recording: closes a gap that is still open, deletes the monitored items and disconnects.
+     */
+    public void stopRecording() {
+        this.recording = false;
+        // a gap that is still open at the end of the recording is closed at the stop moment
+        Instant openGapStart = gapStart;
+        if (openGapStart != null) {
+            gapStart = null;
+            this.closeGap( openGapStart, "session lost until end of recording");
+        }
+        // delete the subscriptions
+        UaSubscription currentSubscription = this.subscription;
+        if (currentSubscription != null) {
+            currentSubscription.deleteMonitoredItems(uaMonitoredItems);
+        }
+        // close client properly
+        client.disconnect();
+    }
+
+    /**
+     * Watches the session and the subscription: a lost session opens a gap, Milo reactivates
+     * the session with its own backoff and transfers the subscription, when that transfer fails
+     * the subscription and its monitored items are recreated. Every outage ends up as a gap
+     * record in the output.
+     */
+    private void addSessionResilienceListeners() {
+        client.addSessionActivityListener( new SessionActivityListener() {
+            @Override
+            public void onSessionActive( UaSession session) {
+                Instant start = gapStart;
+                if (start != null && recording) {
+                    gapStart = null;
+                    reconnectCounter.incrementAndGet();
+                    closeGap( start, "session lost");
+                }
+            }
+
+            @Override
+            public void onSessionInactive( UaSession session) {
+                if (recording && gapStart == null) {
+                    gapStart = Instant.now();
+                    logger.log(Level.WARNING, "Session to " + serverUri + " lost, waiting for reconnect");
+                }
+            }
+        });
+        client.getSubscriptionManager().addSubscriptionListener( new UaSubscriptionManager.SubscriptionListener() {
+            @Override
+            public void onSubscriptionTransferFailed( UaSubscription aSubscription, StatusCode statusCode) {
+                if (recording) {
+                    logger.log(Level.WARNING, "Transfer of subscription to " + serverUri + " failed (" + statusCode + "), recreating it");
+                    Instant start = Instant.now();
+                    new Thread( () -> {
+                        try {
+                            createSubscription();
+                        } catch (InterruptedException | ExecutionException ex) {
+                            logger.log(Level.SEVERE, "Recreating the subscription failed", ex);
+                        }
+                        closeGap( start, "subscription recreated");
+                    }, "SubscriptionRecreation").start();
+                }
+            }
+        });
+    }
+
+    private void closeGap( Instant start, String reason) {
+        Instant end = Instant.now();
+        long lost = Duration.between( start, end).toMillis();
+        timeLostMillis.addAndGet( lost);
+        logger.log(Level.WARNING, "Recording gap of " + serverUri + " from " + start + " to " + end + " (" + reason + "), reconnects=" + reconnectCounter.get() + ", total time lost=" + Duration.ofMillis( timeLostMillis.get()));
+        DataLoggerController currentDataLogger = this.dataLoggerController;
+        if (currentDataLogger != null) {
+            currentDataLogger.writeGapRecord( start, end, reason + " on " + serverUri);
+        }
+    }
+
+    /**
+     * Creates the subscription with the monitored items, both at the start of the recording
+     * and when a lost subscription could not be transferred to the reactivated session.
+     */
+    private void createSubscription() throws InterruptedException, ExecutionException {
+        Double publishingInterval = configuration.getPublishingInterval();
+        UaSubscription newSubscription = client.getSubscriptionManager().createSubscription( publishingInterval).get();
+        // create the monitored items within the subscription
+        List<UaMonitoredItem> newItems = newSubscription.createMonitoredItems(
+                TimestampsToReturn.Both,
+                monitoredItemCreateRequests,
+                onItemCreated
+        ).get(); // returns when subscribing is finished.
+        // servers that do not support the (percent) deadband filter reject those items, retry them without filter
+        newItems = this.retryWithoutFilter( newSubscription, newItems, onItemCreated);
+        this.subscription = newSubscription;
+        this.uaMonitoredItems = newItems;
+    }
+
+    private List<UaMonitoredItem> retryWithoutFilter( UaSubscription subscription, List<UaMonitoredItem> uaMonitoredItems,
+            UaSubscription.ItemCreationCallback onItemCreated) throws InterruptedException, ExecutionException {
+        List<UaMonitoredItem> resultItems = new ArrayList<>();
+        List<MonitoredItemCreateRequest> retryRequests = new ArrayList<>();
+        for (UaMonitoredItem uaMonitoredItem : uaMonitoredItems) {
+            long statusCode = uaMonitoredItem.getStatusCode().getValue();
+            if (statusCode == StatusCodes.Bad_MonitoredItemFilterUnsupported
+                    || statusCode == StatusCodes.Bad_FilterNotAllowed
+                    || statusCode == StatusCodes.Bad_DeadbandFilterInvalid) {
+                MonitoringParameters monitoringParameters = new MonitoringParameters(
+                        uaMonitoredItem.getClientHandle(),
+                        configuration.getSamplingInterval(),
+                        null, // no filter
+                        Unsigned.uint( monitoredItemQueueSize),
+                        true
+                );
+                retryRequests.add( new MonitoredItemCreateRequest(
+                        uaMonitoredItem.getReadValueId(), MonitoringMode.Reporting, monitoringParameters));
+            } else {
+                resultItems.add( uaMonitoredItem);
+            }
+        }
+        if (!retryRequests.isEmpty()) {
+            logger.log(Level.WARNING, "Server rejected the deadband filter for " + retryRequests.size() + " items, these are monitored without filter");
+            resultItems.addAll( subscription.createMonitoredItems( TimestampsToReturn.Both, retryRequests, onItemCreated).get());
+        }
+        return resultItems;
+    }
+
+    /**
+     * @return the client
+     */
+    public OpcUaClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return the serverUri
+     */
+    public String getServerUri() {
+        return serverUri;
+    }
+
+    /**
+     * @return the monitoredItemQueueSize
+     */
+    public int getMonitoredItemQueueSize() {
+        return monitoredItemQueueSize;
+    }
+
+    /**
+     * @return the number of reconnects during the recording
+     */
+    public long getReconnectCount() {
+        return reconnectCounter.get();
+    }
+
+    /**
+     * @return the total time in milliseconds lost in gaps during the recording
+     */
+    public long getTimeLostMillis() {
+        return timeLostMillis.get();
+    }
+}
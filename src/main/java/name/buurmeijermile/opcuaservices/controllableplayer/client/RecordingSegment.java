@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+import java.io.File;
+
+/**
+ * Book keeping of one rolled over segment of the recorder output. The non transient
+ * fields end up in the segment manifest so that replay and analysis tooling can
+ * select the segments it needs based on their time ranges.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class RecordingSegment {
+    private final int sequenceNumber;
+    private final String fileName;
+    private String firstTimestamp = null;
+    private String lastTimestamp = null;
+    private long sampleCount = 0;
+    private long sizeInBytes = 0;
+    private int gapCount = 0;
+    private String openedAt;
+    private String closedAt = null;
+    private transient final File finalFile;
+    private transient final File partFile;
+    private transient final long openedAtMillis;
+    private transient long firstTicks = -1; // server timestamp of the first sample, -1 while there is none
+    private transient long lastTicks = -1;
+
+    public RecordingSegment( int aSequenceNumber, File aFinalFile) {
+        this.sequenceNumber = aSequenceNumber;
+        this.finalFile = aFinalFile;
+        this.fileName = aFinalFile.getName();
+        this.partFile = new File( aFinalFile.getParentFile(), aFinalFile.getName() + ".part");
+        this.openedAtMillis = System.currentTimeMillis();
+        this.openedAt = java.time.Instant.ofEpochMilli( openedAtMillis).toString();
+    }
+
+    /**
+     * Registers a written sample line with this segment. The time range is kept as ticks, it is
+     * only turned into text for the manifest.
+     * @param serverTimeTicks the server timestamp of the sample in OPC UA ticks, 0 when absent
+     * @param lineLength the number of characters the sample line took in the segment file, which
+     * equals its size in bytes for the plain ASCII content the recorder normally writes
+     */
+    public void addSample( long serverTimeTicks, long lineLength) {
+        if (firstTicks < 0) {
+            firstTicks = serverTimeTicks;
+        }
+        lastTicks = serverTimeTicks;
+        sampleCount++;
+        sizeInBytes += lineLength;
+    }
+
+    /**
+     * Registers non sample content like the header with this segment.
+     * @param length the number of bytes written
+     */
+    public void addBytes( long length) {
+        sizeInBytes += length;
+    }
+
+    /**
+     * Registers a gap record with this segment.
+     * @param length the number of characters the gap record took in the segment file
+     */
+    public void addGap( long length) {
+        gapCount++;
+        sizeInBytes += length;
+    }
+
+    public void close() {
+        this.closedAt = java.time.Instant.now().toString();
+        if (firstTicks >= 0) {
+            this.firstTimestamp = toTimestamp( firstTicks);
+            this.lastTimestamp = toTimestamp( lastTicks);
+        }
+    }
+
+    private static String toTimestamp( long ticks) {
+        return ticks != 0L ? UtcTicksFormat.toString( ticks) : "null";
+    }
+
+    /**
+     * @return the age of this segment in milliseconds since it was opened
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - openedAtMillis;
+    }
+
+    /**
+     * @return the sequenceNumber
+     */
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return the fileName
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the sampleCount
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the sizeInBytes
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * @return the file the segment gets after it is finished
+     */
+    public File getFinalFile() {
+        return finalFile;
+    }
+
+    /**
+     * @return the file the segment is written to while it is still open
+     */
+    public File getPartFile() {
+        return partFile;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * Fixed size ring of preallocated sample slots between the Milo subscription callbacks
+ * (producers) and the data logger writing thread (single consumer). Received values are
+ * copied into a slot so the steady state recording path does not allocate.
+ * When the ring is full the newest sample is dropped and counted, the period in which samples
+ * are dropped is reported to the overflow listener once it has ended.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class SampleRing {
+    private final SampleSlot[] slots;
+    private final int mask;
+    private volatile long head = 0; // next slot to be read by the consumer
+    private volatile long tail = 0; // next slot to be written by a producer
+    private final AtomicLong droppedCounter = new AtomicLong( 0);
+    private Instant overflowStart = null; // set while samples are dropped
+    private long overflowDropped = 0;
+    private OverflowListener overflowListener = null;
+
+    /**
+     * Gets the periods in which samples were dropped, it is called by the producer that ends the
+     * period while it holds the ring, before the sample of that producer gets a slot.
+     */
+    public interface OverflowListener {
+        void overflowEnded( Instant from, Instant to, long droppedCount);
+    }
+
+    /**
+     * @param aCapacity the requested capacity, rounded up to the next power of two
+     */
+    public SampleRing( int aCapacity) {
+        int capacity = Integer.highestOneBit( Math.max( 2, aCapacity) - 1) << 1;
+        this.slots = new SampleSlot[ capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new SampleSlot();
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Copies a received value into the next free slot.
+     * @param clientHandle the client handle of the monitored item
+     * @param value the received value
+     * @return false if the ring was full and the sample is dropped
+     */
+    public synchronized boolean offer( long clientHandle, DataValue value) {
+        long currentTail = tail;
+        if (currentTail - head >= slots.length) {
+            droppedCounter.incrementAndGet();
+            if (overflowStart == null) {
+                overflowStart = Instant.now();
+                Logger.getLogger( SampleRing.class.getName()).log( Level.WARNING, "Sample ring of " + slots.length + " slots is full, new samples are dropped");
+            }
+            overflowDropped++;
+            return false;
+        }
+        if (overflowStart != null) {
+            this.endOverflow();
+        }
+        slots[ (int) (currentTail & mask)].copyFrom( clientHandle, value);
+        tail = currentTail + 1; // volatile write publishes the slot content to the consumer
+        return true;
+    }
+
+    /**
+     * Reports the current period in which samples are dropped, if there is one, as ended now.
+     */
+    public synchronized void endOverflow() {
+        if (overflowStart != null) {
+            Logger.getLogger( SampleRing.class.getName()).log( Level.WARNING, "Sample ring accepts samples again, " + overflowDropped + " samples dropped since " + overflowStart);
+            if (overflowListener != null) {
+                overflowListener.overflowEnded( overflowStart, Instant.now(), overflowDropped);
+            }
+            overflowStart = null;
+            overflowDropped = 0;
+        }
+    }
+
+    /**
+     * @param aListener gets the periods in which samples were dropped
+     */
+    public synchronized void setOverflowListener( OverflowListener aListener) {
+        this.overflowListener = aListener;
+    }
+
+    /**
+     * @return the oldest unread slot or null if the ring is empty, the slot stays valid until release() is called
+     */
+    public SampleSlot peek() {
+        long currentHead = head;
+        if (currentHead >= tail) {
+            return null;
+        }
+        return slots[ (int) (currentHead & mask)];
+    }
+
+    /**
+     * Hands the slot returned by peek() back to the producers.
+     */
+    public void release() {
+        head = head + 1; // only the single consumer writes head
+    }
+
+    /**
+     * @return the sequence number the next offered sample will get
+     */
+    public long getWriteSequence() {
+        return tail;
+    }
+
+    /**
+     * @return the sequence number of the next sample the consumer will read
+     */
+    public long getReadSequence() {
+        return head;
+    }
+
+    public boolean isEmpty() {
+        return head >= tail;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the number of samples dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return droppedCounter.get();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+/**
+ * Mutable, reusable holder of one recorded sample inside the SampleRing. The value is
+ * kept as a primitive for the numeric and boolean data types, only other types
+ * (strings, byte strings, ...) keep a reference to the value object Milo already created.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class SampleSlot {
+    public static final byte NULLVALUE = 0;
+    public static final byte BOOLEANVALUE = 1;
+    public static final byte LONGVALUE = 2;
+    public static final byte FLOATVALUE = 3;
+    public static final byte DOUBLEVALUE = 4;
+    public static final byte OBJECTVALUE = 5;
+
+    private long clientHandle;
+    private long serverTimeTicks; // OPC UA UtcTime in 100ns ticks since 1601, 0 when the server timestamp was absent
+    private long statusCode;
+    private byte valueType;
+    private long longValue;
+    private double doubleValue;
+    private Object objectValue;
+
+    /**
+     * Copies the relevant parts of a Milo data value into this slot.
+     * @param aClientHandle the client handle of the monitored item the value belongs to
+     * @param aDataValue the received value
+     */
+    void copyFrom( long aClientHandle, DataValue aDataValue) {
+        this.clientHandle = aClientHandle;
+        DateTime serverTime = aDataValue.getServerTime();
+        this.serverTimeTicks = serverTime != null ? serverTime.getUtcTime() : 0L;
+        StatusCode status = aDataValue.getStatusCode();
+        this.statusCode = status != null ? status.getValue() : 0L;
+        this.objectValue = null;
+        Object value = aDataValue.getValue().getValue();
+        if (value == null) {
+            this.valueType = NULLVALUE;
+        } else if (value instanceof Boolean) {
+            this.valueType = BOOLEANVALUE;
+            this.longValue = ((Boolean) value) ? 1L : 0L;
+        } else if (value instanceof Double) {
+            this.valueType = DOUBLEVALUE;
+            this.doubleValue = (Double) value;
+        } else if (value instanceof Float) {
+            this.valueType = FLOATVALUE;
+            this.doubleValue = (Float) value;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof UInteger || value instanceof UShort || value instanceof UByte) {
+            this.valueType = LONGVALUE;
+            this.longValue = ((Number) value).longValue();
+        } else {
+            this.valueType = OBJECTVALUE;
+            this.objectValue = value;
+        }
+    }
+
+    /**
+     * Appends the value in the same textual form as the boxed value's toString() would.
+     * @param builder the builder to append to
+     * @return the same builder
+     */
+    public StringBuilder appendValue( StringBuilder builder) {
+        switch (valueType) {
+            case BOOLEANVALUE:
+                return builder.append( longValue != 0L);
+            case LONGVALUE:
+                return builder.append( longValue);
+            case FLOATVALUE:
+                return builder.append( (float) doubleValue);
+            case DOUBLEVALUE:
+                return builder.append( doubleValue);
+            case OBJECTVALUE:
+                return builder.append( objectValue);
+            default:
+                return builder.append( "null");
+        }
+    }
+
+    /**
+     * @return the clientHandle
+     */
+    public long getClientHandle() {
+        return clientHandle;
+    }
+
+    /**
+     * @return the serverTimeTicks, 0 when absent
+     */
+    public long getServerTimeTicks() {
+        return serverTimeTicks;
+    }
+
+    /**
+     * @return the statusCode
+     */
+    public long getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the valueType
+     */
+    public byte getValueType() {
+        return valueType;
+    }
+}
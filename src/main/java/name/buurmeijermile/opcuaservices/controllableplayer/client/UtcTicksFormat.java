@@ -0,0 +1,88 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.client;
+
+/**
+ * Writes OPC UA UtcTime ticks as ISO-8601 instants, the same text Instant.toString gives, without
+ * creating objects on the way. The recorder writes a timestamp per sample, so the conversion runs
+ * in its hot loop.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class UtcTicksFormat {
+
+    private static final long TICKSPERSECOND = 10_000_000L; // ticks are 100 ns
+    private static final long EPOCHTICKS = 116_444_736_000_000_000L; // ticks from 1601-01-01 to 1970-01-01
+    private static final long SECONDSPERDAY = 86_400L;
+
+    /**
+     * Appends the instant of the ticks, e.g. 2018-08-06T12:01:00.670Z.
+     * @param builder the builder to append to
+     * @param ticks 100 ns ticks since 1601-01-01 UTC
+     * @return the builder
+     */
+    public static StringBuilder append( StringBuilder builder, long ticks) {
+        long sinceEpoch = ticks - EPOCHTICKS;
+        long epochSecond = Math.floorDiv( sinceEpoch, TICKSPERSECOND);
+        int nanos = (int) Math.floorMod( sinceEpoch, TICKSPERSECOND) * 100;
+        long days = Math.floorDiv( epochSecond, SECONDSPERDAY);
+        int secondOfDay = (int) Math.floorMod( epochSecond, SECONDSPERDAY);
+        // civil date of the day count, proleptic gregorian calendar
+        long shifted = days + 719_468; // days since 0000-03-01
+        long era = Math.floorDiv( shifted, 146_097);
+        int dayOfEra = (int) (shifted - era * 146_097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153; // march is 0
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            // Instant.toString writes a sign for these years, they don't occur in recordings
+            return builder.append( java.time.Instant.ofEpochSecond( epochSecond, nanos));
+        }
+        appendDigits( builder, (int) year, 4).append( '-');
+        appendDigits( builder, month, 2).append( '-');
+        appendDigits( builder, day, 2).append( 'T');
+        appendDigits( builder, secondOfDay / 3600, 2).append( ':');
+        appendDigits( builder, secondOfDay / 60 % 60, 2).append( ':');
+        appendDigits( builder, secondOfDay % 60, 2);
+        // the fraction in groups of three digits, like Instant.toString
+        if (nanos > 0) {
+            builder.append( '.');
+            if (nanos % 1_000_000 == 0) {
+                appendDigits( builder, nanos / 1_000_000, 3);
+            } else if (nanos % 1000 == 0) {
+                appendDigits( builder, nanos / 1000, 6);
+            } else {
+                appendDigits( builder, nanos, 9);
+            }
+        }
+        return builder.append( 'Z');
+    }
+
+    /**
+     * @param ticks 100 ns ticks since 1601-01-01 UTC
+     * @return the instant of the ticks as text
+     */
+    public static String toString( long ticks) {
+        return append( new StringBuilder( 30), ticks).toString();
+    }
+
+    private static StringBuilder appendDigits( StringBuilder builder, int value, int width) {
+        for (int divisor = pow10( width - 1); divisor > 0; divisor /= 10) {
+            builder.append( (char) ('0' + value / divisor % 10));
+        }
+        return builder;
+    }
+
+    private static int pow10( int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+}
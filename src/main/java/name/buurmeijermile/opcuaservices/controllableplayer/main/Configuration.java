@@ -30,7 +30,9 @@ import java.net.URL;
 import java.time.Duration;
 import java.time.LocalTime;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.jar.Manifest;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
@@ -53,7 +55,7 @@ import org.apache.commons.cli.ParseException;
 public class Configuration {
 
     public static enum ExitCode { NORMAL, CONFIGFILEERROR, DATAFILEERROR, WRONGMODE, 
-        WRONGDURATION, WRONGSAMPLINGINTERVAL, WRONGPUBLISHINGINTERVAL, TMPDIRFAILS, CONFIGFILEEXISTS, CONNECTIONFAILED};
+        WRONGDURATION, WRONGSAMPLINGINTERVAL, WRONGPUBLISHINGINTERVAL, TMPDIRFAILS, CONFIGFILEEXISTS, CONNECTIONFAILED, WRONGSEGMENTSETTING, WRONGFILTERSETTING};
     public static enum OperationMode { 
         PLAYER("player"), 
         RECORDER("recorder"),
@@ -98,13 +100,32 @@ public class Configuration {
     private static final String PUBLISHINGINTERVALKEYWORD = "publishinginterval";
     private static final String CAPTUREINFOMODELKEYWORD = "captureinformationmodel";
     private static final String STARTNODEKEYWORD = "startnode";
+    private static final String SEGMENTSIZEKEYWORD = "segmentsize";
+    private static final String SEGMENTINTERVALKEYWORD = "segmentinterval";
+    private static final String DEADBANDTYPEKEYWORD = "deadbandtype";
+    private static final String DEADBANDVALUEKEYWORD = "deadbandvalue";
+    private static final String CLIENTCOMPRESSIONKEYWORD = "clientcompression";
+    private static final String SAMPLERINGKEYWORD = "samplering";
+    private static final String METRICSPORTKEYWORD = "metricsport";
+    private static final String METRICSBINDKEYWORD = "metricsbind";
+    private static final String FLIGHTRECORDINGKEYWORD = "flightrecording";
+    private static final String REPLAYCACHEKEYWORD = "replaycache";
+    private static final String SUBSCRIPTIONMODELKEYWORD = "subscriptionmodel";
+    private static final String CLONESKEYWORD = "clones";
+    private static final String CLONEPREFIXKEYWORD = "cloneprefix";
+    private static final String CLONETIMEOFFSETKEYWORD = "clonetimeoffset";
+    private static final String CLONEVALUESTEPKEYWORD = "clonevaluestep";
     
     private static final String SECURITYFOLDERNAME = "opcua-player-recorder-security";
     
     private static final int    PORT = 12400; // default port
+    private static final Duration FLIGHTRECORDINGMAXAGE = Duration.ofHours( 1); // age of the oldest events kept by the flight recording
+    private static final long   FLIGHTRECORDINGMAXBYTES = 256L * 1024 * 1024; // size of the events kept by the flight recording
     
 
     private static Configuration PLAYERCONFIGURATIONSINGLETON;
+    // configuration of the player or recorder instance that runs on the current thread inside the web UI JVM
+    private static final ThreadLocal<Configuration> HOSTEDCONFIGURATION = new ThreadLocal<>();
 
     private String userPassword;
     private String plainUser;
@@ -114,12 +135,28 @@ public class Configuration {
     private File dataFile;
     private File configFile;
     private String configFileName;
+    private final List<File> configFiles = new ArrayList<>(); // node list files of the recorder, one shared or one per server
     private int port;
     private boolean captureInformationModel = false; // default value is false
     private String startNode = "ns=0;i=85"; //default is "Object" folder for browsing the information model
     private Duration recordingDuration;
     private Double samplingInterval = 250.0; // default value of 250 mS
     private Double publishingInterval = 500.0; // default value of 500mS
+    private long segmentMaxBytes = 0; // default 0 means no size bounded rotation of the recorder output
+    private Duration segmentInterval = null; // default null means no time bounded rotation of the recorder output
+    private String deadbandType = "none"; // default no server side deadband filter on the monitored items
+    private Double deadbandValue = 0.0; // default deadband of 0
+    private String clientCompression = "none"; // default no client side compression in front of the data logger
+    private int sampleRingCapacity = 1 << 18; // default number of preallocated sample slots between the subscriptions and the data logger
+    private int metricsPort = 0; // default 0 means no metrics listener of its own
+    private String metricsBindAddress = null; // default null means the loopback interface only
+    private File flightRecordingDirectory = null; // default null means no continuous flight recording
+    private long replayCacheBytes = 0; // default 0 means every pass of the player reads the data file
+    private String subscriptionModel = "push"; // default every new value of a measurement point is pushed to its monitored items
+    private int cloneCount = 1; // default the asset tree is served once
+    private String clonePrefix = "Clone"; // default start of the top level asset names of the clones
+    private long cloneTimeOffsetMillis = 0; // default the clones get the timestamps of the original
+    private double cloneValueStep = 0.0; // default the clones get the values of the original
     private String version = "0.0.0 - not run from jar file"; // default version nummer logged at startup
     private String appName = "noname - not run from jar file"; // default app name logged at startup
     private String namespace = "urn:SmileSoft:OPC_UA_Player"; // default namespace for the data that the player serves
@@ -131,6 +168,7 @@ public class Configuration {
     private boolean recordedFormat = false; // true if config file has recorded format (Format B)
     private Options options = new Options();
     private CommandLineParser parser = new DefaultParser();
+    private String hostedInstanceId = null; // set when this configuration belongs to an instance hosted in the web UI JVM
 
     private Configuration() {
         this.port = PORT;
@@ -143,11 +181,86 @@ public class Configuration {
     }
 
     public static Configuration getConfiguration() {
+        Configuration hostedConfiguration = HOSTEDCONFIGURATION.get();
+        if (hostedConfiguration != null) {
+            return hostedConfiguration;
+        }
         if (PLAYERCONFIGURATIONSINGLETON == null) {
             PLAYERCONFIGURATIONSINGLETON = new Configuration();
         }
         return PLAYERCONFIGURATIONSINGLETON;
     }
+
+    /**
+     * Creates the configuration of a player or recorder instance that runs inside the web UI JVM
+     * next to other instances. Code on a thread bound to it gets it from getConfiguration() and
+     * exit() throws an InstanceExitException instead of ending the JVM.
+     * @param anInstanceId the id of the hosted instance
+     * @return the new configuration
+     */
+    public static Configuration createHostedConfiguration( String anInstanceId) {
+        Configuration configuration = new Configuration();
+        configuration.hostedInstanceId = anInstanceId;
+        return configuration;
+    }
+
+    /**
+     * Binds the configuration of a hosted instance to the current thread, null unbinds it.
+     * @param aConfiguration the configuration to bind
+     */
+    public static void bindToCurrentThread( Configuration aConfiguration) {
+        if (aConfiguration == null) {
+            HOSTEDCONFIGURATION.remove();
+        } else {
+            HOSTEDCONFIGURATION.set( aConfiguration);
+        }
+    }
+
+    /**
+     * @return the configuration of the hosted instance bound to the current thread or null
+     */
+    public static Configuration getHostedConfiguration() {
+        return HOSTEDCONFIGURATION.get();
+    }
+
+    /**
+     * Wraps a runnable so that it runs with the hosted configuration of the thread that creates
+     * the wrapper, to be used for the threads a player or recorder starts itself.
+     * @param aRunnable the runnable to wrap
+     * @return the runnable bound to the current configuration
+     */
+    public static Runnable withCurrentConfiguration( Runnable aRunnable) {
+        Configuration hostedConfiguration = HOSTEDCONFIGURATION.get();
+        if (hostedConfiguration == null) {
+            return aRunnable;
+        }
+        return () -> {
+            HOSTEDCONFIGURATION.set( hostedConfiguration);
+            try {
+                aRunnable.run();
+            } finally {
+                HOSTEDCONFIGURATION.remove();
+            }
+        };
+    }
+
+    /**
+     * Ends the application with the given exit code, or only the instance when it is hosted in the web UI JVM.
+     * @param status the exit code
+     */
+    public void exit( int status) {
+        if (hostedInstanceId != null) {
+            throw new InstanceExitException( status);
+        }
+        System.exit( status);
+    }
+
+    /**
+     * @return the id of the hosted instance or null when this configuration is not hosted
+     */
+    public String getHostedInstanceId() {
+        return hostedInstanceId;
+    }
     
     private void createOptions() {
         options = new Options();
@@ -244,6 +357,108 @@ public class Configuration {
                 .desc("set from which tag downwards the information model of target servers needs to be captured")
                 .build();
         options.addOption(option);
+        // add segment size command line option
+        option = Option.builder(SEGMENTSIZEKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("roll the recorder output over to a new segment file after the given number of megabytes")
+                .build();
+        options.addOption(option);
+        // add segment interval command line option
+        option = Option.builder(SEGMENTINTERVALKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("roll the recorder output over to a new segment file after the given interval in 'hh:mm:ss' format")
+                .build();
+        options.addOption(option);
+        // add deadband type command line option
+        option = Option.builder(DEADBANDTYPEKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("set the deadband filter type of the monitored items: 'none', 'absolute' or 'percent'")
+                .build();
+        options.addOption(option);
+        // add deadband value command line option
+        option = Option.builder(DEADBANDVALUEKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("set the deadband value, an absolute value or a percentage of the EU range of the variable")
+                .build();
+        options.addOption(option);
+        // add client compression command line option
+        option = Option.builder(CLIENTCOMPRESSIONKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("compress received values before writing: 'none', 'deadband' or 'swingingdoor'")
+                .build();
+        options.addOption(option);
+        // add sample ring command line option
+        option = Option.builder(SAMPLERINGKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("number of received samples the recorder can hold before writing, newer samples are dropped when it is full")
+                .build();
+        options.addOption(option);
+        // add metrics port command line option
+        option = Option.builder(METRICSPORTKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("serve the metrics of this player or recorder on http://localhost:<port>/metrics")
+                .build();
+        options.addOption(option);
+        // add metrics bind address command line option
+        option = Option.builder(METRICSBINDKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("address of the interface the metrics are served on, default the loopback interface, 0.0.0.0 for all interfaces")
+                .build();
+        options.addOption(option);
+        // add flight recording command line option
+        option = Option.builder(FLIGHTRECORDINGKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("keep a continuous flight recording of the last hour on disk, dumped in this directory on exit")
+                .build();
+        options.addOption(option);
+        // add replay cache command line option
+        option = Option.builder(REPLAYCACHEKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("keep the data file in memory for the next passes in endless mode, when it fits in this many MB")
+                .build();
+        options.addOption(option);
+        // add subscription model command line option
+        option = Option.builder(SUBSCRIPTIONMODELKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("push every new value to the monitored items or sample the values on their sampling interval: push (default) or sampling")
+                .build();
+        options.addOption(option);
+        // add clone command line options
+        option = Option.builder(CLONESKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("serve the asset tree this many times, the original included, all fed by the one replay of the data file")
+                .build();
+        options.addOption(option);
+        option = Option.builder(CLONEPREFIXKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("the start of the top level folder names of the clones, followed by the clone number (default Clone)")
+                .build();
+        options.addOption(option);
+        option = Option.builder(CLONETIMEOFFSETKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("the timestamps of clone n are shifted n times this many milliseconds")
+                .build();
+        options.addOption(option);
+        option = Option.builder(CLONEVALUESTEPKEYWORD)
+                .required(false)
+                .hasArg(true)
+                .desc("the numeric values of clone n are multiplied by 1 + n times this step")
+                .build();
+        options.addOption(option);
     }
 
     public void processCommandLine(String[] args) {
@@ -274,7 +489,7 @@ public class Configuration {
                     logger.info( "- " + anOption.getOpt() + " => " + anOption.getDescription());
                 }
                 // and exit the VM
-                System.exit( ExitCode.NORMAL.ordinal());
+                this.exit( ExitCode.NORMAL.ordinal());
             }
             logger.log(Level.INFO, "Now interpreting the given command line arguments:");
             // check if mode was set, this must the first thing to check so that the mode 
@@ -300,7 +515,7 @@ public class Configuration {
                     }
                 } else { 
                     logger.log( Level.SEVERE, "Wrong mode, use '-mode player', '-mode recorder' or '-mode webui' as mode commandline option");
-                    System.exit( ExitCode.WRONGMODE.ordinal()); // exit application with proper exit code
+                    this.exit( ExitCode.WRONGMODE.ordinal()); // exit application with proper exit code
                 }
             } // no else needed becaause its an optional argument and the default mode is Player
             logger.log( Level.INFO, "Mode: " + this.mode.name());
@@ -319,12 +534,12 @@ public class Configuration {
                 if ( mode == OperationMode.PLAYER) {
                     if (!dataFile.exists() || !dataFile.canRead() || !dataFile.isFile()) {
                         logger.log(Level.SEVERE, "Data file " + dataFileString + " can't be read or does not exist");
-                        System.exit( ExitCode.DATAFILEERROR.ordinal()); // exit application with proper exit code
+                        this.exit( ExitCode.DATAFILEERROR.ordinal()); // exit application with proper exit code
                     }
                 } else if (mode == OperationMode.RECORDER) { // OK. RECORDER mode
                     if (dataFile.isDirectory()) {
                         logger.log(Level.SEVERE, "Data file " + dataFileString + " is a directory");
-                        System.exit( ExitCode.DATAFILEERROR.ordinal()); // exit application with proper exit code
+                        this.exit( ExitCode.DATAFILEERROR.ordinal()); // exit application with proper exit code
                     }
                     if (dataFile.exists()) {
                         logger.log(Level.WARNING, "Data file " + dataFileString + " exists and will be overwritten");
@@ -339,30 +554,36 @@ public class Configuration {
                 if ( mode ==  OperationMode.PLAYER) {
                     if (!configFile.exists() || !configFile.canRead()) {
                         logger.log(Level.SEVERE, "Config file %s can't be read or does not exist", getConfigFileName());
-                        System.exit( ExitCode.CONFIGFILEERROR.ordinal()); // exit application with proper exit code
+                        this.exit( ExitCode.CONFIGFILEERROR.ordinal()); // exit application with proper exit code
                     }
                     this.recordedFormat = detectRecordedFormat(configFile);
                 } else if (mode == OperationMode.RECORDER) { // so in RECORDER mode
                     if (cmd.hasOption(CAPTUREINFOMODELKEYWORD)) {
                         if (configFile.isDirectory()) {
                             logger.log(Level.SEVERE, "Config file is directory", getConfigFileName());
-                            System.exit( ExitCode.CONFIGFILEERROR.ordinal()); // exit application with proper exit code
+                            this.exit( ExitCode.CONFIGFILEERROR.ordinal()); // exit application with proper exit code
                         }
                         if (configFile.exists()) {
                             logger.log(Level.WARNING, "Config file " + getConfigFileName() + " exists and will be overwritten");
                         }
                     } else {
-                        if ( !configFile.exists() || configFile.isDirectory()) {
-                            logger.log(Level.SEVERE, "Config file does not exist or is directory", getConfigFileName());
-                            System.exit( ExitCode.CONFIGFILEERROR.ordinal()); // exit application with proper exit code
+                        // a comma separated list gives each server to record from its own node list file
+                        for (String aConfigFileName : getConfigFileName().split(",")) {
+                            File aConfigFile = new File( aConfigFileName.trim());
+                            if ( !aConfigFile.exists() || aConfigFile.isDirectory()) {
+                                logger.log(Level.SEVERE, "Config file does not exist or is directory: " + aConfigFileName.trim());
+                                this.exit( ExitCode.CONFIGFILEERROR.ordinal()); // exit application with proper exit code
+                            }
+                            configFiles.add( aConfigFile);
                         }
+                        configFile = configFiles.get(0);
                     }
                 }
             } else {
                 // flag missing -configfile command line option
                 logger.log(Level.SEVERE, "-configfile argument is missing");
                 if (mode != OperationMode.WEBUI) {
-                    System.exit(ExitCode.CONFIGFILEERROR.ordinal());
+                    this.exit(ExitCode.CONFIGFILEERROR.ordinal());
                 }
             }
             // check if uri was assigned
@@ -373,6 +594,72 @@ public class Configuration {
                 // flag missing -uri command line option
                 logger.log(Level.SEVERE, "uri argument is missing");
             }
+            // check if the metrics need to be served by a listener of this process
+            if (cmd.hasOption(METRICSPORTKEYWORD)) {
+                try {
+                    metricsPort = Integer.parseInt(cmd.getOptionValue(METRICSPORTKEYWORD));
+                    logger.log(Level.INFO, "Metrics port=" + metricsPort);
+                } catch (NumberFormatException nfe) {
+                    logger.log(Level.SEVERE, "Metrics port can not be parsed as integer, metrics are not served");
+                }
+            }
+            if (cmd.hasOption(METRICSBINDKEYWORD)) {
+                metricsBindAddress = cmd.getOptionValue(METRICSBINDKEYWORD);
+                logger.log(Level.INFO, "Metrics bind address=" + metricsBindAddress);
+            }
+            // check if a continuous flight recording is requested
+            if (cmd.hasOption(FLIGHTRECORDINGKEYWORD)) {
+                flightRecordingDirectory = new File(cmd.getOptionValue(FLIGHTRECORDINGKEYWORD));
+                logger.log(Level.INFO, "Flight recording directory=" + flightRecordingDirectory);
+            }
+            // check if the player keeps the data file in memory
+            if (cmd.hasOption(REPLAYCACHEKEYWORD)) {
+                try {
+                    replayCacheBytes = Long.parseLong(cmd.getOptionValue(REPLAYCACHEKEYWORD)) * 1024 * 1024;
+                    logger.log(Level.INFO, "Replay cache=" + cmd.getOptionValue(REPLAYCACHEKEYWORD) + " MB");
+                } catch (NumberFormatException nfe) {
+                    logger.log(Level.SEVERE, "Replay cache size can not be parsed as a number of MB, the data file is not cached");
+                }
+            }
+            // check how the monitored items of the player get their values
+            if (cmd.hasOption(SUBSCRIPTIONMODELKEYWORD)) {
+                String model = cmd.getOptionValue(SUBSCRIPTIONMODELKEYWORD).toLowerCase();
+                if (model.equals("push") || model.equals("sampling")) {
+                    subscriptionModel = model;
+                    logger.log(Level.INFO, "Subscription model=" + subscriptionModel);
+                } else {
+                    logger.log(Level.SEVERE, "Subscription model must be push or sampling, using " + subscriptionModel);
+                }
+            }
+            // check if the asset tree is served more than once
+            if (cmd.hasOption(CLONESKEYWORD)) {
+                try {
+                    cloneCount = Math.max(1, Integer.parseInt(cmd.getOptionValue(CLONESKEYWORD)));
+                    logger.log(Level.INFO, "Clones=" + cloneCount);
+                } catch (NumberFormatException nfe) {
+                    logger.log(Level.SEVERE, "Number of clones can not be parsed as integer, the asset tree is served once");
+                }
+            }
+            if (cmd.hasOption(CLONEPREFIXKEYWORD)) {
+                clonePrefix = cmd.getOptionValue(CLONEPREFIXKEYWORD);
+                logger.log(Level.INFO, "Clone prefix=" + clonePrefix);
+            }
+            if (cmd.hasOption(CLONETIMEOFFSETKEYWORD)) {
+                try {
+                    cloneTimeOffsetMillis = Long.parseLong(cmd.getOptionValue(CLONETIMEOFFSETKEYWORD));
+                    logger.log(Level.INFO, "Clone time offset=" + cloneTimeOffsetMillis + " ms");
+                } catch (NumberFormatException nfe) {
+                    logger.log(Level.SEVERE, "Clone time offset can not be parsed as a number of milliseconds, the clones are not shifted");
+                }
+            }
+            if (cmd.hasOption(CLONEVALUESTEPKEYWORD)) {
+                try {
+                    cloneValueStep = Double.parseDouble(cmd.getOptionValue(CLONEVALUESTEPKEYWORD));
+                    logger.log(Level.INFO, "Clone value step=" + cloneValueStep);
+                } catch (NumberFormatException nfe) {
+                    logger.log(Level.SEVERE, "Clone value step can not be parsed as a number, the clones are not scaled");
+                }
+            }
             // handle 'mode' specific commandline arguments
             if (mode.equals(OperationMode.PLAYER) || mode.equals(OperationMode.WEBUI)) {
                 // ===> player mode specific additional commands <===
@@ -412,7 +699,7 @@ public class Configuration {
                             recordingDuration = this.parseDuration( durationString);
                             logger.log(Level.INFO, "Duration=" + getRecordingDuration());
                             if (getRecordingDuration() == null) {
-                                System.exit( ExitCode.WRONGDURATION.ordinal()); // exit application with proper exit code
+                                this.exit( ExitCode.WRONGDURATION.ordinal()); // exit application with proper exit code
                             }
                         }
                         // check if sampling interval of the monitored items was set
@@ -427,7 +714,7 @@ public class Configuration {
                                 logger.log(Level.INFO, "Sampling interval=" + getSamplingInterval());
                             } else {
                                 logger.log(Level.SEVERE, "Sampling interval can not be negative");
-                                System.exit( ExitCode.WRONGSAMPLINGINTERVAL.ordinal()); // exit application with proper exit code
+                                this.exit( ExitCode.WRONGSAMPLINGINTERVAL.ordinal()); // exit application with proper exit code
                             }
                         }
                         // check if duration of the recording was assigned
@@ -442,7 +729,81 @@ public class Configuration {
                                 logger.log(Level.INFO, "Publishing interval=" + publishingInterval);
                             } else {
                                 logger.log(Level.SEVERE, "Publshing interval can not be negative");
-                                System.exit( ExitCode.WRONGPUBLISHINGINTERVAL.ordinal()); // exit application with proper exit code
+                                this.exit( ExitCode.WRONGPUBLISHINGINTERVAL.ordinal()); // exit application with proper exit code
+                            }
+                        }
+                        // check if the recorder output needs to be rolled over in size bounded segments
+                        if (cmd.hasOption(SEGMENTSIZEKEYWORD)) {
+                            String segmentSizeString = cmd.getOptionValue(SEGMENTSIZEKEYWORD);
+                            try {
+                                segmentMaxBytes = Long.parseLong(segmentSizeString) * 1024 * 1024;
+                            } catch (NumberFormatException nfe) {
+                                segmentMaxBytes = -1;
+                            }
+                            if (segmentMaxBytes > 0) {
+                                logger.log(Level.INFO, "Segment size=" + segmentSizeString + "MB");
+                            } else {
+                                logger.log(Level.SEVERE, "Segment size must be a positive number of megabytes");
+                                this.exit( ExitCode.WRONGSEGMENTSETTING.ordinal()); // exit application with proper exit code
+                            }
+                        }
+                        // check if the recorder output needs to be rolled over in time bounded segments
+                        if (cmd.hasOption(SEGMENTINTERVALKEYWORD)) {
+                            String segmentIntervalString = cmd.getOptionValue(SEGMENTINTERVALKEYWORD);
+                            segmentInterval = this.parseDuration( segmentIntervalString);
+                            if (segmentInterval != null && !segmentInterval.isZero()) {
+                                logger.log(Level.INFO, "Segment interval=" + segmentInterval);
+                            } else {
+                                logger.log(Level.SEVERE, "Segment interval must be a non zero duration in 'hh:mm:ss' format");
+                                this.exit( ExitCode.WRONGSEGMENTSETTING.ordinal()); // exit application with proper exit code
+                            }
+                        }
+                        // check if a deadband filter type was set
+                        if (cmd.hasOption(DEADBANDTYPEKEYWORD)) {
+                            deadbandType = cmd.getOptionValue(DEADBANDTYPEKEYWORD).toLowerCase();
+                            if (deadbandType.equals("none") || deadbandType.equals("absolute") || deadbandType.equals("percent")) {
+                                logger.log(Level.INFO, "Deadband type=" + deadbandType);
+                            } else {
+                                logger.log(Level.SEVERE, "Deadband type must be 'none', 'absolute' or 'percent'");
+                                this.exit( ExitCode.WRONGFILTERSETTING.ordinal()); // exit application with proper exit code
+                            }
+                        }
+                        // check if a deadband value was set
+                        if (cmd.hasOption(DEADBANDVALUEKEYWORD)) {
+                            String deadbandValueString = cmd.getOptionValue(DEADBANDVALUEKEYWORD);
+                            try {
+                                deadbandValue = Double.parseDouble(deadbandValueString);
+                            } catch (NumberFormatException nfe) {
+                                deadbandValue = -1.0;
+                            }
+                            if (deadbandValue < 0.0 || (deadbandType.equals("percent") && deadbandValue > 100.0)) {
+                                logger.log(Level.SEVERE, "Deadband value must be a positive number, and at most 100 for a percent deadband");
+                                this.exit( ExitCode.WRONGFILTERSETTING.ordinal()); // exit application with proper exit code
+                            }
+                            logger.log(Level.INFO, "Deadband value=" + deadbandValue);
+                        }
+                        // check if client side compression was requested
+                        if (cmd.hasOption(CLIENTCOMPRESSIONKEYWORD)) {
+                            clientCompression = cmd.getOptionValue(CLIENTCOMPRESSIONKEYWORD).toLowerCase();
+                            if (clientCompression.equals("none") || clientCompression.equals("deadband") || clientCompression.equals("swingingdoor")) {
+                                logger.log(Level.INFO, "Client compression=" + clientCompression);
+                            } else {
+                                logger.log(Level.SEVERE, "Client compression must be 'none', 'deadband' or 'swingingdoor'");
+                                this.exit( ExitCode.WRONGFILTERSETTING.ordinal()); // exit application with proper exit code
+                            }
+                        }
+                        // check if the number of sample slots of the recorder was set
+                        if (cmd.hasOption(SAMPLERINGKEYWORD)) {
+                            try {
+                                int capacity = Integer.parseInt(cmd.getOptionValue(SAMPLERINGKEYWORD));
+                                if (capacity > 0 && capacity <= (1 << 30)) {
+                                    sampleRingCapacity = capacity;
+                                    logger.log(Level.INFO, "Sample ring=" + sampleRingCapacity + " samples");
+                                } else {
+                                    logger.log(Level.SEVERE, "Sample ring must be between 1 and " + (1 << 30) + " samples, using " + sampleRingCapacity);
+                                }
+                            } catch (NumberFormatException nfe) {
+                                logger.log(Level.SEVERE, "Sample ring can not be parsed as a number of samples, using " + sampleRingCapacity);
                             }
                         }
                     }
@@ -592,6 +953,26 @@ public class Configuration {
         return uri;
     }
 
+    /**
+     * @return the uris of the servers to record from, given as a comma separated list with the uri option
+     */
+    public List<String> getUris() {
+        List<String> uris = new ArrayList<>();
+        for (String aUri : uri.split(",")) {
+            if (!aUri.trim().isEmpty()) {
+                uris.add( aUri.trim());
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * @return the node list files of the recorder, a single file is shared by all servers
+     */
+    public List<File> getConfigFiles() {
+        return configFiles;
+    }
+
     /**
      * @return the serviceName
      */
@@ -620,6 +1001,132 @@ public class Configuration {
         return publishingInterval;
     }
 
+    /**
+     * @return the maximum size in bytes of a recorder output segment, 0 if not size bounded
+     */
+    public long getSegmentMaxBytes() {
+        return segmentMaxBytes;
+    }
+
+    /**
+     * @return the wall clock interval of a recorder output segment, null if not time bounded
+     */
+    public Duration getSegmentInterval() {
+        return segmentInterval;
+    }
+
+    /**
+     * @return true if the recorder output is rolled over in segments
+     */
+    public boolean isSegmentedRecording() {
+        return segmentMaxBytes > 0 || segmentInterval != null;
+    }
+
+    /**
+     * @return the global deadband type: "none", "absolute" or "percent"
+     */
+    public String getDeadbandType() {
+        return deadbandType;
+    }
+
+    /**
+     * @return the global deadband value
+     */
+    public Double getDeadbandValue() {
+        return deadbandValue;
+    }
+
+    /**
+     * @return the client side compression: "none", "deadband" or "swingingdoor"
+     */
+    public String getClientCompression() {
+        return clientCompression;
+    }
+
+    /**
+     * @return the number of samples the recorder holds between the subscriptions and the data logger
+     */
+    public int getSampleRingCapacity() {
+        return sampleRingCapacity;
+    }
+
+    /**
+     * @return the port of the metrics listener, 0 when there is none
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return the address of the interface the metrics are served on, null for the loopback interface
+     */
+    public String getMetricsBindAddress() {
+        return metricsBindAddress;
+    }
+
+    /**
+     * @return the directory the continuous flight recording is dumped in, null when there is no flight recording
+     */
+    public File getFlightRecordingDirectory() {
+        return flightRecordingDirectory;
+    }
+
+    /**
+     * @return the age of the oldest events the continuous flight recording keeps
+     */
+    public Duration getFlightRecordingMaxAge() {
+        return FLIGHTRECORDINGMAXAGE;
+    }
+
+    /**
+     * @return the size of the events the continuous flight recording keeps
+     */
+    public long getFlightRecordingMaxBytes() {
+        return FLIGHTRECORDINGMAXBYTES;
+    }
+
+    /**
+     * @return the memory cap of the replay cache of the player, 0 when the data file is not cached
+     */
+    public long getReplayCacheBytes() {
+        return replayCacheBytes;
+    }
+
+    /**
+     * @return true when new values are pushed to the monitored items instead of sampled
+     */
+    public boolean isPushSubscriptionModel() {
+        return subscriptionModel.equals("push");
+    }
+
+    /**
+     * @return the number of times the asset tree is served, the original included
+     */
+    public int getCloneCount() {
+        return cloneCount;
+    }
+
+    /**
+     * @return the clonePrefix
+     */
+    public String getClonePrefix() {
+        return clonePrefix;
+    }
+
+    /**
+     * @return the cloneTimeOffsetMillis
+     */
+    public long getCloneTimeOffsetMillis() {
+        return cloneTimeOffsetMillis;
+    }
+
+    /**
+     * @return the cloneValueStep
+     */
+    public double getCloneValueStep() {
+        return cloneValueStep;
+    }
+
     /**
      * @return the captureInformationModel
      */
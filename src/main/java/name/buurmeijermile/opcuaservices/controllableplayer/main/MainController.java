@@ -5,6 +5,8 @@
  */
 package name.buurmeijermile.opcuaservices.controllableplayer.main;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
@@ -15,6 +17,9 @@ import name.buurmeijermile.opcuaservices.controllableplayer.measurements.DataCon
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.DataFilePlayerController;
 import name.buurmeijermile.opcuaservices.controllableplayer.server.OPCUAPlayerServer;
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration.OperationMode;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.FlightRecorderEvents;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsHttpServer;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsRegistry;
 import name.buurmeijermile.opcuaservices.controllableplayer.server.PlayerNamespace;
 import name.buurmeijermile.opcuaservices.utils.Waiter;
 import name.buurmeijermile.opcuaservices.controllableplayer.web.WebUIServer;
@@ -27,6 +32,7 @@ public class MainController implements Runnable {
     private OPCUAPlayerServer playerServer = null;
     private DataControllerInterface theDataControllerInterface = null;
     private Configuration configuration;
+    private MetricsHttpServer metricsHttpServer = null;
     private Logger logger = Logger.getLogger(MainController.class.getName());
     
     public void processCommandlineArguments( String [] args) {
@@ -36,6 +42,8 @@ public class MainController implements Runnable {
             configuration.processCommandLine( args);
             // print version info
             logger.log(Level.INFO, "Version: " + configuration.getAppName() + " | " + configuration.getVersion());
+        } catch ( InstanceExitException ex) {
+            throw ex; // a hosted instance ends here instead of the JVM
         } catch ( Exception ex) {
             logger.log(Level.SEVERE, "Opc Ua Server exxception thrown", ex);
         }
@@ -45,6 +53,14 @@ public class MainController implements Runnable {
     public void run() {
         OperationMode operationMode = configuration.getMode();
         logger.log( Level.INFO, "Running in mode:" + operationMode.name());
+        // the web UI serves the metrics itself, also those of the instances it hosts
+        if (configuration.getMetricsPort() > 0 && operationMode != OperationMode.WEBUI) {
+            this.startMetricsHttpServer();
+        }
+        // the flight recording covers the whole JVM, also the instances the web UI hosts
+        if (configuration.getFlightRecordingDirectory() != null) {
+            FlightRecorderEvents.startContinuousRecording( configuration.getFlightRecordingDirectory(), configuration.getFlightRecordingMaxAge(), configuration.getFlightRecordingMaxBytes());
+        }
         switch (operationMode) {
             case PLAYER: {
                 this.startupPlayerServer();
@@ -61,7 +77,7 @@ public class MainController implements Runnable {
             }
             default: {
                 logger.warning("This default should not have happened");
-                System.exit( Configuration.ExitCode.WRONGMODE.ordinal());
+                configuration.exit( Configuration.ExitCode.WRONGMODE.ordinal());
                 break;
             }
         }
@@ -107,6 +123,39 @@ public class MainController implements Runnable {
         }
     }
     
+    private void startMetricsHttpServer() {
+        try {
+            if (configuration.getMetricsBindAddress() != null) {
+                metricsHttpServer = new MetricsHttpServer( InetAddress.getByName( configuration.getMetricsBindAddress()), configuration.getMetricsPort(), MetricsRegistry.getDefault());
+            } else {
+                metricsHttpServer = new MetricsHttpServer( configuration.getMetricsPort(), MetricsRegistry.getDefault());
+            }
+            metricsHttpServer.start();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Metrics listener can not be started on port " + configuration.getMetricsPort(), ex);
+        }
+    }
+
+    /**
+     * Stops the player server and its data controller, used for players hosted in the web UI JVM.
+     */
+    public void shutdown() {
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+            metricsHttpServer = null;
+        }
+        if (theDataControllerInterface instanceof DataFilePlayerController) {
+            ((DataFilePlayerController) theDataControllerInterface).shutDown();
+        }
+        if (playerServer != null) {
+            try {
+                playerServer.shutdown().get();
+            } catch (InterruptedException | ExecutionException ex) {
+                logger.log(Level.WARNING, "Player server did not shut down cleanly", ex);
+            }
+        }
+    }
+
     private void startRecorderClient() {
         RecorderClient recorderClient = new RecorderClient();
         recorderClient.start();
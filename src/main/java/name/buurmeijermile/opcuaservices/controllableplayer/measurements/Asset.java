@@ -24,7 +24,9 @@
 package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Asset is the object of interest that is exposed through this OPC UA
@@ -42,6 +44,7 @@ public class Asset {
     private String id;
     private Asset parent;
     private List<Asset> children;
+    private final Map<String, Asset> childrenByShortName; // the first child per short name, to find children without searching
 
     /**
      * Creates an Asset with the given name.
@@ -52,6 +55,7 @@ public class Asset {
         this.name = aName;
         this.id = anId;
         this.children = new ArrayList<>();
+        this.childrenByShortName = new HashMap<>();
         this.shortName = this.deriveShortName();
         this.parent = null;
     }
@@ -145,13 +149,22 @@ public class Asset {
         return children;
     }
     
+    /**
+     * @param aShortName the short name of the child
+     * @return the first child with this short name, or null when there is none
+     */
+    public Asset getChild( String aShortName) {
+        return this.childrenByShortName.get( aShortName);
+    }
+
     /**
      * set child
      * @param 
      */
     public void addChild( Asset child) {
         // check if it already exists
-        if (!this.children.contains( child)) {
+        Asset sameName = this.childrenByShortName.putIfAbsent( child.getShortName(), child);
+        if (sameName == null || (sameName != child && !this.children.contains( child))) {
             this.children.add( child);
         }
     }
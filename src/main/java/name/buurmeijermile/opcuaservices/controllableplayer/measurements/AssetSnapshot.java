@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Compact binary copy of the asset tree built from a CSV or JSON config, stored next to the config
+ * in a sidecar file. It holds the assets, their measurement points and the outcome of the
+ * dependency analysis of the simulation controller, so a later start restores the tree without
+ * reading the config or searching the dependencies of the simulations again. The snapshot uses the
+ * header of the node snapshot: it is keyed on the SHA-256 hash of the config and its body is
+ * checked on length and CRC-32 before it is read.
+ * The simulation expressions, the simulation workers and the OPC UA nodes are still created on
+ * every start, they hold state of the running player.
+ *
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class AssetSnapshot {
+    public static final String SIDECARSUFFIX = ".assets";
+    private static final Logger LOGGER = Logger.getLogger( AssetSnapshot.class.getName());
+    private static final int MAGIC = 0x4F504153; // "OPAS"
+    private static final int VERSION = 1;
+    private static final int BUFFERSIZE = 64 * 1024;
+    private static final Map<NodeId, String> DATATYPENAMES = new HashMap<>();
+
+    static {
+        PointInTime.SUPPORTED_DATATYPES.forEach( (name, dataType) -> DATATYPENAMES.putIfAbsent( dataType, name));
+    }
+
+    private final Assets assets = new Assets();
+    private final Map<MeasurementPoint, Map<String, MeasurementPoint>> dependingMeasurementPoints = new IdentityHashMap<>();
+    private final Set<MeasurementPoint> unsimulatedMeasurementPoints = Collections.newSetFromMap( new IdentityHashMap<>());
+
+    private AssetSnapshot() {
+        // only restored
+    }
+
+    /**
+     * @param configFile the config
+     * @return the snapshot file belonging to the config
+     */
+    public static File getSnapshotFile( File configFile) {
+        return new File( configFile.getPath() + SIDECARSUFFIX);
+    }
+
+    /**
+     * Restores the asset tree of the config from its snapshot.
+     * @param configFile the config
+     * @return the restored snapshot, null when there is no intact snapshot of the current contents of the config
+     */
+    public static AssetSnapshot restore( File configFile) {
+        File snapshotFile = getSnapshotFile( configFile);
+        if (!OpcNodeSnapshot.isValidFor( configFile, snapshotFile, MAGIC, VERSION)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream( new BufferedInputStream( Files.newInputStream( snapshotFile.toPath()), BUFFERSIZE))) {
+            input.skipBytes( OpcNodeSnapshot.NODESOFFSET);
+            AssetSnapshot snapshot = new AssetSnapshot();
+            snapshot.read( input);
+            return snapshot;
+        } catch (IOException | RuntimeException ex) {
+            // unknown enum constants and node ids end up here as well
+            LOGGER.log(Level.WARNING, "Snapshot " + snapshotFile.getName() + " can not be restored and is removed, the config is read instead", ex);
+            try {
+                Files.deleteIfExists( snapshotFile.toPath());
+            } catch (IOException deleteException) {
+                LOGGER.log(Level.WARNING, "Snapshot " + snapshotFile.getName() + " can not be removed", deleteException);
+            }
+            return null;
+        }
+    }
+
+    private void read( DataInputStream input) throws IOException {
+        List<String> strings = new ArrayList<>();
+        this.assets.setSimulations( input.readBoolean());
+        int assetCount = input.readInt();
+        List<Asset> restoredAssets = new ArrayList<>( assetCount);
+        for (int i = 0; i < assetCount; i++) {
+            String name = OpcNodeSnapshot.readString( input, strings);
+            String id = OpcNodeSnapshot.readString( input, strings);
+            int parentIndex = input.readInt();
+            // parents are created before their children
+            Asset parent = parentIndex >= 0 ? restoredAssets.get( parentIndex) : null;
+            restoredAssets.add( this.assets.addRestoredAsset( name, id, parent));
+        }
+        int pointCount = input.readInt();
+        List<MeasurementPoint> restoredPoints = new ArrayList<>( pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            Asset asset = restoredAssets.get( input.readInt());
+            MeasurementPoint aMeasurementPoint = new MeasurementPointBuilder()
+                    .setName( OpcNodeSnapshot.readString( input, strings))
+                    .setId( Integer.toString( input.readInt()))
+                    .setPhysicalQuantity( OpcNodeSnapshot.readString( input, strings))
+                    .setUnitOfMeasure( OpcNodeSnapshot.readString( input, strings))
+                    .setUnitPrefix( OpcNodeSnapshot.readString( input, strings))
+                    .setAccessRight( OpcNodeSnapshot.readString( input, strings))
+                    .setDataType( OpcNodeSnapshot.readString( input, strings))
+                    .setParentAsset( asset)
+                    .build();
+            if (aMeasurementPoint == null) {
+                throw new IOException( "Measurement point " + i + " is not valid");
+            }
+            String customNodeId = OpcNodeSnapshot.readString( input, strings);
+            if (customNodeId != null) {
+                aMeasurementPoint.setCustomNodeId( NodeId.parse( customNodeId));
+            }
+            if (input.readBoolean()) {
+                aMeasurementPoint.setMinumumSamplingInterval( input.readDouble());
+            }
+            this.assets.addRestoredMeasurementPoint( asset, aMeasurementPoint);
+            restoredPoints.add( aMeasurementPoint);
+        }
+        int simulatedCount = input.readInt();
+        for (int i = 0; i < simulatedCount; i++) {
+            MeasurementPoint aMeasurementPoint = restoredPoints.get( input.readInt());
+            if (!input.readBoolean()) {
+                this.unsimulatedMeasurementPoints.add( aMeasurementPoint);
+            }
+            int dependencyCount = input.readInt();
+            if (dependencyCount > 0) {
+                Map<String, MeasurementPoint> dependencies = new HashMap<>();
+                for (int j = 0; j < dependencyCount; j++) {
+                    String variable = OpcNodeSnapshot.readString( input, strings);
+                    dependencies.put( variable, restoredPoints.get( input.readInt()));
+                }
+                this.dependingMeasurementPoints.put( aMeasurementPoint, dependencies);
+            }
+        }
+    }
+
+    /**
+     * @return the restored assets
+     */
+    public Assets getAssets() {
+        return this.assets;
+    }
+
+    /**
+     * @param aMeasurementPoint a simulated measurement point of the restored assets
+     * @return the measurement points the simulation of the measurement point depends on, null when there are none
+     */
+    Map<String, MeasurementPoint> getDependingMeasurementPoints( MeasurementPoint aMeasurementPoint) {
+        return this.dependingMeasurementPoints.get( aMeasurementPoint);
+    }
+
+    /**
+     * @param aMeasurementPoint a simulated measurement point of the restored assets
+     * @return true when the simulation of the measurement point was switched off by the dependency analysis
+     */
+    boolean isUnsimulated( MeasurementPoint aMeasurementPoint) {
+        return this.unsimulatedMeasurementPoints.contains( aMeasurementPoint);
+    }
+
+    /**
+     * Writes the snapshot of the asset tree while it is built. The assets are written before the
+     * simulation controller renames the simulated measurement points, the outcome of its
+     * dependency analysis after it. The snapshot only replaces the previous one on commit.
+     */
+    public static class Writer implements Closeable {
+        private final byte[] configHash;
+        private final OpcNodeSnapshot.Writer writer;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<MeasurementPoint, Integer> pointIndexes = new IdentityHashMap<>();
+        private List<MeasurementPoint> simulatedMeasurementPoints = Collections.emptyList();
+
+        /**
+         * @param aConfigFile the config the asset tree is about to be built from
+         * @throws IOException when the config can not be hashed or the snapshot can not be created next to it
+         */
+        public Writer( File aConfigFile) throws IOException {
+            // hashed before the config is read, a config that changes while it is read makes the snapshot outdated instead of wrong
+            this.configHash = OpcNodeSnapshot.hashOf( aConfigFile);
+            this.writer = new OpcNodeSnapshot.Writer( aConfigFile, getSnapshotFile( aConfigFile), SIDECARSUFFIX, MAGIC, VERSION);
+        }
+
+        /**
+         * @param someAssets the assets as built from the config, before the simulation controller is created
+         * @throws IOException
+         */
+        public void writeAssets( Assets someAssets) throws IOException {
+            DataOutputStream output = this.writer.getOutput();
+            output.writeBoolean( someAssets.containsSimulations());
+            List<Asset> flattenedAssets = someAssets.getFlattenedAssets();
+            Map<Asset, Integer> assetIndexes = new IdentityHashMap<>();
+            output.writeInt( flattenedAssets.size());
+            for (Asset anAsset : flattenedAssets) {
+                OpcNodeSnapshot.writeString( output, anAsset.getName(), this.strings);
+                OpcNodeSnapshot.writeString( output, anAsset.getId(), this.strings);
+                Integer parentIndex = anAsset.getParent() != null ? assetIndexes.get( anAsset.getParent()) : null;
+                output.writeInt( parentIndex != null ? parentIndex : -1);
+                assetIndexes.put( anAsset, assetIndexes.size());
+            }
+            List<MeasurementPoint> measurementPoints = someAssets.getAllMeasurementPoints();
+            output.writeInt( measurementPoints.size());
+            for (MeasurementPoint aMeasurementPoint : measurementPoints) {
+                Integer assetIndex = assetIndexes.get( aMeasurementPoint.getParentAsset());
+                String dataType = DATATYPENAMES.get( aMeasurementPoint.getDataType());
+                if (assetIndex == null || dataType == null) {
+                    throw new IOException( "Measurement point " + aMeasurementPoint.getName() + " can not be kept in the snapshot");
+                }
+                output.writeInt( assetIndex);
+                OpcNodeSnapshot.writeString( output, aMeasurementPoint.getName(), this.strings);
+                output.writeInt( aMeasurementPoint.getId());
+                OpcNodeSnapshot.writeString( output, aMeasurementPoint.getThePhysicalQuantity().name(), this.strings);
+                OpcNodeSnapshot.writeString( output, aMeasurementPoint.getTheBaseUnitOfMeasure().name(), this.strings);
+                OpcNodeSnapshot.writeString( output, aMeasurementPoint.getTheUnitPrefix().name(), this.strings);
+                OpcNodeSnapshot.writeString( output, aMeasurementPoint.getAccessRight().name(), this.strings);
+                OpcNodeSnapshot.writeString( output, dataType, this.strings);
+                NodeId customNodeId = aMeasurementPoint.getCustomNodeId();
+                OpcNodeSnapshot.writeString( output, customNodeId != null ? customNodeId.toParseableString() : null, this.strings);
+                Double interval = aMeasurementPoint.getMinimumSamplingInterval();
+                output.writeBoolean( interval != null);
+                if (interval != null) {
+                    output.writeDouble( interval);
+                }
+                this.pointIndexes.put( aMeasurementPoint, this.pointIndexes.size());
+            }
+            this.simulatedMeasurementPoints = someAssets.getSimulatedMeasurementPoints();
+        }
+
+        /**
+         * Writes the outcome of the dependency analysis, call this once the simulation controller is created.
+         * @throws IOException
+         */
+        public void writeSimulations() throws IOException {
+            DataOutputStream output = this.writer.getOutput();
+            output.writeInt( this.simulatedMeasurementPoints.size());
+            for (MeasurementPoint aMeasurementPoint : this.simulatedMeasurementPoints) {
+                output.writeInt( this.pointIndexes.get( aMeasurementPoint));
+                output.writeBoolean( aMeasurementPoint.isSimulated());
+                Map<String, MeasurementPoint> dependencies = aMeasurementPoint.getDependingMeasurementPointMap();
+                output.writeInt( dependencies.size());
+                for (Map.Entry<String, MeasurementPoint> dependency : dependencies.entrySet()) {
+                    Integer pointIndex = this.pointIndexes.get( dependency.getValue());
+                    if (pointIndex == null) {
+                        throw new IOException( "Measurement point " + aMeasurementPoint.getName() + " depends on a measurement point outside the snapshot");
+                    }
+                    OpcNodeSnapshot.writeString( output, dependency.getKey(), this.strings);
+                    output.writeInt( pointIndex);
+                }
+            }
+        }
+
+        /**
+         * Completes the snapshot and puts it in place of the previous one.
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            this.writer.complete( this.configHash);
+        }
+
+        /**
+         * Removes the unfinished snapshot when it was not committed.
+         */
+        @Override
+        public void close() {
+            this.writer.close();
+        }
+    }
+}
@@ -25,7 +25,10 @@ package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
@@ -38,13 +41,18 @@ public class Assets {
     
     public static String ASSETNAMESSEPARATORREGEX = "\\" + MeasurementPoint.ASSETNAMESEPERATORTOKEN; // the dot is the asset name seperator token
     
-    private List<Asset> flatAssetList; // linear list holding all assets in flat hierarchy structure
+    private final List<Asset> flatAssetList; // linear list holding all assets in flat hierarchy structure, in order of creation
     private final List<Asset> hierarchicalAssetList; // short list of only the top level flatAssetList in the hierarchy
+    private final Map<String, Asset> topLevelAssetsByShortName; // the first top level asset per short name
+    private final List<MeasurementPoint> allMeasurementPoints; // the measurement points of all assets, in order of adding
+    private List<MeasurementPoint> simulatedMeasurementPoints = null; // built on demand from all measurement points
     private boolean simulations = false;
     
     public Assets() {
         this.flatAssetList = new ArrayList<>();
         this.hierarchicalAssetList = new ArrayList<>();
+        this.topLevelAssetsByShortName = new HashMap<>();
+        this.allMeasurementPoints = new ArrayList<>();
     }
     
     public void addAsset( AssetConfigurationItem anAssetConfigurationItem) {
@@ -73,7 +81,7 @@ public class Assets {
                             .build();
             // check if measurement point was properly build, its not when incomplete
             if ( aMeasurementPoint != null) {
-                theAsset.addMeasurementPoint( aMeasurementPoint); // add measurement point to asset
+                this.addMeasurementPoint( theAsset, aMeasurementPoint); // add measurement point to asset
                 if ( aMeasurementPoint.isSimulated()) {
                     this.simulations = true; // make note that there is at least one simulated measurement point in the configured assets
                 }
@@ -112,16 +120,13 @@ public class Assets {
             return null;
         }
         Asset resultAsset = null;
-        List<Asset> theCurrentAssetList;
-        // check for initial situation where it start finding flatAssetList
+        // find asset on this level in the hierarchy, the top level when there is no parent yet
+        Asset theAsset;
         if (parentAsset == null) {
-            // OK we are now at the top level, so the main asset list
-            theCurrentAssetList = this.hierarchicalAssetList;
+            theAsset = this.topLevelAssetsByShortName.get( namePartsList.get(index));
         } else {
-            theCurrentAssetList = parentAsset.getChildren();
+            theAsset = parentAsset.getChild( namePartsList.get(index));
         }
-        // find asset on this level in the hierarchy      
-        Asset theAsset = theCurrentAssetList.stream().filter( asset -> asset.getShortName().contentEquals( namePartsList.get(index))).findFirst().orElse( null);
         // check if asset was found
         if ( theAsset !=  null) {
             // OK it existed, check if the ID is correct
@@ -144,10 +149,12 @@ public class Assets {
             newAsset.setParent( parentAsset);
             // lets add anAsset to this level
             if (parentAsset == null) {
-                theCurrentAssetList.add( newAsset);
+                this.hierarchicalAssetList.add( newAsset);
+                this.topLevelAssetsByShortName.putIfAbsent( newAsset.getShortName(), newAsset);
             } else {
                 parentAsset.addChild(newAsset);
             }
+            this.flatAssetList.add( newAsset);
             resultAsset = newAsset;
         }
         int nextIndex = index + 1; // move to the next level in the hierarchy
@@ -160,69 +167,142 @@ public class Assets {
         return resultAsset;
     }
     
+    /**
+     * @return all assets of the hierarchy, in the order they were created
+     */
     public List<Asset> getFlattenedAssets() {
-        List<Asset> tempFlatAssetList = new ArrayList<>();
-        if (this.flatAssetList == null || this.flatAssetList.size() == 0) {
-            this.flatAssetList = this.getFlattendAssets( this.hierarchicalAssetList, 0, tempFlatAssetList);
-        }
-        return this.flatAssetList;
-    }
-    
-    public List<Asset> getFlattendAssets( List<Asset> startList, int level, List<Asset> destinationList) {
-        startList.forEach( asset -> {
-            if ( !destinationList.contains( asset)) {
-                destinationList.add( asset);
-            }
-            int newLevel = level + 1;
-            List<Asset> children = asset.getChildren();
-            if ( children != null && children.size() > 0) {
-                List<Asset> flatChildList = getFlattendAssets( children, newLevel, destinationList);
-                flatChildList.forEach( flatChild -> {
-                    if ( !destinationList.contains( flatChild)) {
-                        destinationList.add( flatChild);
-                    }
-                });
-           }
-        });
-        return destinationList;
+        return Collections.unmodifiableList( this.flatAssetList);
     }
         
     public List<Asset> getHierachicalAssets() {
         return this.hierarchicalAssetList;
     }
     
+    /**
+     * @return the simulated measurement points, the list is kept until the next measurement point is added
+     */
     public List<MeasurementPoint> getSimulatedMeasurementPoints(){
-        return this.getMeasurementPoints( true);
+        if (this.simulatedMeasurementPoints == null) {
+            List<MeasurementPoint> resultList = new ArrayList<>();
+            for (MeasurementPoint aMeasurementPoint: this.allMeasurementPoints) {
+                if ( aMeasurementPoint.isSimulated()) { 
+                    resultList.add(aMeasurementPoint);
+                }
+            }
+            this.simulatedMeasurementPoints = Collections.unmodifiableList( resultList);
+        }
+        return this.simulatedMeasurementPoints;
     }
     
+    /**
+     * @return the measurement points of all assets, in the order they were added
+     */
     public List<MeasurementPoint> getAllMeasurementPoints(){
-        return this.getMeasurementPoints( false);
+        return Collections.unmodifiableList( this.allMeasurementPoints);
     }
 
     public List<MeasurementPoint> getMeasurementPoints( boolean onlySimulated){
-        List<MeasurementPoint> resultList = new ArrayList<>();
-        this.flatAssetList = this.getFlattenedAssets(); // make sure we have got the latest list
-        // iterate over the assets and their measurement points
-        for (Asset anAsset: this.flatAssetList) {
-            List<MeasurementPoint> measurementPointList = anAsset.getMeasurementPoints();
-            for (MeasurementPoint aMeasurementPoint: measurementPointList) {
-                if (onlySimulated) {
-                    if ( aMeasurementPoint.isSimulated()) { 
-                        resultList.add(aMeasurementPoint);
-                    }
-                } else {
-                    resultList.add(aMeasurementPoint);
-                }
+        return onlySimulated ? this.getSimulatedMeasurementPoints() : this.getAllMeasurementPoints();
+    }
+
+    private void addMeasurementPoint( Asset anAsset, MeasurementPoint aMeasurementPoint) {
+        anAsset.addMeasurementPoint( aMeasurementPoint);
+        this.allMeasurementPoints.add( aMeasurementPoint);
+        this.simulatedMeasurementPoints = null; // rebuilt on the next request
+    }
+
+    /**
+     * Adds an asset of an asset tree restored from a snapshot, the assets come in the order they were created.
+     * @param aName the short name of the asset
+     * @param anId the id of the asset
+     * @param aParent the parent of the asset, null for a top level asset
+     * @return the added asset
+     */
+    Asset addRestoredAsset( String aName, String anId, Asset aParent) {
+        Asset newAsset = new Asset( aName, anId);
+        newAsset.setParent( aParent);
+        if (aParent == null) {
+            this.hierarchicalAssetList.add( newAsset);
+            this.topLevelAssetsByShortName.putIfAbsent( newAsset.getShortName(), newAsset);
+        } else {
+            aParent.addChild( newAsset);
+        }
+        this.flatAssetList.add( newAsset);
+        return newAsset;
+    }
+
+    /**
+     * Adds a measurement point of an asset tree restored from a snapshot, in the order they were added.
+     * @param anAsset the restored asset of the measurement point
+     * @param aMeasurementPoint the restored measurement point
+     */
+    void addRestoredMeasurementPoint( Asset anAsset, MeasurementPoint aMeasurementPoint) {
+        this.addMeasurementPoint( anAsset, aMeasurementPoint);
+    }
+
+    /**
+     * @param containsSimulations true when the restored asset tree has a simulated measurement point
+     */
+    void setSimulations( boolean containsSimulations) {
+        this.simulations = containsSimulations;
+    }
+
+    /**
+     * Serves the asset tree more than once. Every clone gets a top level asset named after the prefix
+     * and the number of the clone, holding a copy of the complete tree. The measurement points of the
+     * copies are fed by the original measurement points, so the data file is replayed only once.
+     * @param cloneCount the number of asset trees to serve, the original included
+     * @param prefix the start of the names of the top level assets of the clones
+     * @param timeOffsetMillis the timestamps of clone n are shifted n times this offset
+     * @param valueStep the numeric values of clone n are multiplied by 1 + n times this step
+     * @return false when the prefix is rejected because a clone would get the name of a configured
+     * top level asset, no clones are added then
+     */
+    public boolean addClones( int cloneCount, String prefix, long timeOffsetMillis, double valueStep) {
+        List<Asset> originals = new ArrayList<>( this.hierarchicalAssetList);
+        int digits = Integer.toString( cloneCount).length();
+        List<String> cloneNames = new ArrayList<>();
+        for (int cloneNumber = 1; cloneNumber < cloneCount; cloneNumber++) {
+            // the original tree is number 1
+            String cloneName = prefix + String.format( "%0" + digits + "d", cloneNumber + 1);
+            if (this.topLevelAssetsByShortName.containsKey( cloneName)) {
+                Logger.getLogger( this.getClass().getName()).log(Level.SEVERE, "Clone prefix " + prefix + " is rejected, clone " + cloneName + " would get the name of a configured asset");
+                return false;
+            }
+            cloneNames.add( cloneName);
+        }
+        for (int cloneNumber = 1; cloneNumber < cloneCount; cloneNumber++) {
+            String cloneName = cloneNames.get( cloneNumber - 1);
+            Asset cloneRoot = new Asset( cloneName, cloneName);
+            this.topLevelAssetsByShortName.put( cloneName, cloneRoot);
+            this.hierarchicalAssetList.add( cloneRoot);
+            this.flatAssetList.add( cloneRoot);
+            for (Asset original : originals) {
+                this.addClone( original, cloneRoot, cloneName, cloneNumber * timeOffsetMillis, 1.0 + cloneNumber * valueStep);
+            }
+        }
+        return true;
+    }
+
+    private void addClone( Asset original, Asset parent, String cloneName, long timeOffsetMillis, double valueScale) {
+        // the ids of the clone differ from the ids in the data file, the data file only feeds the original
+        Asset clone = new Asset( original.getShortName(), cloneName + MeasurementPoint.ASSETNAMESEPERATORTOKEN + original.getId());
+        clone.setParent( parent);
+        parent.addChild( clone);
+        this.flatAssetList.add( clone);
+        for (MeasurementPoint aMeasurementPoint : original.getMeasurementPoints()) {
+            NodeId originalNodeId = aMeasurementPoint.getCustomNodeId();
+            NodeId customNodeId = null;
+            if (originalNodeId != null) {
+                customNodeId = new NodeId( originalNodeId.getNamespaceIndex(), cloneName + MeasurementPoint.ASSETNAMESEPERATORTOKEN + originalNodeId.getIdentifier());
             }
+            this.addMeasurementPoint( clone, aMeasurementPoint.createClone( clone, customNodeId, timeOffsetMillis, valueScale));
+        }
+        for (Asset child : original.getChildren()) {
+            this.addClone( child, clone, cloneName, timeOffsetMillis, valueScale);
         }
-//        this.flatAssetList.forEach( asset -> 
-//                asset.getMeasurementPoints()
-//                        .stream()
-//                        .filter( measurementPoint -> onlySimulated ? measurementPoint.isSimulated() : true)
-//                        .forEach( measurementPoint -> resultList.add( measurementPoint))
-//        );
-        return resultList;
     }
+
     /**
      * @return the simulations
      */
@@ -230,7 +310,13 @@ public class Assets {
         return simulations;
     }
 
-    public void addRecordedNode(NodeId nodeId, String dataTypeStr) {
+    /**
+     * Adds the measurement point of a recorded node, under the assets named by the dotted parts of its identifier.
+     * @param nodeId the node id of the recorded node
+     * @param dataTypeStr the data type of the recorded node
+     * @return the added measurement point, null when it could not be built
+     */
+    public MeasurementPoint addRecordedNode(NodeId nodeId, String dataTypeStr) {
         String identifierStr = nodeId.getIdentifier().toString();
         String[] parts = identifierStr.split("\\.");
         
@@ -270,90 +356,96 @@ public class Assets {
                  
         if (aMeasurementPoint != null) {
             aMeasurementPoint.setCustomNodeId(nodeId);
-            targetAsset.addMeasurementPoint(aMeasurementPoint);
+            this.addMeasurementPoint(targetAsset, aMeasurementPoint);
         }
+        return aMeasurementPoint;
     }
 
-    private List<OpcNodeConfig> opcNodeConfigs = null;
+    private OpcNodeConfigReader opcNodeConfigReader = null;
 
-    public void setOpcNodeConfigs(List<OpcNodeConfig> configs) {
-        this.opcNodeConfigs = configs;
+    public void setOpcNodeConfigReader(OpcNodeConfigReader aReader) {
+        this.opcNodeConfigReader = aReader;
     }
 
-    public List<OpcNodeConfig> getOpcNodeConfigs() {
-        return this.opcNodeConfigs;
+    /**
+     * @return the reader that streams the nodes of the JSON config, null when the config is not JSON
+     */
+    public OpcNodeConfigReader getOpcNodeConfigReader() {
+        return this.opcNodeConfigReader;
     }
 
     public boolean isJsonConfig() {
-        return this.opcNodeConfigs != null;
+        return this.opcNodeConfigReader != null;
     }
 
-    public void addJsonNodes(List<OpcNodeConfig> configs) {
-        for (OpcNodeConfig config : configs) {
-            if (config.nodeClass != null && config.nodeClass.equalsIgnoreCase("Variable")) {
-                // Parse the NodeId to get the identifier
-                NodeId nodeId = NodeId.parse(config.nodeId);
-                String identifierStr = nodeId.getIdentifier().toString();
-                
-                // Only add main variables (skip properties / sub-nodes)
-                if (identifierStr.contains("/")) {
-                    continue;
-                }
-                
-                boolean isProperty = false;
-                if (config.typeDefinition != null && (config.typeDefinition.equals("ns=0;i=68") || config.typeDefinition.endsWith("i=68"))) {
-                    isProperty = true;
-                } else if (config.references != null) {
-                    for (OpcNodeConfig.OpcReference ref : config.references) {
-                        if (!ref.isForward && (ref.referenceTypeId.equals("ns=0;i=46") || ref.referenceTypeId.endsWith("i=46"))) {
-                            isProperty = true;
-                            break;
-                        }
+    /**
+     * Adds a measurement point for a node of a JSON config, when the node is a main variable.
+     * @param config the node read from the JSON config
+     */
+    public void addJsonNode(OpcNodeConfig config) {
+        if (config.nodeClass != null && config.nodeClass.equalsIgnoreCase("Variable")) {
+            // Parse the NodeId to get the identifier
+            NodeId nodeId = NodeId.parse(config.nodeId);
+            String identifierStr = nodeId.getIdentifier().toString();
+            
+            // Only add main variables (skip properties / sub-nodes)
+            if (identifierStr.contains("/")) {
+                return;
+            }
+            
+            boolean isProperty = false;
+            if (config.typeDefinition != null && (config.typeDefinition.equals("ns=0;i=68") || config.typeDefinition.endsWith("i=68"))) {
+                isProperty = true;
+            } else if (config.references != null) {
+                for (OpcNodeConfig.OpcReference ref : config.references) {
+                    if (!ref.isForward && (ref.referenceTypeId.equals("ns=0;i=46") || ref.referenceTypeId.endsWith("i=46"))) {
+                        isProperty = true;
+                        break;
                     }
                 }
-                if (isProperty) {
-                    continue;
-                }
-                
-                String[] parts = identifierStr.split("\\.");
-                Asset targetAsset = null;
-                String measurementPointName;
-                
-                if (parts.length > 1) {
-                    StringBuilder assetNameBuilder = new StringBuilder();
-                    for (int i = 0; i < parts.length - 1; i++) {
-                        if (i > 0) {
-                            assetNameBuilder.append(".");
-                        }
-                        assetNameBuilder.append(parts[i]);
+            }
+            if (isProperty) {
+                return;
+            }
+            
+            String[] parts = identifierStr.split("\\.");
+            Asset targetAsset = null;
+            String measurementPointName;
+            
+            if (parts.length > 1) {
+                StringBuilder assetNameBuilder = new StringBuilder();
+                for (int i = 0; i < parts.length - 1; i++) {
+                    if (i > 0) {
+                        assetNameBuilder.append(".");
                     }
-                    String assetName = assetNameBuilder.toString();
-                    Asset someAsset = new Asset(assetName, assetName);
-                    targetAsset = this.findOrPlaceAssetInHierarchy(someAsset);
-                    measurementPointName = parts[parts.length - 1];
-                } else {
-                    Asset defaultAsset = new Asset("RecordedNodes", "RecordedNodes");
-                    targetAsset = this.findOrPlaceAssetInHierarchy(defaultAsset);
-                    measurementPointName = identifierStr;
-                }
-                
-                String dataTypeStr = getDataTypeString(config.dataType);
-                
-                MeasurementPoint aMeasurementPoint = new MeasurementPointBuilder()
-                        .setName(measurementPointName)
-                        .setId("0")
-                        .setPhysicalQuantity("NoQuantity")
-                        .setUnitOfMeasure("NoUoM")
-                        .setUnitPrefix("NoPrefix")
-                        .setAccessRight("Read")
-                        .setDataType(dataTypeStr)
-                        .setParentAsset(targetAsset)
-                        .build();
-                
-                if (aMeasurementPoint != null) {
-                    aMeasurementPoint.setCustomNodeId(nodeId);
-                    targetAsset.addMeasurementPoint(aMeasurementPoint);
+                    assetNameBuilder.append(parts[i]);
                 }
+                String assetName = assetNameBuilder.toString();
+                Asset someAsset = new Asset(assetName, assetName);
+                targetAsset = this.findOrPlaceAssetInHierarchy(someAsset);
+                measurementPointName = parts[parts.length - 1];
+            } else {
+                Asset defaultAsset = new Asset("RecordedNodes", "RecordedNodes");
+                targetAsset = this.findOrPlaceAssetInHierarchy(defaultAsset);
+                measurementPointName = identifierStr;
+            }
+            
+            String dataTypeStr = getDataTypeString(config.dataType);
+            
+            MeasurementPoint aMeasurementPoint = new MeasurementPointBuilder()
+                    .setName(measurementPointName)
+                    .setId("0")
+                    .setPhysicalQuantity("NoQuantity")
+                    .setUnitOfMeasure("NoUoM")
+                    .setUnitPrefix("NoPrefix")
+                    .setAccessRight("Read")
+                    .setDataType(dataTypeStr)
+                    .setParentAsset(targetAsset)
+                    .build();
+            
+            if (aMeasurementPoint != null) {
+                aMeasurementPoint.setCustomNodeId(nodeId);
+                this.addMeasurementPoint(targetAsset, aMeasurementPoint);
             }
         }
     }
@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+
+/**
+ * Reads the records of a data file in file order while the lines are parsed on multiple cores.
+ * The memory mapped data file is split at line boundaries in chunks that are parsed on the fork
+ * join pool into blocks of records. The blocks are handed out in file order, a bounded number of
+ * blocks ahead of the replay is parsed so memory use does not grow with the size of the file.
+ * The same timestamp adjustment depends on the previous record, so it is applied while handing
+ * out the records, in order.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class ChunkedDataFileReader implements Iterator<MeasurementDataRecord>, Closeable {
+
+    // the size of a parsed chunk, small enough to keep a few blocks of records ahead in memory
+    private static final long PARSECHUNKBYTES = 4L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final Deque<DataFileChunks.Chunk> chunksToParse;
+    private final Deque<Block> blocksAhead = new ArrayDeque<>();
+    private final int maxBlocksAhead;
+    private final Duration timeShift;
+    private final DataLineParser orderedParser; // applies the same timestamp adjustment in file order
+    private final PlayerDiagnostics diagnostics;
+    private Iterator<MeasurementDataRecord> currentBlock = Collections.emptyIterator();
+    private MeasurementDataRecord nextRecord = null;
+    private boolean closed = false; // true when reading stopped before the end of the file could be reached
+
+    /**
+     * The records of one chunk, filled on the fork join pool.
+     */
+    private class Block {
+        private final DataFileChunks.Chunk chunk;
+        private final CompletableFuture<Void> parsed;
+        private List<MeasurementDataRecord> records;
+        private volatile int linesRead = 0;
+
+        Block( DataFileChunks.Chunk aChunk) {
+            this.chunk = aChunk;
+            // the records look up the configuration of the player, also on the pool threads
+            this.parsed = CompletableFuture.runAsync( Configuration.withCurrentConfiguration( this::parse), ForkJoinPool.commonPool());
+        }
+
+        private void parse() {
+            List<MeasurementDataRecord> parsedRecords = new ArrayList<>();
+            DataLineParser parser = new DataLineParser( timeShift, chunk.getStart());
+            try {
+                DataFileChunks.forEachLine( channel, chunk, line -> {
+                    // the first line of the file is the header
+                    if (chunk.getStart() > 0 || linesRead > 0) {
+                        MeasurementDataRecord record = parser.parse( line, linesRead);
+                        if (record != null) {
+                            parsedRecords.add( record);
+                        }
+                    }
+                    linesRead++;
+                });
+            } catch (IOException ex) {
+                throw new UncheckedIOException( ex);
+            }
+            this.records = parsedRecords;
+            if (diagnostics != null) {
+                diagnostics.addParseErrors( parser.getParseErrorCount());
+            }
+        }
+
+        /**
+         * Waits for the parse of the chunk. A chunk that failed to parse is skipped, the lines read
+         * from it up to and including the failing one are counted as parse errors.
+         * @return the records of the chunk, empty when it failed
+         * @throws CancellationException when the reader was closed before the chunk was parsed
+         */
+        List<MeasurementDataRecord> getRecords() {
+            try {
+                this.parsed.join();
+                return this.records;
+            } catch (CompletionException ex) {
+                if (!isClosed()) {
+                    Logger.getLogger( ChunkedDataFileReader.class.getName()).log(Level.SEVERE, "Error parsing the data file between byte "
+                        + chunk.getStart() + " and " + chunk.getEnd() + ", its records are skipped", ex);
+                    if (diagnostics != null) {
+                        diagnostics.addParseErrors( this.linesRead + 1);
+                    }
+                }
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    /**
+     * Opens the data file and starts parsing its first chunks.
+     * @param aDataFile the data file
+     * @param theDiagnostics counts the parse errors and the read-ahead depth, may be null
+     * @throws IOException when the data file can not be opened
+     */
+    public ChunkedDataFileReader( File aDataFile, PlayerDiagnostics theDiagnostics) throws IOException {
+        this.diagnostics = theDiagnostics;
+        this.timeShift = this.readTimeShift( aDataFile);
+        this.orderedParser = new DataLineParser( this.timeShift, 0);
+        this.channel = FileChannel.open( aDataFile.toPath(), StandardOpenOption.READ);
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        this.maxBlocksAhead = parallelism + 1;
+        long chunkCount = Math.max( parallelism, (this.channel.size() + PARSECHUNKBYTES - 1) / PARSECHUNKBYTES);
+        this.chunksToParse = new ArrayDeque<>( DataFileChunks.split( this.channel, 0, (int) Math.min( Integer.MAX_VALUE, chunkCount)));
+        Logger.getLogger( ChunkedDataFileReader.class.getName()).log(Level.INFO, "Parsing " + aDataFile.getName() + " in " + this.chunksToParse.size() + " chunks on " + parallelism + " threads");
+        this.fillBlocksAhead();
+    }
+
+    /**
+     * Waits for the parse of the next block outside the lock, so a close from another thread
+     * does not wait for it.
+     */
+    @Override
+    public boolean hasNext() {
+        while (true) {
+            Block block;
+            synchronized (this) {
+                if (this.nextRecord != null) {
+                    return true;
+                } else if (this.currentBlock.hasNext()) {
+                    this.nextRecord = this.orderedParser.adjustTimestamp( this.currentBlock.next());
+                    continue;
+                } else if (this.closed || this.blocksAhead.isEmpty()) {
+                    return false;
+                }
+                block = this.blocksAhead.poll();
+                // the pool parses the next chunk while this block is awaited
+                this.fillBlocksAhead();
+            }
+            List<MeasurementDataRecord> records;
+            try {
+                records = block.getRecords();
+            } catch (CancellationException ex) {
+                return false;
+            }
+            synchronized (this) {
+                if (this.closed) {
+                    return false;
+                }
+                this.currentBlock = records.iterator();
+            }
+        }
+    }
+
+    @Override
+    public MeasurementDataRecord next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        synchronized (this) {
+            MeasurementDataRecord record = this.nextRecord;
+            this.nextRecord = null;
+            return record;
+        }
+    }
+
+    /**
+     * Stops parsing ahead and closes the data file, also when called from another thread than the replay.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.chunksToParse.clear();
+        for (Block block : this.blocksAhead) {
+            block.parsed.cancel( false);
+        }
+        this.blocksAhead.clear();
+        this.updateReadAheadDepth();
+        this.currentBlock = Collections.emptyIterator();
+        try {
+            this.channel.close();
+        } catch (IOException ex) {
+            Logger.getLogger( ChunkedDataFileReader.class.getName()).log(Level.WARNING, "Error closing the data file", ex);
+        }
+    }
+
+    /**
+     * @return true when the data file is closed, after which the remaining records are not read
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void fillBlocksAhead() {
+        while (this.blocksAhead.size() < this.maxBlocksAhead && !this.chunksToParse.isEmpty()) {
+            this.blocksAhead.add( new Block( this.chunksToParse.poll()));
+        }
+        this.updateReadAheadDepth();
+    }
+
+    private void updateReadAheadDepth() {
+        if (this.diagnostics != null) {
+            this.diagnostics.setReadAheadDepth( this.blocksAhead.size());
+        }
+    }
+
+    /**
+     * The time shift of the pass is taken from the first data line, every chunk needs it before it is parsed.
+     */
+    private Duration readTimeShift( File aDataFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader( aDataFile.toPath(), StandardCharsets.UTF_8)) {
+            DataLineParser parser = new DataLineParser();
+            reader.readLine(); // skip the header
+            String line;
+            int lineCounter = 1;
+            while ((line = reader.readLine()) != null) {
+                if (parser.parse( line, lineCounter++) != null || parser.getTimeShift() != null) {
+                    return parser.getTimeShift();
+                }
+            }
+        }
+        return null;
+    }
+}
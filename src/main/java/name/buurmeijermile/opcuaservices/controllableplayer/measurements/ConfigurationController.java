@@ -32,12 +32,8 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
-import java.io.BufferedReader;
-import java.util.HashMap;
 import java.util.Map;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 
@@ -48,7 +44,7 @@ import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 public class ConfigurationController {
     
     private final File configurationFile;
-    private final Assets assets = new Assets();
+    private Assets assets = new Assets();
     private SimulationController simulationController;
     
     public ConfigurationController( File anConfigurationFile) {
@@ -56,22 +52,96 @@ public class ConfigurationController {
     }
     
     public Assets createAssetStructure() {
+        boolean jsonConfig = this.configurationFile != null && this.configurationFile.getName().endsWith(".json");
+        // the asset tree of a recorded data file follows the data file as well, it is not kept in a snapshot
+        boolean snapshotted = jsonConfig || (this.configurationFile != null && !Configuration.getConfiguration().isRecordedFormat());
+        AssetSnapshot snapshot = snapshotted ? AssetSnapshot.restore(this.configurationFile) : null;
+        if (snapshot != null) {
+            this.assets = snapshot.getAssets();
+            if (jsonConfig) {
+                // the player namespace still reads the nodes to create the OPC UA nodes
+                this.assets.setOpcNodeConfigReader(new OpcNodeConfigReader(this.configurationFile));
+            }
+            this.simulationController = new SimulationController( this.assets, snapshot);
+            Logger.getLogger(ConfigurationController.class.getName()).log(Level.INFO, "Restored " + this.assets.getAllMeasurementPoints().size()
+                    + " measurement points from the snapshot of config file " + this.configurationFile.getName());
+        } else {
+            AssetSnapshot.Writer snapshotWriter = null;
+            if (snapshotted) {
+                try {
+                    snapshotWriter = new AssetSnapshot.Writer(this.configurationFile);
+                } catch (IOException ex) {
+                    // a read only config directory only costs building the asset tree on the next start
+                    Logger.getLogger(ConfigurationController.class.getName()).log(Level.WARNING, "No snapshot of the assets of " + this.configurationFile.getName() + " can be written", ex);
+                }
+            }
+            try {
+                boolean complete = this.buildAssetStructure(jsonConfig);
+                if (snapshotWriter != null && complete) {
+                    snapshotWriter.writeAssets(this.assets);
+                }
+                // create a simaltion controller for simulated measurement points
+                this.simulationController = new SimulationController( this.assets); // this controller performs a lot in its constructor!!
+                if (snapshotWriter != null && complete) {
+                    snapshotWriter.writeSimulations();
+                    snapshotWriter.commit();
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(ConfigurationController.class.getName()).log(Level.WARNING, "Snapshot of the assets of " + this.configurationFile.getName() + " can not be written", ex);
+                if (this.simulationController == null) {
+                    this.simulationController = new SimulationController( this.assets);
+                }
+            } finally {
+                if (snapshotWriter != null) {
+                    snapshotWriter.close();
+                }
+            }
+        }
+        // serve the asset tree more than once for scale tests, after the simulations so the clones are fed and not simulated
+        Configuration configuration = Configuration.getConfiguration();
+        if (configuration.getCloneCount() > 1) {
+            if (this.assets.isJsonConfig()) {
+                Logger.getLogger(ConfigurationController.class.getName()).log(Level.WARNING, "Clones are not supported for a JSON information model, the asset tree is served once");
+            } else {
+                int pointCount = this.assets.getAllMeasurementPoints().size();
+                if (this.assets.addClones( configuration.getCloneCount(), configuration.getClonePrefix(), configuration.getCloneTimeOffsetMillis(), configuration.getCloneValueStep())) {
+                    Logger.getLogger(ConfigurationController.class.getName()).log(Level.INFO, "Asset tree served " + configuration.getCloneCount() + " times, "
+                            + this.assets.getAllMeasurementPoints().size() + " measurement points fed by " + pointCount);
+                } else {
+                    Logger.getLogger(ConfigurationController.class.getName()).log(Level.WARNING, "Choose another -cloneprefix, the asset tree is served once");
+                }
+            }
+        }
+
+        return this.assets;
+    }
+
+    /**
+     * Builds the asset tree from the config file.
+     * @param jsonConfig true for a JSON information model config
+     * @return false when the config could not be read completely
+     */
+    private boolean buildAssetStructure( boolean jsonConfig) {
         int lineCounter = 0;
         boolean firstTime = true;
-        
-        if (this.configurationFile != null && this.configurationFile.getName().endsWith(".json")) {
-            try (java.io.FileReader reader = new java.io.FileReader(this.configurationFile)) {
-                Gson gson = new Gson();
-                java.lang.reflect.Type listType = new TypeToken<List<OpcNodeConfig>>(){}.getType();
-                List<OpcNodeConfig> configs = gson.fromJson(reader, listType);
-                this.assets.setOpcNodeConfigs(configs);
-                this.assets.addJsonNodes(configs);
+
+        if (jsonConfig) {
+            // the nodes are streamed, only the asset tree is kept, the player namespace reads the file again
+            OpcNodeConfigReader configReader = new OpcNodeConfigReader(this.configurationFile);
+            try {
+                int nodeCount = configReader.forEach(this.assets::addJsonNode);
+                this.assets.setOpcNodeConfigReader(configReader);
+                Logger.getLogger(ConfigurationController.class.getName()).log(Level.INFO, "Read " + nodeCount + " nodes from JSON config file " + this.configurationFile.getName());
             } catch (Exception ex) {
                 Logger.getLogger(ConfigurationController.class.getName()).log(Level.SEVERE, "Error loading JSON config file", ex);
+                return false;
             }
         } else if (Configuration.getConfiguration().isRecordedFormat()) {
             File dataFile = Configuration.getConfiguration().getDataFile();
-            Map<String, String> tagToDataType = inferDataTypesFromDataFile(dataFile);
+            // the types come from the schema sidecar of the data file, the data file is only scanned when that is missing or outdated
+            DataFileSchema schema = DataFileSchema.loadOrInfer(dataFile);
+            Map<String, String> tagToDataType = schema.getTagToDataType();
+            Map<String, UpdateRateStatistics> updateRates = schema.getUpdateRates();
             Iterator<String> inputIterator = this.getDataStream();
             while (inputIterator.hasNext()) {
                 String aConfigLine = inputIterator.next();
@@ -84,7 +154,12 @@ public class ConfigurationController {
                         NodeId nodeId = NodeId.parse(aConfigLine.trim());
                         String tagStr = nodeId.toParseableString();
                         String dataType = tagToDataType.getOrDefault(tagStr, "Float");
-                        this.assets.addRecordedNode(nodeId, dataType);
+                        MeasurementPoint measurementPoint = this.assets.addRecordedNode(nodeId, dataType);
+                        // the minimum sampling interval of the node follows the updates of the tag in the data file
+                        UpdateRateStatistics updateRate = updateRates.get(tagStr);
+                        if (measurementPoint != null && updateRate != null) {
+                            measurementPoint.setUpdateRateStatistics(updateRate);
+                        }
                     } catch (Exception ex) {
                         Logger.getLogger(ConfigurationController.class.getName()).log(Level.SEVERE, "Error parsing recorded NodeId config line " + lineCounter, ex);
                     }
@@ -109,63 +184,9 @@ public class ConfigurationController {
                 }
             }
         }
-        // create a simaltion controller for simulated measurement points
-        this.simulationController = new SimulationController( this.assets); // this controller performs a lot in its constructor!!
-
-        return this.assets;
-    }
-
-    private Map<String, String> inferDataTypesFromDataFile(File dataFile) {
-        Map<String, String> tagToDataType = new HashMap<>();
-        if (dataFile == null || !dataFile.exists()) {
-            return tagToDataType;
-        }
-        try (BufferedReader reader = Files.newBufferedReader(dataFile.toPath())) {
-            String header = reader.readLine();
-            if (header == null) {
-                return tagToDataType;
-            }
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty() || line.startsWith("#")) {
-                    continue;
-                }
-                // recorded format is comma-separated: Timestamp, Tag, Value
-                String[] parts = line.split(",");
-                if (parts.length >= 3) {
-                    String tag = parts[1].trim();
-                    String valStr = parts[2].trim();
-                    if (!tagToDataType.containsKey(tag)) {
-                        String dataType = inferDataType(valStr);
-                        tagToDataType.put(tag, dataType);
-                    }
-                }
-            }
-        } catch (IOException ex) {
-            Logger.getLogger(ConfigurationController.class.getName()).log(Level.WARNING, "Error scanning data file to infer types", ex);
-        }
-        return tagToDataType;
+        return true;
     }
 
-    private String inferDataType(String valStr) {
-        if (valStr.equalsIgnoreCase("true") || valStr.equalsIgnoreCase("false")) {
-            return "Boolean";
-        }
-        try {
-            Integer.parseInt(valStr);
-            return "Int32";
-        } catch (NumberFormatException e) {
-            // not an integer
-        }
-        try {
-            Double.parseDouble(valStr);
-            return "Float";
-        } catch (NumberFormatException e) {
-            // not a double
-        }
-        return "String";
-    }
-    
     /**
      * getDatastream open the data input file and returns an iterator to its content.
      * @return iterator to the data lines in the data input file
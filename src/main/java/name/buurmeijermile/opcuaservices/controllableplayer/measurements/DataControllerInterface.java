@@ -20,10 +20,11 @@ public interface DataControllerInterface {
     
     public List<Asset> getHierarchicalAssetList();
     public boolean isJsonConfig();
-    public List<OpcNodeConfig> getOpcNodeConfigs();
+    public OpcNodeConfigReader getOpcNodeConfigReader();
     
     public void startUp();
     public void setNamespace(Object namespace);
-    public void updateNodeValue(org.eclipse.milo.opcua.stack.core.types.builtin.NodeId nodeId, String valueString, java.time.LocalDateTime timestamp, java.time.ZoneOffset zoneOffset);
+    public boolean updateNodeValue(org.eclipse.milo.opcua.stack.core.types.builtin.NodeId nodeId, String valueString, java.time.LocalDateTime timestamp, java.time.ZoneOffset zoneOffset);
+    public PlayerDiagnostics getDiagnostics();
     
 }
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits a data file in regions that start and end on line boundaries, so that the regions can be
+ * read by separate threads. The regions are read through memory mapped buffers, which keeps large
+ * recordings out of the heap.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class DataFileChunks {
+
+    // upper bound on a region, a single memory mapping can not exceed 2 GB
+    public static final long MAXCHUNKBYTES = 256L * 1024 * 1024;
+    private static final int SCANBUFFERSIZE = 8 * 1024;
+
+    /**
+     * A region of the data file from start up to, not including, end.
+     */
+    public static class Chunk {
+        private final int index;
+        private final long start;
+        private final long end;
+
+        Chunk( int anIndex, long aStart, long anEnd) {
+            this.index = anIndex;
+            this.start = aStart;
+            this.end = anEnd;
+        }
+
+        /**
+         * @return the index of the chunk in file order
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the start
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the end
+         */
+        public long getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * Splits the region from the given offset to the end of the file in about equal chunks.
+     * @param channel the opened data file
+     * @param fromOffset offset of the first line of the region to split
+     * @param count the preferred number of chunks, more are made when chunks would exceed MAXCHUNKBYTES
+     * @return the chunks in file order, each chunk starts at the beginning of a line
+     * @throws IOException
+     */
+    public static List<Chunk> split( FileChannel channel, long fromOffset, int count) throws IOException {
+        long size = channel.size();
+        long length = size - fromOffset;
+        List<Chunk> chunks = new ArrayList<>();
+        if (length <= 0) {
+            return chunks;
+        }
+        long chunkCount = Math.max( Math.max( 1, count), (length + MAXCHUNKBYTES - 1) / MAXCHUNKBYTES);
+        long chunkSize = Math.max( 1, length / chunkCount);
+        long start = fromOffset;
+        while (start < size) {
+            long end = start + chunkSize >= size ? size : nextLineStart( channel, start + chunkSize);
+            chunks.add( new Chunk( chunks.size(), start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Hands the lines of a chunk to the consumer, without their line terminators.
+     * @param channel the opened data file
+     * @param chunk the chunk to read
+     * @param consumer called once per line
+     * @throws IOException
+     */
+    public static void forEachLine( FileChannel channel, Chunk chunk, Consumer<String> consumer) throws IOException {
+        MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, chunk.getStart(), chunk.getEnd() - chunk.getStart());
+        byte[] line = new byte[ 256];
+        int length = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                consumer.accept( decode( line, length));
+                length = 0;
+            } else {
+                if (length == line.length) {
+                    line = Arrays.copyOf( line, line.length * 2);
+                }
+                line[ length++] = b;
+            }
+        }
+        if (length > 0) {
+            // last line of the file without a line terminator
+            consumer.accept( decode( line, length));
+        }
+    }
+
+    /**
+     * @return the offset just after the first line feed at or after the given offset, or the file size
+     */
+    static long nextLineStart( FileChannel channel, long offset) throws IOException {
+        long size = channel.size();
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate( SCANBUFFERSIZE);
+        long position = offset;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read( buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get( i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static String decode( byte[] bytes, int length) {
+        // strip the carriage return of windows line terminators
+        int end = length > 0 && bytes[ length - 1] == '\r' ? length - 1 : length;
+        return new String( bytes, 0, end, StandardCharsets.UTF_8);
+    }
+}
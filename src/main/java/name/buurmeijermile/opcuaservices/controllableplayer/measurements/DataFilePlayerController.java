@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
 import name.buurmeijermile.opcuaservices.utils.Waiter;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
@@ -58,6 +59,8 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
     private UaVariableNode runStateUaVariableNode;
     private List<RunstateEventListener> runstateEventListeners;
     private SimulationController simulationController;
+    private volatile boolean running = true; // false ends the main loop
+    private final PlayerDiagnostics diagnostics = new PlayerDiagnostics();
         
     public DataFilePlayerController( File aConfigFile, File aDataFile) {
         this.inputDataFile = aDataFile;
@@ -78,6 +81,10 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
         ConfigurationController configurationController = new ConfigurationController( this.assetConfigurationFile);
         this.theAssets = configurationController.createAssetStructure();
         this.simulationController = configurationController.getSimulationController();
+        if (this.simulationController != null) {
+            this.simulationController.getWorkers().forEach( worker ->
+                    this.diagnostics.addSimulationRate( worker.getMeasurementPoint().getFullDottedName(), worker::getActualSamplesPerSecond));
+        }
     }
 
     /**
@@ -90,14 +97,18 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
     public boolean isJsonConfig() {
         return this.theAssets.isJsonConfig();
     }
-    public List<OpcNodeConfig> getOpcNodeConfigs() {
-        return this.theAssets.getOpcNodeConfigs();
+    public OpcNodeConfigReader getOpcNodeConfigReader() {
+        return this.theAssets.getOpcNodeConfigReader();
     }
     public void setNamespace(Object namespace) {
         this.namespace = namespace;
     }
 
-    public void updateNodeValue(org.eclipse.milo.opcua.stack.core.types.builtin.NodeId nodeId, String valueString, java.time.LocalDateTime timestamp, java.time.ZoneOffset zoneOffset) {
+    /**
+     * Sets the value of a node that is not bound to a measurement point.
+     * @return false when there is no variable node with this node id
+     */
+    public boolean updateNodeValue(org.eclipse.milo.opcua.stack.core.types.builtin.NodeId nodeId, String valueString, java.time.LocalDateTime timestamp, java.time.ZoneOffset zoneOffset) {
         if (this.namespace != null) {
             try {
                 java.lang.reflect.Method getNodeManagerMethod = this.namespace.getClass().getMethod("getNodeManager");
@@ -156,11 +167,20 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
                     org.eclipse.milo.opcua.stack.core.types.builtin.DataValue dv = new org.eclipse.milo.opcua.stack.core.types.builtin.DataValue(variant, org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode.GOOD, dt, dt);
                     
                     varNode.setValue(dv);
+                    return true;
                 }
             } catch (Exception e) {
                 Logger.getLogger(this.getClass().getName()).log(Level.WARNING, "Failed to update node value directly: " + nodeId, e);
             }
         }
+        return false;
+    }
+
+    /**
+     * @return the health counters of this player
+     */
+    public PlayerDiagnostics getDiagnostics() {
+        return this.diagnostics;
     }
     
     /**
@@ -316,8 +336,6 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
                 if (this.simulationController != null) {
                     this.simulationController.stopSimulation();
                 }
-                // reset the time shift
-                MeasurementDataRecord.resetTimeShift();
                 // reset all measurement points to its initial values
                 this.clearMeasurementPointValues();
                 // goto initialized runstate
@@ -338,15 +356,28 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
     }
     
     private void clearMeasurementPointValues() {
-        // reset all measurement points to their initial values, use flattend asset list for this
-        this.theAssets.getFlattenedAssets().stream().forEach( asset -> asset.getMeasurementPoints().stream().forEach( mp -> mp.clearValue()));
+        // reset all measurement points to their initial values, use the list of all measurement points for this
+        this.theAssets.getAllMeasurementPoints().forEach( mp -> mp.clearValue());
     }
     
     public void startUp() {
-        Thread thread = new Thread( this);
+        Thread thread = new Thread( Configuration.withCurrentConfiguration( this));
         thread.start();
     }
 
+    /**
+     * Ends the main loop, used when a player hosted in the web UI JVM is removed.
+     */
+    public void shutDown() {
+        this.running = false;
+        // the simulation workers would otherwise keep writing to the nodes of the stopped server
+        if (this.simulationController != null) {
+            this.simulationController.stopSimulation();
+        }
+        this.dataStreamController.closeDataStream();
+        this.changeRunState( this.currentState, RUNSTATE.Initialized);
+    }
+
     /**
      * Main loop of the data backend controller. Based on the set run state 
      * it processes the read data or waits for subsequent commands.
@@ -354,8 +385,8 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
     @Override
     public void run() {
         this.changeRunState( this.currentState, RUNSTATE.Initialized);
-        // loop for ever in the following state machine
-        while ( true) {
+        // loop until shut down in the following state machine
+        while ( running) {
             // only do something when not in initialized state
             if (this.currentState != RUNSTATE.Initialized) {
                 boolean streamOpen = false;
@@ -399,8 +430,6 @@ public class DataFilePlayerController implements Runnable, DataControllerInterfa
                 if ( this.currentState != RUNSTATE.Initialized) {
                     // check if there was no longer input to proces
                     if ( !this.dataStreamController.hasNext()) {
-                        // reset the time shift
-                        MeasurementDataRecord.resetTimeShift();
                         // reset all measurement points to its initial values
                         this.clearMeasurementPointValues();
                         // so end of input data file
@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Summary of a data file in the recorded format: the data type per tag, the number of rows, the
+ * time range and the number of samples and the update rate per tag. The summary is stored next to
+ * the data file in a sidecar file, keyed on the size and modification time of the data file, so
+ * that later starts don't have to scan the data file before playing it. When the sidecar is missing the data file is
+ * scanned in chunks in parallel. When the data file only grew since the sidecar was written, only
+ * the appended part is scanned.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class DataFileSchema {
+
+    public static final String SIDECARSUFFIX = ".schema.json";
+    private static final Logger LOGGER = Logger.getLogger( DataFileSchema.class.getName());
+    private static final Gson GSON = new Gson();
+
+    // the data file this schema describes
+    private long fileSize = 0;
+    private long lastModified = 0;
+    // the offset up to which the file is scanned, only set when the scan ended on a line boundary
+    private long scannedBytes = 0;
+    private String lastLine = null;
+    private long rowCount = 0;
+    private String firstTimestamp = null;
+    private String lastTimestamp = null;
+    private Map<String, String> tagToDataType = new LinkedHashMap<>();
+    private Map<String, Long> sampleCounts = new LinkedHashMap<>();
+    private Map<String, UpdateRateStatistics> updateRates = new LinkedHashMap<>();
+
+    /**
+     * Returns the schema of the data file from its sidecar, or scans the data file and writes the sidecar.
+     * @param dataFile the data file in recorded format
+     * @return the schema, empty when the data file does not exist
+     */
+    public static DataFileSchema loadOrInfer( File dataFile) {
+        if (dataFile == null || !dataFile.exists()) {
+            return new DataFileSchema();
+        }
+        File sidecarFile = getSidecarFile( dataFile);
+        DataFileSchema stored = load( sidecarFile);
+        if (stored != null && stored.describes( dataFile)) {
+            LOGGER.log(Level.INFO, "Schema of " + dataFile.getName() + " read from " + sidecarFile.getName() + ", " + stored.getTagToDataType().size() + " tags, " + stored.getRowCount() + " rows");
+            return stored;
+        }
+        long startTime = System.currentTimeMillis();
+        DataFileSchema schema;
+        try {
+            if (stored != null && stored.isExtendedBy( dataFile)) {
+                LOGGER.log(Level.INFO, "Data file " + dataFile.getName() + " grew, scanning the appended part only");
+                schema = stored;
+                schema.scan( dataFile, stored.scannedBytes);
+            } else {
+                schema = new DataFileSchema();
+                schema.scan( dataFile, 0);
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            LOGGER.log(Level.WARNING, "Error scanning data file to infer types", ex);
+            return new DataFileSchema();
+        }
+        schema.fileSize = dataFile.length();
+        schema.lastModified = dataFile.lastModified();
+        LOGGER.log(Level.INFO, "Schema of " + dataFile.getName() + " inferred in " + (System.currentTimeMillis() - startTime) + " ms, "
+                + schema.getTagToDataType().size() + " tags, " + schema.getRowCount() + " rows");
+        schema.save( sidecarFile);
+        return schema;
+    }
+
+    /**
+     * @param dataFile the data file
+     * @return the sidecar file that holds the schema of the data file
+     */
+    public static File getSidecarFile( File dataFile) {
+        return new File( dataFile.getPath() + SIDECARSUFFIX);
+    }
+
+    private static DataFileSchema load( File sidecarFile) {
+        if (!sidecarFile.exists()) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader( sidecarFile.toPath(), StandardCharsets.UTF_8)) {
+            return GSON.fromJson( reader, DataFileSchema.class);
+        } catch (IOException | JsonParseException ex) {
+            LOGGER.log(Level.WARNING, "Schema sidecar " + sidecarFile.getName() + " can not be read, the data file is scanned again", ex);
+            return null;
+        }
+    }
+
+    private void save( File sidecarFile) {
+        try (Writer writer = Files.newBufferedWriter( sidecarFile.toPath(), StandardCharsets.UTF_8)) {
+            GSON.toJson( this, writer);
+        } catch (IOException ex) {
+            // a read only data directory only costs a scan on the next start
+            LOGGER.log(Level.WARNING, "Schema sidecar " + sidecarFile.getName() + " can not be written", ex);
+        }
+    }
+
+    private boolean describes( File dataFile) {
+        // sidecars written before the update rates were kept are scanned again
+        return this.fileSize == dataFile.length() && this.lastModified == dataFile.lastModified() && this.tagToDataType != null && this.hasUpdateRates();
+    }
+
+    private boolean hasUpdateRates() {
+        return this.updateRates != null && this.sampleCounts != null && this.updateRates.size() == this.sampleCounts.size();
+    }
+
+    /**
+     * @return true when the data file still starts with the part this schema was scanned from
+     */
+    private boolean isExtendedBy( File dataFile) {
+        if (this.scannedBytes <= 0 || this.lastLine == null || dataFile.length() <= this.scannedBytes || this.tagToDataType == null || this.sampleCounts == null || !this.hasUpdateRates()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open( dataFile.toPath(), StandardOpenOption.READ)) {
+            return endsWith( channel, this.scannedBytes, this.lastLine + "\n") || endsWith( channel, this.scannedBytes, this.lastLine + "\r\n");
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static boolean endsWith( FileChannel channel, long end, String text) throws IOException {
+        byte[] expected = text.getBytes( StandardCharsets.UTF_8);
+        if (expected.length > end) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( expected.length);
+        long position = end - expected.length;
+        while (buffer.hasRemaining() && channel.read( buffer, position + buffer.position()) > 0) {
+            // keep reading until the buffer is full
+        }
+        return Arrays.equals( buffer.array(), expected);
+    }
+
+    /**
+     * Scans the data file from the given offset on, in chunks on the fork join pool, and merges the
+     * chunk results in file order into this schema.
+     */
+    private void scan( File dataFile, long fromOffset) throws IOException {
+        try (FileChannel channel = FileChannel.open( dataFile.toPath(), StandardOpenOption.READ)) {
+            List<DataFileChunks.Chunk> chunks = DataFileChunks.split( channel, fromOffset, Runtime.getRuntime().availableProcessors());
+            List<DataFileSchema> chunkSchemas = chunks.parallelStream()
+                    .map( chunk -> scanChunk( channel, chunk, fromOffset == 0 && chunk.getIndex() == 0))
+                    .collect( Collectors.toList());
+            for (DataFileSchema chunkSchema : chunkSchemas) {
+                this.merge( chunkSchema);
+            }
+            long size = channel.size();
+            // incremental scans are only possible when the scan ended on a complete line
+            boolean endsWithLineFeed = size > 0 && readByte( channel, size - 1) == '\n';
+            this.scannedBytes = endsWithLineFeed ? size : 0;
+        }
+    }
+
+    private static DataFileSchema scanChunk( FileChannel channel, DataFileChunks.Chunk chunk, boolean skipHeader) {
+        DataFileSchema chunkSchema = new DataFileSchema();
+        boolean[] headerSkipped = { !skipHeader };
+        try {
+            DataFileChunks.forEachLine( channel, chunk, line -> {
+                if (!headerSkipped[0]) {
+                    headerSkipped[0] = true;
+                    return;
+                }
+                chunkSchema.addLine( line);
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException( ex);
+        }
+        return chunkSchema;
+    }
+
+    private void addLine( String line) {
+        this.lastLine = line;
+        if (line.trim().isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        // recorded format is comma-separated: Timestamp, Tag, Value
+        String[] parts = line.split(",");
+        if (parts.length >= 3) {
+            String timestamp = parts[0].trim();
+            String tag = parts[1].trim();
+            if (!this.tagToDataType.containsKey( tag)) {
+                this.tagToDataType.put( tag, inferDataType( parts[2].trim()));
+            }
+            this.sampleCounts.merge( tag, 1L, Long::sum);
+            try {
+                this.updateRates.computeIfAbsent( tag, key -> new UpdateRateStatistics()).add( Instant.parse( timestamp).toEpochMilli());
+            } catch (DateTimeParseException ex) {
+                // the player reports the line when it is replayed
+            }
+            this.rowCount++;
+            if (this.firstTimestamp == null) {
+                this.firstTimestamp = timestamp;
+            }
+            this.lastTimestamp = timestamp;
+        }
+    }
+
+    private void merge( DataFileSchema later) {
+        // the type of a tag is inferred from its first sample in the file
+        later.tagToDataType.forEach( this.tagToDataType::putIfAbsent);
+        later.sampleCounts.forEach( (tag, count) -> this.sampleCounts.merge( tag, count, Long::sum));
+        later.updateRates.forEach( (tag, rates) -> this.updateRates.merge( tag, rates, UpdateRateStatistics::merge));
+        this.rowCount += later.rowCount;
+        if (this.firstTimestamp == null) {
+            this.firstTimestamp = later.firstTimestamp;
+        }
+        if (later.lastTimestamp != null) {
+            this.lastTimestamp = later.lastTimestamp;
+        }
+        if (later.lastLine != null) {
+            this.lastLine = later.lastLine;
+        }
+    }
+
+    private static byte readByte( FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate( 1);
+        channel.read( buffer, position);
+        return buffer.get( 0);
+    }
+
+    static String inferDataType( String valStr) {
+        if (valStr.equalsIgnoreCase("true") || valStr.equalsIgnoreCase("false")) {
+            return "Boolean";
+        }
+        try {
+            Integer.parseInt(valStr);
+            return "Int32";
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            Double.parseDouble(valStr);
+            return "Float";
+        } catch (NumberFormatException e) {
+            // not a double
+        }
+        return "String";
+    }
+
+    /**
+     * @return the data type per tag, in order of first appearance in the data file
+     */
+    public Map<String, String> getTagToDataType() {
+        return tagToDataType;
+    }
+
+    /**
+     * @return the number of samples per tag
+     */
+    public Map<String, Long> getSampleCounts() {
+        return sampleCounts;
+    }
+
+    /**
+     * @return the update rate statistics per tag
+     */
+    public Map<String, UpdateRateStatistics> getUpdateRates() {
+        return updateRates;
+    }
+
+    /**
+     * @return the rowCount
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the firstTimestamp
+     */
+    public String getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * @return the lastTimestamp
+     */
+    public String getLastTimestamp() {
+        return lastTimestamp;
+    }
+}
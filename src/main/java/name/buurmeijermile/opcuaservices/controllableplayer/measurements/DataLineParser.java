@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+
+/**
+ * Turns the lines of a data file into measurement data records. A parser belongs to one pass over
+ * one data file: it holds the time shift of that pass and the previous record, so that players
+ * that run side by side don't influence each others timestamps.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class DataLineParser {
+
+    private static final ZoneOffset ZONE_OFFSET = ZoneOffset.from( ZonedDateTime.now()); // timezone offset of runtime platform
+    private static final Duration ONE_MILLISECOND = Duration.ofMillis(1); // constant to add when two smaples have same timestamp
+    private static final String COMMENTTOKEN = "#";
+
+    private final boolean recordedFormat;
+    private final long regionStart; // byte offset of the first line this parser gets, used in error messages
+    private Duration timeShift; // the period the input timestamps are shifted towards now
+    private MeasurementDataRecord previousMeasurement = null; // the previous measurement sample
+    private int parseErrorCount = 0; // lines that could not be parsed
+
+    /**
+     * Parser for a pass over a data file from its start, the time shift is taken from the first data line.
+     */
+    public DataLineParser() {
+        this( null, 0);
+    }
+
+    /**
+     * Parser for a region of a data file.
+     * @param aTimeShift the time shift of the pass, null to take it from the first data line
+     * @param aRegionStart the byte offset of the region in the data file
+     */
+    public DataLineParser( Duration aTimeShift, long aRegionStart) {
+        this.recordedFormat = Configuration.getConfiguration().isRecordedFormat();
+        this.timeShift = aTimeShift;
+        this.regionStart = aRegionStart;
+    }
+
+    /**
+     * Process an incoming data line: retrieve some fields and create
+     * MeasurementDataRecords from them. The first line holds the header and is skipped, a record
+     * with the same timestamp and measurement point as the previous record gets one millisecond added.
+     * @param aDataLine
+     * @param lineCounter the line number, starting at 0
+     * @return measurement data record that holds the read input line from data file
+     */
+    public MeasurementDataRecord procesDataLine( String aDataLine, int lineCounter) {
+        // check if it is the first line that is processed
+        if ( lineCounter == 0) {
+            // if so do nothing because it contains a header
+            return null;
+        }
+        return this.adjustTimestamp( this.parse( aDataLine, lineCounter));
+    }
+
+    /**
+     * Creates the record for a data line, without looking at the previous record.
+     * @param aDataLine
+     * @param lineCounter the line number within the region of this parser
+     * @return the record or null for comment lines and lines that can not be parsed
+     */
+    public MeasurementDataRecord parse( String aDataLine, int lineCounter) {
+        MeasurementDataRecord measurementDataRecord = null;
+        // check if data line starts with comment token
+        if (!aDataLine.startsWith( COMMENTTOKEN)) {
+            if (this.recordedFormat) {
+                // recorded format is comma-separated: Timestamp, Tag, Value
+                String[] lineItems = aDataLine.split(",");
+                if (lineItems.length >= 3) {
+                    String timestamp = lineItems[0].trim();
+                    String tag = lineItems[1].trim();
+                    String value = lineItems[2].trim();
+                    if (this.timeShift == null) {
+                        this.timeShift = timeShiftFor( timestamp, this.recordedFormat);
+                    }
+                    measurementDataRecord = new MeasurementDataRecord(
+                            null, // asset id
+                            null, // measurement point id
+                            tag,
+                            timestamp,
+                            value.replace(',', '.'),
+                            this.timeShift,
+                            ZONE_OFFSET,
+                            lineCounter
+                    );
+                    if (!measurementDataRecord.isValid()) {
+                        this.parseErrorCount++;
+                        Logger.getLogger(DataLineParser.class.getName()).log(Level.SEVERE, "Error parsing input line " + this.lineReference( lineCounter) + ", values not correct");
+                        measurementDataRecord = null;
+                    }
+                } else {
+                    if (lineItems.length != 0) {
+                        this.parseErrorCount++;
+                        Logger.getLogger(DataLineParser.class.getName()).log(Level.SEVERE, "Error parsing input line " + this.lineReference( lineCounter) + ", missing values");
+                    }
+                }
+            } else {
+                // input file is semi-column separated
+                String[] lineItems = aDataLine.split(";");
+                // and 4 columns wide, so check if we have got 4 string parts
+                if ( lineItems.length == 4) {
+                    // calculate timeshift if not already done => only once per pass over the inputfile
+                    if (this.timeShift == null) {
+                        this.timeShift = timeShiftFor( lineItems[2], this.recordedFormat);
+                    }
+                    // create measurement record based on the line item fields (not all are used!)
+                    measurementDataRecord = new MeasurementDataRecord(
+                            lineItems[0], // first column: asset id
+                            lineItems[1], // second column: measurement point id
+                            lineItems[2], // third column: timestamp of measurement
+                            lineItems[3].replace(',', '.'), // fourth column: value of measurement, replacement of ',' for '.'
+                            this.timeShift,   // the read timestamp are shifted towards the start time of the OPC UA player
+                            ZONE_OFFSET,  // the zone offset of the read timestamps
+                            lineCounter   // the source line number for back tracking errors in the input file
+                    );
+                    if ( !measurementDataRecord.isValid()) {
+                        this.parseErrorCount++;
+                        Logger.getLogger( DataLineParser.class.getName()).log(Level.SEVERE, "Error parsing input line " + this.lineReference( lineCounter) + ", values not correct");
+                        measurementDataRecord = null;
+                    }
+                } else {
+                    if (lineItems.length != 0) { // empty line in file, skip
+                        this.parseErrorCount++;
+                        Logger.getLogger( DataLineParser.class.getName()).log(Level.SEVERE, "Error parsing input line " + this.lineReference( lineCounter) + ", missing values");
+                    }
+                }
+            }
+        }
+        return measurementDataRecord;
+    }
+
+    /**
+     * Adds one millisecond to the record when the previous record was for the same measurement
+     * point and had the same timestamp. Records have to be handed in file order.
+     * @param measurementDataRecord the record, may be null
+     * @return the same record
+     */
+    public MeasurementDataRecord adjustTimestamp( MeasurementDataRecord measurementDataRecord) {
+        // check if previous input line was same channel, asset and timestamp
+        if ( this.previousMeasurement != null && measurementDataRecord != null) {
+            if ( this.previousMeasurement.isSame( measurementDataRecord)) {
+                Logger.getLogger( DataLineParser.class.getName()).log(Level.INFO, "Records contain same timestamp, adding one milliseconds to new one");
+                measurementDataRecord.shiftDuration( ONE_MILLISECOND);
+            }
+        }
+        this.previousMeasurement = measurementDataRecord;
+        return measurementDataRecord;
+    }
+
+    /**
+     * @return the number of lines this parser could not parse
+     */
+    public int getParseErrorCount() {
+        return parseErrorCount;
+    }
+
+    /**
+     * @return the time shift of this pass, null until the first data line is parsed
+     */
+    public Duration getTimeShift() {
+        return timeShift;
+    }
+
+    /**
+     * Calculate the time shift between first timestamp in data file and
+     * the current time.
+     * @param firstTimestampRead
+     * @param isRecordedFormat
+     * @return duration between first timestamp in data file and now, null when the timestamp can not be parsed
+     */
+    static Duration timeShiftFor( String firstTimestampRead, boolean isRecordedFormat) {
+        try {
+            LocalDateTime startupTimestamp = LocalDateTime.now();
+            LocalDateTime startSourceDataTimestamp;
+            if (isRecordedFormat) {
+                startSourceDataTimestamp = LocalDateTime.ofInstant(java.time.Instant.parse(firstTimestampRead), java.time.ZoneId.systemDefault());
+            } else {
+                startSourceDataTimestamp = LocalDateTime.parse( firstTimestampRead, MeasurementPoint.TIMESTAMP_FORMATTER);
+            }
+            return Duration.between( startSourceDataTimestamp, startupTimestamp);
+        } catch ( Exception dtpe) {
+            Logger.getLogger(DataLineParser.class.getName()).log(Level.SEVERE, "Timestamp format error on first data line in datafile", dtpe);
+            return null;
+        }
+    }
+
+    private String lineReference( int lineCounter) {
+        return this.regionStart == 0 ? Integer.toString( lineCounter) : lineCounter + " after byte offset " + this.regionStart;
+    }
+}
@@ -33,13 +33,16 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 import name.buurmeijermile.opcuaservices.utils.Waiter;
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.FlightRecorderEvents;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -61,22 +64,34 @@ public class DataStreamController {
     
     public static final String TIMESTAMPFORMATTER = "uuuu-MM-dd HH:mm:ss.SSS";
     public static final int FAST_FORWARD_FACTOR = 2; // twice the speed of a normal play, also used for playing backwards faster
+    private static final long NANOSPERSECOND = 1_000_000_000L;
+    private static final long NANOSPERMILLISECOND = 1_000_000L;
     
     private final File dataSourceFile; // the source file for the measurement data stream
     private final DataFilePlayerController dataBackendController; // the overarching data backend controller that maintains the players state machine
     private int lineCounter = 0; // used to be able to print out the line number when some error arises
-    private Duration timeShiftDuration; // the period the input timestamps are shifted towards now
     private final ZonedDateTime timezoneDateTime = ZonedDateTime.now(); // only used to retrieve platform timezone
     private final ZoneOffset zoneOffset = ZoneOffset.from(this.timezoneDateTime); // timezone offset of runtime platform
-    private MeasurementDataRecord previousMeasurement = null; // the previous measurement sample
-    private final Duration aMilliSecond = Duration.ofMillis(1); // constant to add when two smaples have same timestamp
-    private Iterator<String> iterator;
+    private Iterator<MeasurementDataRecord> iterator; // the records of the current pass over the data file
+    private volatile ChunkedDataFileReader chunkedReader = null;
     private volatile int dataLineCounter;
     private long playbackStartTime = 0;
     private long lastMetricsTime = 0;
     private int lastMetricsLineCount = 0;
-    private final java.util.Map<String, MeasurementPoint> tagToMeasurementPointCache = new java.util.HashMap<>();
+    private final MeasurementPointResolver measurementPointResolver;
     private ScheduledExecutorService metricsScheduler = null;
+    private long replayBatchScheduledTime = 0; // wall clock time the current replay batch was due
+    private long replayBatchActualTime = 0; // wall clock time the current replay batch was replayed
+    private int replayBatchSize = 0; // records in the current replay batch
+    private final ReplayCache replayCache; // the records of a complete pass for the next passes, null when not cached
+    private boolean fillingReplayCache = false; // true while the current pass is added to the replay cache
+    private int replayCachePosition = -1; // the next record when the current pass is replayed from the cache, else -1
+    private long replayCacheTimeShift = 0; // the time shift in nanoseconds of the pass that is replayed from the cache
+    private MeasurementPoint[] cachedMeasurementPoints = new MeasurementPoint[ 0]; // by point handle of the cache
+    private boolean[] cachedMeasurementPointResolved = new boolean[ 0];
+    private final Map<MeasurementPoint, UpdateRateStatistics> observedUpdateRates = new IdentityHashMap<>(); // the updates seen in the current pass
+    private boolean observingUpdateRates = false; // true while the updates of a forward pass over the data file are counted
+    private boolean updateRatesObserved = false; // true once a complete pass set the update rates of the measurement points
     
     /**
      * Constructor for this controller. After constructing nothing happens yet. 
@@ -87,6 +102,9 @@ public class DataStreamController {
     public DataStreamController( File aDataSourceFile, DataFilePlayerController theDataBackendController) {
         this.dataSourceFile = aDataSourceFile;
         this.dataBackendController = theDataBackendController;
+        long replayCacheBytes = Configuration.getConfiguration().getReplayCacheBytes();
+        this.replayCache = replayCacheBytes > 0 ? new ReplayCache( replayCacheBytes) : null;
+        this.measurementPointResolver = new MeasurementPointResolver( theDataBackendController::getFlatAssetList, theDataBackendController.getDiagnostics());
     }
     
     private void procesInputData(MeasurementDataRecord readData) {
@@ -95,95 +113,128 @@ public class DataStreamController {
             if (tag != null && tag.contains("Player-Control")) {
                 return;
             }
-            LocalDateTime now = LocalDateTime.now();
-            // calculate duration between the read timestamp and the current time
-            Duration duration = Duration.between( now, readData.getTimestamp());
-            //this.writeDataLogEntry( now.toString(), readData.getAssetID(), readData.getMeasurementPointID(), readData.getValue(), readData.getTimestamp().toString(), duration.toString());
-            // check if we are currently playing (could be switched to other state while processing
-            if ( this.dataBackendController.isPlayState()) {
-                // check if we play the source file backward
-                if (this.dataBackendController.isPlayBackward()) {
-                    // negate the duration so that it can be interpreted as numral duration for a delay
-                    duration = duration.negated();
-                }
-                // check if we are in fast forward or fast backward mode
-                if (this.dataBackendController.isPlayFast()) {
-                    // apply the fast forward factor
-                    duration = duration.dividedBy(FAST_FORWARD_FACTOR);
-                }
+            if (this.fillingReplayCache && !this.replayCache.add( readData)) {
+                this.fillingReplayCache = false;
+                Logger.getLogger( this.getClass().getName()).log(Level.INFO, "Data file does not fit in the replay cache, the next passes are read from the data file");
             }
             // find the measurement point this record refers to
-            MeasurementPoint measurementPoint = this.getMeasurementPoint( readData.getAssetID(), readData.getMeasurementPointID(), readData.getTag());
-            // check if we need to waitADuration for this time stamp to happen any time soon now
-            if ( !duration.isNegative() && !duration.isZero()) {
-                // typically the read timestamp is newer than the current time, 
-                // so we have to waitADuration until the read timestamp reaches the current time
-                Waiter.waitADuration( duration);
-            } // if not just go ahead, because the read timestamp is already in the past
-            // and add measurement sample to measurement point
-            if ( measurementPoint != null) {
-                measurementPoint.setMeasurementSample( readData.getValueString(), MeasurementSample.DATAQUALITY.Good, readData.getTimestamp(), readData.getZoneOffset());
-            } else if (Configuration.getConfiguration().isRecordedFormat()) {
-                try {
-                    org.eclipse.milo.opcua.stack.core.types.builtin.NodeId nodeId = org.eclipse.milo.opcua.stack.core.types.builtin.NodeId.parse(readData.getTag());
-                    this.dataBackendController.updateNodeValue(nodeId, readData.getValueString(), readData.getTimestamp(), readData.getZoneOffset());
-                } catch (Exception e) {
-                    // ignore
-                }
+            MeasurementPoint measurementPoint = this.measurementPointResolver.resolve( readData.getAssetID(), readData.getMeasurementPointID(), readData.getTag());
+            if (this.observingUpdateRates && measurementPoint != null) {
+                this.observedUpdateRates.computeIfAbsent( measurementPoint, key -> new UpdateRateStatistics()).add( readData.getTimestamp().toInstant( readData.getZoneOffset()).toEpochMilli());
             }
+            LocalDateTime timestamp = readData.getTimestamp();
+            this.waitUntilDue( timestamp.toEpochSecond( readData.getZoneOffset()) * NANOSPERSECOND + timestamp.getNano());
+            this.replaySample( measurementPoint, tag, readData.getValueString(), timestamp, readData.getZoneOffset());
         } else {
             Logger.getLogger( this.getClass().getName()).log(Level.SEVERE, "Error received readData object is null");
         }
     }
 
     /**
-     * Find measurement point object based on assetID and channelID, or tag in recorded format.
-     * @param assetId
-     * @param measurementPointId
-     * @param tag
-     * @return 
+     * Waits until a sample is due.
+     * @param timestampNanos the timestamp of the sample in nanoseconds since the epoch, shifted towards the current pass
      */
-    private MeasurementPoint getMeasurementPoint(String assetId, String measurementPointId, String tag) {
-        if (Configuration.getConfiguration().isRecordedFormat()) {
-            if (tag == null) {
-                return null;
+    private void waitUntilDue( long timestampNanos) {
+        // calculate the nanoseconds between the read timestamp and the current time
+        long waitNanos = timestampNanos - System.currentTimeMillis() * NANOSPERMILLISECOND;
+        // check if we are currently playing (could be switched to other state while processing
+        if ( this.dataBackendController.isPlayState()) {
+            // check if we play the source file backward
+            if (this.dataBackendController.isPlayBackward()) {
+                // negate the duration so that it can be interpreted as numral duration for a delay
+                waitNanos = -waitNanos;
             }
-            if (this.tagToMeasurementPointCache.containsKey(tag)) {
-                return this.tagToMeasurementPointCache.get(tag);
+            // check if we are in fast forward or fast backward mode
+            if (this.dataBackendController.isPlayFast()) {
+                // apply the fast forward factor
+                waitNanos = waitNanos / FAST_FORWARD_FACTOR;
             }
-            List<Asset> assetList = this.dataBackendController.getFlatAssetList();
-            for (Asset asset : assetList) {
-                for (MeasurementPoint mp : asset.getMeasurementPoints()) {
-                    if (mp.getCustomNodeId() != null && mp.getCustomNodeId().toParseableString().equals(tag)) {
-                        this.tagToMeasurementPointCache.put(tag, mp);
-                        return mp;
-                    }
+        }
+        // check if we need to waitADuration for this time stamp to happen any time soon now
+        if ( waitNanos > 0) {
+            // the records before this one form a replay batch, this one starts the next batch
+            this.endReplayBatch();
+            this.replayBatchScheduledTime = System.currentTimeMillis() + waitNanos / NANOSPERMILLISECOND;
+            // typically the read timestamp is newer than the current time, 
+            // so we have to waitADuration until the read timestamp reaches the current time
+            Waiter.waitADuration( Duration.ofNanos( waitNanos));
+        } else if (this.replayBatchSize == 0) { // if not just go ahead, because the read timestamp is already in the past
+            this.replayBatchScheduledTime = System.currentTimeMillis() + waitNanos / NANOSPERMILLISECOND;
+        }
+        if (this.replayBatchSize++ == 0) {
+            this.replayBatchActualTime = System.currentTimeMillis();
+        }
+        // after waiting the replay is on time, otherwise it runs behind by the remaining duration
+        this.dataBackendController.getDiagnostics().setReplayLagMillis( waitNanos < 0 ? -waitNanos / NANOSPERMILLISECOND : 0);
+    }
+
+    /**
+     * Hands a sample that is due to its measurement point or node.
+     * @param measurementPoint the measurement point of the sample, null when there is none
+     * @param tag the tag of the sample in recorded format
+     * @param value the value of the sample
+     * @param timestamp the timestamp of the sample, shifted towards the current pass
+     * @param zoneOffset the zone offset of the timestamp
+     */
+    private void replaySample( MeasurementPoint measurementPoint, String tag, String value, LocalDateTime timestamp, ZoneOffset zoneOffset) {
+        // and add measurement sample to measurement point
+        if ( measurementPoint != null) {
+            measurementPoint.setMeasurementSample( value, MeasurementSample.DATAQUALITY.Good, timestamp, zoneOffset);
+        } else if (Configuration.getConfiguration().isRecordedFormat()) {
+            try {
+                org.eclipse.milo.opcua.stack.core.types.builtin.NodeId nodeId = org.eclipse.milo.opcua.stack.core.types.builtin.NodeId.parse(tag);
+                if (!this.dataBackendController.updateNodeValue(nodeId, value, timestamp, zoneOffset)) {
+                    this.measurementPointResolver.countUnresolvedTag( tag);
                 }
+            } catch (Exception e) {
+                this.measurementPointResolver.countUnresolvedTag( tag);
             }
-            this.tagToMeasurementPointCache.put(tag, null);
-            if (!tag.contains("/")) {
-                Logger.getLogger( this.getClass().getName()).log(Level.WARNING, "Error measurementpoint not found with tag=" + tag);
+        }
+    }
+
+    /**
+     * Replays a record of the replay cache.
+     * @param index the index of the record in the cache
+     */
+    private void procesCachedSample( int index) {
+        int pointHandle = this.replayCache.getPointHandle( index);
+        // the measurement point of a handle is looked up once per pass
+        if (!this.cachedMeasurementPointResolved[ pointHandle]) {
+            this.cachedMeasurementPoints[ pointHandle] = this.measurementPointResolver.resolve( this.replayCache.getAssetId( pointHandle), this.replayCache.getMeasurementPointId( pointHandle), this.replayCache.getTag( pointHandle));
+            this.cachedMeasurementPointResolved[ pointHandle] = true;
+        }
+        long timestampNanos = this.replayCache.getTimestampNanos( index) + this.replayCacheTimeShift;
+        this.waitUntilDue( timestampNanos);
+        MeasurementPoint measurementPoint = this.cachedMeasurementPoints[ pointHandle];
+        if (measurementPoint != null) {
+            // the value is parsed for its measurement point once, on the first pass from the cache
+            Variant variant = this.replayCache.getVariant( index);
+            if (variant == null) {
+                variant = measurementPoint.createVariant( this.replayCache.getValue( index));
+                this.replayCache.setVariant( index, variant);
             }
-            return null;
+            measurementPoint.setMeasurementSample( new MeasurementSample( variant, MeasurementSample.DATAQUALITY.Good, Math.floorDiv( timestampNanos, NANOSPERMILLISECOND), this.zoneOffset));
         } else {
-            // find asset in flat asset list based on its asset ID
-            List<Asset> assetList = this.dataBackendController.getFlatAssetList();
-            Asset anAsset = assetList.stream().filter( p -> p.getId().equalsIgnoreCase(assetId)).findFirst().orElse( null);
-            if (anAsset != null) {
-                // find measurement in this assets measurement point based on channel ID (aka measurement point ID)
-                MeasurementPoint measurementPoint = anAsset.getMeasurementPoints().stream().filter( p -> p.getId() == Integer.parseInt(measurementPointId)).findFirst().orElse( null);
-                if (measurementPoint == null) {
-                    Logger.getLogger( this.getClass().getName()).log(Level.WARNING, "Error asset/measurementpoint combination not found with asset ID=" + assetId + " and measurementpointID=" +  measurementPointId);
-                }
-                return measurementPoint;
-            } else {
-                Logger.getLogger( this.getClass().getName()).log(Level.WARNING, "Error asset not found with ID=" + assetId);
-                return null;
-            }
+            this.replaySample(
+                    null,
+                    this.replayCache.getTag( pointHandle),
+                    this.replayCache.getValue( index),
+                    this.replayCache.getTimestamp( index, this.replayCacheTimeShift, this.zoneOffset),
+                    this.zoneOffset
+            );
         }
     }
-    
-    
+
+    /**
+     * Emits the flight recorder event of the current replay batch, if it has records.
+     */
+    private void endReplayBatch() {
+        if (this.replayBatchSize > 0) {
+            FlightRecorderEvents.replayBatch( this.replayBatchScheduledTime, this.replayBatchActualTime, this.replayBatchSize);
+            this.replayBatchSize = 0;
+        }
+    }
+
     /**
      * getDatastream open the data input file and returns an iterator to its content.
      * @param isForwardOrder boolean to flag if the data stream should be opened in forward or backward order
@@ -214,18 +265,19 @@ public class DataStreamController {
     }
     
     private void resetMetrics() {
+        this.endReplayBatch();
         this.dataLineCounter = 0;
         this.playbackStartTime = System.currentTimeMillis();
         this.lastMetricsTime = this.playbackStartTime;
         this.lastMetricsLineCount = 0;
-        this.tagToMeasurementPointCache.clear();
+        this.measurementPointResolver.clear();
         this.startMetricsScheduler();
     }
 
     private synchronized void startMetricsScheduler() {
         stopMetricsScheduler();
         metricsScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "PlaybackMetricsLogger");
+            Thread t = new Thread(Configuration.withCurrentConfiguration(r), "PlaybackMetricsLogger");
             t.setDaemon(true);
             return t;
         });
@@ -279,25 +331,34 @@ public class DataStreamController {
         // try to open it
         try {
             // check if need to open in ascending chronological order
-            if ( isForwardOrder) {
-                // open file and get stream of lines
-                Stream<String> lines = Files.lines( aPath);
-                // check if open was successful
-                if (lines != null) {
-                    Logger.getLogger(this.getClass().getName()).log(Level.INFO, "File " + aPath.getFileName() + " opened");
-                    // reset metrics
-                    this.resetMetrics();
-                    // reset time shift duration
-                    this.timeShiftDuration = null;
-                    // set the iterator
-                    this.iterator = lines.iterator();
-                    result = true;
-                    // return the result
-                    return result;
-                } else {
-                    // flag that no data line stream was returned by java nio
-                    Logger.getLogger(this.getClass().getName()).log(Level.SEVERE, "No data line stream retrieved from input file");
+            this.closeDataStream();
+            this.replayCachePosition = -1;
+            this.fillingReplayCache = false;
+            this.observingUpdateRates = false;
+            this.observedUpdateRates.clear();
+            if ( isForwardOrder && this.replayCache != null && this.replayCache.canReplay( aPath.toFile())) {
+                // replay the pass from memory, without reading the data file
+                this.startCachedPass();
+                Logger.getLogger(this.getClass().getName()).log(Level.INFO, "File " + aPath.getFileName() + " replayed from the replay cache");
+                return true;
+            } else if ( isForwardOrder) {
+                // open file, its lines are parsed in chunks on multiple cores ahead of the replay
+                this.chunkedReader = new ChunkedDataFileReader( aPath.toFile(), this.dataBackendController.getDiagnostics());
+                Logger.getLogger(this.getClass().getName()).log(Level.INFO, "File " + aPath.getFileName() + " opened");
+                // reset metrics
+                this.resetMetrics();
+                // set the iterator
+                this.iterator = this.chunkedReader;
+                // keep this pass in memory for the next passes, unless it did not fit before
+                if (this.replayCache != null && !this.replayCache.isOverflowed()) {
+                    this.replayCache.start( aPath.toFile());
+                    this.fillingReplayCache = true;
                 }
+                // the first complete pass sets the update rates of the measurement points
+                this.observingUpdateRates = !this.updateRatesObserved;
+                result = true;
+                // return the result
+                return result;
             } else { // so its descending chronological order
                 try {
                     // this might take a while
@@ -306,8 +367,8 @@ public class DataStreamController {
                     lines.remove(0); // remove the header line from the list
                     lines.sort( new LineComparator()); // sort according the comparator
                     lines.add(0, header); // add the header again as first item
-                    // set the iterator
-                    this.iterator = lines.iterator();
+                    // set the iterator, a new parser per pass starts with a fresh time shift
+                    this.iterator = this.parseLines( lines.iterator(), new DataLineParser());
                     this.resetMetrics();
                     result = true;
                     // return the result
@@ -324,15 +385,89 @@ public class DataStreamController {
     } 
     
     public boolean hasNext() {
-        return this.iterator != null && this.iterator.hasNext();
+        if (this.replayCachePosition >= 0) {
+            return this.replayCachePosition < this.replayCache.size();
+        }
+        boolean hasNext = this.iterator != null && this.iterator.hasNext();
+        // only a pass that read the data file up to its end can be replayed or tells the update rates
+        boolean passCompleted = !hasNext && this.chunkedReader != null && !this.chunkedReader.isClosed();
+        if (!hasNext && this.fillingReplayCache) {
+            this.fillingReplayCache = false;
+            if (passCompleted) {
+                this.replayCache.complete();
+                Logger.getLogger(this.getClass().getName()).log(Level.INFO, "Replay cache holds " + this.replayCache.size() + " records of "
+                        + this.replayCache.getPointCount() + " measurement points in " + (this.replayCache.getMemoryBytes() / (1024 * 1024)) + " MB");
+            }
+        }
+        if (!hasNext && this.observingUpdateRates) {
+            this.observingUpdateRates = false;
+            if (passCompleted) {
+                this.observedUpdateRates.forEach( MeasurementPoint::setUpdateRateStatistics);
+                this.updateRatesObserved = true;
+                Logger.getLogger(this.getClass().getName()).log(Level.INFO, "Minimum sampling intervals of " + this.observedUpdateRates.size() + " measurement points set from their updates in the data file");
+            }
+            this.observedUpdateRates.clear();
+        }
+        return hasNext;
+    }
+
+    private void startCachedPass() {
+        this.resetMetrics();
+        int pointCount = this.replayCache.getPointCount();
+        this.cachedMeasurementPoints = new MeasurementPoint[ pointCount];
+        this.cachedMeasurementPointResolved = new boolean[ pointCount];
+        if (this.replayCache.size() > 0) {
+            // like a pass over the data file the first record is due now
+            this.replayCacheTimeShift = System.currentTimeMillis() * NANOSPERMILLISECOND - this.replayCache.getTimestampNanos( 0);
+        }
+        this.replayCachePosition = 0;
     }
     
+    /**
+     * Closes the data file of the current pass, if any, and stops parsing ahead. The current pass
+     * then has no more records.
+     */
+    public void closeDataStream() {
+        ChunkedDataFileReader reader = this.chunkedReader;
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private Iterator<MeasurementDataRecord> parseLines( Iterator<String> lines, DataLineParser parser) {
+        return new Iterator<MeasurementDataRecord>() {
+            private int lineCounter = 0;
+            private int reportedParseErrors = 0;
+
+            @Override
+            public boolean hasNext() {
+                return lines.hasNext();
+            }
+
+            @Override
+            public MeasurementDataRecord next() {
+                MeasurementDataRecord record = parser.procesDataLine( lines.next(), lineCounter++);
+                // the parse errors are reported as they occur, like the chunked reader does per chunk
+                if (parser.getParseErrorCount() > this.reportedParseErrors) {
+                    dataBackendController.getDiagnostics().addParseErrors( parser.getParseErrorCount() - this.reportedParseErrors);
+                    this.reportedParseErrors = parser.getParseErrorCount();
+                }
+                return record;
+            }
+        };
+    }
+
     public void processSample() {
+        if (this.replayCachePosition >= 0) {
+            this.dataLineCounter++;
+            this.dataBackendController.getDiagnostics().sampleProcessed();
+            this.procesCachedSample( this.replayCachePosition++);
+            return;
+        }
         // in play forward state so read some data
-        String aDataLine = iterator.next();
-        MeasurementDataRecord readData = 
-                MeasurementDataRecord.procesDataLine( aDataLine, this.dataLineCounter);
+        MeasurementDataRecord readData = iterator.next();
         this.dataLineCounter++;
+        this.dataBackendController.getDiagnostics().sampleProcessed();
         if (readData != null) {
             this.procesInputData( readData);
         }
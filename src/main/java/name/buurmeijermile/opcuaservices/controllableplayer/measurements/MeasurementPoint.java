@@ -29,13 +29,18 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.objecthunter.exp4j.Expression;
 import net.objecthunter.exp4j.ValidationResult;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import org.eclipse.milo.opcua.sdk.core.QualifiedProperty;
+import org.eclipse.milo.opcua.sdk.core.ValueRanks;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
@@ -55,6 +60,7 @@ public class MeasurementPoint extends PointInTime {
     public static final String ASSETNAMESEPERATORTOKEN = "."; // the dot is the asset name seperator token
     public static final String DATETIMETOKEN = "bummer!@#$";
     public static final String COMPLEXTYPETOKEN = "complexType";
+    public static final String UPDATERATEPROPERTY = "ObservedUpdateRate"; // property with the samples per second in the data file
     public static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss.SSS");
 
     private MeasurementSample theCurrentMeasurementSample = null;
@@ -69,6 +75,10 @@ public class MeasurementPoint extends PointInTime {
                                                                                         // depend on for simulation
     private Asset parentAsset; // the asset this measurement point belongs to
     private String fullDottedName; // <name of the parent asset>.<name of measurement point>
+    private UpdateRateStatistics updateRateStatistics = null; // the updates in the data file, null when not known yet
+    private final List<MeasurementPoint> clones = new ArrayList<>(); // the copies of this measurement point in cloned asset trees
+    private long cloneTimeOffsetMillis = 0; // the shift of the timestamps of this clone relative to its original
+    private double cloneValueScale = 1.0; // the factor on the numeric values of this clone relative to its original
 
     /**
      * No argument constructor used by builder
@@ -224,6 +234,10 @@ public class MeasurementPoint extends PointInTime {
             // " but uaVariableNode is null!");
             // }
         }
+        // the clones share the sample when it is not shifted or scaled
+        for (MeasurementPoint clone : this.clones) {
+            clone.setMeasurementSample(aMeasurementSample.derive(clone.cloneTimeOffsetMillis, clone.cloneValueScale));
+        }
     }
 
     @Override
@@ -293,6 +307,83 @@ public class MeasurementPoint extends PointInTime {
         if (this.theCurrentMeasurementSample != null) {
             this.uaVariableNode.setValue(this.theCurrentMeasurementSample.getUADateValue()); // initial value
         }
+        this.updateSamplingAttributes();
+    }
+
+    /**
+     * Sets the updates of this measurement point in the data file. The minimum sampling interval
+     * of the node becomes the shortest interval between two updates and the average update rate is
+     * shown in a property of the node, so that clients can choose their sampling intervals.
+     *
+     * @param statistics the updates of this measurement point in the data file
+     */
+    public void setUpdateRateStatistics(UpdateRateStatistics statistics) {
+        this.updateRateStatistics = statistics;
+        Double interval = statistics.getMinimumSamplingInterval();
+        if (interval != null) {
+            this.setMinumumSamplingInterval(interval);
+        }
+        this.updateSamplingAttributes();
+        for (MeasurementPoint clone : this.clones) {
+            clone.setUpdateRateStatistics(statistics);
+        }
+    }
+
+    /**
+     * Creates a copy of this measurement point for a cloned asset tree. The copy is not simulated
+     * or read from the data file itself, it gets every sample of this measurement point with the
+     * timestamp shifted and a numeric value scaled.
+     *
+     * @param aParentAsset      the asset of the copy in the cloned asset tree
+     * @param aCustomNodeId     the node id of the copy, null when its node id follows from its name
+     * @param aTimeOffsetMillis the shift of the timestamps of the copy in milliseconds
+     * @param aValueScale       the factor on the numeric values of the copy
+     * @return the copy
+     */
+    public MeasurementPoint createClone(Asset aParentAsset, NodeId aCustomNodeId, long aTimeOffsetMillis, double aValueScale) {
+        MeasurementPoint clone = new MeasurementPoint();
+        clone.setName(this.getName());
+        clone.setSimulated(false);
+        clone.setId(this.getId());
+        clone.setBaseUnitOfMeasure(this.getTheBaseUnitOfMeasure());
+        clone.setPhysicalQuantity(this.getThePhysicalQuantity());
+        clone.setTheUnitPrefix(this.getTheUnitPrefix());
+        clone.setAccessRight(this.getAccessRight());
+        clone.setDataType(this.getDataType());
+        clone.setMinumumSamplingInterval(this.getMinimumSamplingInterval());
+        clone.setParentAsset(aParentAsset);
+        clone.setCustomNodeId(aCustomNodeId);
+        clone.zoneOffset = this.zoneOffset;
+        clone.updateRateStatistics = this.updateRateStatistics;
+        clone.cloneTimeOffsetMillis = aTimeOffsetMillis;
+        clone.cloneValueScale = aValueScale;
+        if (this.theCurrentMeasurementSample != null) {
+            clone.setMeasurementSample(this.theCurrentMeasurementSample.derive(aTimeOffsetMillis, aValueScale));
+        }
+        this.clones.add(clone);
+        return clone;
+    }
+
+    /**
+     * @return the updates of this measurement point in the data file, null when not known yet
+     */
+    public UpdateRateStatistics getUpdateRateStatistics() {
+        return updateRateStatistics;
+    }
+
+    private void updateSamplingAttributes() {
+        if (this.uaVariableNode != null) {
+            this.uaVariableNode.setMinimumSamplingInterval(this.getMinimumSamplingInterval());
+            if (this.updateRateStatistics != null && this.updateRateStatistics.getSampleCount() > 1) {
+                QualifiedProperty<Double> updateRateProperty = new QualifiedProperty<>(
+                        Configuration.getConfiguration().getNamespace(),
+                        UPDATERATEPROPERTY,
+                        Identifiers.Double.expanded(),
+                        ValueRanks.Scalar,
+                        Double.class);
+                this.uaVariableNode.setProperty(updateRateProperty, this.updateRateStatistics.getUpdateRate());
+            }
+        }
     }
 
     /**
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+
+/**
+ * Finds the measurement point a data record is for: by tag through a cache for the recorded format,
+ * by asset id and measurement point id in the flat asset list for the semicolon format. A resolver
+ * belongs to the data stream of one player, like the parser it takes the format from the configuration
+ * of that player.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class MeasurementPointResolver {
+
+    private final boolean recordedFormat;
+    private final Supplier<List<Asset>> flatAssetList;
+    private final PlayerDiagnostics diagnostics;
+    private final Map<String, MeasurementPoint> tagToMeasurementPointCache = new HashMap<>();
+    private final Set<String> unresolvedTags = new HashSet<>(); // tags without a node, counted once
+
+    /**
+     * @param theFlatAssetList supplies the flat list of the assets of the player
+     * @param theDiagnostics counts the tags without a measurement point, may be null
+     */
+    public MeasurementPointResolver( Supplier<List<Asset>> theFlatAssetList, PlayerDiagnostics theDiagnostics) {
+        this.recordedFormat = Configuration.getConfiguration().isRecordedFormat();
+        this.flatAssetList = theFlatAssetList;
+        this.diagnostics = theDiagnostics;
+    }
+
+    /**
+     * Find measurement point object based on assetID and channelID, or tag in recorded format.
+     * @param assetId
+     * @param measurementPointId
+     * @param tag
+     * @return the measurement point, null when there is none
+     */
+    public MeasurementPoint resolve( String assetId, String measurementPointId, String tag) {
+        if (this.recordedFormat) {
+            if (tag == null) {
+                return null;
+            }
+            if (this.tagToMeasurementPointCache.containsKey( tag)) {
+                return this.tagToMeasurementPointCache.get( tag);
+            }
+            for (Asset asset : this.flatAssetList.get()) {
+                for (MeasurementPoint mp : asset.getMeasurementPoints()) {
+                    if (mp.getCustomNodeId() != null && mp.getCustomNodeId().toParseableString().equals( tag)) {
+                        this.tagToMeasurementPointCache.put( tag, mp);
+                        return mp;
+                    }
+                }
+            }
+            this.tagToMeasurementPointCache.put( tag, null);
+            if (!tag.contains("/")) {
+                Logger.getLogger( this.getClass().getName()).log(Level.WARNING, "Error measurementpoint not found with tag=" + tag);
+            }
+            return null;
+        } else {
+            // find asset in flat asset list based on its asset ID
+            Asset anAsset = this.flatAssetList.get().stream().filter( p -> p.getId().equalsIgnoreCase( assetId)).findFirst().orElse( null);
+            if (anAsset != null) {
+                // find measurement in this assets measurement point based on channel ID (aka measurement point ID)
+                MeasurementPoint measurementPoint = anAsset.getMeasurementPoints().stream().filter( p -> p.getId() == Integer.parseInt( measurementPointId)).findFirst().orElse( null);
+                if (measurementPoint == null) {
+                    Logger.getLogger( this.getClass().getName()).log(Level.WARNING, "Error asset/measurementpoint combination not found with asset ID=" + assetId + " and measurementpointID=" +  measurementPointId);
+                    this.countUnresolvedTag( assetId + ";" + measurementPointId);
+                }
+                return measurementPoint;
+            } else {
+                Logger.getLogger( this.getClass().getName()).log(Level.WARNING, "Error asset not found with ID=" + assetId);
+                this.countUnresolvedTag( assetId + ";" + measurementPointId);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Forgets the resolved tags, done at the start of every pass.
+     */
+    public void clear() {
+        this.tagToMeasurementPointCache.clear();
+    }
+
+    /**
+     * Counts a tag without a node in the diagnostics, the first time it is met.
+     * @param tag the tag, or the asset id and measurement point id separated by a semicolon
+     */
+    public void countUnresolvedTag( String tag) {
+        if (this.unresolvedTags.add( tag) && this.diagnostics != null) {
+            this.diagnostics.unresolvedTag();
+        }
+    }
+}
@@ -23,6 +23,9 @@
  */
 package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.Date;
@@ -30,6 +33,11 @@ import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
 
 /**
  *
@@ -39,32 +47,47 @@ public class MeasurementSample {
 
     public enum DATAQUALITY { Good, Bad, BadSensor, BadLine, BadRange};
     
+    private static final long MILLISPERSECOND = 1000;
+    private static final BigInteger ULONGMAXVALUE = BigInteger.ONE.shiftLeft( 64).subtract( BigInteger.ONE);
+
     private final Variant variant;
     private final DataValue aDataValue;
-    private final LocalDateTime timestamp;
+    private final long epochMillis; // the timestamp with the millisecond precision of the OPC UA timestamps
     private final DATAQUALITY dataQuality;
     private final ZoneOffset zoneOffset;
         
     public MeasurementSample( Variant aVariant, DATAQUALITY theDataQuality, LocalDateTime aTimeStamp, ZoneOffset aZoneOffset) {
+        this( aVariant, theDataQuality, aTimeStamp.toEpochSecond( aZoneOffset) * MILLISPERSECOND + aTimeStamp.getNano() / 1000_000, aZoneOffset);
+    }
+
+    /**
+     * Sample of a timestamp that is already in milliseconds since the epoch, like the ones of the replay cache.
+     * @param aVariant the value
+     * @param theDataQuality the data quality
+     * @param theEpochMillis the timestamp in milliseconds since the epoch
+     * @param aZoneOffset the zone offset the timestamp is shown in
+     */
+    public MeasurementSample( Variant aVariant, DATAQUALITY theDataQuality, long theEpochMillis, ZoneOffset aZoneOffset) {
         this.variant = aVariant;
         this.dataQuality = theDataQuality;
-        this.timestamp = aTimeStamp;
+        this.epochMillis = theEpochMillis;
         this.zoneOffset = aZoneOffset;
+        DateTime uaDateTime = this.getUaDateTime();
         this.aDataValue = 
             new DataValue( 
                 this.variant, 
                 this.mapToUAStatus(), 
-                this.getUaDateTime(),
-                this.getUaDateTime()
+                uaDateTime,
+                uaDateTime
         );
     }
 
 
     /**
-     * @return the timestamp in nano seconds 
+     * @return the timestamp, with millisecond precision
      */
     public LocalDateTime getTimestamp() {
-        return this.timestamp;
+        return LocalDateTime.ofEpochSecond( Math.floorDiv( this.epochMillis, MILLISPERSECOND), (int) Math.floorMod( this.epochMillis, MILLISPERSECOND) * 1000_000, this.zoneOffset);
     }
 
     /**
@@ -98,17 +121,9 @@ public class MeasurementSample {
     }
 
     private DateTime getUaDateTime() {
-        // converts the todays LocalDateTime timestamp to an OPC UA DateTime timestamp (tedious steps) with millisecond precision
-        // first get UTC seconds
-        long javaUtcMilliSeconds = this.timestamp.toEpochSecond( this.zoneOffset);
-        // then multiply by 1000 to get number of milliseconds since epoch
-        javaUtcMilliSeconds = javaUtcMilliSeconds * 1000;
-        // then calculate milliseconds based on internal nano seconds
-        long javaMillisFraction = this.timestamp.getNano() / 1000_000;
-        // the add these values to get the utc in milliseconds
-        long javaUtcMilli = javaUtcMilliSeconds + javaMillisFraction;
+        // converts the utc in milliseconds since epoch to an OPC UA DateTime timestamp with millisecond precision
         // create java Date out of this utc in millseconds since epoch
-        Date javaDate = new Date(javaUtcMilli);
+        Date javaDate = new Date(this.epochMillis);
         // create java date out of that
         DateTime dateTime = new DateTime(javaDate);
         return dateTime;
@@ -126,6 +141,53 @@ public class MeasurementSample {
     public DataValue getUADateValue() {
         return this.aDataValue;
     }
+
+    /**
+     * Derives the sample of a clone from this sample.
+     * @param timeOffsetMillis the shift of the timestamp in milliseconds
+     * @param valueScale the factor on a numeric value
+     * @return this sample when neither changes it, otherwise a new sample
+     */
+    public MeasurementSample derive( long timeOffsetMillis, double valueScale) {
+        if (timeOffsetMillis == 0 && valueScale == 1.0) {
+            return this;
+        }
+        Variant derivedVariant = valueScale == 1.0 ? this.variant : scale( this.variant, valueScale);
+        return new MeasurementSample( derivedVariant, this.dataQuality, this.epochMillis + timeOffsetMillis, this.zoneOffset);
+    }
+
+    private static Variant scale( Variant aVariant, double factor) {
+        Object value = aVariant != null ? aVariant.getValue() : null;
+        // the scaled value keeps the type of the measurement point, integers are rounded and kept within the range of their type
+        if (value instanceof Double) {
+            return new Variant( (Double) value * factor);
+        } else if (value instanceof Float) {
+            return new Variant( (float) ((Float) value * factor));
+        } else if (value instanceof Long) {
+            return new Variant( Math.round( (Long) value * factor));
+        } else if (value instanceof Integer) {
+            return new Variant( (int) scale( (Integer) value, factor, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        } else if (value instanceof Short) {
+            return new Variant( (short) scale( (Short) value, factor, Short.MIN_VALUE, Short.MAX_VALUE));
+        } else if (value instanceof Byte) {
+            return new Variant( (byte) scale( (Byte) value, factor, Byte.MIN_VALUE, Byte.MAX_VALUE));
+        } else if (value instanceof UByte) {
+            return new Variant( Unsigned.ubyte( scale( ((UByte) value).longValue(), factor, 0, 0xff)));
+        } else if (value instanceof UShort) {
+            return new Variant( Unsigned.ushort( (int) scale( ((UShort) value).longValue(), factor, 0, 0xffff)));
+        } else if (value instanceof UInteger) {
+            return new Variant( Unsigned.uint( scale( ((UInteger) value).longValue(), factor, 0, 0xffffffffL)));
+        } else if (value instanceof ULong) {
+            BigInteger scaled = new BigDecimal( ((ULong) value).toBigInteger()).multiply( BigDecimal.valueOf( factor)).setScale( 0, RoundingMode.HALF_UP).toBigInteger();
+            return new Variant( Unsigned.ulong( scaled.max( BigInteger.ZERO).min( ULONGMAXVALUE)));
+        }
+        // booleans, strings, date times and the other types are not numeric values, they are not scaled
+        return aVariant;
+    }
+
+    private static long scale( long value, double factor, long minimum, long maximum) {
+        return Math.max( minimum, Math.min( maximum, Math.round( value * factor)));
+    }
     
     public double getValue() {
         double result=0.0d;
@@ -15,6 +15,8 @@ public class OpcNodeConfig {
     public Integer userAccessLevel;
     public JsonElement value;
     public List<OpcReference> references;
+    public String deadbandType; // optional recorder deadband override: "none", "absolute" or "percent"
+    public Double deadbandValue; // optional recorder deadband value belonging to the override
 
     public static class OpcBrowseName {
         public int namespaceIndex;
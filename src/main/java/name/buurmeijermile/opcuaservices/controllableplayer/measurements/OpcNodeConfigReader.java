@@ -0,0 +1,119 @@
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Streams the nodes of a JSON information model config, as captured by the recorder, one node at
+ * a time. Captured models can be hundreds of MB, so callers build only the structures they need
+ * from each node instead of holding the whole list of nodes. Callers that need more passes over
+ * the nodes call forEach again, which reads the file again. The first pass also writes a binary
+ * snapshot of the nodes next to the config, later passes and later starts read that snapshot.
+ */
+public class OpcNodeConfigReader {
+    private static final Gson GSON = new Gson();
+    private static final int BUFFERSIZE = 64 * 1024;
+
+    private final File configFile;
+
+    public OpcNodeConfigReader( File aConfigFile) {
+        this.configFile = aConfigFile;
+    }
+
+    /**
+     * Reads the config file, or its snapshot when that is up to date, and hands every node in it to
+     * the consumer, in file order.
+     * @param consumer called once per node
+     * @return the number of nodes read
+     * @throws IOException when the file can not be read or is not a JSON array of nodes
+     */
+    public int forEach( Consumer<OpcNodeConfig> consumer) throws IOException {
+        long startTime = System.currentTimeMillis();
+        int count;
+        if (OpcNodeSnapshot.isValidFor( configFile)) {
+            count = OpcNodeSnapshot.forEach( configFile, consumer);
+            Logger.getLogger( OpcNodeConfigReader.class.getName()).log(Level.FINE, "Read " + count + " nodes from the snapshot of " + configFile.getName() + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        } else {
+            count = this.parse( consumer);
+            Logger.getLogger( OpcNodeConfigReader.class.getName()).log(Level.INFO, "Parsed " + count + " nodes from " + configFile.getName() + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        return count;
+    }
+
+    private int parse( Consumer<OpcNodeConfig> consumer) throws IOException {
+        OpcNodeSnapshot.Writer snapshotWriter = null;
+        try {
+            snapshotWriter = new OpcNodeSnapshot.Writer( configFile);
+        } catch (IOException ex) {
+            // a read only config directory only costs parsing on the next pass
+            Logger.getLogger( OpcNodeConfigReader.class.getName()).log(Level.WARNING, "No snapshot of " + configFile.getName() + " can be written", ex);
+        }
+        int count = 0;
+        try (DigestInputStream configStream = OpcNodeSnapshot.hashing( Files.newInputStream( configFile.toPath()));
+             BufferedReader bufferedReader = new BufferedReader( new InputStreamReader( configStream, StandardCharsets.UTF_8), BUFFERSIZE);
+             JsonReader jsonReader = new JsonReader( bufferedReader)) {
+            if (jsonReader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new IOException( "JSON config file " + configFile.getName() + " does not hold an array of nodes");
+            }
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                if (jsonReader.peek() == JsonToken.NULL) {
+                    jsonReader.nextNull();
+                    continue;
+                }
+                OpcNodeConfig config = GSON.fromJson( jsonReader, OpcNodeConfig.class);
+                consumer.accept( config);
+                count++;
+                if (snapshotWriter != null) {
+                    try {
+                        snapshotWriter.write( config);
+                    } catch (IOException ex) {
+                        Logger.getLogger( OpcNodeConfigReader.class.getName()).log(Level.WARNING, "Snapshot of " + configFile.getName() + " abandoned", ex);
+                        snapshotWriter.close();
+                        snapshotWriter = null;
+                    }
+                }
+            }
+            jsonReader.endArray();
+            if (snapshotWriter != null) {
+                // the hash covers the whole file, including what the JSON reader did not need
+                byte[] buffer = new byte[ BUFFERSIZE];
+                while (configStream.read( buffer) != -1) {
+                    // digest the rest
+                }
+                try {
+                    snapshotWriter.commit( configStream.getMessageDigest().digest());
+                } catch (IOException ex) {
+                    Logger.getLogger( OpcNodeConfigReader.class.getName()).log(Level.WARNING, "Snapshot of " + configFile.getName() + " can not be written", ex);
+                }
+            }
+        } catch (JsonParseException e) {
+            // gson reports malformed nodes with unchecked exceptions
+            throw new IOException( "Malformed JSON config file " + configFile.getName() + ": " + e.getMessage(), e);
+        } finally {
+            if (snapshotWriter != null) {
+                snapshotWriter.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the configFile
+     */
+    public File getConfigFile() {
+        return configFile;
+    }
+}
@@ -0,0 +1,449 @@
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Compact binary copy of the nodes of a JSON information model config, stored next to the config
+ * in a sidecar file. The nodes are written while the JSON config is parsed for the first time and
+ * later passes and later starts read the snapshot instead, which saves the JSON parsing. Strings
+ * that repeat, like reference types and node ids of parents, are stored once. The snapshot is keyed
+ * on the SHA-256 hash of the config; the size and modification time are kept as well so the hash
+ * only has to be computed again when the config was touched. The length and CRC-32 of the nodes
+ * are checked before any node is handed out, a damaged snapshot is removed and the JSON config is
+ * parsed again. The header and checksum are shared with the asset snapshot, which keeps the asset
+ * tree built from the config. The Milo nodes are built from these nodes on every start, since they
+ * belong to the node manager of the running server.
+ */
+public class OpcNodeSnapshot {
+    public static final String SIDECARSUFFIX = ".snapshot";
+    private static final Logger LOGGER = Logger.getLogger( OpcNodeSnapshot.class.getName());
+    private static final int MAGIC = 0x4F504E53; // "OPNS"
+    private static final int VERSION = 2;
+    private static final int HASHLENGTH = 32;
+    private static final int HASHOFFSET = 4 + 4 + 8 + 8; // magic, version, size and modification time come first
+    static final int NODESOFFSET = HASHOFFSET + HASHLENGTH + 8 + 8; // the hash, length and checksum of the nodes follow
+    private static final int BUFFERSIZE = 64 * 1024;
+    // string markers, other values are indexes in the table of strings read so far
+    private static final int NULLSTRING = -1;
+    private static final int NEWSTRING = -2;
+
+    private OpcNodeSnapshot() {
+        // only static methods
+    }
+
+    /**
+     * @param configFile the JSON config
+     * @return the snapshot file belonging to the config
+     */
+    public static File getSnapshotFile( File configFile) {
+        return new File( configFile.getPath() + SIDECARSUFFIX);
+    }
+
+    /**
+     * Checks if the snapshot of the config holds the current contents of the config and is intact.
+     * A damaged snapshot is removed.
+     * @param configFile the JSON config
+     * @return true when the snapshot can be read instead of the config
+     */
+    public static boolean isValidFor( File configFile) {
+        return isValidFor( configFile, getSnapshotFile( configFile), MAGIC, VERSION);
+    }
+
+    /**
+     * Checks a snapshot file with the header of this class, the body starts at NODESOFFSET.
+     * @param configFile the config the snapshot was made of
+     * @param snapshotFile the snapshot file
+     * @param magic the first int of the snapshot file
+     * @param version the format version of the snapshot file
+     * @return true when the snapshot holds the current contents of the config and is intact
+     */
+    static boolean isValidFor( File configFile, File snapshotFile, int magic, int version) {
+        if (!snapshotFile.exists()) {
+            return false;
+        }
+        long size;
+        long lastModified;
+        byte[] hash = new byte[ HASHLENGTH];
+        long nodesLength;
+        long nodesChecksum;
+        try (DataInputStream snapshot = new DataInputStream( Files.newInputStream( snapshotFile.toPath()))) {
+            if (snapshot.readInt() != magic || snapshot.readInt() != version) {
+                return false;
+            }
+            size = snapshot.readLong();
+            lastModified = snapshot.readLong();
+            snapshot.readFully( hash);
+            nodesLength = snapshot.readLong();
+            nodesChecksum = snapshot.readLong();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Snapshot " + snapshotFile.getName() + " can not be read, the config is read instead", ex);
+            return false;
+        }
+        if (size != configFile.length()) {
+            return false;
+        }
+        if (lastModified != configFile.lastModified()) {
+            // touched or copied, the contents decide
+            try {
+                if (!Arrays.equals( hash, hashOf( configFile))) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Config " + configFile.getName() + " can not be read", ex);
+                return false;
+            }
+            try (RandomAccessFile snapshot = new RandomAccessFile( snapshotFile, "rw")) {
+                // saves hashing the config on the next start
+                snapshot.seek( HASHOFFSET - 8);
+                snapshot.writeLong( configFile.lastModified());
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Snapshot " + snapshotFile.getName() + " can not be updated", ex);
+            }
+        }
+        return isIntact( snapshotFile, nodesLength, nodesChecksum);
+    }
+
+    /**
+     * Reads the nodes once to compare their length and checksum with the ones written on commit,
+     * so that a damaged snapshot is found before any node is handed out.
+     */
+    private static boolean isIntact( File snapshotFile, long nodesLength, long nodesChecksum) {
+        long length = 0;
+        CRC32 checksum = new CRC32();
+        try (InputStream input = new CheckedInputStream( Files.newInputStream( snapshotFile.toPath()), checksum)) {
+            input.skip( NODESOFFSET);
+            checksum.reset();
+            byte[] buffer = new byte[ BUFFERSIZE];
+            int read;
+            while ((read = input.read( buffer)) != -1) {
+                length += read;
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Snapshot " + snapshotFile.getName() + " can not be read, the config is read instead", ex);
+            return false;
+        }
+        if (length == nodesLength && checksum.getValue() == nodesChecksum) {
+            return true;
+        }
+        LOGGER.log(Level.WARNING, "Snapshot " + snapshotFile.getName() + " is damaged and removed, the config is read instead");
+        try {
+            Files.deleteIfExists( snapshotFile.toPath());
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Damaged snapshot " + snapshotFile.getName() + " can not be removed", ex);
+        }
+        return false;
+    }
+
+    /**
+     * Hands the nodes in the snapshot of the config to the consumer, in the order of the config.
+     * Only call this after isValidFor, which checks the snapshot before any node is handed out.
+     * @param configFile the JSON config
+     * @param consumer called once per node
+     * @return the number of nodes read
+     * @throws IOException when the snapshot can not be read, the snapshot is then removed
+     */
+    public static int forEach( File configFile, Consumer<OpcNodeConfig> consumer) throws IOException {
+        File snapshotFile = getSnapshotFile( configFile);
+        int count = 0;
+        try (DataInputStream input = new DataInputStream( new BufferedInputStream( Files.newInputStream( snapshotFile.toPath()), BUFFERSIZE))) {
+            input.skipBytes( NODESOFFSET);
+            List<String> strings = new ArrayList<>();
+            while (input.readBoolean()) {
+                consumer.accept( readNode( input, strings));
+                count++;
+            }
+        } catch (IOException | JsonParseException ex) {
+            Files.deleteIfExists( snapshotFile.toPath());
+            throw new IOException( "Snapshot " + snapshotFile.getName() + " is damaged and removed", ex);
+        }
+        return count;
+    }
+
+    /**
+     * @return the SHA-256 hash of the contents of the file
+     */
+    static byte[] hashOf( File aFile) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[ BUFFERSIZE];
+        try (InputStream input = Files.newInputStream( aFile.toPath())) {
+            int read;
+            while ((read = input.read( buffer)) != -1) {
+                digest.update( buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance( "SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every java platform has SHA-256
+            throw new IllegalStateException( ex);
+        }
+    }
+
+    /**
+     * Writes the snapshot of a config while the config is parsed. The snapshot only replaces the
+     * previous one when all nodes are written and the hash of the config is known.
+     */
+    public static class Writer implements Closeable {
+        private final File configFile;
+        private final File snapshotFile;
+        private final File temporaryFile;
+        private final DataOutputStream output;
+        private final CRC32 checksum = new CRC32(); // over the nodes, the header is filled in later
+        private final Map<String, Integer> strings = new HashMap<>();
+        private boolean committed = false;
+
+        /**
+         * @param aConfigFile the JSON config that is about to be parsed
+         * @throws IOException when the snapshot can not be created next to the config
+         */
+        public Writer( File aConfigFile) throws IOException {
+            this( aConfigFile, getSnapshotFile( aConfigFile), SIDECARSUFFIX, MAGIC, VERSION);
+        }
+
+        /**
+         * @param aConfigFile the config that is about to be read
+         * @param aSnapshotFile the snapshot file that is replaced on commit
+         * @param suffix the suffix of the snapshot file, also used for the temporary file
+         * @param magic the first int of the snapshot file
+         * @param version the format version of the snapshot file
+         * @throws IOException when the snapshot can not be created next to the config
+         */
+        Writer( File aConfigFile, File aSnapshotFile, String suffix, int magic, int version) throws IOException {
+            this.configFile = aConfigFile;
+            this.snapshotFile = aSnapshotFile;
+            File directory = aConfigFile.getAbsoluteFile().getParentFile();
+            // a unique name, players that share the config may parse it at the same time
+            this.temporaryFile = File.createTempFile( aConfigFile.getName(), suffix, directory);
+            OutputStream file = Files.newOutputStream( this.temporaryFile.toPath());
+            DataOutputStream header = new DataOutputStream( file);
+            header.writeInt( magic);
+            header.writeInt( version);
+            header.writeLong( aConfigFile.length());
+            header.writeLong( aConfigFile.lastModified());
+            header.write( new byte[ HASHLENGTH + 8 + 8]); // hash, length and checksum of the nodes are filled in on commit
+            header.flush();
+            this.output = new DataOutputStream( new BufferedOutputStream( new CheckedOutputStream( file, this.checksum), BUFFERSIZE));
+        }
+
+        /**
+         * @param config the next node of the config
+         * @throws IOException
+         */
+        public void write( OpcNodeConfig config) throws IOException {
+            this.output.writeBoolean( true);
+            writeNode( this.output, config, this.strings);
+        }
+
+        /**
+         * Completes the snapshot and puts it in place of the previous one.
+         * @param configHash the SHA-256 hash of the config as it was parsed
+         * @throws IOException
+         */
+        public void commit( byte[] configHash) throws IOException {
+            this.output.writeBoolean( false);
+            this.complete( configHash);
+        }
+
+        /**
+         * @return the stream the body of the snapshot is written to
+         */
+        DataOutputStream getOutput() {
+            return this.output;
+        }
+
+        /**
+         * Fills in the header and puts the snapshot in place of the previous one.
+         * @param configHash the SHA-256 hash of the config as it was read
+         * @throws IOException
+         */
+        void complete( byte[] configHash) throws IOException {
+            this.output.close();
+            try (RandomAccessFile snapshot = new RandomAccessFile( this.temporaryFile, "rw")) {
+                snapshot.seek( HASHOFFSET);
+                snapshot.write( configHash);
+                snapshot.writeLong( snapshot.length() - NODESOFFSET);
+                snapshot.writeLong( this.checksum.getValue());
+            }
+            File snapshotFile = this.snapshotFile;
+            try {
+                Files.move( this.temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move( this.temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            this.committed = true;
+            LOGGER.log(Level.INFO, "Snapshot of " + this.configFile.getName() + " written to " + snapshotFile.getName() + ", " + snapshotFile.length() / 1024 + " kB");
+        }
+
+        /**
+         * Removes the unfinished snapshot when it was not committed.
+         */
+        @Override
+        public void close() {
+            if (!this.committed) {
+                try {
+                    this.output.close();
+                    Files.deleteIfExists( this.temporaryFile.toPath());
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Unfinished snapshot " + this.temporaryFile.getName() + " can not be removed", ex);
+                }
+            }
+        }
+    }
+
+    private static void writeNode( DataOutputStream output, OpcNodeConfig config, Map<String, Integer> strings) throws IOException {
+        writeString( output, config.nodeId, strings);
+        writeString( output, config.nodeClass, strings);
+        output.writeBoolean( config.browseName != null);
+        if (config.browseName != null) {
+            output.writeInt( config.browseName.namespaceIndex);
+            writeString( output, config.browseName.name, strings);
+        }
+        writeString( output, config.displayName, strings);
+        writeString( output, config.description, strings);
+        writeString( output, config.typeDefinition, strings);
+        writeString( output, config.dataType, strings);
+        writeInteger( output, config.accessLevel);
+        writeInteger( output, config.userAccessLevel);
+        // values are mostly small, they are kept in their JSON form
+        writeString( output, config.value == null ? null : config.value.toString(), strings);
+        if (config.references == null) {
+            output.writeInt( -1);
+        } else {
+            output.writeInt( config.references.size());
+            for (OpcNodeConfig.OpcReference reference : config.references) {
+                writeString( output, reference.referenceTypeId, strings);
+                output.writeBoolean( reference.isForward);
+                writeString( output, reference.targetNodeId, strings);
+            }
+        }
+        writeString( output, config.deadbandType, strings);
+        output.writeBoolean( config.deadbandValue != null);
+        if (config.deadbandValue != null) {
+            output.writeDouble( config.deadbandValue);
+        }
+    }
+
+    @SuppressWarnings("deprecation") // the instance parse method is the one available in all gson versions
+    private static OpcNodeConfig readNode( DataInputStream input, List<String> strings) throws IOException {
+        OpcNodeConfig config = new OpcNodeConfig();
+        config.nodeId = readString( input, strings);
+        config.nodeClass = readString( input, strings);
+        if (input.readBoolean()) {
+            config.browseName = new OpcNodeConfig.OpcBrowseName();
+            config.browseName.namespaceIndex = input.readInt();
+            config.browseName.name = readString( input, strings);
+        }
+        config.displayName = readString( input, strings);
+        config.description = readString( input, strings);
+        config.typeDefinition = readString( input, strings);
+        config.dataType = readString( input, strings);
+        config.accessLevel = readInteger( input);
+        config.userAccessLevel = readInteger( input);
+        String value = readString( input, strings);
+        config.value = value == null ? null : new JsonParser().parse( value);
+        int referenceCount = input.readInt();
+        if (referenceCount >= 0) {
+            config.references = new ArrayList<>( referenceCount);
+            for (int i = 0; i < referenceCount; i++) {
+                OpcNodeConfig.OpcReference reference = new OpcNodeConfig.OpcReference();
+                reference.referenceTypeId = readString( input, strings);
+                reference.isForward = input.readBoolean();
+                reference.targetNodeId = readString( input, strings);
+                config.references.add( reference);
+            }
+        }
+        config.deadbandType = readString( input, strings);
+        if (input.readBoolean()) {
+            config.deadbandValue = input.readDouble();
+        }
+        return config;
+    }
+
+    static void writeString( DataOutputStream output, String value, Map<String, Integer> strings) throws IOException {
+        if (value == null) {
+            output.writeInt( NULLSTRING);
+            return;
+        }
+        Integer index = strings.get( value);
+        if (index != null) {
+            output.writeInt( index);
+            return;
+        }
+        strings.put( value, strings.size());
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8);
+        output.writeInt( NEWSTRING);
+        output.writeInt( bytes.length);
+        output.write( bytes);
+    }
+
+    static String readString( DataInputStream input, List<String> strings) throws IOException {
+        int marker = input.readInt();
+        if (marker == NULLSTRING) {
+            return null;
+        }
+        if (marker == NEWSTRING) {
+            byte[] bytes = new byte[ input.readInt()];
+            input.readFully( bytes);
+            String value = new String( bytes, StandardCharsets.UTF_8);
+            strings.add( value);
+            return value;
+        }
+        if (marker < 0 || marker >= strings.size()) {
+            throw new IOException( "String index " + marker + " out of range");
+        }
+        return strings.get( marker);
+    }
+
+    private static void writeInteger( DataOutputStream output, Integer value) throws IOException {
+        output.writeBoolean( value != null);
+        if (value != null) {
+            output.writeInt( value);
+        }
+    }
+
+    private static Integer readInteger( DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readInt() : null;
+    }
+
+    /**
+     * Wraps the stream of the config so that the hash of the config is computed while it is parsed.
+     * @param input the stream of the config
+     * @return the stream to parse, its digest holds the hash once the stream is read to the end
+     */
+    static DigestInputStream hashing( InputStream input) {
+        return new DigestInputStream( input, newDigest());
+    }
+}
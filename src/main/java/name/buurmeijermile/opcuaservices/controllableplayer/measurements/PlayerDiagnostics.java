@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsRegistry;
+import static name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsRegistry.INSTANCELABEL;
+
+/**
+ * Health counters of one player, updated from the replay path at the cost of an uncontended
+ * counter increment and read once a second by the diagnostics nodes in the namespace. The
+ * counters are series of the metrics registry, labelled with the instance of the player, so
+ * they are also scraped from /metrics. Players hosted side by side in one JVM each have their
+ * own diagnostics.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class PlayerDiagnostics {
+
+    // upper bounds in seconds of the replay lag buckets
+    private static final double[] LAGBUCKETS = { 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+    private final MetricsRegistry.Counter samples; // data lines processed
+    private final MetricsRegistry.Counter parseErrors; // data lines that could not be parsed
+    private final MetricsRegistry.Counter unresolvedTags; // distinct tags without a node
+    private final MetricsRegistry.Histogram replayLag;
+    private volatile long replayLagMillis = 0; // how far the replay runs behind the wall clock
+    private volatile int readAheadDepth = 0; // blocks of records parsed ahead of the replay
+    private final Map<String, DoubleSupplier> simulationRates = new LinkedHashMap<>();
+
+    /**
+     * Diagnostics in the default registry, for the player on the current thread.
+     */
+    public PlayerDiagnostics() {
+        this( MetricsRegistry.getDefault(), MetricsRegistry.currentInstance());
+    }
+
+    /**
+     * @param registry the registry the counters are kept in
+     * @param instance the value of the instance label of the counters
+     */
+    public PlayerDiagnostics( MetricsRegistry registry, String instance) {
+        this.samples = registry.counter( "opcua_player_samples_total", "Data lines replayed", INSTANCELABEL, instance);
+        this.parseErrors = registry.counter( "opcua_player_parse_errors_total", "Data lines that could not be parsed", INSTANCELABEL, instance);
+        this.unresolvedTags = registry.counter( "opcua_player_unresolved_tags_total", "Distinct tags in the data file without a node", INSTANCELABEL, instance);
+        this.replayLag = registry.histogram( "opcua_player_replay_lag_seconds", "Time the replayed samples ran behind the wall clock", LAGBUCKETS, INSTANCELABEL, instance);
+        registry.gauge( "opcua_player_read_ahead_depth", "Blocks of the data file parsed ahead of the replay", () -> this.readAheadDepth, INSTANCELABEL, instance);
+    }
+
+    /**
+     * Counts a processed data line.
+     */
+    public void sampleProcessed() {
+        this.samples.increment();
+    }
+
+    /**
+     * @param count the number of data lines that could not be parsed
+     */
+    public void addParseErrors( long count) {
+        if (count > 0) {
+            this.parseErrors.add( count);
+        }
+    }
+
+    /**
+     * Counts a tag for which no measurement point or node was found, once per tag.
+     */
+    public void unresolvedTag() {
+        this.unresolvedTags.increment();
+    }
+
+    /**
+     * @param theReplayLagMillis the replayLagMillis to set
+     */
+    public void setReplayLagMillis( long theReplayLagMillis) {
+        this.replayLagMillis = theReplayLagMillis;
+        this.replayLag.observe( theReplayLagMillis / 1000.0);
+    }
+
+    /**
+     * @param theReadAheadDepth the readAheadDepth to set
+     */
+    public void setReadAheadDepth( int theReadAheadDepth) {
+        this.readAheadDepth = theReadAheadDepth;
+    }
+
+    /**
+     * Registers the achieved rate of a simulated measurement point, done before the namespace is built.
+     * @param name the full dotted name of the simulated measurement point
+     * @param rate the achieved number of samples per second
+     */
+    public synchronized void addSimulationRate( String name, DoubleSupplier rate) {
+        this.simulationRates.put( name, rate);
+    }
+
+    /**
+     * @return the number of processed data lines
+     */
+    public long getSampleCount() {
+        return samples.get();
+    }
+
+    /**
+     * @return the number of data lines that could not be parsed
+     */
+    public long getParseErrorCount() {
+        return parseErrors.get();
+    }
+
+    /**
+     * @return the number of distinct tags without a node
+     */
+    public long getUnresolvedTagCount() {
+        return unresolvedTags.get();
+    }
+
+    /**
+     * @return the replayLagMillis
+     */
+    public long getReplayLagMillis() {
+        return replayLagMillis;
+    }
+
+    /**
+     * @return the readAheadDepth
+     */
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    /**
+     * @return the achieved rate per simulated measurement point
+     */
+    public synchronized Map<String, DoubleSupplier> getSimulationRates() {
+        return Collections.unmodifiableMap( new LinkedHashMap<>( simulationRates));
+    }
+}
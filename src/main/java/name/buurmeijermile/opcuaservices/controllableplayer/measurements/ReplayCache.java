@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * Keeps a complete pass over a data file in memory, so that later passes in endless mode replay
+ * without reading and parsing the data file again. The records are kept in columns of primitive
+ * arrays: the timestamp in nanoseconds since the epoch and an index in a pool of distinct pairs of
+ * a measurement point handle and a value string. The values are read as strings because the
+ * measurement points parse them according to their own data type; the first pass from the cache
+ * keeps the parsed value of every pair, so later passes parse nothing. When the cache would grow
+ * beyond its memory cap it is dropped and the player keeps streaming from the data file.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class ReplayCache {
+
+    private static final int INITIALCAPACITY = 4096;
+    private static final long BYTESPERRECORD = Long.BYTES + Integer.BYTES;
+    private static final long BYTESPERSTRING = 64; // object headers, the array header and the map entry of a pooled string
+    private static final long BYTESPERPAIR = 96; // the map entry while filling, the handle and value index and the parsed value of a pair
+    private static final long NANOSPERSECOND = 1_000_000_000L;
+
+    private final long maxBytes;
+    private File dataFile = null;
+    private long fileSize = 0;
+    private long lastModified = 0;
+    // the record columns
+    private long[] timestamps = new long[ 0];
+    private int[] pairIndexes = new int[ 0];
+    private int size = 0;
+    // the measurement points by handle, the value pool and the pairs of both
+    private final List<String> assetIds = new ArrayList<>();
+    private final List<String> measurementPointIds = new ArrayList<>();
+    private final List<String> tags = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+    private int[] pairPointHandles = new int[ 0];
+    private int[] pairValueIndexes = new int[ 0];
+    private Variant[] pairVariants = new Variant[ 0]; // the parsed value of a pair, filled by the first pass from the cache
+    private int pairCount = 0;
+    // only used while the cache is filled
+    private Map<String, Integer> handlesByKey = new HashMap<>();
+    private Map<String, Integer> valueIndexesByValue = new HashMap<>();
+    private Map<Long, Integer> pairIndexesByKey = new HashMap<>();
+    private long poolBytes = 0; // the memory use of the pooled strings and pairs
+    private boolean complete = false;
+    private boolean overflowed = false;
+
+    /**
+     * @param theMaxBytes the memory cap of the cache
+     */
+    public ReplayCache( long theMaxBytes) {
+        this.maxBytes = theMaxBytes;
+    }
+
+    /**
+     * Empties the cache to be filled with a new pass over the data file.
+     * @param aDataFile the data file that is read
+     */
+    public void start( File aDataFile) {
+        this.clear();
+        this.dataFile = aDataFile;
+        this.fileSize = aDataFile.length();
+        this.lastModified = aDataFile.lastModified();
+        this.handlesByKey = new HashMap<>();
+        this.valueIndexesByValue = new HashMap<>();
+        this.pairIndexesByKey = new HashMap<>();
+        this.timestamps = new long[ INITIALCAPACITY];
+        this.pairIndexes = new int[ INITIALCAPACITY];
+        this.pairPointHandles = new int[ INITIALCAPACITY];
+        this.pairValueIndexes = new int[ INITIALCAPACITY];
+        this.overflowed = false;
+    }
+
+    /**
+     * Adds the next record of the pass.
+     * @param aRecord the record
+     * @return false when the cache exceeded its memory cap and is dropped
+     */
+    public boolean add( MeasurementDataRecord aRecord) {
+        if (this.overflowed || this.complete) {
+            return false;
+        }
+        if (this.size == this.timestamps.length && !this.grow()) {
+            return this.overflow();
+        }
+        LocalDateTime timestamp = aRecord.getTimestamp();
+        long epochSecond = timestamp.toEpochSecond( aRecord.getZoneOffset());
+        this.timestamps[ this.size] = epochSecond * NANOSPERSECOND + timestamp.getNano();
+        this.pairIndexes[ this.size] = this.pairIndex( this.pointHandle( aRecord), this.valueIndex( aRecord.getValueString()));
+        this.size++;
+        if (this.getMemoryBytes() > this.maxBytes) {
+            return this.overflow();
+        }
+        return true;
+    }
+
+    /**
+     * Marks the pass as complete, from now on the cache can be replayed.
+     */
+    public void complete() {
+        if (this.overflowed || this.dataFile == null) {
+            return;
+        }
+        this.timestamps = Arrays.copyOf( this.timestamps, this.size);
+        this.pairIndexes = Arrays.copyOf( this.pairIndexes, this.size);
+        this.pairPointHandles = Arrays.copyOf( this.pairPointHandles, this.pairCount);
+        this.pairValueIndexes = Arrays.copyOf( this.pairValueIndexes, this.pairCount);
+        this.pairVariants = new Variant[ this.pairCount];
+        this.handlesByKey = null;
+        this.valueIndexesByValue = null;
+        this.pairIndexesByKey = null;
+        this.complete = true;
+    }
+
+    /**
+     * @param aDataFile the data file to replay
+     * @return true when the cache holds a complete pass over the data file as it is now
+     */
+    public boolean canReplay( File aDataFile) {
+        return this.complete && aDataFile.equals( this.dataFile) && aDataFile.length() == this.fileSize && aDataFile.lastModified() == this.lastModified;
+    }
+
+    /**
+     * @return true when the cache exceeded its memory cap
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return the number of records in the cache
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct measurement points in the cache
+     */
+    public int getPointCount() {
+        return this.tags.size();
+    }
+
+    /**
+     * @param index the index of the record
+     * @param timeShiftNanos the time shift of the pass in nanoseconds
+     * @param zoneOffset the zone offset of the timestamps
+     * @return the timestamp of the record shifted towards the pass
+     */
+    public LocalDateTime getTimestamp( int index, long timeShiftNanos, ZoneOffset zoneOffset) {
+        long shifted = this.timestamps[ index] + timeShiftNanos;
+        return LocalDateTime.ofEpochSecond( Math.floorDiv( shifted, NANOSPERSECOND), (int) Math.floorMod( shifted, NANOSPERSECOND), zoneOffset);
+    }
+
+    /**
+     * @param index the index of the record
+     * @return the timestamp of the record in nanoseconds since the epoch
+     */
+    public long getTimestampNanos( int index) {
+        return this.timestamps[ index];
+    }
+
+    /**
+     * @param index the index of the record
+     * @return the handle of the measurement point of the record
+     */
+    public int getPointHandle( int index) {
+        return this.pairPointHandles[ this.pairIndexes[ index]];
+    }
+
+    /**
+     * @param index the index of the record
+     * @return the value of the record
+     */
+    public String getValue( int index) {
+        return this.values.get( this.pairValueIndexes[ this.pairIndexes[ index]]);
+    }
+
+    /**
+     * @param index the index of the record
+     * @return the value of the record parsed for its measurement point, null until it is set
+     */
+    public Variant getVariant( int index) {
+        return this.pairVariants[ this.pairIndexes[ index]];
+    }
+
+    /**
+     * Keeps the parsed value of a record, for all records with the same measurement point and value.
+     * @param index the index of the record
+     * @param aVariant the value of the record parsed for its measurement point
+     */
+    public void setVariant( int index, Variant aVariant) {
+        this.pairVariants[ this.pairIndexes[ index]] = aVariant;
+    }
+
+    /**
+     * @param pointHandle the handle of a measurement point
+     * @return the asset id of the measurement point
+     */
+    public String getAssetId( int pointHandle) {
+        return this.assetIds.get( pointHandle);
+    }
+
+    /**
+     * @param pointHandle the handle of a measurement point
+     * @return the measurement point id of the measurement point
+     */
+    public String getMeasurementPointId( int pointHandle) {
+        return this.measurementPointIds.get( pointHandle);
+    }
+
+    /**
+     * @param pointHandle the handle of a measurement point
+     * @return the tag of the measurement point
+     */
+    public String getTag( int pointHandle) {
+        return this.tags.get( pointHandle);
+    }
+
+    /**
+     * @return the estimated memory use of the cache
+     */
+    public long getMemoryBytes() {
+        return this.timestamps.length * BYTESPERRECORD + this.poolBytes;
+    }
+
+    private int pointHandle( MeasurementDataRecord aRecord) {
+        String key = aRecord.getTag() != null ? aRecord.getTag() : aRecord.getAssetID() + ";" + aRecord.getMeasurementPointID();
+        Integer handle = this.handlesByKey.get( key);
+        if (handle == null) {
+            handle = this.tags.size();
+            this.handlesByKey.put( key, handle);
+            this.assetIds.add( aRecord.getAssetID());
+            this.measurementPointIds.add( aRecord.getMeasurementPointID());
+            this.tags.add( aRecord.getTag());
+            this.poolBytes += 3 * BYTESPERSTRING + 2L * key.length();
+        }
+        return handle;
+    }
+
+    private int valueIndex( String aValue) {
+        Integer index = this.valueIndexesByValue.get( aValue);
+        if (index == null) {
+            index = this.values.size();
+            this.valueIndexesByValue.put( aValue, index);
+            this.values.add( aValue);
+            this.poolBytes += BYTESPERSTRING + 2L * aValue.length();
+        }
+        return index;
+    }
+
+    private int pairIndex( int pointHandle, int valueIndex) {
+        Long key = ((long) pointHandle << 32) | valueIndex;
+        Integer index = this.pairIndexesByKey.get( key);
+        if (index == null) {
+            index = this.pairCount;
+            if (index == this.pairPointHandles.length) {
+                this.pairPointHandles = Arrays.copyOf( this.pairPointHandles, 2 * index);
+                this.pairValueIndexes = Arrays.copyOf( this.pairValueIndexes, 2 * index);
+            }
+            this.pairIndexesByKey.put( key, index);
+            this.pairPointHandles[ index] = pointHandle;
+            this.pairValueIndexes[ index] = valueIndex;
+            this.pairCount++;
+            this.poolBytes += BYTESPERPAIR;
+        }
+        return index;
+    }
+
+    private boolean grow() {
+        // double the columns, but never beyond what fits in the memory cap
+        long fitting = (this.maxBytes - this.poolBytes) / BYTESPERRECORD;
+        int capacity = (int) Math.min( Math.min( 2L * this.timestamps.length, fitting), Integer.MAX_VALUE - 8);
+        if (capacity <= this.timestamps.length) {
+            return false;
+        }
+        this.timestamps = Arrays.copyOf( this.timestamps, capacity);
+        this.pairIndexes = Arrays.copyOf( this.pairIndexes, capacity);
+        return true;
+    }
+
+    private boolean overflow() {
+        this.clear();
+        this.overflowed = true;
+        return false;
+    }
+
+    private void clear() {
+        this.timestamps = new long[ 0];
+        this.pairIndexes = new int[ 0];
+        this.size = 0;
+        this.assetIds.clear();
+        this.measurementPointIds.clear();
+        this.tags.clear();
+        this.values.clear();
+        this.pairPointHandles = new int[ 0];
+        this.pairValueIndexes = new int[ 0];
+        this.pairVariants = new Variant[ 0];
+        this.pairCount = 0;
+        this.handlesByKey = null;
+        this.valueIndexesByValue = null;
+        this.pairIndexesByKey = null;
+        this.poolBytes = 0;
+        this.complete = false;
+    }
+}
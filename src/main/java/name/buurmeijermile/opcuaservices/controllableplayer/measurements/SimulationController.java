@@ -7,6 +7,7 @@ package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -16,6 +17,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import static name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint.SIMULATIONTOKEN;
 import static name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint.VARIABLESPLITTOKEN;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsRegistry;
 import net.objecthunter.exp4j.Expression;
 import net.objecthunter.exp4j.ExpressionBuilder;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
@@ -28,15 +30,23 @@ public class SimulationController{
 
     private final List<SimulationWorker> workers = new ArrayList<>();
     private final Assets assets;
-    private List<MeasurementPoint> simulatedMeasurementPoints;
-    private final List<MeasurementPoint> allMeasurementPoints;
+    private final List<MeasurementPoint> simulatedMeasurementPoints;
+    private final Map<String, List<MeasurementPoint>> measurementPointsByDottedName = new HashMap<>(); // the variables simulation expressions can refer to
+    private final Map<String, SimulationWorker> workersByDottedName = new HashMap<>();
     private Logger logger = Logger.getLogger( this.getClass().getName());
 
     public SimulationController( Assets someAssets) {
+        this( someAssets, null);
+    }
+
+    /**
+     * @param someAssets the assets with the simulated measurement points
+     * @param aSnapshot the snapshot the assets were restored from, it holds the outcome of steps 2 and 3, null to run them
+     */
+    SimulationController( Assets someAssets, AssetSnapshot aSnapshot) {
         // initialize the variables
         this.assets = someAssets;
         this.simulatedMeasurementPoints = someAssets.getSimulatedMeasurementPoints();
-        this.allMeasurementPoints = someAssets.getAllMeasurementPoints();
         // go through four step approach to initialize the simulation controller
         // step [1]: for each simulated measurement point set the simulation function derived from its name
         for (MeasurementPoint aMeasurementPoint : this.simulatedMeasurementPoints) {
@@ -45,8 +55,35 @@ public class SimulationController{
                 this.setNameAndSimulationFunction( aMeasurementPoint); 
             }
         }
+        if (aSnapshot != null) {
+            this.restoreDependencies( aSnapshot);
+        } else {
+            this.analyseDependencies( someAssets);
+        }
+        // step[4]:  for each remaining simulated measurement point create a simulation worker
+        String instance = MetricsRegistry.currentInstance();
+        for (MeasurementPoint aMeasurementPoint : this.simulatedMeasurementPoints) {
+            if (!aMeasurementPoint.isSimulated()) {
+                continue; // its simulation function could not be set up
+            }
+            SimulationWorker worker = new SimulationWorker( aMeasurementPoint);
+            this.workers.add( worker);
+            this.workersByDottedName.putIfAbsent( aMeasurementPoint.getFullDottedName(), worker);
+            MetricsRegistry.getDefault().gauge( "opcua_player_simulation_samples_per_second", "Achieved samples per second of a simulated measurement point",
+                    worker::getActualSamplesPerSecond, MetricsRegistry.INSTANCELABEL, instance, "point", aMeasurementPoint.getFullDottedName());
+        }
+    }
+
+    /**
+     * Steps 2 and 3 of the initialization, they look at all measurement points of the assets.
+     */
+    private void analyseDependencies( Assets someAssets) {
         // step[2]: for each  measurement point derive the measurement points it depends on
-        this.simulatedMeasurementPoints = someAssets.getSimulatedMeasurementPoints();
+        if (!this.simulatedMeasurementPoints.isEmpty()) {
+            for (MeasurementPoint aMeasurementPoint : someAssets.getAllMeasurementPoints()) {
+                this.measurementPointsByDottedName.computeIfAbsent( aMeasurementPoint.getFullDottedName(), name -> new ArrayList<>()).add( aMeasurementPoint);
+            }
+        }
         for (MeasurementPoint aMeasurementPoint : this.simulatedMeasurementPoints) {
             if (aMeasurementPoint.isSimulated()) {
                 // derive for each measurement point is dependend measurement points
@@ -54,7 +91,6 @@ public class SimulationController{
             }
         }
         // step [3]: for eacht measurement point check if it has circular dependencies
-        this.simulatedMeasurementPoints = this.assets.getSimulatedMeasurementPoints();
         for (MeasurementPoint aMeasurementPoint : this.simulatedMeasurementPoints) {
             if (aMeasurementPoint.isSimulated()) {
                 // check the measurement point has circular dependencies
@@ -65,11 +101,23 @@ public class SimulationController{
                 }
             }
         }
-        // step[4]:  for each remaining simulated measurement point create a simulation worker
-        this.simulatedMeasurementPoints = this.assets.getSimulatedMeasurementPoints();
+    }
+
+    /**
+     * Steps 2 and 3 of the initialization taken from the snapshot the assets were restored from.
+     */
+    private void restoreDependencies( AssetSnapshot aSnapshot) {
         for (MeasurementPoint aMeasurementPoint : this.simulatedMeasurementPoints) {
-            SimulationWorker worker = new SimulationWorker( aMeasurementPoint);
-            this.workers.add( worker);
+            if (aMeasurementPoint.isSimulated()) {
+                Map<String, MeasurementPoint> dependingMeasurementPoints = aSnapshot.getDependingMeasurementPoints( aMeasurementPoint);
+                if (dependingMeasurementPoints != null) {
+                    aMeasurementPoint.setDependingMeasurementPoints( dependingMeasurementPoints);
+                }
+                if (aSnapshot.isUnsimulated( aMeasurementPoint)) {
+                    logger.log(Level.SEVERE, "Measurement point [" + aMeasurementPoint.getName() + "] has circular dependencies");
+                    aMeasurementPoint.setSimulated( false);
+                }
+            }
         }
     }
     
@@ -131,6 +179,10 @@ public class SimulationController{
                         if ( updateFrequencyString.matches("\\d*")) { // matches any number
                             int simulationUpdateFrequency = Integer.parseInt( updateFrequencyString);
                             aMeasurementPoint.setSimulationUpdateFrequency( simulationUpdateFrequency);
+                            if ( simulationUpdateFrequency > 0) {
+                                // the node is not worth sampling faster than the simulation updates it
+                                aMeasurementPoint.setMinumumSamplingInterval( Math.max( UpdateRateStatistics.MINIMUMINTERVALFLOOR, 1000.0 / simulationUpdateFrequency));
+                            }
                             // OK continue processing the expression of this simulator function
                             // find the semicolon after whcih the expression is defined
                             int semiColumnIndex = functionDefinition.indexOf( ':', closeBracketIndex);
@@ -173,6 +225,13 @@ public class SimulationController{
         }
     }
 
+    /**
+     * @return the simulation workers, one per simulated measurement point
+     */
+    public List<SimulationWorker> getWorkers() {
+        return Collections.unmodifiableList( this.workers);
+    }
+
     public void startSimulation() {
         this.workers.stream().forEach( p -> p.startWorker());
         logger.log(Level.INFO, "Simulation started, all workers got the signal");
@@ -197,21 +256,18 @@ public class SimulationController{
         if ( expression != null) {
             // get the variables
             Set<String> variables = aMeasurementPoint.getSimulationExpression().getVariableNames();
-            // loop throug all measurement points and find point with name same as variable
+            // find the measurement points with a name same as a variable
             for (String variableName: variables) {
                 boolean found = false;
-                // loop thorugh the measurement points
-                for (MeasurementPoint anotherMeasurementPoint : this.allMeasurementPoints) {
+                // create dotted variable name
+                String dottedVariableName = variableName.replace('_', '.');
+                // loop thorugh the measurement points with that name
+                for (MeasurementPoint anotherMeasurementPoint : this.measurementPointsByDottedName.getOrDefault( dottedVariableName, Collections.emptyList())) {
                     // check if we are not pointing at the same measurement point as wee started with
                     if (anotherMeasurementPoint != aMeasurementPoint) {
-                        // create dotted variable name
-                        String dottedVariableName = variableName.replace('_', '.');
-                        // check if the name is the same as the variable name we are looking for
-                        if ( anotherMeasurementPoint.getFullDottedName().contentEquals( dottedVariableName)) {
-                            found = true;
-                            // OK found a depending measurement point, add it to the set
-                            dependingMeasurementPoints.put( variableName, anotherMeasurementPoint);
-                        }
+                        found = true;
+                        // OK found a depending measurement point, add it to the set
+                        dependingMeasurementPoints.put( variableName, anotherMeasurementPoint);
                     }
                 }
                 if ( !variableName.contentEquals("t")) {
@@ -264,7 +320,7 @@ public class SimulationController{
 
     public void setUAActualSimulationSpeedNode( MeasurementPoint aMeasurementPoint, UaVariableNode aUaVariableNode) {
         // find the corresponding simulation worker
-        SimulationWorker simulationWorker = this.workers.stream().filter( mp -> mp.getMeasurementPoint().getFullDottedName().contentEquals( aMeasurementPoint.getFullDottedName())).findAny().get();
+        SimulationWorker simulationWorker = this.workersByDottedName.get( aMeasurementPoint.getFullDottedName());
         if ( simulationWorker != null) {
             simulationWorker.setUaVariableNode( aUaVariableNode);
         }
@@ -10,6 +10,7 @@ import java.time.LocalDateTime;
 import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.FlightRecorderEvents;
 import name.buurmeijermile.opcuaservices.utils.Waiter;
 import net.objecthunter.exp4j.Expression;
 import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
@@ -27,11 +28,12 @@ public class SimulationWorker extends Thread {
     private final MeasurementPoint measurementPoint;
     private final int sampleRate; // sample rate in samples per second
     private long delayTime;
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false; // also read by the monitor thread
     private long counter = 0;
     private long previousTime = System.nanoTime();
     private long correctionValue = 1;
-    private double actualSamplesPerSecond = 0.0;
+    private volatile double actualSamplesPerSecond = 0.0; // also read by the diagnostics
+    private long lastInterval = 0; // nano seconds between the last two ticks
     private UaVariableNode uaVariableNode;
     
     /**
@@ -69,8 +71,12 @@ public class SimulationWorker extends Thread {
             public void run() {
                 long start = System.nanoTime();
                 long lastCounter = 0;
-                while (true) {
+                // the monitor ends with the worker, also when the worker is stopped while it waits
+                while (isRunning) {
                     Waiter.waitADuration(Duration.ofSeconds(10)); // wait for short period
+                    if (!isRunning) {
+                        break;
+                    }
                     long deltaCounter = counter > lastCounter ? counter - lastCounter: lastCounter - counter;
                     long now = System.nanoTime();
                     double deltaSeconds = (now - start) / 1E9;
@@ -96,6 +102,7 @@ public class SimulationWorker extends Thread {
                 }
             }
         };
+        monitor.setDaemon(true);
         monitor.start();
     }
     
@@ -114,6 +121,7 @@ public class SimulationWorker extends Thread {
             currentTime = System.nanoTime();
             deltaTime = currentTime - previousTime;
         }
+        lastInterval = deltaTime;
         previousTime = currentTime;
     }
 
@@ -123,9 +131,12 @@ public class SimulationWorker extends Thread {
         while (this.isRunning) {
             try {
                 while (this.isRunning) {
+                    long tickStart = System.nanoTime();
                     this.measurementPoint.getSimulatedValue();
                     counter++;
+                    long computeTime = System.nanoTime() - tickStart;
                     this.delayToSampleFrequency();
+                    FlightRecorderEvents.simulationTick( this.measurementPoint.getName(), computeTime, this.lastInterval, this.delayTime);
                 }
             } catch (InterruptedException ie) {
                 // Oh bummer, lets continue
@@ -140,6 +151,13 @@ public class SimulationWorker extends Thread {
         this.uaVariableNode = uaVariableNode;
     }
 
+    /**
+     * @return the samples per second achieved in the last monitoring period
+     */
+    public double getActualSamplesPerSecond() {
+        return actualSamplesPerSecond;
+    }
+
     /**
      * @return the measurementPoint
      */
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.measurements;
+
+/**
+ * The updates of one measurement point in a data file: the number of samples, the time range they
+ * span and the shortest interval between two samples. From these the minimum sampling interval of
+ * the node of the measurement point is derived: sampling a point faster than it ever changes only
+ * costs the server and the client, sampling it slower loses changes. Statistics of consecutive
+ * regions of a data file can be merged in file order.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class UpdateRateStatistics {
+
+    public static final double MINIMUMINTERVALFLOOR = 1.0; // ms, the resolution of the timestamps in the data files
+    public static final double MINIMUMINTERVALCEILING = 10_000.0; // ms, keeps slow points responsive for clients that sample
+
+    private long sampleCount = 0;
+    private long firstMillis = 0;
+    private long lastMillis = 0;
+    private long minimumIntervalMillis = Long.MAX_VALUE; // Long.MAX_VALUE until two samples with different timestamps are seen
+
+    /**
+     * Adds a sample, samples have to be added in file order.
+     * @param epochMillis the timestamp of the sample
+     */
+    public void add( long epochMillis) {
+        if (this.sampleCount == 0) {
+            this.firstMillis = epochMillis;
+        } else {
+            this.addInterval( epochMillis - this.lastMillis);
+        }
+        this.lastMillis = epochMillis;
+        this.sampleCount++;
+    }
+
+    /**
+     * Adds the statistics of the region of the data file that follows the region of these statistics.
+     * @param later the statistics of the next region
+     * @return these statistics
+     */
+    public UpdateRateStatistics merge( UpdateRateStatistics later) {
+        if (later.sampleCount == 0) {
+            return this;
+        }
+        if (this.sampleCount == 0) {
+            this.firstMillis = later.firstMillis;
+        } else {
+            // the interval that spans the border of both regions
+            this.addInterval( later.firstMillis - this.lastMillis);
+        }
+        this.minimumIntervalMillis = Math.min( this.minimumIntervalMillis, later.minimumIntervalMillis);
+        this.lastMillis = later.lastMillis;
+        this.sampleCount += later.sampleCount;
+        return this;
+    }
+
+    private void addInterval( long intervalMillis) {
+        // samples with the same timestamp and samples out of order say nothing about the rate
+        if (intervalMillis > 0 && intervalMillis < this.minimumIntervalMillis) {
+            this.minimumIntervalMillis = intervalMillis;
+        }
+    }
+
+    /**
+     * @return the sampleCount
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the average number of samples per second, 0 when the samples span no time
+     */
+    public double getUpdateRate() {
+        long span = this.lastMillis - this.firstMillis;
+        return this.sampleCount > 1 && span > 0 ? (this.sampleCount - 1) * 1000.0 / span : 0.0;
+    }
+
+    /**
+     * @return the shortest interval between two samples in ms, bounded by the floor and the ceiling,
+     * null when there are not two samples with different timestamps
+     */
+    public Double getMinimumSamplingInterval() {
+        if (this.minimumIntervalMillis == Long.MAX_VALUE) {
+            return null;
+        }
+        return Math.max( MINIMUMINTERVALFLOOR, Math.min( MINIMUMINTERVALCEILING, (double) this.minimumIntervalMillis));
+    }
+}
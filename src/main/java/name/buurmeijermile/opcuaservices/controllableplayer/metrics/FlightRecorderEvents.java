@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.metrics;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Emits the Java Flight Recorder events of the replay, simulation and recording pipelines and
+ * starts the continuous recording that keeps them on disk. The events only cost a flag check as
+ * long as no recording is running. Java 8 runtimes before update 262 have no flight recorder, on
+ * those the events are skipped, the event classes are only loaded when the flight recorder is present.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class FlightRecorderEvents {
+
+    private static final Logger LOGGER = Logger.getLogger( FlightRecorderEvents.class.getName());
+    private static final boolean AVAILABLE = isFlightRecorderPresent();
+    private static boolean recordingStarted = false;
+
+    private FlightRecorderEvents() {
+        // only static methods
+    }
+
+    /**
+     * @return true when this runtime has a flight recorder
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Records a batch of replayed samples that were due at the same moment.
+     * @param scheduledMillis the wall clock time the batch was due, in milliseconds since the epoch
+     * @param actualMillis the wall clock time the batch was replayed, in milliseconds since the epoch
+     * @param batchSize the number of samples in the batch
+     */
+    public static void replayBatch( long scheduledMillis, long actualMillis, int batchSize) {
+        if (AVAILABLE) {
+            PlayerEvents.replayBatch( scheduledMillis, actualMillis, batchSize);
+        }
+    }
+
+    /**
+     * Records a tick of a simulation worker, the ticks are summed up per worker per second.
+     * @param point the name of the simulated measurement point
+     * @param computeNanos the time spent calculating the simulated value
+     * @param intervalNanos the time since the previous tick
+     * @param targetIntervalNanos the time aimed for between two ticks
+     */
+    public static void simulationTick( String point, long computeNanos, long intervalNanos, long targetIntervalNanos) {
+        if (AVAILABLE) {
+            PlayerEvents.simulationTick( point, computeNanos, intervalNanos, targetIntervalNanos);
+        }
+    }
+
+    /**
+     * Records the recorder writing the samples from its ring until the ring was empty.
+     * @param sampleCount the number of samples written
+     * @param durationNanos the time it took
+     */
+    public static void recorderDrain( long sampleCount, long durationNanos) {
+        if (AVAILABLE) {
+            PlayerEvents.recorderDrain( sampleCount, durationNanos);
+        }
+    }
+
+    /**
+     * Records the recorder flushing and closing an output file.
+     * @param fileName the name of the output file
+     * @param durationNanos the time it took
+     */
+    public static void recorderFlush( String fileName, long durationNanos) {
+        if (AVAILABLE) {
+            PlayerEvents.recorderFlush( fileName, durationNanos);
+        }
+    }
+
+    /**
+     * Records a phase of building the namespace of the player.
+     * @param phase the name of the phase
+     * @param startNanos the System.nanoTime() at the start of the phase
+     * @param nodeCount the number of nodes handled in the phase
+     */
+    public static void namespaceBuildPhase( String phase, long startNanos, int nodeCount) {
+        if (AVAILABLE) {
+            PlayerEvents.namespaceBuildPhase( phase, System.nanoTime() - startNanos, nodeCount);
+        }
+    }
+
+    /**
+     * Starts a continuous recording of the default settings and the events of this class. The
+     * recording keeps a rotating buffer on disk that is bounded by age and size, it is dumped in
+     * the given directory when the JVM exits and can be dumped at any time with
+     * 'jcmd &lt;pid&gt; JFR.dump name=opcua-player'. Only one recording is started per JVM.
+     * @param directory the directory for the dump
+     * @param maxAge the age of the oldest events that are kept
+     * @param maxBytes the size of the events that are kept
+     * @return true when the recording runs
+     */
+    public static synchronized boolean startContinuousRecording( File directory, Duration maxAge, long maxBytes) {
+        if (recordingStarted) {
+            return true;
+        }
+        if (!AVAILABLE) {
+            LOGGER.log(Level.WARNING, "This Java runtime has no flight recorder, no flight recording is started");
+            return false;
+        }
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                LOGGER.log(Level.SEVERE, "Flight recording directory " + directory + " can not be created");
+                return false;
+            }
+            File dumpFile = PlayerEvents.startContinuousRecording( directory, maxAge, maxBytes);
+            recordingStarted = true;
+            LOGGER.log(Level.INFO, "Continuous flight recording started, keeping " + maxAge.toMinutes() + " minutes or " + (maxBytes / (1024 * 1024)) + " MB, dumped to " + dumpFile + " on exit");
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Continuous flight recording can not be started", ex);
+        }
+        return recordingStarted;
+    }
+
+    private static boolean isFlightRecorderPresent() {
+        try {
+            Class.forName( "jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+}
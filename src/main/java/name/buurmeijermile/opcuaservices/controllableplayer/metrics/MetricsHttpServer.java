@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Small HTTP listener that serves a metrics registry on /metrics, for a player or recorder that
+ * runs in its own process. It uses the HTTP server of the JDK, so it needs no extra dependencies.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class MetricsHttpServer {
+
+    public static final String METRICSPATH = "/metrics";
+    private static final Logger LOGGER = Logger.getLogger( MetricsHttpServer.class.getName());
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param port the port to listen on, on the loopback interface only
+     * @param registry the registry to serve
+     * @throws IOException when the port can not be bound
+     */
+    public MetricsHttpServer( int port, MetricsRegistry registry) throws IOException {
+        this( InetAddress.getLoopbackAddress(), port, registry);
+    }
+
+    /**
+     * @param bindAddress the address of the interface to listen on, the wildcard address for all interfaces
+     * @param port the port to listen on
+     * @param registry the registry to serve
+     * @throws IOException when the port can not be bound
+     */
+    public MetricsHttpServer( InetAddress bindAddress, int port, MetricsRegistry registry) throws IOException {
+        this.server = HttpServer.create( new InetSocketAddress( bindAddress, port), 0);
+        this.executor = Executors.newSingleThreadExecutor( r -> {
+            Thread t = new Thread( r, "MetricsHttpServer");
+            t.setDaemon( true);
+            return t;
+        });
+        this.server.setExecutor( this.executor);
+        this.server.createContext( METRICSPATH, exchange -> {
+            try {
+                byte[] body = registry.scrape().getBytes( StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set( "Content-Type", MetricsRegistry.CONTENTTYPE);
+                exchange.sendResponseHeaders( 200, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write( body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public void start() {
+        this.server.start();
+        LOGGER.log(Level.INFO, "Metrics served on " + this.server.getAddress() + METRICSPATH);
+    }
+
+    public void stop() {
+        this.server.stop( 0);
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+
+/**
+ * Registry of counters, gauges and histograms, written in the Prometheus text exposition format.
+ * Counters and histograms are backed by LongAdders so that updating them from hot paths on many
+ * threads costs an uncontended increment. Players and recorders hosted in the web UI JVM share the
+ * default registry and tell their series apart by the instance label.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class MetricsRegistry {
+
+    public static final String INSTANCELABEL = "instance";
+    public static final String CONTENTTYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final MetricsRegistry DEFAULTREGISTRY = new MetricsRegistry();
+    private static final Pattern INSTANCEPATTERN = Pattern.compile( INSTANCELABEL + "=\"(?:[^\"\\\\]|\\\\.)*\"");
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * One series of a metric, identified by its labels.
+     */
+    private interface Series {
+        void write( String name, String labels, List<String> samples);
+    }
+
+    /**
+     * All series of a metric with the same name.
+     */
+    private static class Family {
+        private final String type;
+        private final String help;
+        private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, String[]> labelPairs = new ConcurrentHashMap<>();
+
+        Family( String aType, String aHelp) {
+            this.type = aType;
+            this.help = aHelp;
+        }
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static class Counter implements Series {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            this.count.increment();
+        }
+
+        public void add( long amount) {
+            this.count.add( amount);
+        }
+
+        public long get() {
+            return this.count.sum();
+        }
+
+        @Override
+        public void write( String name, String labels, List<String> samples) {
+            samples.add( name + labels + " " + this.get());
+        }
+    }
+
+    /**
+     * A value that goes up and down, set by its owner.
+     */
+    public static class Gauge implements Series {
+        private volatile double value = 0;
+
+        public void set( double aValue) {
+            this.value = aValue;
+        }
+
+        public double get() {
+            return this.value;
+        }
+
+        @Override
+        public void write( String name, String labels, List<String> samples) {
+            samples.add( name + labels + " " + format( this.value));
+        }
+    }
+
+    /**
+     * A series whose value is read from its owner at scrape time.
+     */
+    private static class FunctionSeries implements Series {
+        private final DoubleSupplier value;
+
+        FunctionSeries( DoubleSupplier aValue) {
+            this.value = aValue;
+        }
+
+        @Override
+        public void write( String name, String labels, List<String> samples) {
+            samples.add( name + labels + " " + format( this.value.getAsDouble()));
+        }
+    }
+
+    /**
+     * Counts observations in buckets with fixed upper bounds.
+     */
+    public static class Histogram implements Series {
+        private final double[] upperBounds;
+        private final LongAdder[] buckets; // observations per bucket, the last one for the ones above all bounds
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram( double[] theUpperBounds) {
+            this.upperBounds = theUpperBounds.clone();
+            java.util.Arrays.sort( this.upperBounds);
+            this.buckets = new LongAdder[ this.upperBounds.length + 1];
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[ i] = new LongAdder();
+            }
+        }
+
+        public void observe( double aValue) {
+            int i = 0;
+            while (i < this.upperBounds.length && aValue > this.upperBounds[ i]) {
+                i++;
+            }
+            this.buckets[ i].increment();
+            this.sum.add( aValue);
+        }
+
+        @Override
+        public void write( String name, String labels, List<String> samples) {
+            String prefix = labels.isEmpty() ? "{" : labels.substring( 0, labels.length() - 1) + ",";
+            long cumulative = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                cumulative += this.buckets[ i].sum();
+                String bound = i < this.upperBounds.length ? format( this.upperBounds[ i]) : "+Inf";
+                samples.add( name + "_bucket" + prefix + "le=\"" + bound + "\"} " + cumulative);
+            }
+            samples.add( name + "_sum" + labels + " " + format( this.sum.sum()));
+            samples.add( name + "_count" + labels + " " + cumulative);
+        }
+    }
+
+    /**
+     * @return the registry shared by the players, recorders and the web UI in this JVM
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULTREGISTRY;
+    }
+
+    /**
+     * @return the value of the instance label for the player or recorder on the current thread:
+     * the id of a hosted instance or the uri of a standalone one
+     */
+    public static String currentInstance() {
+        Configuration configuration = Configuration.getConfiguration();
+        String hostedInstanceId = configuration.getHostedInstanceId();
+        return hostedInstanceId != null ? hostedInstanceId : configuration.getUri();
+    }
+
+    /**
+     * @param name the metric name, a counter name ends with _total
+     * @param help the description of the metric
+     * @param labels label names and values, alternating
+     * @return the counter with these labels, created on first use
+     */
+    public Counter counter( String name, String help, String... labels) {
+        return this.register( name, "counter", help, labels, Counter.class, Counter::new);
+    }
+
+    /**
+     * Registers a counter that is kept by its owner, it replaces the series of a previous owner with the same labels.
+     * @param name the metric name, a counter name ends with _total
+     * @param help the description of the metric
+     * @param value reads the count at scrape time
+     * @param labels label names and values, alternating
+     */
+    public void counter( String name, String help, LongSupplier value, String... labels) {
+        this.registerFunction( name, "counter", help, labels, value::getAsLong);
+    }
+
+    /**
+     * @param name the metric name
+     * @param help the description of the metric
+     * @param labels label names and values, alternating
+     * @return the gauge with these labels, created on first use
+     */
+    public Gauge gauge( String name, String help, String... labels) {
+        return this.register( name, "gauge", help, labels, Gauge.class, Gauge::new);
+    }
+
+    /**
+     * Registers a gauge that is kept by its owner, it replaces the series of a previous owner with the same labels.
+     * @param name the metric name
+     * @param help the description of the metric
+     * @param value reads the value at scrape time
+     * @param labels label names and values, alternating
+     */
+    public void gauge( String name, String help, DoubleSupplier value, String... labels) {
+        this.registerFunction( name, "gauge", help, labels, value);
+    }
+
+    /**
+     * @param name the metric name
+     * @param help the description of the metric
+     * @param upperBounds the upper bounds of the buckets
+     * @param labels label names and values, alternating
+     * @return the histogram with these labels, created on first use
+     */
+    public Histogram histogram( String name, String help, double[] upperBounds, String... labels) {
+        return this.register( name, "histogram", help, labels, Histogram.class, () -> new Histogram( upperBounds));
+    }
+
+    /**
+     * Removes the series of a player or recorder that ended.
+     * @param instance the value of the instance label
+     */
+    public void removeInstance( String instance) {
+        for (Family family : this.families.values()) {
+            family.labelPairs.entrySet().removeIf( entry -> {
+                String[] labels = entry.getValue();
+                for (int i = 0; i + 1 < labels.length; i += 2) {
+                    if (INSTANCELABEL.equals( labels[ i]) && instance.equals( labels[ i + 1])) {
+                        family.series.remove( entry.getKey());
+                        return true;
+                    }
+                }
+                return false;
+            });
+        }
+    }
+
+    /**
+     * @return all series in the text exposition format
+     */
+    public String scrape() {
+        return new Scrape().add( this).toString();
+    }
+
+    private <T extends Series> T register( String name, String type, String help, String[] labels, Class<T> seriesClass, Supplier<T> factory) {
+        Family family = this.family( name, type, help, labels);
+        String labelText = labelText( labels);
+        Series series = family.series.computeIfAbsent( labelText, key -> {
+            family.labelPairs.put( key, labels.clone());
+            return factory.get();
+        });
+        if (!seriesClass.isInstance( series)) {
+            throw new IllegalArgumentException( "Metric " + name + labelText + " is already registered in another form");
+        }
+        return seriesClass.cast( series);
+    }
+
+    private void registerFunction( String name, String type, String help, String[] labels, DoubleSupplier value) {
+        Family family = this.family( name, type, help, labels);
+        String labelText = labelText( labels);
+        family.labelPairs.put( labelText, labels.clone());
+        family.series.put( labelText, new FunctionSeries( value));
+    }
+
+    private Family family( String name, String type, String help, String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException( "Labels of " + name + " are not in name, value pairs");
+        }
+        Family family = this.families.computeIfAbsent( name, key -> new Family( type, help));
+        if (!family.type.equals( type)) {
+            throw new IllegalArgumentException( "Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelText( String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder( "{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append( ',');
+            }
+            builder.append( labels[ i]).append( "=\"").append( escape( labels[ i + 1])).append( '"');
+        }
+        return builder.append( '}').toString();
+    }
+
+    private static String escape( String value) {
+        return value == null ? "" : value.replace( "\\", "\\\\").replace( "\"", "\\\"").replace( "\n", "\\n");
+    }
+
+    private static String format( double value) {
+        if (Double.isNaN( value)) {
+            return "NaN";
+        } else if (Double.isInfinite( value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        } else if (value == Math.rint( value) && Math.abs( value) < 1E15) {
+            return Long.toString( (long) value);
+        }
+        return Double.toString( value);
+    }
+
+    /**
+     * Merges registries and the scrapes of other processes into one exposition, in which every
+     * metric is written once with the series of all sources below it.
+     */
+    public static class Scrape {
+        private final Map<String, String> types = new TreeMap<>();
+        private final Map<String, String> helps = new TreeMap<>();
+        private final Map<String, List<String>> samples = new TreeMap<>();
+
+        /**
+         * @param registry the registry to add
+         * @return this scrape
+         */
+        public Scrape add( MetricsRegistry registry) {
+            registry.families.forEach( (name, family) -> {
+                List<String> familySamples = this.familySamples( name, family.type, family.help);
+                family.series.forEach( (labels, series) -> series.write( name, labels, familySamples));
+            });
+            return this;
+        }
+
+        /**
+         * Adds the scrape of another process, with its instance label set to the given instance.
+         * @param exposition the scrape in the text exposition format
+         * @param instance the value of the instance label
+         * @return this scrape
+         */
+        public Scrape add( String exposition, String instance) {
+            String family = null;
+            for (String line : exposition.split( "\n")) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.startsWith( "#")) {
+                    String[] parts = line.split( " ", 4);
+                    if (parts.length >= 3 && (parts[ 1].equals( "TYPE") || parts[ 1].equals( "HELP"))) {
+                        family = parts[ 2];
+                        this.familySamples( family, parts[ 1].equals( "TYPE") && parts.length == 4 ? parts[ 3] : null,
+                                parts[ 1].equals( "HELP") && parts.length == 4 ? parts[ 3] : null);
+                    }
+                    continue;
+                }
+                int nameEnd = 0;
+                while (nameEnd < line.length() && line.charAt( nameEnd) != '{' && line.charAt( nameEnd) != ' ') {
+                    nameEnd++;
+                }
+                String sampleName = line.substring( 0, nameEnd);
+                if (family == null || !sampleName.startsWith( family)) {
+                    family = sampleName;
+                }
+                this.familySamples( family, null, null).add( withInstance( line, nameEnd, instance));
+            }
+            return this;
+        }
+
+        private List<String> familySamples( String name, String type, String help) {
+            if (type != null) {
+                this.types.putIfAbsent( name, type);
+            }
+            if (help != null) {
+                this.helps.putIfAbsent( name, help);
+            }
+            return this.samples.computeIfAbsent( name, key -> new ArrayList<>());
+        }
+
+        private static String withInstance( String line, int nameEnd, String instance) {
+            String label = INSTANCELABEL + "=\"" + escape( instance) + "\"";
+            if (nameEnd < line.length() && line.charAt( nameEnd) == '{') {
+                Matcher matcher = INSTANCEPATTERN.matcher( line);
+                if (matcher.find()) {
+                    return line.substring( 0, matcher.start()) + label + line.substring( matcher.end());
+                }
+                boolean empty = nameEnd + 1 < line.length() && line.charAt( nameEnd + 1) == '}';
+                return line.substring( 0, nameEnd + 1) + label + (empty ? "" : ",") + line.substring( nameEnd + 1);
+            }
+            return line.substring( 0, nameEnd) + "{" + label + "}" + line.substring( nameEnd);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            this.samples.forEach( (name, familySamples) -> {
+                if (this.helps.containsKey( name)) {
+                    builder.append( "# HELP ").append( name).append( ' ').append( this.helps.get( name)).append( '\n');
+                }
+                if (this.types.containsKey( name)) {
+                    builder.append( "# TYPE ").append( name).append( ' ').append( this.types.get( name)).append( '\n');
+                }
+                familySamples.forEach( sample -> builder.append( sample).append( '\n'));
+            });
+            return builder.toString();
+        }
+    }
+}
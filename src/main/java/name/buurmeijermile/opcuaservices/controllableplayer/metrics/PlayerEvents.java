@@ -0,0 +1,327 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+/**
+ * The flight recorder events of the player and recorder. This class refers to the jdk.jfr
+ * classes, so it is only used through FlightRecorderEvents once the flight recorder is known to
+ * be present.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+class PlayerEvents {
+
+    static final String RECORDINGNAME = "opcua-player";
+    private static final String EVENTPREFIX = "name.buurmeijermile.opcuaplayer.";
+    private static final DateTimeFormatter DUMPFILEFORMATTER = DateTimeFormatter.ofPattern( "uuuuMMdd-HHmmss");
+
+    @Name( EVENTPREFIX + "ReplayBatch")
+    @Label( "Replay Batch")
+    @Description( "Samples of the data file that were due at the same moment and replayed together")
+    @Category( { "OPC UA Player", "Replay"})
+    @StackTrace( false)
+    static class ReplayBatchEvent extends Event {
+        @Label( "Scheduled Time")
+        @Timestamp( Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long scheduledTime;
+
+        @Label( "Actual Time")
+        @Timestamp( Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long actualTime;
+
+        @Label( "Lag")
+        @Description( "Actual minus scheduled time")
+        @Timespan( Timespan.MILLISECONDS)
+        long lag;
+
+        @Label( "Batch Size")
+        int batchSize;
+    }
+
+    @Name( EVENTPREFIX + "SimulationTick")
+    @Label( "Simulation Tick")
+    @Description( "A value calculated by a simulation worker, off by default since workers tick up to thousands of times per second")
+    @Category( { "OPC UA Player", "Simulation"})
+    @StackTrace( false)
+    @Enabled( false)
+    static class SimulationTickEvent extends Event {
+        @Label( "Measurement Point")
+        String point;
+
+        @Label( "Compute Time")
+        @Timespan( Timespan.NANOSECONDS)
+        long computeTime;
+
+        @Label( "Interval")
+        @Description( "Time since the previous tick")
+        @Timespan( Timespan.NANOSECONDS)
+        long interval;
+
+        @Label( "Target Interval")
+        @Timespan( Timespan.NANOSECONDS)
+        long targetInterval;
+    }
+
+    @Name( EVENTPREFIX + "SimulationTicks")
+    @Label( "Simulation Ticks")
+    @Description( "The values calculated by a simulation worker during one period")
+    @Category( { "OPC UA Player", "Simulation"})
+    @StackTrace( false)
+    @Period( "1 s")
+    static class SimulationTicksEvent extends Event {
+        @Label( "Measurement Point")
+        String point;
+
+        @Label( "Ticks")
+        long tickCount;
+
+        @Label( "Maximum Compute Time")
+        @Timespan( Timespan.NANOSECONDS)
+        long maxComputeTime;
+
+        @Label( "Mean Interval")
+        @Timespan( Timespan.NANOSECONDS)
+        long meanInterval;
+
+        @Label( "Maximum Interval")
+        @Timespan( Timespan.NANOSECONDS)
+        long maxInterval;
+
+        @Label( "Target Interval")
+        @Timespan( Timespan.NANOSECONDS)
+        long targetInterval;
+    }
+
+    /**
+     * The ticks of one simulated measurement point since the last SimulationTicks event.
+     */
+    private static class TickStatistics {
+        private long tickCount = 0;
+        private long maxComputeNanos = 0;
+        private long totalIntervalNanos = 0;
+        private long maxIntervalNanos = 0;
+        private long targetIntervalNanos = 0;
+
+        synchronized void add( long computeNanos, long intervalNanos, long targetIntervalNanos) {
+            this.tickCount++;
+            this.maxComputeNanos = Math.max( this.maxComputeNanos, computeNanos);
+            this.totalIntervalNanos += intervalNanos;
+            this.maxIntervalNanos = Math.max( this.maxIntervalNanos, intervalNanos);
+            this.targetIntervalNanos = targetIntervalNanos;
+        }
+
+        synchronized void emit( String point) {
+            if (this.tickCount == 0) {
+                return;
+            }
+            SimulationTicksEvent event = new SimulationTicksEvent();
+            event.point = point;
+            event.tickCount = this.tickCount;
+            event.maxComputeTime = this.maxComputeNanos;
+            event.meanInterval = this.totalIntervalNanos / this.tickCount;
+            event.maxInterval = this.maxIntervalNanos;
+            event.targetInterval = this.targetIntervalNanos;
+            event.commit();
+            this.tickCount = 0;
+            this.maxComputeNanos = 0;
+            this.totalIntervalNanos = 0;
+            this.maxIntervalNanos = 0;
+        }
+    }
+
+    @Name( EVENTPREFIX + "RecorderDrain")
+    @Label( "Recorder Drain")
+    @Description( "The recorder writing samples from its ring until the ring was empty")
+    @Category( { "OPC UA Player", "Recorder"})
+    @StackTrace( false)
+    static class RecorderDrainEvent extends Event {
+        @Label( "Samples")
+        long sampleCount;
+
+        @Label( "Drain Time")
+        @Timespan( Timespan.NANOSECONDS)
+        long drainTime;
+    }
+
+    @Name( EVENTPREFIX + "RecorderFlush")
+    @Label( "Recorder Flush")
+    @Description( "The recorder flushing and closing an output file")
+    @Category( { "OPC UA Player", "Recorder"})
+    @StackTrace( false)
+    static class RecorderFlushEvent extends Event {
+        @Label( "File")
+        String fileName;
+
+        @Label( "Flush Time")
+        @Timespan( Timespan.NANOSECONDS)
+        long flushTime;
+    }
+
+    @Name( EVENTPREFIX + "NamespaceBuildPhase")
+    @Label( "Namespace Build Phase")
+    @Description( "A phase of building the namespace of the player")
+    @Category( { "OPC UA Player", "Namespace"})
+    @StackTrace( false)
+    static class NamespaceBuildPhaseEvent extends Event {
+        @Label( "Phase")
+        String phase;
+
+        @Label( "Phase Time")
+        @Timespan( Timespan.NANOSECONDS)
+        long phaseTime;
+
+        @Label( "Nodes")
+        int nodeCount;
+    }
+
+    // looked up once, so that a disabled event costs a flag check and no allocation
+    private static final EventType REPLAYBATCHTYPE = EventType.getEventType( ReplayBatchEvent.class);
+    private static final EventType SIMULATIONTICKTYPE = EventType.getEventType( SimulationTickEvent.class);
+    private static final EventType SIMULATIONTICKSTYPE = EventType.getEventType( SimulationTicksEvent.class);
+    private static final EventType RECORDERDRAINTYPE = EventType.getEventType( RecorderDrainEvent.class);
+    private static final EventType RECORDERFLUSHTYPE = EventType.getEventType( RecorderFlushEvent.class);
+    private static final EventType NAMESPACEBUILDPHASETYPE = EventType.getEventType( NamespaceBuildPhaseEvent.class);
+    private static final Map<String, TickStatistics> tickStatistics = new ConcurrentHashMap<>();
+
+    static {
+        FlightRecorder.addPeriodicEvent( SimulationTicksEvent.class, () -> tickStatistics.forEach( (point, statistics) -> statistics.emit( point)));
+    }
+
+    private PlayerEvents() {
+        // only static methods
+    }
+
+    static void replayBatch( long scheduledMillis, long actualMillis, int batchSize) {
+        if (!REPLAYBATCHTYPE.isEnabled()) {
+            return;
+        }
+        ReplayBatchEvent event = new ReplayBatchEvent();
+        if (event.shouldCommit()) {
+            event.scheduledTime = scheduledMillis;
+            event.actualTime = actualMillis;
+            event.lag = actualMillis - scheduledMillis;
+            event.batchSize = batchSize;
+            event.commit();
+        }
+    }
+
+    static void simulationTick( String point, long computeNanos, long intervalNanos, long targetIntervalNanos) {
+        if (SIMULATIONTICKSTYPE.isEnabled()) {
+            tickStatistics.computeIfAbsent( point, key -> new TickStatistics()).add( computeNanos, intervalNanos, targetIntervalNanos);
+        }
+        if (!SIMULATIONTICKTYPE.isEnabled()) {
+            return;
+        }
+        SimulationTickEvent event = new SimulationTickEvent();
+        if (event.shouldCommit()) {
+            event.point = point;
+            event.computeTime = computeNanos;
+            event.interval = intervalNanos;
+            event.targetInterval = targetIntervalNanos;
+            event.commit();
+        }
+    }
+
+    static void recorderDrain( long sampleCount, long durationNanos) {
+        if (!RECORDERDRAINTYPE.isEnabled()) {
+            return;
+        }
+        RecorderDrainEvent event = new RecorderDrainEvent();
+        if (event.shouldCommit()) {
+            event.sampleCount = sampleCount;
+            event.drainTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    static void recorderFlush( String fileName, long durationNanos) {
+        if (!RECORDERFLUSHTYPE.isEnabled()) {
+            return;
+        }
+        RecorderFlushEvent event = new RecorderFlushEvent();
+        if (event.shouldCommit()) {
+            event.fileName = fileName;
+            event.flushTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    static void namespaceBuildPhase( String phase, long durationNanos, int nodeCount) {
+        if (!NAMESPACEBUILDPHASETYPE.isEnabled()) {
+            return;
+        }
+        NamespaceBuildPhaseEvent event = new NamespaceBuildPhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.phaseTime = durationNanos;
+            event.nodeCount = nodeCount;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts a recording with the default settings of the JDK that is kept on disk, bounded by age and size.
+     * @return the file the recording is dumped to when the JVM exits
+     */
+    static File startContinuousRecording( File directory, Duration maxAge, long maxBytes) throws IOException, ParseException {
+        Recording recording = new Recording( jdk.jfr.Configuration.getConfiguration( "default"));
+        recording.setName( RECORDINGNAME);
+        recording.setToDisk( true);
+        recording.setMaxAge( maxAge);
+        recording.setMaxSize( maxBytes);
+        // the events of the player are enabled by default, also when the default settings change; the
+        // ticks of the simulation workers are summed up per second instead of recorded one by one
+        recording.enable( ReplayBatchEvent.class);
+        recording.enable( SimulationTicksEvent.class).withPeriod( Duration.ofSeconds( 1));
+        recording.enable( RecorderDrainEvent.class);
+        recording.enable( RecorderFlushEvent.class);
+        recording.enable( NamespaceBuildPhaseEvent.class);
+        File dumpFile = new File( directory, RECORDINGNAME + "-" + LocalDateTime.now().format( DUMPFILEFORMATTER) + ".jfr");
+        recording.setDestination( dumpFile.toPath());
+        recording.setDumpOnExit( true);
+        recording.start();
+        return dumpFile;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.server;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.PlayerDiagnostics;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaFolderNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * The Diagnostics folder under Player-Control, with variable nodes that show the health of the
+ * player: its throughput, how far the replay runs behind, the parse errors and unresolved tags,
+ * the achieved rates of the simulations and the allocation rate and GC pause time of the JVM.
+ * The nodes are updated once a second from the counters of the player, so clients can watch the
+ * player over OPC UA itself.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class DiagnosticsNodes {
+
+    public static final String DIAGNOSTICSFOLDER = PlayerNamespace.PLAYERCONTROLFOLDER + "/Diagnostics";
+    private static final long UPDATEINTERVAL = 1000; // mS
+    private static final Logger LOGGER = Logger.getLogger( DiagnosticsNodes.class.getName());
+
+    private final PlayerNamespace namespace;
+    private final PlayerDiagnostics diagnostics;
+    private final Map<UaVariableNode, DoubleSupplier> simulationRateNodes = new LinkedHashMap<>();
+    private UaVariableNode samplesPerSecondNode;
+    private UaVariableNode replayLagNode;
+    private UaVariableNode readAheadDepthNode;
+    private UaVariableNode parseErrorsNode;
+    private UaVariableNode unresolvedTagsNode;
+    private UaVariableNode allocatedBytesPerSecondNode;
+    private UaVariableNode gcPauseTimeNode;
+    private ScheduledExecutorService scheduler = null;
+    // the values at the previous update, to turn the counters into rates
+    private long previousNanos;
+    private long previousSamples;
+    private long previousAllocatedBytes;
+    private long gcTimeAtStart;
+
+    /**
+     * @param aNamespace the namespace the nodes are added to
+     * @param theDiagnostics the counters of the player
+     */
+    public DiagnosticsNodes( PlayerNamespace aNamespace, PlayerDiagnostics theDiagnostics) {
+        this.namespace = aNamespace;
+        this.diagnostics = theDiagnostics;
+    }
+
+    /**
+     * Adds the Diagnostics folder with its variable nodes to the given folder.
+     * @param playerControlFolder the Player-Control folder
+     */
+    public void addNodes( UaFolderNode playerControlFolder) {
+        UaFolderNode diagnosticsFolder = this.addFolder( playerControlFolder, DIAGNOSTICSFOLDER, "Diagnostics");
+        this.samplesPerSecondNode = this.addVariable( diagnosticsFolder, "SamplesPerSecond", Identifiers.Double, "Data lines replayed per second");
+        this.replayLagNode = this.addVariable( diagnosticsFolder, "ReplayLag", Identifiers.Int64, "Time in mS the replay runs behind the wall clock");
+        this.readAheadDepthNode = this.addVariable( diagnosticsFolder, "ReadAheadDepth", Identifiers.Int32, "Blocks of the data file parsed ahead of the replay");
+        this.parseErrorsNode = this.addVariable( diagnosticsFolder, "ParseErrors", Identifiers.Int64, "Data lines that could not be parsed");
+        this.unresolvedTagsNode = this.addVariable( diagnosticsFolder, "UnresolvedTags", Identifiers.Int64, "Tags in the data file without a node");
+        this.allocatedBytesPerSecondNode = this.addVariable( diagnosticsFolder, "AllocatedBytesPerSecond", Identifiers.Double, "Bytes allocated per second by all threads of the JVM");
+        this.gcPauseTimeNode = this.addVariable( diagnosticsFolder, "GcPauseTime", Identifiers.Int64, "Time in mS the JVM spent in garbage collection since the player started");
+        Map<String, DoubleSupplier> simulationRates = this.diagnostics.getSimulationRates();
+        if (!simulationRates.isEmpty()) {
+            String simulationsFolderId = DIAGNOSTICSFOLDER + "/Simulations";
+            UaFolderNode simulationsFolder = this.addFolder( diagnosticsFolder, simulationsFolderId, "Simulations");
+            simulationRates.forEach( (name, rate) -> {
+                UaVariableNode rateNode = this.addVariable( simulationsFolder, simulationsFolderId, name, Identifiers.Double, "Achieved samples per second of this simulation");
+                this.simulationRateNodes.put( rateNode, rate);
+            });
+        }
+    }
+
+    /**
+     * Starts updating the nodes once a second.
+     */
+    public synchronized void start() {
+        this.stop();
+        this.previousNanos = System.nanoTime();
+        this.previousSamples = this.diagnostics.getSampleCount();
+        this.previousAllocatedBytes = allocatedBytes();
+        this.gcTimeAtStart = gcTime();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( Configuration.withCurrentConfiguration( r), "PlayerDiagnostics");
+            t.setDaemon( true);
+            return t;
+        });
+        this.scheduler.scheduleAtFixedRate( () -> {
+            try {
+                this.update();
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Error updating the diagnostics nodes", ex);
+            }
+        }, UPDATEINTERVAL, UPDATEINTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops updating the nodes.
+     */
+    public synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    private void update() {
+        long now = System.nanoTime();
+        double seconds = Math.max( 1, now - this.previousNanos) / 1E9;
+        long samples = this.diagnostics.getSampleCount();
+        long allocated = allocatedBytes();
+        setValue( this.samplesPerSecondNode, (samples - this.previousSamples) / seconds);
+        setValue( this.replayLagNode, this.diagnostics.getReplayLagMillis());
+        setValue( this.readAheadDepthNode, this.diagnostics.getReadAheadDepth());
+        setValue( this.parseErrorsNode, this.diagnostics.getParseErrorCount());
+        setValue( this.unresolvedTagsNode, this.diagnostics.getUnresolvedTagCount());
+        // the allocations of threads that ended in between are lost, so the difference can be negative
+        setValue( this.allocatedBytesPerSecondNode, allocated < 0 ? -1.0 : Math.max( 0, allocated - this.previousAllocatedBytes) / seconds);
+        setValue( this.gcPauseTimeNode, gcTime() - this.gcTimeAtStart);
+        this.simulationRateNodes.forEach( (node, rate) -> setValue( node, rate.getAsDouble()));
+        this.previousNanos = now;
+        this.previousSamples = samples;
+        this.previousAllocatedBytes = allocated;
+    }
+
+    private UaFolderNode addFolder( UaFolderNode parentFolder, String folderId, String name) {
+        UaFolderNode folder = new UaFolderNode(
+                this.namespace.getNodeContext(),
+                this.namespace.newNodeId( folderId),
+                this.namespace.newQualifiedName( name),
+                LocalizedText.english( name));
+        this.namespace.getNodeManager().addNode( folder);
+        parentFolder.addOrganizes( folder);
+        return folder;
+    }
+
+    private UaVariableNode addVariable( UaFolderNode folder, String name, NodeId dataType, String description) {
+        return this.addVariable( folder, DIAGNOSTICSFOLDER, name, dataType, description);
+    }
+
+    private UaVariableNode addVariable( UaFolderNode folder, String folderId, String name, NodeId dataType, String description) {
+        UaVariableNode variableNode = new UaVariableNode.UaVariableNodeBuilder( this.namespace.getNodeContext())
+                .setNodeId( this.namespace.newNodeId( folderId + "/" + name))
+                .setAccessLevel( AccessLevel.READ_ONLY)
+                .setUserAccessLevel( AccessLevel.READ_ONLY)
+                .setBrowseName( this.namespace.newQualifiedName( name))
+                .setDisplayName( LocalizedText.english( name))
+                .setDescription( LocalizedText.english( description))
+                .setDataType( dataType)
+                .setTypeDefinition( Identifiers.BaseDataVariableType)
+                .build();
+        this.namespace.getNodeManager().addNode( variableNode);
+        folder.addOrganizes( variableNode);
+        return variableNode;
+    }
+
+    private static void setValue( UaVariableNode node, double value) {
+        node.setValue( new DataValue( new Variant( value)));
+    }
+
+    private static void setValue( UaVariableNode node, long value) {
+        node.setValue( new DataValue( new Variant( value)));
+    }
+
+    private static void setValue( UaVariableNode node, int value) {
+        node.setValue( new DataValue( new Variant( value)));
+    }
+
+    /**
+     * @return the bytes allocated by the live threads of the JVM, -1 when the JVM does not measure this
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                long total = 0;
+                for (long bytes : allocationBean.getThreadAllocatedBytes( threadBean.getAllThreadIds())) {
+                    if (bytes > 0) {
+                        total += bytes;
+                    }
+                }
+                return total;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the accumulated collection time in mS of all garbage collectors
+     */
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max( 0, gcBean.getCollectionTime());
+        }
+        return total;
+    }
+}
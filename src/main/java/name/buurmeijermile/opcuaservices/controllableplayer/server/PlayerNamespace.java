@@ -23,6 +23,7 @@
  */
 package name.buurmeijermile.opcuaservices.controllableplayer.server;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.logging.Logger;
@@ -30,11 +31,15 @@ import java.util.logging.Level;
 
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.Asset;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.DataControllerInterface;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.MeasurementPoint;
 import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.FlightRecorderEvents;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.PointInTime;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.PointInTime.ACCESS_RIGHT;
 import static name.buurmeijermile.opcuaservices.controllableplayer.measurements.PointInTime.ACCESS_RIGHT.Both;
@@ -55,6 +60,7 @@ import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
 import org.eclipse.milo.opcua.sdk.server.util.SubscriptionModel;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.structured.EUInformation;
 import org.eclipse.milo.opcua.stack.core.types.structured.Range;
@@ -67,6 +73,7 @@ import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeConfig;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeConfigReader;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
@@ -81,14 +88,17 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
 
     // instance variables
     private final SubscriptionModel subscriptionModel;
+    private final ValueChangeSubscriptionModel valueChangeSubscriptionModel; // null when all items are sampled
     private final OpcUaServer server;
     private final DataControllerInterface dataController;
     private final RestrictedAccessFilter restrictedAccessFilter;
     private List<UaVariableNode> variableNodes = null;
     private List<Asset> assets = null;
+    private Map<NodeId, MeasurementPoint> measurementPointIndex = null; // custom node id to measurement point, built before the namespace
     private volatile Thread eventThread;
     private volatile boolean keepPostingEvents = true;
     private DataTypeDictionaryManager dictionaryManager;
+    private DiagnosticsNodes diagnosticsNodes = null;
 
     /**
      * The intended namespace for the OPC UA Player server.
@@ -107,6 +117,14 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
 
         // create a subscription model for this server
         this.subscriptionModel = new SubscriptionModel(server, this);
+        // the measurement point values are pushed to the monitored items, the player control nodes are sampled
+        if (configuration.isPushSubscriptionModel()) {
+            this.valueChangeSubscriptionModel = new ValueChangeSubscriptionModel(
+                    nodeId -> this.getNodeManager().getNode(nodeId),
+                    node -> !isPlayerControlNode(node.getNodeId()));
+        } else {
+            this.valueChangeSubscriptionModel = null;
+        }
 
         this.dictionaryManager = new DataTypeDictionaryManager(getNodeContext(), configuration.getNamespace());
 
@@ -123,6 +141,9 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
 
             @Override
             public void shutdown() {
+                if (diagnosticsNodes != null) {
+                    diagnosticsNodes.stop();
+                }
                 try {
                     keepPostingEvents = false;
                     eventThread.interrupt();
@@ -149,23 +170,43 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
     }
 
     protected void onStartup() {
+        long startTime = System.nanoTime();
+        int nodeCount;
         // get the hierarchically orderd assets from back end controller
         this.assets = this.dataController.getHierarchicalAssetList();
+        this.measurementPointIndex = this.indexMeasurementPoints(this.assets);
+        FlightRecorderEvents.namespaceBuildPhase("Index measurement points", startTime, this.measurementPointIndex.size());
         if (this.dataController.isJsonConfig()) {
-            this.reconstructFromJson(this.dataController.getOpcNodeConfigs());
+            nodeCount = 0;
+            try {
+                nodeCount = this.reconstructFromJson(this.dataController.getOpcNodeConfigReader());
+            } catch (IOException ex) {
+                Logger.getLogger(PlayerNamespace.class.getName()).log(Level.SEVERE, "Error reading the JSON config file for the namespace", ex);
+            }
         } else {
             // create node list in this namespace based on the available assets in the
             // backend controlller
+            long createStart = System.nanoTime();
             this.createUANodeList(this.assets, null);
+            nodeCount = this.variableNodes.size();
+            FlightRecorderEvents.namespaceBuildPhase("Create asset nodes", createStart, nodeCount);
         }
         // add the remote control OPC UA method to this servernamespace so that the OPC
         // UA player can be remotely controlled by OPC UA clients
+        long phaseStart = System.nanoTime();
         this.addRemoteControlMethodNode();
+        FlightRecorderEvents.namespaceBuildPhase("Add player control nodes", phaseStart, 0);
 
         int totalCount = countMeasurementPoints(this.assets, false);
         int boundCount = countMeasurementPoints(this.assets, true);
+        long buildMillis = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+        Runtime runtime = Runtime.getRuntime();
+        long usedMegaBytes = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
         Logger.getLogger(PlayerNamespace.class.getName()).log(Level.INFO, 
-            "Namespace initialization summary: Created " + totalCount + " measurement points, bound " + boundCount + " to OPC UA variable nodes.");
+            "Namespace initialization summary: Created " + totalCount + " measurement points, bound " + boundCount + " to OPC UA variable nodes. "
+            + "Built " + nodeCount + " nodes in " + buildMillis + " ms (" + (nodeCount * 1000L / buildMillis) + " nodes/s), heap in use " + usedMegaBytes + " MB.");
+        // the index is only needed while building the namespace
+        this.measurementPointIndex = null;
     }
 
     private String getFullDottedName(Asset anAsset) {
@@ -460,6 +501,10 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
             this.getNodeManager().addNode(runStateVariableNode);
             // add node to this player folder
             remoteControlFolderNode.addOrganizes(runStateVariableNode);
+            // add the diagnostics of this player, updated from its counters
+            this.diagnosticsNodes = new DiagnosticsNodes(this, this.dataController.getDiagnostics());
+            this.diagnosticsNodes.addNodes(remoteControlFolderNode);
+            this.diagnosticsNodes.start();
         } catch (NumberFormatException ex) {
             Logger.getLogger(PlayerNamespace.class.getName()).log(Level.SEVERE,
                     "number format wrong: " + ex.getMessage(), ex);
@@ -468,21 +513,33 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
 
     @Override
     public void onDataItemsCreated(List<DataItem> dataItems) {
+        if (this.valueChangeSubscriptionModel != null) {
+            dataItems = this.valueChangeSubscriptionModel.onDataItemsCreated(dataItems);
+        }
         this.subscriptionModel.onDataItemsCreated(dataItems);
     }
 
     @Override
     public void onDataItemsModified(List<DataItem> dataItems) {
+        if (this.valueChangeSubscriptionModel != null) {
+            dataItems = this.valueChangeSubscriptionModel.onDataItemsModified(dataItems);
+        }
         this.subscriptionModel.onDataItemsModified(dataItems);
     }
 
     @Override
     public void onDataItemsDeleted(List<DataItem> dataItems) {
+        if (this.valueChangeSubscriptionModel != null) {
+            dataItems = this.valueChangeSubscriptionModel.onDataItemsDeleted(dataItems);
+        }
         this.subscriptionModel.onDataItemsDeleted(dataItems);
     }
 
     @Override
     public void onMonitoringModeChanged(List<MonitoredItem> monitoredItems) {
+        if (this.valueChangeSubscriptionModel != null) {
+            monitoredItems = this.valueChangeSubscriptionModel.onMonitoringModeChanged(monitoredItems);
+        }
         this.subscriptionModel.onMonitoringModeChanged(monitoredItems);
     }
 
@@ -520,14 +577,28 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
         return false;
     }
 
-    private void reconstructFromJson(List<OpcNodeConfig> configs) {
-        if (configs == null) return;
+    /**
+     * Recreates the captured information model from the JSON config. The config is streamed once per
+     * pass, so only the lookup sets and the address space itself are held in memory. The top level
+     * nodes are only known once all references are seen, they are linked to the Objects folder
+     * after the first pass.
+     *
+     * @return the number of nodes in the config
+     */
+    private int reconstructFromJson(OpcNodeConfigReader configReader) throws IOException {
+        if (configReader == null) return 0;
         
         java.util.Map<NodeId, NodeId> resolvedNodeIdMap = new java.util.HashMap<>();
+        // children of already created parents by browse name, these only change when a parent is created
+        Map<NodeId, Map<String, NodeId>> childrenByBrowseName = new HashMap<>();
 
-        // Find all target nodes of forward references in the config to identify root nodes
-        java.util.Set<NodeId> referencedTargets = new java.util.HashSet<>();
-        for (OpcNodeConfig config : configs) {
+        // all target nodes of forward references in the config, the nodes that are no target are root nodes
+        Set<NodeId> referencedTargets = new HashSet<>();
+        List<NodeId> rootCandidates = new ArrayList<>();
+
+        // Pass 1: Node Instantiation & Attribute Update
+        long phaseStart = System.nanoTime();
+        int nodeCount = configReader.forEach(config -> {
             if (config.references != null) {
                 for (OpcNodeConfig.OpcReference ref : config.references) {
                     if (ref.isForward) {
@@ -542,14 +613,10 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
                     }
                 }
             }
-        }
-
-        // Pass 1: Node Instantiation & Attribute Update
-        for (OpcNodeConfig config : configs) {
             try {
                 NodeId nodeId = NodeId.parse(config.nodeId);
                 if (isPlayerControlNode(nodeId)) {
-                    continue;
+                    return;
                 }
                 
                 NodeId lookupId = nodeId;
@@ -560,21 +627,11 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
                                 NodeId parentId = NodeId.parse(ref.targetNodeId);
                                 UaNode parentNode = this.server.getAddressSpaceManager().getManagedNode(parentId).orElse(null);
                                 if (parentNode != null) {
-                                    String propBrowseName = config.browseName.name;
-                                    UaNode existingChild = parentNode.getReferences().stream()
-                                        .filter(r -> r.isForward() && (r.getReferenceTypeId().equals(Identifiers.HasProperty) || r.getReferenceTypeId().equals(Identifiers.HasComponent)))
-                                        .map(r -> {
-                                            try {
-                                                return this.server.getAddressSpaceManager().getManagedNode(r.getTargetNodeId().toNodeIdOrThrow(parentNode.getNodeContext().getNamespaceTable())).orElse(null);
-                                            } catch (Exception e) {
-                                                return null;
-                                            }
-                                        })
-                                        .filter(n -> n != null && n.getBrowseName().getName().equals(propBrowseName))
-                                        .findFirst()
-                                        .orElse(null);
-                                    if (existingChild != null) {
-                                        lookupId = existingChild.getNodeId();
+                                    NodeId existingChildId = childrenByBrowseName
+                                        .computeIfAbsent(parentId, id -> indexChildrenByBrowseName(parentNode))
+                                        .get(config.browseName.name);
+                                    if (existingChildId != null) {
+                                        lookupId = existingChildId;
                                         resolvedNodeIdMap.put(nodeId, lookupId);
                                         break;
                                     }
@@ -745,41 +802,61 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
                     }
                 }
 
-                // Link top-level root nodes to ObjectsFolder
-                UaNode resolvedNode = this.server.getAddressSpaceManager().getManagedNode(nodeId).orElse(null);
-                if (resolvedNode != null) {
-                    if (nodeId.getNamespaceIndex().intValue() == getNamespaceIndex().intValue()
-                        && (nodeClass == NodeClass.Object || nodeClass == NodeClass.Variable)
-                        && !referencedTargets.contains(nodeId)) {
-                        boolean hasObjectsFolderRef = resolvedNode.getReferences().stream()
-                            .anyMatch(r -> r.getReferenceTypeId().equals(Identifiers.Organizes) 
-                                        && r.getTargetNodeId().equals(Identifiers.ObjectsFolder.expanded()) 
-                                        && !r.isForward());
-                        if (!hasObjectsFolderRef) {
-                            resolvedNode.addReference(new org.eclipse.milo.opcua.sdk.core.Reference(
-                                resolvedNode.getNodeId(),
-                                Identifiers.Organizes,
-                                Identifiers.ObjectsFolder.expanded(),
-                                false
-                            ));
-                        }
-                    }
+                // top-level root nodes are linked to the ObjectsFolder once all references are seen
+                if (nodeId.getNamespaceIndex().intValue() == getNamespaceIndex().intValue()
+                    && (nodeClass == NodeClass.Object || nodeClass == NodeClass.Variable)) {
+                    rootCandidates.add(nodeId);
                 }
             } catch (Exception e) {
                 Logger.getLogger(PlayerNamespace.class.getName()).log(Level.SEVERE, "Error in Pass 1 for node " + config.nodeId, e);
             }
+        });
+
+        FlightRecorderEvents.namespaceBuildPhase("Create nodes", phaseStart, nodeCount);
+
+        // Link top-level root nodes to ObjectsFolder
+        phaseStart = System.nanoTime();
+        for (NodeId nodeId : rootCandidates) {
+            if (referencedTargets.contains(nodeId)) {
+                continue;
+            }
+            UaNode resolvedNode = this.server.getAddressSpaceManager().getManagedNode(nodeId).orElse(null);
+            if (resolvedNode != null) {
+                boolean hasObjectsFolderRef = resolvedNode.getReferences().stream()
+                    .anyMatch(r -> r.getReferenceTypeId().equals(Identifiers.Organizes) 
+                                && r.getTargetNodeId().equals(Identifiers.ObjectsFolder.expanded()) 
+                                && !r.isForward());
+                if (!hasObjectsFolderRef) {
+                    resolvedNode.addReference(new org.eclipse.milo.opcua.sdk.core.Reference(
+                        resolvedNode.getNodeId(),
+                        Identifiers.Organizes,
+                        Identifiers.ObjectsFolder.expanded(),
+                        false
+                    ));
+                }
+            }
         }
+        referencedTargets.clear();
+        FlightRecorderEvents.namespaceBuildPhase("Link root nodes", phaseStart, rootCandidates.size());
 
         // Pass 2: Reference Linking
-        for (OpcNodeConfig config : configs) {
+        long referencePhaseStart = System.nanoTime();
+        // references per source node, so duplicates are found without scanning all references of the node
+        Map<NodeId, Set<String>> existingReferences = new HashMap<>();
+        configReader.forEach(config -> {
             try {
                 NodeId nodeId = NodeId.parse(config.nodeId);
                 NodeId sourceNodeId = resolvedNodeIdMap.getOrDefault(nodeId, nodeId);
                 if (isPlayerControlNode(sourceNodeId)) {
-                    continue;
+                    return;
                 }
                 UaNode sourceNode = this.server.getAddressSpaceManager().getManagedNode(sourceNodeId).orElse(null);
-                if (sourceNode == null || config.references == null) continue;
+                if (sourceNode == null || config.references == null) return;
+                Set<String> sourceReferences = existingReferences.computeIfAbsent(sourceNodeId, id -> {
+                    Set<String> keys = new HashSet<>();
+                    sourceNode.getReferences().forEach(r -> keys.add(referenceKey(r.getReferenceTypeId(), r.getTargetNodeId(), r.isForward())));
+                    return keys;
+                });
                 
                 for (OpcNodeConfig.OpcReference ref : config.references) {
                     NodeId refTypeId = NodeId.parse(ref.referenceTypeId);
@@ -790,11 +867,7 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
                     }
                     
                     // Avoid adding duplicate references
-                    boolean hasRef = sourceNode.getReferences().stream()
-                        .anyMatch(r -> r.getReferenceTypeId().equals(refTypeId) 
-                                    && r.getTargetNodeId().equals(resolvedTargetId.expanded()) 
-                                    && r.isForward() == ref.isForward);
-                    if (!hasRef) {
+                    if (sourceReferences.add(referenceKey(refTypeId, resolvedTargetId.expanded(), ref.isForward))) {
                         sourceNode.addReference(new org.eclipse.milo.opcua.sdk.core.Reference(
                             sourceNode.getNodeId(),
                             refTypeId,
@@ -806,7 +879,34 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
             } catch (Exception e) {
                 Logger.getLogger(PlayerNamespace.class.getName()).log(Level.SEVERE, "Error in Pass 2 for node " + config.nodeId, e);
             }
-        }
+        });
+        FlightRecorderEvents.namespaceBuildPhase("Link references", referencePhaseStart, nodeCount);
+        return nodeCount;
+    }
+
+    /**
+     * Indexes the forward HasProperty and HasComponent children of a node on their browse name,
+     * the first child with a browse name wins.
+     */
+    private Map<String, NodeId> indexChildrenByBrowseName(UaNode parentNode) {
+        Map<String, NodeId> children = new HashMap<>();
+        parentNode.getReferences().stream()
+            .filter(r -> r.isForward() && (r.getReferenceTypeId().equals(Identifiers.HasProperty) || r.getReferenceTypeId().equals(Identifiers.HasComponent)))
+            .forEach(r -> {
+                try {
+                    UaNode child = this.server.getAddressSpaceManager().getManagedNode(r.getTargetNodeId().toNodeIdOrThrow(parentNode.getNodeContext().getNamespaceTable())).orElse(null);
+                    if (child != null) {
+                        children.putIfAbsent(child.getBrowseName().getName(), child.getNodeId());
+                    }
+                } catch (Exception e) {
+                    // ignore
+                }
+            });
+        return children;
+    }
+
+    private static String referenceKey(NodeId referenceTypeId, ExpandedNodeId targetNodeId, boolean isForward) {
+        return referenceTypeId.toParseableString() + (isForward ? ">" : "<") + targetNodeId.toParseableString();
     }
 
     private Object parseJsonToValue(JsonElement element, NodeId dataType) {
@@ -878,7 +978,10 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
             Logger.getLogger(PlayerNamespace.class.getName()).log(Level.INFO, "bindMeasurementPointToNode: assets is null for node: " + nodeId);
             return;
         }
-        MeasurementPoint mp = findMeasurementPointInList(this.assets, nodeId);
+        if (this.measurementPointIndex == null) {
+            this.measurementPointIndex = this.indexMeasurementPoints(this.assets);
+        }
+        MeasurementPoint mp = this.measurementPointIndex.get(nodeId);
         if (mp != null) {
             mp.setUaVariableNode(varNode);
         } else {
@@ -886,19 +989,28 @@ public class PlayerNamespace extends ManagedNamespaceWithLifecycle {
         }
     }
 
-    private MeasurementPoint findMeasurementPointInList(List<Asset> assetsList, NodeId nodeId) {
+    /**
+     * Indexes the measurement points on their custom node id, in the depth first order of the asset
+     * tree so that the first measurement point with a node id wins.
+     */
+    private Map<NodeId, MeasurementPoint> indexMeasurementPoints(List<Asset> assetsList) {
+        Map<NodeId, MeasurementPoint> index = new HashMap<>();
+        addMeasurementPointsToIndex(assetsList, index);
+        return index;
+    }
+
+    private void addMeasurementPointsToIndex(List<Asset> assetsList, Map<NodeId, MeasurementPoint> index) {
+        if (assetsList == null) {
+            return;
+        }
         for (Asset asset : assetsList) {
             for (MeasurementPoint mp : asset.getMeasurementPoints()) {
-                if (mp.getCustomNodeId() != null && mp.getCustomNodeId().equals(nodeId)) {
-                    return mp;
+                if (mp.getCustomNodeId() != null) {
+                    index.putIfAbsent(mp.getCustomNodeId(), mp);
                 }
             }
-            MeasurementPoint childMp = findMeasurementPointInList(asset.getChildren(), nodeId);
-            if (childMp != null) {
-                return childMp;
-            }
+            addMeasurementPointsToIndex(asset.getChildren(), index);
         }
-        return null;
     }
 
     private int countMeasurementPoints(List<Asset> assetsList, boolean onlyBound) {
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Milé Buurmeijer <mbuurmei at netscape.net>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package name.buurmeijermile.opcuaservices.controllableplayer.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.eclipse.milo.opcua.sdk.core.AccessLevel;
+import org.eclipse.milo.opcua.sdk.server.api.DataItem;
+import org.eclipse.milo.opcua.sdk.server.api.MonitoredItem;
+import org.eclipse.milo.opcua.sdk.server.nodes.AttributeObserver;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaNode;
+import org.eclipse.milo.opcua.sdk.server.nodes.UaVariableNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+/**
+ * Subscription model that pushes every new value of a variable node into the monitored items of
+ * that node, instead of reading the node on the sampling interval of the items. Values that are
+ * replayed faster than the sampling interval all reach the queues of the monitored items, the
+ * queue size and discard policy of each item decide what is kept. Items on nodes that nobody
+ * writes cost nothing. Only the Value attribute of the accepted readable variable nodes is pushed,
+ * the items this model does not take are handed back to be sampled by the subscription model of
+ * Milo, which also answers the items on nodes that can not be read.
+ * @author Milé Buurmeijer <mbuurmei at netscape.net>
+ */
+public class ValueChangeSubscriptionModel {
+
+    private final Function<NodeId, Optional<UaNode>> nodeLookup;
+    private final Predicate<UaVariableNode> acceptedNodes;
+    private final Map<NodeId, NodeItems> itemsByNode = new ConcurrentHashMap<>();
+    private final Map<DataItem, NodeItems> nodeItemsByItem = new ConcurrentHashMap<>();
+
+    /**
+     * The monitored items of one node, also the observer of that node. Milo keeps its attribute
+     * observers weakly referenced, this model keeps them alive while the node has items.
+     */
+    private static class NodeItems implements AttributeObserver {
+        private final UaVariableNode node;
+        private final List<DataItem> items = new CopyOnWriteArrayList<>();
+
+        NodeItems( UaVariableNode aNode) {
+            this.node = aNode;
+        }
+
+        @Override
+        public void attributeChanged( UaNode aNode, AttributeId attributeId, Object value) {
+            if (attributeId == AttributeId.Value && value instanceof DataValue) {
+                for (DataItem item : this.items) {
+                    push( item, (DataValue) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param theNodeLookup finds the nodes of the namespace
+     * @param theAcceptedNodes the variable nodes whose values are only changed through setValue and can be pushed
+     */
+    public ValueChangeSubscriptionModel( Function<NodeId, Optional<UaNode>> theNodeLookup, Predicate<UaVariableNode> theAcceptedNodes) {
+        this.nodeLookup = theNodeLookup;
+        this.acceptedNodes = theAcceptedNodes;
+    }
+
+    /**
+     * Starts pushing the values of the items this model can take, the current value of the node
+     * is reported right away.
+     * @param dataItems the created items
+     * @return the items this model does not take
+     */
+    public List<DataItem> onDataItemsCreated( List<DataItem> dataItems) {
+        List<DataItem> others = new ArrayList<>();
+        for (DataItem item : dataItems) {
+            UaVariableNode node = this.findPushableNode( item.getReadValueId());
+            if (node == null) {
+                others.add( item);
+                continue;
+            }
+            // added under the lock of the node entry, so that a delete can not drop the entry in between
+            NodeItems nodeItems = this.itemsByNode.compute( node.getNodeId(), (nodeId, current) -> {
+                NodeItems target = current;
+                if (target == null) {
+                    target = new NodeItems( node);
+                    node.addAttributeObserver( target);
+                }
+                target.items.add( item);
+                return target;
+            });
+            this.nodeItemsByItem.put( item, nodeItems);
+            push( item, node.getValue());
+        }
+        return others;
+    }
+
+    /**
+     * A new sampling interval makes no difference for pushed values.
+     * @param dataItems the modified items
+     * @return the items this model does not take
+     */
+    public List<DataItem> onDataItemsModified( List<DataItem> dataItems) {
+        return this.others( dataItems);
+    }
+
+    /**
+     * Stops pushing the values of the deleted items.
+     * @param dataItems the deleted items
+     * @return the items this model does not take
+     */
+    public List<DataItem> onDataItemsDeleted( List<DataItem> dataItems) {
+        List<DataItem> others = new ArrayList<>();
+        for (DataItem item : dataItems) {
+            NodeItems nodeItems = this.nodeItemsByItem.remove( item);
+            if (nodeItems == null) {
+                others.add( item);
+                continue;
+            }
+            this.itemsByNode.computeIfPresent( nodeItems.node.getNodeId(), (nodeId, current) -> {
+                current.items.remove( item);
+                if (current.items.isEmpty()) {
+                    current.node.removeAttributeObserver( current);
+                    return null;
+                }
+                return current;
+            });
+        }
+        return others;
+    }
+
+    /**
+     * Reports the current value to the items that are sampling again.
+     * @param monitoredItems the items with a changed monitoring mode
+     * @return the items this model does not take
+     */
+    public List<MonitoredItem> onMonitoringModeChanged( List<MonitoredItem> monitoredItems) {
+        List<MonitoredItem> others = new ArrayList<>();
+        for (MonitoredItem monitoredItem : monitoredItems) {
+            NodeItems nodeItems = monitoredItem instanceof DataItem ? this.nodeItemsByItem.get( (DataItem) monitoredItem) : null;
+            if (nodeItems == null) {
+                others.add( monitoredItem);
+            } else {
+                push( (DataItem) monitoredItem, nodeItems.node.getValue());
+            }
+        }
+        return others;
+    }
+
+    /**
+     * Hands a value to an item that is sampling, with the timestamps the item asked for.
+     */
+    private static void push( DataItem item, DataValue value) {
+        if (item.isSamplingEnabled()) {
+            item.setValue( DataValue.derivedValue( value, item.getTimestampsToReturn()));
+        }
+    }
+
+    private List<DataItem> others( List<DataItem> dataItems) {
+        List<DataItem> others = new ArrayList<>();
+        for (DataItem item : dataItems) {
+            if (!this.nodeItemsByItem.containsKey( item)) {
+                others.add( item);
+            }
+        }
+        return others;
+    }
+
+    private UaVariableNode findPushableNode( ReadValueId readValueId) {
+        // index ranges and data encodings are left to the sampling subscription model
+        boolean plainValue = AttributeId.Value.uid().equals( readValueId.getAttributeId())
+                && (readValueId.getIndexRange() == null || readValueId.getIndexRange().isEmpty())
+                && (readValueId.getDataEncoding() == null || readValueId.getDataEncoding().isNull());
+        if (!plainValue) {
+            return null;
+        }
+        UaNode node = this.nodeLookup.apply( readValueId.getNodeId()).orElse( null);
+        if (node instanceof UaVariableNode && isReadable( (UaVariableNode) node) && this.acceptedNodes.test( (UaVariableNode) node)) {
+            return (UaVariableNode) node;
+        }
+        return null;
+    }
+
+    private static boolean isReadable( UaVariableNode node) {
+        // both levels are checked, the sampling path of Milo checks the user access level on top of the access level
+        return canReadCurrent( node.getAccessLevel()) && canReadCurrent( node.getUserAccessLevel());
+    }
+
+    private static boolean canReadCurrent( UByte accessLevel) {
+        return accessLevel != null && AccessLevel.fromValue( accessLevel).contains( AccessLevel.CurrentRead);
+    }
+}
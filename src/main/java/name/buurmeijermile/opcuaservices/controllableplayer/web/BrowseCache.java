@@ -0,0 +1,309 @@
+package name.buurmeijermile.opcuaservices.controllableplayer.web;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+
+/**
+ * Browses the address space of a player or target server one level at a time, on request of the
+ * namespace browser in the web UI. Browsed levels are cached for a while so that browsers that
+ * expand the same folder share one browse, and every browsed node is added to an index of browse
+ * names that serves the search. The first search starts a background crawl that fills the index for
+ * nodes nobody expanded yet. One cache is shared by all instances that connect to the same server
+ * endpoint, so the crawl and the index exist once per server.
+ */
+public class BrowseCache {
+    private static final Logger logger = Logger.getLogger(BrowseCache.class.getName());
+    private static final long TTLMILLIS = 30_000; // time a browsed level is served from the cache
+    private static final int MAXSEARCHRESULTS = 100;
+    private static final int MAXINDEXEDNODES = 250_000; // the background crawl stops at this number of nodes
+    private static final int MAXCACHEDLEVELS = 1_000; // beyond this the least recently browsed level is dropped
+    // the caches in use, keyed on the endpoint url of the server they browse
+    private static final Map<String, BrowseCache> sharedCaches = new HashMap<>();
+
+    private final String endpointUrl;
+    // the clients of the instances sharing this cache, browsing is done with the first one
+    private final List<OpcUaClient> clients = new CopyOnWriteArrayList<>();
+    private final Map<String, CachedLevel> levels = Collections.synchronizedMap(new LinkedHashMap<String, CachedLevel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedLevel> eldest) {
+            return size() > MAXCACHEDLEVELS;
+        }
+    });
+    // keyed on the lower case browse name followed by the node id, so that nodes with equal names don't collide
+    private final ConcurrentSkipListMap<String, IndexedNode> nameIndex = new ConcurrentSkipListMap<>();
+    private volatile boolean indexingStarted = false;
+    private volatile boolean closed = false;
+
+    private static class CachedLevel {
+        private final List<Map<String, Object>> children;
+        private final long loadedAt;
+
+        CachedLevel(List<Map<String, Object>> theChildren) {
+            this.children = theChildren;
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() - loadedAt < TTLMILLIS;
+        }
+    }
+
+    /**
+     * A node in the browse name index, kept smaller than the maps handed to the browsers since the
+     * index can hold a large part of the address space.
+     */
+    private static class IndexedNode {
+        private final String id;
+        private final String name;
+        private final NodeClass nodeClass;
+        private final String parentId;
+
+        IndexedNode(String anId, String aName, NodeClass aNodeClass, String aParentId) {
+            this.id = anId;
+            this.name = aName;
+            this.nodeClass = aNodeClass;
+            this.parentId = aParentId;
+        }
+
+        Map<String, Object> toMap() {
+            return toNode(id, name, nodeClass, parentId);
+        }
+    }
+
+    private BrowseCache(String anEndpointUrl) {
+        this.endpointUrl = anEndpointUrl;
+    }
+
+    /**
+     * Gets the cache of the server the client is connected to, creating it for the first instance
+     * that connects. Every acquire is matched by a release of the same client.
+     * @param aClient the connected client of an instance
+     * @return the cache shared by all instances connected to the same server endpoint
+     */
+    public static BrowseCache acquire(OpcUaClient aClient) {
+        String endpointUrl = aClient.getConfig().getEndpoint().getEndpointUrl();
+        synchronized (sharedCaches) {
+            BrowseCache browseCache = sharedCaches.computeIfAbsent(endpointUrl, BrowseCache::new);
+            browseCache.clients.add(aClient);
+            return browseCache;
+        }
+    }
+
+    /**
+     * Stops browsing with the client of an instance, the cache is closed when no instance uses it anymore.
+     * @param aClient the client that was passed to acquire
+     */
+    public void release(OpcUaClient aClient) {
+        synchronized (sharedCaches) {
+            clients.remove(aClient);
+            if (clients.isEmpty()) {
+                sharedCaches.remove(endpointUrl, this);
+                this.close();
+            }
+        }
+    }
+
+    /**
+     * Returns one page of the children of a node.
+     * @param parentId the parseable node id of the parent, empty for the Objects folder
+     * @param offset the index of the first child to return
+     * @param limit the maximum number of children to return
+     * @return a map with the parentId, offset, total number of children and the nodes of the page
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public Map<String, Object> browse(String parentId, int offset, int limit) throws InterruptedException, ExecutionException {
+        List<Map<String, Object>> children = this.getChildren(parentId);
+        int from = Math.max(0, Math.min(offset, children.size()));
+        int to = Math.min(children.size(), from + Math.max(0, limit));
+        Map<String, Object> page = new HashMap<>();
+        page.put("parentId", parentId);
+        page.put("offset", from);
+        page.put("total", children.size());
+        page.put("nodes", new ArrayList<>(children.subList(from, to)));
+        return page;
+    }
+
+    /**
+     * @param parentId the parseable node id of the parent, empty for the Objects folder
+     * @return all children of the node, from the cache when browsed recently
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public List<Map<String, Object>> getChildren(String parentId) throws InterruptedException, ExecutionException {
+        String key = parentId == null ? "" : parentId;
+        CachedLevel level = levels.get(key);
+        if (level == null || !level.isFresh()) {
+            NodeId browseRoot = key.isEmpty() ? Identifiers.ObjectsFolder : NodeId.parse(key);
+            level = new CachedLevel(Collections.unmodifiableList(this.browseLevel(browseRoot, key)));
+            levels.put(key, level);
+            this.addToIndex(level.children);
+        }
+        return level.children;
+    }
+
+    /**
+     * Finds nodes whose browse name starts with the query, case insensitive. The first search starts
+     * the crawl that fills the index, until it is done only the nodes browsed so far are found.
+     * @param query the start of the browse name
+     * @return at most MAXSEARCHRESULTS matching nodes
+     */
+    public List<Map<String, Object>> search(String query) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        String prefix = query == null ? "" : query.trim().toLowerCase();
+        if (prefix.isEmpty()) {
+            return results;
+        }
+        this.startIndexing();
+        for (IndexedNode node : nameIndex.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            if (results.size() >= MAXSEARCHRESULTS) {
+                break;
+            }
+            results.add(node.toMap());
+        }
+        return results;
+    }
+
+    /**
+     * Crawls the address space breadth first on a background thread to fill the browse name index,
+     * once per cache. Browses are done one at a time so the crawl never competes with the browsers
+     * for the server. The crawled levels only go into the index, not into the level cache. Every node
+     * is browsed once, also when reference cycles or several parents lead to it again.
+     */
+    private synchronized void startIndexing() {
+        if (indexingStarted || closed) {
+            return;
+        }
+        indexingStarted = true;
+        Thread crawler = new Thread(() -> {
+            Deque<String> toBrowse = new ArrayDeque<>();
+            Set<String> queued = new HashSet<>();
+            toBrowse.add("");
+            queued.add(Identifiers.ObjectsFolder.toParseableString()); // the root, browsed as ""
+            int indexed = 0;
+            try {
+                while (!closed && !toBrowse.isEmpty() && indexed < MAXINDEXEDNODES) {
+                    String parentId = toBrowse.poll();
+                    NodeId browseRoot = parentId.isEmpty() ? Identifiers.ObjectsFolder : NodeId.parse(parentId);
+                    List<Map<String, Object>> children = this.browseLevel(browseRoot, parentId);
+                    this.addToIndex(children);
+                    for (Map<String, Object> node : children) {
+                        String id = (String) node.get("id");
+                        if (!queued.add(id)) {
+                            continue; // reached before through another reference
+                        }
+                        indexed++;
+                        if ("Object".equals(node.get("type"))) {
+                            toBrowse.add(id);
+                        }
+                    }
+                }
+                logger.log(Level.INFO, "Browse name index holds " + nameIndex.size() + " nodes");
+            } catch (InterruptedException | ExecutionException | RuntimeException e) {
+                if (!closed) {
+                    logger.log(Level.WARNING, "Indexing the browse names stopped: " + e.getMessage());
+                }
+            }
+        }, "WebUI-browse-index");
+        crawler.setDaemon(true);
+        crawler.start();
+    }
+
+    private void close() {
+        closed = true;
+        levels.clear();
+        nameIndex.clear();
+    }
+
+    private void addToIndex(List<Map<String, Object>> children) {
+        for (Map<String, Object> node : children) {
+            String id = (String) node.get("id");
+            String name = (String) node.get("name");
+            String key = name.toLowerCase() + "\u0000" + id;
+            if (closed || (nameIndex.size() >= MAXINDEXEDNODES && !nameIndex.containsKey(key))) {
+                return;
+            }
+            nameIndex.put(key, new IndexedNode(id, name, NodeClass.valueOf((String) node.get("type")), (String) node.get("parentId")));
+        }
+    }
+
+    private static Map<String, Object> toNode(String id, String name, NodeClass nodeClass, String parentId) {
+        Map<String, Object> node = new HashMap<>();
+        node.put("id", id);
+        node.put("name", name);
+        node.put("type", nodeClass.name());
+        node.put("parentId", parentId);
+        // objects are expanded on request
+        node.put("lazy", nodeClass == NodeClass.Object);
+        return node;
+    }
+
+    private OpcUaClient getClient() {
+        for (OpcUaClient client : clients) {
+            return client;
+        }
+        throw new IllegalStateException("No client browses " + endpointUrl + " anymore");
+    }
+
+    private List<Map<String, Object>> browseLevel(NodeId browseRoot, String parentId) throws InterruptedException, ExecutionException {
+        List<Map<String, Object>> children = new ArrayList<>();
+        BrowseDescription browse = new BrowseDescription(
+            browseRoot,
+            BrowseDirection.Forward,
+            Identifiers.References,
+            true,
+            Unsigned.uint(NodeClass.Object.getValue() | NodeClass.Variable.getValue()),
+            Unsigned.uint(BrowseResultMask.All.getValue())
+        );
+        OpcUaClient client = this.getClient();
+        BrowseResult browseResult = client.browse(browse).get();
+        while (browseResult != null) {
+            ReferenceDescription[] references = browseResult.getReferences();
+            if (references != null) {
+                for (ReferenceDescription rd : references) {
+                    NodeId nodeId = rd.getNodeId().toNodeId(client.getNamespaceTable()).orElse(null);
+                    if (nodeId == null) {
+                        continue;
+                    }
+                    String name = rd.getBrowseName().getName();
+                    if (nodeId.getNamespaceIndex().intValue() == 0 && ("Server".equals(name) || "Types".equals(name) || "Views".equals(name))) {
+                        continue;
+                    }
+                    children.add(toNode(nodeId.toParseableString(), name, rd.getNodeClass(), parentId));
+                }
+            }
+            // the server hands out large levels in parts
+            ByteString continuationPoint = browseResult.getContinuationPoint();
+            if (continuationPoint == null || continuationPoint.isNullOrEmpty()) {
+                break;
+            }
+            browseResult = client.browseNext(false, Collections.singletonList(continuationPoint)).get().getResults()[0];
+        }
+        return children;
+    }
+}
@@ -0,0 +1,87 @@
+package name.buurmeijermile.opcuaservices.controllableplayer.web;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration.OperationMode;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.InstanceExitException;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.MainController;
+
+/**
+ * Runs a player or recorder inside the web UI JVM instead of forking a JVM per instance. The
+ * instance gets its own Configuration, bound to the host thread and to the threads the
+ * instance starts itself, so that instances don't see each others settings.
+ */
+public class InProcessInstanceHost implements Runnable {
+    private static final Logger logger = Logger.getLogger(InProcessInstanceHost.class.getName());
+
+    private final String id;
+    private final String[] args;
+    private final Configuration configuration;
+    private final IntConsumer exitHandler;
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+    private Thread thread = null;
+
+    /**
+     * @param anId the id of the instance
+     * @param theArgs the command line arguments of the instance, as a forked instance would get them
+     * @param anExitHandler called with the exit code when the instance ends
+     */
+    public InProcessInstanceHost(String anId, List<String> theArgs, IntConsumer anExitHandler) {
+        this.id = anId;
+        this.args = theArgs.toArray(new String[0]);
+        this.configuration = Configuration.createHostedConfiguration(anId);
+        this.exitHandler = anExitHandler;
+    }
+
+    public void start() {
+        thread = new Thread(this, "Instance-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Ends the instance. A player is shut down, a recorder stops waiting for its duration and
+     * winds down its recording as if the duration had passed.
+     */
+    public void stop() {
+        stopSignal.countDown();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isAlive() {
+        return thread != null && thread.isAlive();
+    }
+
+    @Override
+    public void run() {
+        Configuration.bindToCurrentThread(configuration);
+        MainController mainController = new MainController();
+        int exitCode = 0;
+        try {
+            mainController.processCommandlineArguments(args);
+            mainController.run();
+            if (configuration.getMode() == OperationMode.PLAYER) {
+                // the player serves until the instance is stopped
+                stopSignal.await();
+            }
+        } catch (InstanceExitException e) {
+            exitCode = e.getExitCode();
+        } catch (InterruptedException e) {
+            exitCode = 0;
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Hosted instance " + id + " failed", e);
+            exitCode = 1;
+        } finally {
+            mainController.shutdown();
+            Configuration.bindToCurrentThread(null);
+            exitHandler.accept(exitCode);
+        }
+    }
+}
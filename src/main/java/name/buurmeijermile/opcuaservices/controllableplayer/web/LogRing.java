@@ -0,0 +1,105 @@
+package name.buurmeijermile.opcuaservices.controllableplayer.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Fixed capacity ring of the most recent console lines of an instance. Every line gets an offset
+ * that keeps counting up over the life of the instance, so a browser can ask for the lines after
+ * the last one it has seen, for instance after a reconnect. Appending never copies the stored lines.
+ */
+public class LogRing {
+    private static final String[] LEVELNAMES = { "SEVERE", "WARNING", "INFO", "CONFIG", "FINE", "FINER", "FINEST" };
+
+    public static class Entry {
+        public final long offset;
+        public final int level;
+        public final String line;
+
+        Entry(long anOffset, int aLevel, String aLine) {
+            this.offset = anOffset;
+            this.level = aLevel;
+            this.line = aLine;
+        }
+    }
+
+    /**
+     * Stored lines together with the offset the next line will get, taken at the same moment.
+     */
+    public static class Batch {
+        public final List<Entry> entries;
+        public final long nextOffset;
+
+        Batch(List<Entry> theEntries, long aNextOffset) {
+            this.entries = theEntries;
+            this.nextOffset = aNextOffset;
+        }
+    }
+
+    private final Entry[] entries;
+    private long nextOffset = 0;
+    private long firstOffset = 0; // lines before this offset are overwritten or cleared
+
+    public LogRing(int capacity) {
+        this.entries = new Entry[capacity];
+    }
+
+    /**
+     * Stores a line, overwriting the oldest line when the ring is full.
+     * @param line the console line
+     * @return the offset of the line
+     */
+    public synchronized long append(String line) {
+        long offset = nextOffset++;
+        entries[(int) (offset % entries.length)] = new Entry(offset, levelOf(line), line);
+        if (nextOffset - firstOffset > entries.length) {
+            firstOffset = nextOffset - entries.length;
+        }
+        return offset;
+    }
+
+    /**
+     * @param fromOffset the offset of the first line wanted
+     * @param minimumLevel the lowest log level wanted, see java.util.logging.Level.intValue()
+     * @return the stored lines from the given offset on that have at least the given level, and
+     * the offset after the last of them
+     */
+    public synchronized Batch since(long fromOffset, int minimumLevel) {
+        List<Entry> result = new ArrayList<>();
+        for (long offset = Math.max(fromOffset, firstOffset); offset < nextOffset; offset++) {
+            Entry entry = entries[(int) (offset % entries.length)];
+            if (entry.level >= minimumLevel) {
+                result.add(entry);
+            }
+        }
+        return new Batch(result, nextOffset);
+    }
+
+    /**
+     * @return the offset the next line will get
+     */
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Drops the stored lines, offsets keep counting up so browsers notice nothing was missed.
+     */
+    public synchronized void clear() {
+        firstOffset = nextOffset;
+    }
+
+    /**
+     * Derives the level from a console line, like 'WARNING: ...' written by java.util.logging.
+     * Lines without a level count as INFO.
+     */
+    static int levelOf(String line) {
+        for (String levelName : LEVELNAMES) {
+            if (line.startsWith(levelName) && line.length() > levelName.length() && line.charAt(levelName.length()) == ':') {
+                return Level.parse(levelName).intValue();
+            }
+        }
+        return Level.INFO.intValue();
+    }
+}
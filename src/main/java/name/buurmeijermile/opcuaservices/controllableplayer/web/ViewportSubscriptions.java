@@ -0,0 +1,212 @@
+package name.buurmeijermile.opcuaservices.controllableplayer.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+/**
+ * Keeps monitored items on the player or target server of one instance for only the variables
+ * that are displayed in the browsers. Each browser session declares the node ids it shows, a
+ * monitored item lives as long as at least one session, or a pin, refers to its node.
+ */
+public class ViewportSubscriptions {
+    private static final Logger logger = Logger.getLogger(ViewportSubscriptions.class.getName());
+    private static final double PUBLISHINGINTERVAL = 500.0;
+    // upper bound on the number of nodes a single browser session can have monitored
+    private static final int MAXWATCHEDPERSESSION = 1000;
+    // interest holder for nodes that are monitored regardless of what the browsers show
+    private static final Object PINNED = new Object();
+
+    private final String instanceId;
+    private final WebUIServer.InstanceInfo inst;
+    private final OpcUaClient client;
+    private UaSubscription subscription = null;
+    // the sets are replaced, never changed, so they can be read without holding the lock
+    private final Map<Object, Set<String>> interestBySession = new ConcurrentHashMap<>();
+    private final Map<String, Integer> referenceCounts = new ConcurrentHashMap<>();
+    private final Map<String, UaMonitoredItem> monitoredItems = new HashMap<>();
+    private final AtomicInteger clientHandleCounter = new AtomicInteger(1);
+
+    public ViewportSubscriptions(String anInstanceId, WebUIServer.InstanceInfo anInstance, OpcUaClient aClient) {
+        this.instanceId = anInstanceId;
+        this.inst = anInstance;
+        this.client = aClient;
+    }
+
+    /**
+     * Replaces the set of node ids the given browser session displays and creates or deletes
+     * the monitored items whose reference count changes from or to zero. The last known value
+     * of a node is forgotten once no session displays it anymore.
+     * @param session the browser session
+     * @param nodeIds the node ids the session displays
+     * @return the node ids the session did not display before
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public synchronized Set<String> setInterest(Object session, Set<String> nodeIds) throws InterruptedException, ExecutionException {
+        Set<String> interest = new HashSet<>();
+        for (String nodeId : nodeIds) {
+            if (interest.size() >= MAXWATCHEDPERSESSION) {
+                break;
+            }
+            interest.add(nodeId);
+        }
+        Set<String> previous = interestBySession.getOrDefault(session, Collections.<String>emptySet());
+        Set<String> added = new HashSet<>(interest);
+        added.removeAll(previous);
+        Set<String> removed = new HashSet<>(previous);
+        removed.removeAll(interest);
+        if (interest.isEmpty()) {
+            interestBySession.remove(session);
+        } else {
+            interestBySession.put(session, Collections.unmodifiableSet(interest));
+        }
+
+        List<String> nodesToMonitor = new ArrayList<>();
+        for (String nodeId : added) {
+            if (referenceCounts.merge(nodeId, 1, Integer::sum) == 1) {
+                nodesToMonitor.add(nodeId);
+            }
+        }
+        List<UaMonitoredItem> itemsToDelete = new ArrayList<>();
+        for (String nodeId : removed) {
+            if (referenceCounts.merge(nodeId, -1, Integer::sum) <= 0) {
+                referenceCounts.remove(nodeId);
+                inst.nodeValues.remove(nodeId);
+                UaMonitoredItem item = monitoredItems.remove(nodeId);
+                if (item != null) {
+                    itemsToDelete.add(item);
+                }
+            }
+        }
+        if (!itemsToDelete.isEmpty()) {
+            subscription.deleteMonitoredItems(itemsToDelete).get();
+        }
+        if (!nodesToMonitor.isEmpty()) {
+            this.createMonitoredItems(nodesToMonitor);
+        }
+        return added;
+    }
+
+    /**
+     * Monitors the node independent of the browsers, used for the nodes the web UI itself depends on.
+     * @param nodeId the node id to monitor
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public synchronized void pin(String nodeId) throws InterruptedException, ExecutionException {
+        Set<String> pinned = new HashSet<>(interestBySession.getOrDefault(PINNED, Collections.<String>emptySet()));
+        pinned.add(nodeId);
+        this.setInterest(PINNED, pinned);
+    }
+
+    /**
+     * Drops everything the given browser session displayed, for instance when it disconnects.
+     * @param session the browser session
+     */
+    public synchronized void release(Object session) {
+        if (interestBySession.containsKey(session)) {
+            try {
+                this.setInterest(session, Collections.<String>emptySet());
+            } catch (InterruptedException | ExecutionException e) {
+                logger.log(Level.WARNING, "Failed to release the monitored items of a closed session", e);
+            }
+        }
+    }
+
+    /**
+     * Does not wait for a running change of the monitored items, so the frame thread never blocks on the server.
+     * @param session the browser session
+     * @return the node ids the given browser session displays
+     */
+    public Set<String> getInterest(Object session) {
+        return interestBySession.getOrDefault(session, Collections.<String>emptySet());
+    }
+
+    /**
+     * @return the number of nodes currently monitored on the server
+     */
+    public synchronized int getMonitoredItemCount() {
+        return monitoredItems.size();
+    }
+
+    private void createMonitoredItems(List<String> nodeIds) throws InterruptedException, ExecutionException {
+        if (subscription == null) {
+            subscription = client.getSubscriptionManager().createSubscription(PUBLISHINGINTERVAL).get();
+        }
+        List<MonitoredItemCreateRequest> requests = new ArrayList<>();
+        for (String nodeIdStr : nodeIds) {
+            NodeId nodeId = NodeId.parseOrNull(nodeIdStr);
+            if (nodeId == null) {
+                continue;
+            }
+            MonitoringParameters params = new MonitoringParameters(
+                Unsigned.uint(clientHandleCounter.getAndIncrement()),
+                0.0, // default sampling
+                null,
+                Unsigned.uint(10),
+                true
+            );
+            ReadValueId readValueId = new ReadValueId(
+                nodeId,
+                AttributeId.Value.uid(),
+                null,
+                QualifiedName.NULL_VALUE
+            );
+            requests.add(new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, params));
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        List<UaMonitoredItem> items = subscription.createMonitoredItems(
+            TimestampsToReturn.Both,
+            requests,
+            (item, id) -> item.setValueConsumer(this::onValue)
+        ).get();
+        for (UaMonitoredItem item : items) {
+            if (item.getStatusCode().isGood()) {
+                monitoredItems.put(item.getReadValueId().getNodeId().toParseableString(), item);
+            }
+        }
+    }
+
+    private void onValue(UaMonitoredItem monitoredItem, DataValue value) {
+        String nodeIdStr = monitoredItem.getReadValueId().getNodeId().toParseableString();
+        if (!referenceCounts.containsKey(nodeIdStr)) {
+            // a late value of a monitored item that is being deleted
+            return;
+        }
+        String valStr = value.getValue().getValue() != null ? value.getValue().getValue().toString() : "null";
+        inst.nodeValues.put(nodeIdStr, valStr);
+        WebUIWebSocket.broadcastNodeValue(instanceId, nodeIdStr, valStr);
+
+        // If this is the RunState variable, update the status and broadcast it to the UI!
+        if ("player".equals(inst.type) && nodeIdStr.endsWith("Player-Control/RunState")) {
+            inst.status = valStr;
+            WebUIWebSocket.broadcastStatus(instanceId, valStr);
+        }
+    }
+}
@@ -5,47 +5,50 @@ import static spark.Spark.*;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
 
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.api.config.OpcUaClientConfig;
-import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
-import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
-import org.eclipse.milo.opcua.stack.core.AttributeId;
-import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.security.SecurityPolicy;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
-import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
-import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseDirection;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.BrowseResultMask;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.NodeClass;
-import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
-import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
-import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
 import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
 import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
 import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
-import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
-import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
-import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
-import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
 import java.io.FileReader;
-import com.google.gson.reflect.TypeToken;
+import name.buurmeijermile.opcuaservices.controllableplayer.main.Configuration;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.AssetSnapshot;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.DataFileSchema;
 import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeConfig;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeConfigReader;
+import name.buurmeijermile.opcuaservices.controllableplayer.measurements.OpcNodeSnapshot;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsHttpServer;
+import name.buurmeijermile.opcuaservices.controllableplayer.metrics.MetricsRegistry;
+import name.buurmeijermile.opcuaservices.controllableplayer.server.PlayerNamespace;
 
 import com.google.gson.Gson;
 
@@ -57,6 +60,21 @@ public class WebUIServer {
     // In-memory list of active instances
     public static final Map<String, InstanceInfo> instances = new ConcurrentHashMap<>();
     private static int instanceCounter = 0;
+    private static final int LOGCAPACITY = 1000; // number of console lines kept per instance
+    private static final int BROWSEPAGESIZE = 200; // default number of children per browse page
+    private static final int MAXBROWSEPAGESIZE = 1000;
+    private static final int METRICSSCRAPETIMEOUT = 1000; // mS per isolated instance
+    private static final String REQUESTSTARTATTRIBUTE = "metricsRequestStart";
+    private static final MetricsRegistry.Histogram requestDuration = MetricsRegistry.getDefault().histogram(
+            "opcua_webui_request_duration_seconds", "Time the web UI took to answer a request", new double[]{0.005, 0.01, 0.05, 0.1, 0.5, 1, 5});
+    private static final MetricsRegistry.Counter scrapeErrors = MetricsRegistry.getDefault().counter(
+            "opcua_webui_instance_scrape_errors_total", "Scrapes of the metrics of isolated instances that failed");
+    // applies the node interest of the browsers to the servers, off the WebSocket threads
+    private static final ExecutorService interestExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WebUI-interest");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public static class InstanceInfo {
         public String id;
@@ -76,11 +94,58 @@ public class WebUIServer {
         
         public transient Process process;
         public transient OpcUaClient client;
-        public List<String> logs = new CopyOnWriteArrayList<>();
+        public transient ViewportSubscriptions viewport;
+        public transient BrowseCache browseCache;
+        public transient InProcessInstanceHost host;
+        public transient int metricsPort; // the metrics listener of an isolated instance, 0 when there is none
+        public boolean isolated = true; // true runs the instance in its own JVM instead of in the web UI JVM
+        public transient LogRing logs = new LogRing(LOGCAPACITY);
         public Map<String, String> nodeValues = new ConcurrentHashMap<>();
         public List<Map<String, Object>> nodeTree = new CopyOnWriteArrayList<>();
     }
 
+    /**
+     * Copies the log records of hosted instances to their console, the counterpart of reading
+     * the output of a forked instance. Records are attributed through the configuration that
+     * is bound to the logging thread.
+     */
+    private static class HostedInstanceLogHandler extends Handler {
+        private final Formatter formatter = new SimpleFormatter();
+
+        @Override
+        public void publish(LogRecord record) {
+            Configuration hostedConfiguration = Configuration.getHostedConfiguration();
+            if (hostedConfiguration == null || !isLoggable(record)) {
+                return;
+            }
+            String id = hostedConfiguration.getHostedInstanceId();
+            InstanceInfo inst = instances.get(id);
+            if (inst != null) {
+                String line = record.getLevel().getName() + ": " + formatter.formatMessage(record);
+                if (record.getThrown() != null) {
+                    line = line + " " + record.getThrown();
+                }
+                appendLog(id, inst, line);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static int parseIntOrDefault(String value, int defaultValue) {
+        try {
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public WebUIServer(int port) {
         this.webPort = port;
     }
@@ -90,11 +155,29 @@ public class WebUIServer {
         
         port(webPort);
         
+        // Route the log output of instances hosted in this JVM to their console
+        Logger.getLogger("").addHandler(new HostedInstanceLogHandler());
+        
         // Setup static files directory: src/main/resources/web
         staticFiles.location("/web");
         
         // Setup WebSocket path
         webSocket("/ws", WebUIWebSocket.class);
+
+        // count the requests and measure how long they take
+        before((req, res) -> req.attribute(REQUESTSTARTATTRIBUTE, System.nanoTime()));
+        after((req, res) -> {
+            Long startTime = req.attribute(REQUESTSTARTATTRIBUTE);
+            if (startTime != null) {
+                requestDuration.observe((System.nanoTime() - startTime) / 1E9);
+            }
+            MetricsRegistry.getDefault().counter("opcua_webui_requests_total", "Requests answered by the web UI",
+                    "method", req.requestMethod(), "status", String.valueOf(res.status())).increment();
+        });
+        for (String type : new String[]{"player", "recorder"}) {
+            MetricsRegistry.getDefault().gauge("opcua_webui_instances", "Instances configured in the web UI",
+                    () -> instances.values().stream().filter(inst -> type.equals(inst.type)).count(), "type", type);
+        }
         
         // REST API: List files in the files folder
         get("/api/files", (req, res) -> {
@@ -108,7 +191,9 @@ public class WebUIServer {
                 File[] list = filesDir.listFiles();
                 if (list != null) {
                     for (File f : list) {
-                        if (f.isFile()) {
+                        // the sidecars written next to data and config files are no choices for the player
+                        if (f.isFile() && !f.getName().endsWith(DataFileSchema.SIDECARSUFFIX) && !f.getName().endsWith(OpcNodeSnapshot.SIDECARSUFFIX)
+                                && !f.getName().endsWith(AssetSnapshot.SIDECARSUFFIX)) {
                             fileNames.add(f.getName());
                         }
                     }
@@ -123,6 +208,36 @@ public class WebUIServer {
             res.type("application/json");
             return gson.toJson(instances.values());
         });
+
+        // REST API: One page of the children of a node, browsed on demand and cached for a while
+        get("/api/instances/:id/browse", (req, res) -> {
+            res.type("application/json");
+            InstanceInfo inst = instances.get(req.params(":id"));
+            if (inst == null || inst.browseCache == null) {
+                res.status(404);
+                return gson.toJson(java.util.Collections.singletonMap("error", "Instance is not connected"));
+            }
+            int offset = parseIntOrDefault(req.queryParams("offset"), 0);
+            int limit = Math.min(parseIntOrDefault(req.queryParams("limit"), BROWSEPAGESIZE), MAXBROWSEPAGESIZE);
+            return gson.toJson(inst.browseCache.browse(req.queryParamOrDefault("nodeId", ""), offset, limit));
+        });
+
+        // REST API: Search the browse names of the nodes of an instance
+        get("/api/instances/:id/search", (req, res) -> {
+            res.type("application/json");
+            InstanceInfo inst = instances.get(req.params(":id"));
+            if (inst == null || inst.browseCache == null) {
+                res.status(404);
+                return gson.toJson(java.util.Collections.singletonMap("error", "Instance is not connected"));
+            }
+            return gson.toJson(inst.browseCache.search(req.queryParams("q")));
+        });
+
+        // Metrics of the web UI and its hosted instances, merged with those of the isolated instances
+        get(MetricsHttpServer.METRICSPATH, (req, res) -> {
+            res.type(MetricsRegistry.CONTENTTYPE);
+            return scrapeMetrics();
+        });
         
         init();
     }
@@ -139,6 +254,8 @@ public class WebUIServer {
         inst.configfile = (String) params.get("configfile");
         inst.datafile = (String) params.get("datafile");
         inst.uri = (String) params.get("uri");
+        // instances run in their own JVM unless hosting in the web UI JVM is asked for
+        inst.isolated = (Boolean) params.getOrDefault("isolated", true);
         
         if ("player".equals(type)) {
             inst.port = ((Double) params.getOrDefault("port", 12400.0)).intValue();
@@ -172,22 +289,8 @@ public class WebUIServer {
         inst.status = "Starting";
         WebUIWebSocket.broadcastStatus(id, inst.status);
 
+        // command line arguments of the instance, the same for a hosted and a forked instance
         List<String> cmd = new ArrayList<>();
-        cmd.add("java");
-        cmd.add("-cp");
-        
-        File jarWithDeps = new File("target/OPCUA-Controllable-Player-0.8.0-jar-with-dependencies.jar");
-        if (!jarWithDeps.exists()) {
-            jarWithDeps = new File("../target/OPCUA-Controllable-Player-0.8.0-jar-with-dependencies.jar");
-        }
-        
-        if (jarWithDeps.exists()) {
-            cmd.add(jarWithDeps.getAbsolutePath());
-        } else {
-            cmd.add(System.getProperty("java.class.path"));
-        }
-        
-        cmd.add("name.buurmeijermile.opcuaservices.controllableplayer.main.MainController");
         cmd.add("-mode");
         cmd.add(inst.type);
         
@@ -237,116 +340,59 @@ public class WebUIServer {
         }
 
         try {
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            pb.directory(new File("."));
-            inst.process = pb.start();
-            
-            // Read stdout
-            new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(inst.process.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        inst.logs.add(line);
-                        if (inst.logs.size() > 1000) {
-                            inst.logs.remove(0);
-                        }
-                        WebUIWebSocket.broadcastLog(id, line);
-                    }
-                } catch (IOException e) {
-                    // process ended or error
-                }
-            }).start();
-
-            // Read stderr
-            new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(inst.process.getErrorStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        inst.logs.add(line);
-                        if (inst.logs.size() > 1000) {
-                            inst.logs.remove(0);
-                        }
-                        WebUIWebSocket.broadcastLog(id, line);
-                    }
-                } catch (IOException e) {
-                    // process ended or error
-                }
-            }).start();
-
-            // Monitor process exit
-            new Thread(() -> {
-                try {
-                    int exitCode = inst.process.waitFor();
-                    OpcUaClient c = inst.client;
-                    if (c != null) {
-                        try {
-                            c.disconnect().get();
-                        } catch (Exception e) {
-                            // ignore
-                        }
-                        inst.client = null;
-                    }
-                    // Only update if it wasn't explicitly stopped by the user
-                    if (!"Stopped".equals(inst.status)) {
-                        inst.status = exitCode == 0 ? "Completed" : "Failed";
-                        WebUIWebSocket.broadcastStatus(id, inst.status);
-                    }
-                } catch (InterruptedException e) {
-                    inst.status = "Stopped";
-                    WebUIWebSocket.broadcastStatus(id, inst.status);
-                }
-            }).start();
+            if (inst.isolated) {
+                startInstanceProcess(id, inst, cmd);
+            } else {
+                startInstanceInProcess(id, inst, cmd);
+            }
 
             if ("player".equals(inst.type)) {
                 // Monitor/Connect OPC UA client
                 new Thread(() -> {
                     OpcUaClient miloClient = null;
                     int retries = 15;
-                    while (retries > 0 && inst.process.isAlive()) {
+                    while (retries > 0 && isInstanceAlive(inst)) {
                         try {
                             // First, wait a moment to give the process some time
                             Thread.sleep(1000);
                             String connectingMsg = "[SYSTEM] Connecting to OPC UA Server (attempts remaining: " + retries + ")...";
-                            inst.logs.add(connectingMsg);
-                            WebUIWebSocket.broadcastLog(id, connectingMsg);
+                            appendLog(id, inst, connectingMsg);
                             miloClient = connectToPlayer(inst.port, inst.uri);
                             break;
                         } catch (Exception e) {
                             retries--;
                             if (retries == 0) {
                                 String failedMsg = "[SYSTEM] Failed to connect to OPC UA Server after multiple attempts: " + e.getMessage();
-                                inst.logs.add(failedMsg);
-                                WebUIWebSocket.broadcastLog(id, failedMsg);
+                                appendLog(id, inst, failedMsg);
                                 inst.status = "Failed";
                                 WebUIWebSocket.broadcastStatus(id, inst.status);
                             }
                         }
                     }
                     
-                    if (miloClient != null && inst.process.isAlive()) {
+                    if (miloClient != null && isInstanceAlive(inst)) {
                         try {
                             inst.client = miloClient;
                             inst.status = "Running";
                             WebUIWebSocket.broadcastStatus(id, inst.status);
                             
                             String connectedMsg = "[SYSTEM] Connected. Browsing node tree...";
-                            inst.logs.add(connectedMsg);
-                            WebUIWebSocket.broadcastLog(id, connectedMsg);
+                            appendLog(id, inst, connectedMsg);
                             
-                            List<Map<String, Object>> tree = new CopyOnWriteArrayList<>();
-                            browseNodeTree(miloClient, Identifiers.ObjectsFolder, tree, "");
+                            // only the top level is browsed now, deeper levels when a browser expands them
+                            BrowseCache browseCache = BrowseCache.acquire(miloClient);
+                            inst.browseCache = browseCache;
+                            List<Map<String, Object>> tree = new CopyOnWriteArrayList<>(browseCache.getChildren(""));
                             inst.nodeTree = tree;
                             WebUIWebSocket.broadcastNodeTree(id, tree);
                             
-                            String browsedMsg = "[SYSTEM] Node tree browsed. Subscribing to variables...";
-                            inst.logs.add(browsedMsg);
-                            WebUIWebSocket.broadcastLog(id, browsedMsg);
+                            String browsedMsg = "[SYSTEM] Top level browsed. Streaming values of the displayed variables...";
+                            appendLog(id, inst, browsedMsg);
                             
-                            subscribeToVariables(id, inst, miloClient, tree);
+                            startViewportSubscriptions(id, inst, miloClient);
                         } catch (Exception e) {
                             String errInitMsg = "[SYSTEM] Error initializing client: " + e.getMessage();
-                            inst.logs.add(errInitMsg);
-                            WebUIWebSocket.broadcastLog(id, errInitMsg);
+                            appendLog(id, inst, errInitMsg);
                             inst.status = "Failed";
                             WebUIWebSocket.broadcastStatus(id, inst.status);
                         }
@@ -360,46 +406,43 @@ public class WebUIServer {
                 new Thread(() -> {
                     OpcUaClient miloClient = null;
                     int retries = 15;
-                    while (retries > 0 && inst.process.isAlive()) {
+                    while (retries > 0 && isInstanceAlive(inst)) {
                         try {
                             Thread.sleep(1000);
                             String connectingMsg = "[SYSTEM] Connecting to target OPC UA Server (attempts remaining: " + retries + ")...";
-                            inst.logs.add(connectingMsg);
-                            WebUIWebSocket.broadcastLog(id, connectingMsg);
+                            appendLog(id, inst, connectingMsg);
                             miloClient = connectToTarget(inst.uri);
                             break;
                         } catch (Exception e) {
                             retries--;
                             if (retries == 0) {
                                 String failedMsg = "[SYSTEM] Failed to connect to target OPC UA Server: " + e.getMessage();
-                                inst.logs.add(failedMsg);
-                                WebUIWebSocket.broadcastLog(id, failedMsg);
+                                appendLog(id, inst, failedMsg);
                             }
                         }
                     }
                     
-                    if (miloClient != null && inst.process.isAlive()) {
+                    if (miloClient != null && isInstanceAlive(inst)) {
                         try {
                             inst.client = miloClient;
                             
                             String connectedMsg = "[SYSTEM] Connected to target. Browsing node tree...";
-                            inst.logs.add(connectedMsg);
-                            WebUIWebSocket.broadcastLog(id, connectedMsg);
+                            appendLog(id, inst, connectedMsg);
                             
-                            List<Map<String, Object>> tree = new CopyOnWriteArrayList<>();
-                            browseNodeTree(miloClient, Identifiers.ObjectsFolder, tree, "");
+                            // only the top level is browsed now, deeper levels when a browser expands them
+                            BrowseCache browseCache = BrowseCache.acquire(miloClient);
+                            inst.browseCache = browseCache;
+                            List<Map<String, Object>> tree = new CopyOnWriteArrayList<>(browseCache.getChildren(""));
                             inst.nodeTree = tree;
                             WebUIWebSocket.broadcastNodeTree(id, tree);
                             
-                            String browsedMsg = "[SYSTEM] Node tree browsed. Subscribing to variables...";
-                            inst.logs.add(browsedMsg);
-                            WebUIWebSocket.broadcastLog(id, browsedMsg);
+                            String browsedMsg = "[SYSTEM] Top level browsed. Streaming values of the displayed variables...";
+                            appendLog(id, inst, browsedMsg);
                             
-                            subscribeToVariables(id, inst, miloClient, tree);
+                            startViewportSubscriptions(id, inst, miloClient);
                         } catch (Exception e) {
                             String errInitMsg = "[SYSTEM] Error initializing client: " + e.getMessage();
-                            inst.logs.add(errInitMsg);
-                            WebUIWebSocket.broadcastLog(id, errInitMsg);
+                            appendLog(id, inst, errInitMsg);
                         }
                     }
                 }).start();
@@ -407,20 +450,195 @@ public class WebUIServer {
 
         } catch (Exception e) {
             inst.status = "Failed";
-            inst.logs.add("[SYSTEM] Start failed: " + e.getMessage());
             WebUIWebSocket.broadcastStatus(id, inst.status);
-            WebUIWebSocket.broadcastLog(id, "[SYSTEM] Start failed: " + e.getMessage());
+            appendLog(id, inst, "[SYSTEM] Start failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forks a JVM for the instance, the isolated hosting mode.
+     */
+    private static void startInstanceProcess(String id, InstanceInfo inst, List<String> args) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("java");
+        cmd.add("-cp");
+        
+        File jarWithDeps = new File("target/OPCUA-Controllable-Player-0.8.0-jar-with-dependencies.jar");
+        if (!jarWithDeps.exists()) {
+            jarWithDeps = new File("../target/OPCUA-Controllable-Player-0.8.0-jar-with-dependencies.jar");
+        }
+        
+        if (jarWithDeps.exists()) {
+            cmd.add(jarWithDeps.getAbsolutePath());
+        } else {
+            cmd.add(System.getProperty("java.class.path"));
+        }
+        
+        cmd.add("name.buurmeijermile.opcuaservices.controllableplayer.main.MainController");
+        cmd.addAll(args);
+        // the instance serves its metrics on a port of its own, the web UI scrapes and merges them
+        inst.metricsPort = freePort();
+        if (inst.metricsPort > 0) {
+            cmd.add("-metricsport");
+            cmd.add(String.valueOf(inst.metricsPort));
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(new File("."));
+        inst.process = pb.start();
+        
+        // Read stdout
+        new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inst.process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    appendLog(id, inst, line);
+                }
+            } catch (IOException e) {
+                // process ended or error
+            }
+        }).start();
+
+        // Read stderr
+        new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inst.process.getErrorStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    appendLog(id, inst, line);
+                }
+            } catch (IOException e) {
+                // process ended or error
+            }
+        }).start();
+
+        // Monitor process exit
+        new Thread(() -> {
+            try {
+                int exitCode = inst.process.waitFor();
+                onInstanceExit(id, inst, exitCode);
+            } catch (InterruptedException e) {
+                inst.status = "Stopped";
+                WebUIWebSocket.broadcastStatus(id, inst.status);
+            }
+        }).start();
+    }
+
+    /**
+     * Runs the instance on its own thread in this JVM, sharing class loading, the Milo stack and the heap.
+     */
+    private static void startInstanceInProcess(String id, InstanceInfo inst, List<String> args) {
+        inst.process = null;
+        inst.host = new InProcessInstanceHost(id, args, exitCode -> onInstanceExit(id, inst, exitCode));
+        inst.host.start();
+    }
+
+    private static boolean isInstanceAlive(InstanceInfo inst) {
+        if (inst.process != null) {
+            return inst.process.isAlive();
+        }
+        return inst.host != null && inst.host.isAlive();
+    }
+
+    private static void onInstanceExit(String id, InstanceInfo inst, int exitCode) {
+        // the series of a hosted instance are labelled with its id
+        MetricsRegistry.getDefault().removeInstance(id);
+        inst.metricsPort = 0;
+        OpcUaClient c = inst.client;
+        if (c != null) {
+            closeBrowseCache(inst);
+            try {
+                c.disconnect().get();
+            } catch (Exception e) {
+                // ignore
+            }
+            inst.client = null;
+            inst.viewport = null;
+        }
+        // Only update if it wasn't explicitly stopped by the user
+        if (!"Stopped".equals(inst.status)) {
+            inst.status = exitCode == 0 ? "Completed" : "Failed";
+            WebUIWebSocket.broadcastStatus(id, inst.status);
         }
     }
 
+    /**
+     * @return the metrics of this JVM with those of the running isolated instances, each labelled with its instance id
+     */
+    private static String scrapeMetrics() {
+        MetricsRegistry.Scrape scrape = new MetricsRegistry.Scrape().add(MetricsRegistry.getDefault());
+        for (InstanceInfo inst : instances.values()) {
+            if (inst.metricsPort > 0 && inst.process != null && inst.process.isAlive()) {
+                try {
+                    scrape.add(fetchMetrics(inst.metricsPort), inst.id);
+                } catch (IOException e) {
+                    scrapeErrors.increment();
+                    logger.log(Level.FINE, "Metrics of instance " + inst.id + " can not be scraped", e);
+                }
+            }
+        }
+        return scrape.toString();
+    }
+
+    private static String fetchMetrics(int port) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + MetricsHttpServer.METRICSPATH).openConnection();
+        connection.setConnectTimeout(METRICSSCRAPETIMEOUT);
+        connection.setReadTimeout(METRICSSCRAPETIMEOUT);
+        try (InputStream inputStream = connection.getInputStream();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            StringBuilder body = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                body.append(line).append('\n');
+            }
+            return body.toString();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return a free port on this host, 0 when none could be found
+     */
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Releases the browse cache of an instance, call it while the client of the instance is still set.
+     */
+    private static void closeBrowseCache(InstanceInfo inst) {
+        BrowseCache browseCache = inst.browseCache;
+        if (browseCache != null) {
+            browseCache.release(inst.client);
+            inst.browseCache = null;
+        }
+    }
+
+    /**
+     * Adds a line to the console of an instance, the browsers get it with the next log frame.
+     */
+    static void appendLog(String id, InstanceInfo inst, String line) {
+        inst.logs.append(line);
+    }
+
     private static void destroyInstanceProcess(InstanceInfo inst) {
         if (inst.client != null) {
+            closeBrowseCache(inst);
             try {
                 inst.client.disconnect().get();
             } catch (Exception e) {
                 // ignore
             }
             inst.client = null;
+            inst.viewport = null;
+        }
+        if (inst.host != null) {
+            inst.host.stop();
+            inst.host = null;
         }
         if (inst.process != null && inst.process.isAlive()) {
             inst.process.destroy();
@@ -445,23 +663,19 @@ public class WebUIServer {
             if ("player".equals(inst.type)) {
                 if (inst.client != null) {
                     controlPlayer(inst, 6); // 6 is Stop command in command map
-                    inst.logs.add("[SYSTEM] Stopped playback via OPC UA.");
-                    WebUIWebSocket.broadcastLog(id, "[SYSTEM] Stopped playback via OPC UA.");
+                    appendLog(id, inst, "[SYSTEM] Stopped playback via OPC UA.");
                 } else {
-                    inst.logs.add("[SYSTEM] Cannot stop: Player OPC UA client is not connected.");
-                    WebUIWebSocket.broadcastLog(id, "[SYSTEM] Cannot stop: Player OPC UA client is not connected.");
+                    appendLog(id, inst, "[SYSTEM] Cannot stop: Player OPC UA client is not connected.");
                 }
             } else {
                 // Recorder: stop by terminating its process
-                inst.logs.add("[SYSTEM] Stopping recorder process...");
-                WebUIWebSocket.broadcastLog(id, "[SYSTEM] Stopping recorder process...");
+                appendLog(id, inst, "[SYSTEM] Stopping recorder process...");
                 destroyInstanceProcess(inst);
                 inst.status = "Stopped";
                 WebUIWebSocket.broadcastStatus(id, inst.status);
             }
         } catch (Exception e) {
-            inst.logs.add("[SYSTEM] Stop error: " + e.getMessage());
-            WebUIWebSocket.broadcastLog(id, "[SYSTEM] Stop error: " + e.getMessage());
+            appendLog(id, inst, "[SYSTEM] Stop error: " + e.getMessage());
         }
     }
 
@@ -471,8 +685,7 @@ public class WebUIServer {
             return;
         }
         try {
-            inst.logs.add("[SYSTEM] Removing instance and terminating process...");
-            WebUIWebSocket.broadcastLog(id, "[SYSTEM] Removing instance and terminating process...");
+            appendLog(id, inst, "[SYSTEM] Removing instance and terminating process...");
             destroyInstanceProcess(inst);
         } catch (Exception e) {
             logger.log(Level.WARNING, "Failed to clean up instance during removal: " + e.getMessage());
@@ -490,18 +703,14 @@ public class WebUIServer {
             try {
                 controlPlayer(inst, commandCode);
                 if (commandCode == 1) { // Play
-                    inst.logs.add("[SYSTEM] Play command sent.");
-                    WebUIWebSocket.broadcastLog(id, "[SYSTEM] Play command sent.");
+                    appendLog(id, inst, "[SYSTEM] Play command sent.");
                 } else if (commandCode == 5) { // Pause / Resume
-                    inst.logs.add("[SYSTEM] Pause / Resume command sent.");
-                    WebUIWebSocket.broadcastLog(id, "[SYSTEM] Pause / Resume command sent.");
+                    appendLog(id, inst, "[SYSTEM] Pause / Resume command sent.");
                 } else if (commandCode == 6) { // Stop
-                    inst.logs.add("[SYSTEM] Stop command sent.");
-                    WebUIWebSocket.broadcastLog(id, "[SYSTEM] Stop command sent.");
+                    appendLog(id, inst, "[SYSTEM] Stop command sent.");
                 }
             } catch (Exception e) {
-                inst.logs.add("[SYSTEM] Control failed: " + e.getMessage());
-                WebUIWebSocket.broadcastLog(id, "[SYSTEM] Control failed: " + e.getMessage());
+                appendLog(id, inst, "[SYSTEM] Control failed: " + e.getMessage());
             }
         }).start();
     }
@@ -511,15 +720,7 @@ public class WebUIServer {
             throw new Exception("OPC UA Client is not connected");
         }
         
-        int nsIndex = 2; // Default
-        try {
-            org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort index = inst.client.getNamespaceTable().getIndex(inst.namespace);
-            if (index != null) {
-                nsIndex = index.intValue();
-            }
-        } catch (Exception e) {
-            // fallback
-        }
+        int nsIndex = getPlayerNamespaceIndex(inst);
         
         NodeId parentNodeId = new NodeId(nsIndex, "Player-Control");
         NodeId methodNodeId = new NodeId(nsIndex, "Player-Control/remote-control(x)");
@@ -536,6 +737,19 @@ public class WebUIServer {
         }
     }
 
+    private static int getPlayerNamespaceIndex(InstanceInfo inst) {
+        int nsIndex = 2; // Default
+        try {
+            org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort index = inst.client.getNamespaceTable().getIndex(inst.namespace);
+            if (index != null) {
+                nsIndex = index.intValue();
+            }
+        } catch (Exception e) {
+            // fallback
+        }
+        return nsIndex;
+    }
+
     private static OpcUaClient connectToPlayer(int port, String uri) throws Exception {
         String cleanUri = uri.startsWith("/") ? uri.substring(1) : uri;
         String endpointUrl = "opc.tcp://127.0.0.1:" + port + "/" + cleanUri;
@@ -558,102 +772,65 @@ public class WebUIServer {
         return client;
     }
 
-    private static void browseNodeTree(OpcUaClient client, NodeId browseRoot, List<Map<String, Object>> treeList, String parentId) {
-        try {
-            BrowseDescription browse = new BrowseDescription(
-                browseRoot,
-                BrowseDirection.Forward,
-                Identifiers.References,
-                true,
-                Unsigned.uint(NodeClass.Object.getValue() | NodeClass.Variable.getValue()),
-                Unsigned.uint(BrowseResultMask.All.getValue())
-            );
-            BrowseResult browseResult = client.browse(browse).get();
-            ReferenceDescription[] references = browseResult.getReferences();
-            if (references == null) return;
-            
-            for (ReferenceDescription rd : references) {
+    /**
+     * Sets up the monitored items of an instance, browsers declare which variables they display and
+     * only those are monitored. The RunState of a player is always monitored because the status
+     * of the instance follows it.
+     */
+    private static void startViewportSubscriptions(String instanceId, InstanceInfo inst, OpcUaClient client) {
+        ViewportSubscriptions viewport = new ViewportSubscriptions(instanceId, inst, client);
+        inst.viewport = viewport;
+        if ("player".equals(inst.type)) {
+            String runStateNodeId = new NodeId(getPlayerNamespaceIndex(inst), PlayerNamespace.PLAYERCONTROLFOLDER + "/RunState").toParseableString();
+            interestExecutor.execute(() -> {
                 try {
-                    NodeId nodeId = rd.getNodeId().toNodeIdOrThrow(client.getNamespaceTable());
-                    String nodeIdStr = nodeId.toParseableString();
-                    String name = rd.getBrowseName().getName();
-                    String type = rd.getNodeClass().name();
-                    
-                    if (nodeId.getNamespaceIndex().intValue() == 0 && ("Server".equals(name) || "Types".equals(name) || "Views".equals(name))) {
-                        continue;
-                    }
-                    
-                    Map<String, Object> node = new HashMap<>();
-                    node.put("id", nodeIdStr);
-                    node.put("name", name);
-                    node.put("type", type);
-                    node.put("parentId", parentId);
-                    treeList.add(node);
-                    
-                    if (rd.getNodeClass() == NodeClass.Object) {
-                        browseNodeTree(client, nodeId, treeList, nodeIdStr);
-                    }
-                } catch (Exception ex) {
-                    // ignore
+                    viewport.pin(runStateNodeId);
+                } catch (Exception e) {
+                    appendLog(instanceId, inst, "[SYSTEM] Subscription failed: " + e.getMessage());
                 }
-            }
-        } catch (Exception ex) {
-            // ignore
+            });
         }
     }
 
-    private static void subscribeToVariables(String instanceId, InstanceInfo inst, OpcUaClient client, List<Map<String, Object>> treeList) {
-        try {
-            List<MonitoredItemCreateRequest> requests = new ArrayList<>();
-            int handleCounter = 1;
-            
-            for (Map<String, Object> node : treeList) {
-                if ("Variable".equals(node.get("type"))) {
-                    try {
-                        NodeId nodeId = NodeId.parse((String) node.get("id"));
-                        UInteger clientHandle = Unsigned.uint(handleCounter++);
-                        MonitoringParameters params = new MonitoringParameters(
-                            clientHandle,
-                            0.0, // default sampling
-                            null,
-                            Unsigned.uint(10),
-                            true
-                        );
-                        ReadValueId readValueId = new ReadValueId(
-                            nodeId,
-                            AttributeId.Value.uid(),
-                            null,
-                            QualifiedName.NULL_VALUE
-                        );
-                        requests.add(new MonitoredItemCreateRequest(readValueId, MonitoringMode.Reporting, params));
-                    } catch (Exception e) {
-                        // ignore parse error
+    /**
+     * Replaces the variables of an instance that a browser session displays. Values already known
+     * for nodes the session did not display before are sent to it right away.
+     */
+    public static void watchNodes(String id, Object session, List<String> nodeIds) {
+        InstanceInfo inst = instances.get(id);
+        if (inst == null || inst.viewport == null) {
+            return;
+        }
+        ViewportSubscriptions viewport = inst.viewport;
+        Set<String> interest = new HashSet<>(nodeIds);
+        interestExecutor.execute(() -> {
+            try {
+                Set<String> added = viewport.setInterest(session, interest);
+                Map<String, String> knownValues = new HashMap<>();
+                for (String nodeId : added) {
+                    String value = inst.nodeValues.get(nodeId);
+                    if (value != null) {
+                        knownValues.put(nodeId, value);
                     }
                 }
+                if (!knownValues.isEmpty()) {
+                    WebUIWebSocket.sendNodeValues(session, id, knownValues);
+                }
+            } catch (Exception e) {
+                appendLog(id, inst, "[SYSTEM] Subscription failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Releases the monitored items a closed browser session kept alive.
+     */
+    public static void releaseWatches(Object session) {
+        for (InstanceInfo inst : instances.values()) {
+            ViewportSubscriptions viewport = inst.viewport;
+            if (viewport != null) {
+                interestExecutor.execute(() -> viewport.release(session));
             }
-            
-            if (requests.isEmpty()) return;
-            
-            UaSubscription subscription = client.getSubscriptionManager().createSubscription(500.0).get();
-            subscription.createMonitoredItems(
-                TimestampsToReturn.Both,
-                requests,
-                (item, id) -> item.setValueConsumer((monitoredItem, value) -> {
-                    String nodeIdStr = monitoredItem.getReadValueId().getNodeId().toParseableString();
-                    String valStr = value.getValue().getValue() != null ? value.getValue().getValue().toString() : "null";
-                    inst.nodeValues.put(nodeIdStr, valStr);
-                    WebUIWebSocket.broadcastNodeValue(instanceId, nodeIdStr, valStr);
-                    
-                    // If this is the RunState variable, update the status and broadcast it to the UI!
-                    if ("player".equals(inst.type) && nodeIdStr.endsWith("Player-Control/RunState")) {
-                        inst.status = valStr;
-                        WebUIWebSocket.broadcastStatus(instanceId, valStr);
-                    }
-                })
-            ).get();
-        } catch (Exception e) {
-            inst.logs.add("[SYSTEM] Subscription failed: " + e.getMessage());
-            WebUIWebSocket.broadcastLog(instanceId, "[SYSTEM] Subscription failed: " + e.getMessage());
         }
     }
 
@@ -683,40 +860,37 @@ public class WebUIServer {
         }
         
         if (configFile.getName().endsWith(".json")) {
-            try (FileReader fileReader = new FileReader(configFile)) {
-                Gson gson = new Gson();
-                java.lang.reflect.Type listType = new TypeToken<List<OpcNodeConfig>>(){}.getType();
-                List<OpcNodeConfig> configs = gson.fromJson(fileReader, listType);
-                if (configs != null) {
-                    java.util.Set<String> allNodeIds = new java.util.HashSet<>();
-                    for (OpcNodeConfig config : configs) {
-                        if (config.nodeId != null) {
-                            allNodeIds.add(config.nodeId);
-                        }
+            try {
+                // streamed twice, first for the node ids and then for the tree, so the raw config is never held
+                OpcNodeConfigReader configReader = new OpcNodeConfigReader(configFile);
+                java.util.Set<String> allNodeIds = new java.util.HashSet<>();
+                configReader.forEach(config -> {
+                    if (config.nodeId != null) {
+                        allNodeIds.add(config.nodeId);
                     }
+                });
+                
+                configReader.forEach(config -> {
+                    if (config.nodeId == null) return;
                     
-                    for (OpcNodeConfig config : configs) {
-                        if (config.nodeId == null) continue;
-                        
-                        Map<String, Object> node = new HashMap<>();
-                        node.put("id", config.nodeId);
-                        node.put("name", config.displayName != null ? config.displayName : 
-                                        (config.browseName != null ? config.browseName.name : config.nodeId));
-                        node.put("type", config.nodeClass != null ? config.nodeClass : "Variable");
-                        
-                        String parentId = "";
-                        if (config.references != null) {
-                            for (OpcNodeConfig.OpcReference ref : config.references) {
-                                if (!ref.isForward && ref.targetNodeId != null && allNodeIds.contains(ref.targetNodeId)) {
-                                    parentId = ref.targetNodeId;
-                                    break;
-                                }
+                    Map<String, Object> node = new HashMap<>();
+                    node.put("id", config.nodeId);
+                    node.put("name", config.displayName != null ? config.displayName : 
+                                    (config.browseName != null ? config.browseName.name : config.nodeId));
+                    node.put("type", config.nodeClass != null ? config.nodeClass : "Variable");
+                    
+                    String parentId = "";
+                    if (config.references != null) {
+                        for (OpcNodeConfig.OpcReference ref : config.references) {
+                            if (!ref.isForward && ref.targetNodeId != null && allNodeIds.contains(ref.targetNodeId)) {
+                                parentId = ref.targetNodeId;
+                                break;
                             }
                         }
-                        node.put("parentId", parentId);
-                        tree.add(node);
                     }
-                }
+                    node.put("parentId", parentId);
+                    tree.add(node);
+                });
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Error parsing JSON config to tree", e);
             }
@@ -772,7 +946,6 @@ public class WebUIServer {
         WebUIWebSocket.broadcastNodeTree(id, tree);
         
         String logMsg = "[SYSTEM] Populated namespace with " + tree.size() + " nodes from config file: " + inst.configfile;
-        inst.logs.add(logMsg);
-        WebUIWebSocket.broadcastLog(id, logMsg);
+        appendLog(id, inst, logMsg);
     }
 }
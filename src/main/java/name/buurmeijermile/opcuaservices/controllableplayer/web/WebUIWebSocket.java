@@ -7,10 +7,21 @@ import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,29 +33,123 @@ public class WebUIWebSocket {
     private static final Logger logger = Logger.getLogger(WebUIWebSocket.class.getName());
     private static final Set<Session> sessions = ConcurrentHashMap.newKeySet();
     private static final Gson gson = new Gson();
+    // node values are coalesced per instance and flushed as one delta message per frame
+    private static final long FRAMEINTERVALMILLIS = 100;
+    // value frames are dropped for a session once this many messages wait to be sent to it
+    private static final int MAXPENDINGVALUEFRAMES = 64;
+    // a session that falls this far behind on messages that can't be dropped is closed
+    private static final int MAXPENDINGMESSAGES = 4096;
+    private static final Map<Session, SessionSender> senders = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, String>> dirtyValues = new ConcurrentHashMap<>();
+    // per instance the offset of the first console line not yet sent in a log frame
+    private static final Map<String, Long> flushedLogOffsets = new ConcurrentHashMap<>();
+    private static final ExecutorService sendExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "WebUI-ws-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ScheduledExecutorService frameScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WebUI-ws-frames");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        frameScheduler.scheduleAtFixedRate(WebUIWebSocket::flushFrame, FRAMEINTERVALMILLIS, FRAMEINTERVALMILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the messages for one browser session and sends them from the send executor, so that
+     * the callers, among which Milo's subscription threads, never block on browser I/O.
+     */
+    private static class SessionSender {
+        private final Session session;
+        private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+        private final AtomicLong droppedFrames = new AtomicLong(0);
+        // set when value frames were dropped, the next frame then carries all current values again
+        private volatile boolean needsFullSync = false;
+        // per instance the lowest log level this session wants to see
+        private final Map<String, Integer> minimumLogLevels = new ConcurrentHashMap<>();
+
+        SessionSender(Session aSession) {
+            this.session = aSession;
+        }
+
+        int getMinimumLogLevel(String id) {
+            return minimumLogLevels.getOrDefault(id, Level.ALL.intValue());
+        }
+
+        void enqueue(String text, boolean droppable) {
+            if (droppable && pending.get() >= MAXPENDINGVALUEFRAMES) {
+                droppedFrames.incrementAndGet();
+                needsFullSync = true;
+                return;
+            }
+            if (pending.incrementAndGet() > MAXPENDINGMESSAGES) {
+                logger.log(Level.WARNING, "Closing slow WebSocket client, " + pending.get() + " messages pending");
+                removeSession(session);
+                session.close(1008, "Client too slow");
+                return;
+            }
+            queue.add(text);
+            this.scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (sending.compareAndSet(false, true)) {
+                sendExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                String text;
+                while ((text = queue.poll()) != null) {
+                    pending.decrementAndGet();
+                    if (session.isOpen()) {
+                        session.getRemote().sendString(text);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                removeSession(session);
+            } finally {
+                sending.set(false);
+            }
+            // a message may have been queued after the last poll but before sending was reset
+            if (!queue.isEmpty() && sessions.contains(session)) {
+                this.scheduleDrain();
+            }
+        }
+    }
 
     @OnWebSocketConnect
     public void onConnect(Session session) {
+        SessionSender sender = new SessionSender(session);
+        senders.put(session, sender);
         sessions.add(session);
         logger.log(Level.INFO, "Client connected. Active sessions: " + sessions.size());
         
         // Push current state of all instances to the new client
-        try {
-            Map<String, Object> initMsg = new HashMap<>();
-            initMsg.put("type", "init");
-            initMsg.put("instances", WebUIServer.instances.values());
-            synchronized (session) {
-                session.getRemote().sendString(gson.toJson(initMsg));
-            }
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Failed to send init state to client", e);
-        }
+        Map<String, Object> initMsg = new HashMap<>();
+        initMsg.put("type", "init");
+        initMsg.put("instances", WebUIServer.instances.values());
+        sender.enqueue(gson.toJson(initMsg), false);
     }
 
     @OnWebSocketClose
     public void onClose(Session session, int statusCode, String reason) {
+        SessionSender sender = senders.get(session);
+        removeSession(session);
+        WebUIServer.releaseWatches(session);
+        logger.log(Level.INFO, "Client disconnected. Active sessions: " + sessions.size()
+                + (sender != null && sender.droppedFrames.get() > 0 ? ", value frames dropped: " + sender.droppedFrames.get() : ""));
+    }
+
+    private static void removeSession(Session session) {
         sessions.remove(session);
-        logger.log(Level.INFO, "Client disconnected. Active sessions: " + sessions.size());
+        senders.remove(session);
     }
 
     @OnWebSocketMessage
@@ -80,12 +185,34 @@ public class WebUIWebSocket {
             } else if ("remove".equals(action)) {
                 String id = (String) msg.get("id");
                 WebUIServer.removeInstance(id);
+                dirtyValues.remove(id);
+                flushedLogOffsets.remove(id);
                 
                 // Broadcast removal to all clients so they remove it from their UI
                 Map<String, Object> reply = new HashMap<>();
                 reply.put("type", "removed");
                 reply.put("id", id);
                 broadcast(gson.toJson(reply));
+            } else if ("watch".equals(action)) {
+                // the node ids the browser currently displays for this instance
+                String id = (String) msg.get("id");
+                @SuppressWarnings("unchecked")
+                List<String> nodeIds = (List<String>) msg.get("nodeIds");
+                WebUIServer.watchNodes(id, session, nodeIds != null ? nodeIds : new ArrayList<>());
+            } else if ("logs".equals(action)) {
+                // catch up on the console lines from the given offset on, for instance after a reconnect
+                String id = (String) msg.get("id");
+                long offset = msg.get("offset") != null ? ((Double) msg.get("offset")).longValue() : 0L;
+                sendLogs(session, id, offset);
+            } else if ("log_level".equals(action)) {
+                // the session only wants console lines of at least this level, resent from the given offset
+                String id = (String) msg.get("id");
+                SessionSender sender = senders.get(session);
+                if (sender != null && id != null) {
+                    sender.minimumLogLevels.put(id, Level.parse((String) msg.get("level")).intValue());
+                }
+                long offset = msg.get("offset") != null ? ((Double) msg.get("offset")).longValue() : 0L;
+                sendLogs(session, id, offset);
             } else if ("populate_namespace".equals(action)) {
                 String id = (String) msg.get("id");
                 WebUIServer.populateNamespaceFromConfig(id);
@@ -96,45 +223,187 @@ public class WebUIWebSocket {
     }
 
     private void sendError(Session session, String errorMsg) {
-        try {
-            Map<String, String> reply = new HashMap<>();
-            reply.put("type", "error");
-            reply.put("message", errorMsg);
-            synchronized (session) {
-                session.getRemote().sendString(gson.toJson(reply));
-            }
-        } catch (IOException e) {
-            // ignore
+        Map<String, String> reply = new HashMap<>();
+        reply.put("type", "error");
+        reply.put("message", errorMsg);
+        SessionSender sender = senders.get(session);
+        if (sender != null) {
+            sender.enqueue(gson.toJson(reply), false);
         }
     }
 
     private static void broadcast(String text) {
-        for (Session session : sessions) {
-            if (session.isOpen()) {
-                synchronized (session) {
-                    try {
-                        session.getRemote().sendString(text);
-                    } catch (IOException e) {
-                        sessions.remove(session);
+        for (SessionSender sender : senders.values()) {
+            if (sender.session.isOpen()) {
+                sender.enqueue(text, false);
+            }
+        }
+    }
+
+    /**
+     * Sends the node values that changed since the previous frame as one delta message per instance,
+     * each session only gets the values of the nodes it displays. Sessions that dropped value frames
+     * get all current values of the nodes they display instead.
+     * Console lines added since the previous frame go out as one log batch per instance.
+     */
+    private static void flushFrame() {
+        try {
+            flushLogs();
+            for (Map.Entry<String, Map<String, String>> entry : dirtyValues.entrySet()) {
+                Map<String, String> dirty = entry.getValue();
+                if (dirty.isEmpty()) {
+                    continue;
+                }
+                Map<String, String> delta = new HashMap<>();
+                for (Map.Entry<String, String> value : dirty.entrySet()) {
+                    delta.put(value.getKey(), value.getValue());
+                    // only clear the entry when no newer value arrived in the meantime
+                    dirty.remove(value.getKey(), value.getValue());
+                }
+                WebUIServer.InstanceInfo inst = WebUIServer.instances.get(entry.getKey());
+                ViewportSubscriptions viewport = inst != null ? inst.viewport : null;
+                if (viewport == null) {
+                    continue;
+                }
+                // sessions that display every changed node share the serialized delta
+                String text = null;
+                for (SessionSender sender : senders.values()) {
+                    if (!sender.session.isOpen() || sender.needsFullSync) {
+                        continue;
+                    }
+                    Set<String> interest = viewport.getInterest(sender.session);
+                    if (interest.containsAll(delta.keySet())) {
+                        if (text == null) {
+                            text = nodeValuesMessage(entry.getKey(), delta);
+                        }
+                        sender.enqueue(text, true);
+                    } else {
+                        Map<String, String> values = valuesOf(interest, delta);
+                        if (!values.isEmpty()) {
+                            sender.enqueue(nodeValuesMessage(entry.getKey(), values), true);
+                        }
+                    }
+                }
+            }
+            for (SessionSender sender : senders.values()) {
+                if (sender.needsFullSync && sender.pending.get() == 0 && sender.session.isOpen()) {
+                    sender.needsFullSync = false;
+                    for (WebUIServer.InstanceInfo inst : WebUIServer.instances.values()) {
+                        ViewportSubscriptions viewport = inst.viewport;
+                        if (viewport == null) {
+                            continue;
+                        }
+                        Map<String, String> values = valuesOf(viewport.getInterest(sender.session), inst.nodeValues);
+                        if (!values.isEmpty()) {
+                            sender.enqueue(nodeValuesMessage(inst.id, values), true);
+                        }
                     }
                 }
             }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed to flush node value frame", e);
         }
     }
 
-    public static void broadcastStatus(String id, String status) {
-        Map<String, String> msg = new HashMap<>();
-        msg.put("type", "status");
+    /**
+     * @return the values of the given node ids that are present in the given values
+     */
+    private static Map<String, String> valuesOf(Set<String> nodeIds, Map<String, String> values) {
+        Map<String, String> result = new HashMap<>();
+        for (String nodeId : nodeIds) {
+            String value = values.get(nodeId);
+            if (value != null) {
+                result.put(nodeId, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends the console lines appended since the previous frame. A dropped batch is noticed by the
+     * browser from the gap between its last offset and the first offset of the next batch, it then
+     * asks for the missing lines with the 'logs' action.
+     */
+    private static void flushLogs() {
+        for (WebUIServer.InstanceInfo inst : WebUIServer.instances.values()) {
+            long from = flushedLogOffsets.getOrDefault(inst.id, 0L);
+            if (inst.logs.getNextOffset() == from) {
+                continue;
+            }
+            // the lines and the next offset come from one moment, lines appended meanwhile go out with the next frame
+            LogRing.Batch batch = inst.logs.since(from, Level.ALL.intValue());
+            long next = batch.nextOffset;
+            List<LogRing.Entry> lines = batch.entries;
+            flushedLogOffsets.put(inst.id, next);
+            // sessions with the same level filter share the serialized batch
+            Map<Integer, String> batchesByLevel = new HashMap<>();
+            for (SessionSender sender : senders.values()) {
+                if (sender.session.isOpen()) {
+                    int minimumLevel = sender.getMinimumLogLevel(inst.id);
+                    String text = batchesByLevel.computeIfAbsent(minimumLevel, level -> logBatchMessage(inst.id, from, next, lines, level));
+                    sender.enqueue(text, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the stored console lines of an instance from the given offset on to a single browser session.
+     */
+    private static void sendLogs(Session session, String id, long offset) {
+        WebUIServer.InstanceInfo inst = id != null ? WebUIServer.instances.get(id) : null;
+        SessionSender sender = senders.get(session);
+        if (inst == null || sender == null) {
+            return;
+        }
+        int minimumLevel = sender.getMinimumLogLevel(id);
+        LogRing.Batch batch = inst.logs.since(offset, minimumLevel);
+        sender.enqueue(logBatchMessage(id, offset, batch.nextOffset, batch.entries, minimumLevel), false);
+    }
+
+    private static String logBatchMessage(String id, long from, long next, List<LogRing.Entry> entries, int minimumLevel) {
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (LogRing.Entry entry : entries) {
+            if (entry.level >= minimumLevel) {
+                Map<String, Object> line = new HashMap<>();
+                line.put("o", entry.offset);
+                line.put("l", entry.level);
+                line.put("t", entry.line);
+                lines.add(line);
+            }
+        }
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", "log_batch");
         msg.put("id", id);
-        msg.put("status", status);
-        broadcast(gson.toJson(msg));
+        msg.put("from", from);
+        msg.put("next", next);
+        msg.put("lines", lines);
+        return gson.toJson(msg);
+    }
+
+    /**
+     * Sends node values to a single browser session, for instance the known values of nodes it starts to display.
+     */
+    public static void sendNodeValues(Object session, String id, Map<String, String> values) {
+        SessionSender sender = senders.get(session);
+        if (sender != null) {
+            sender.enqueue(nodeValuesMessage(id, values), true);
+        }
     }
 
-    public static void broadcastLog(String id, String line) {
+    private static String nodeValuesMessage(String id, Map<String, String> values) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", "node_values");
+        msg.put("id", id);
+        msg.put("values", values);
+        return gson.toJson(msg);
+    }
+
+    public static void broadcastStatus(String id, String status) {
         Map<String, String> msg = new HashMap<>();
-        msg.put("type", "log");
+        msg.put("type", "status");
         msg.put("id", id);
-        msg.put("line", line);
+        msg.put("status", status);
         broadcast(gson.toJson(msg));
     }
 
@@ -146,12 +415,11 @@ public class WebUIWebSocket {
         broadcast(gson.toJson(msg));
     }
 
+    /**
+     * Marks the node value as changed, it is sent to the browsers with the next frame. Only the latest
+     * value per node within a frame is sent.
+     */
     public static void broadcastNodeValue(String id, String nodeId, String value) {
-        Map<String, String> msg = new HashMap<>();
-        msg.put("type", "node_value");
-        msg.put("id", id);
-        msg.put("nodeId", nodeId);
-        msg.put("value", value);
-        broadcast(gson.toJson(msg));
+        dirtyValues.computeIfAbsent(id, key -> new ConcurrentHashMap<>()).put(nodeId, value);
     }
 }
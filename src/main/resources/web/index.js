@@ -5,6 +5,19 @@ const maxReconnectDelay = 30000;
 // Current form mode: 'player' or 'recorder'
 let currentMode = 'player';
 
+// Per instance the node ids whose values are in view, only these are monitored by the server
+const visibleNodes = {};
+const viewportObservers = {};
+const watchTimers = {};
+const searchTimers = {};
+const browsePageSize = 200;
+
+// Per instance the offset of the next console line expected from the server
+const logOffsets = {};
+const logCatchUps = {};
+const logLevels = {};
+const maxConsoleLines = 1000;
+
 // Page load
 document.addEventListener('DOMContentLoaded', () => {
     connectWS();
@@ -115,7 +128,8 @@ function onCreateInstance(e) {
         type: currentMode,
         configfile: document.getElementById('inst-configfile').value,
         datafile: document.getElementById('inst-datafile').value,
-        uri: document.getElementById('inst-uri').value
+        uri: document.getElementById('inst-uri').value,
+        isolated: document.getElementById('inst-isolated').checked
     };
     
     if (currentMode === 'player') {
@@ -152,8 +166,8 @@ function handleWSMessage(msg) {
         case 'status':
             updateInstanceStatus(msg.id, msg.status);
             break;
-        case 'log':
-            addLogLine(msg.id, msg.line);
+        case 'log_batch':
+            onLogBatch(msg);
             break;
         case 'node_tree':
             renderNodeTree(msg.id, msg.tree);
@@ -161,6 +175,10 @@ function handleWSMessage(msg) {
         case 'node_value':
             updateNodeValue(msg.id, msg.nodeId, msg.value);
             break;
+        case 'node_values':
+            // one coalesced frame with the values that changed since the previous frame
+            Object.keys(msg.values).forEach(nodeId => updateNodeValue(msg.id, nodeId, msg.values[nodeId]));
+            break;
         case 'removed':
             removeInstanceCard(msg.id);
             break;
@@ -198,6 +216,14 @@ function triggerRemove(id) {
 }
 
 function removeInstanceCard(id) {
+    if (viewportObservers[id]) {
+        viewportObservers[id].disconnect();
+        delete viewportObservers[id];
+    }
+    delete visibleNodes[id];
+    delete logOffsets[id];
+    delete logCatchUps[id];
+    delete logLevels[id];
     const card = document.getElementById(`card-${id}`);
     if (card) {
         card.remove();
@@ -213,6 +239,11 @@ function renderAllInstances(instancesList) {
     const container = document.getElementById('instances-container');
     const emptyState = document.getElementById('no-instances');
     
+    // keep the console lines already shown, only the lines missed while disconnected are fetched
+    const consoleBodies = {};
+    container.querySelectorAll('.console-body').forEach(body => {
+        consoleBodies[body.id] = body;
+    });
     container.innerHTML = '';
     
     if (instancesList.length === 0) {
@@ -221,8 +252,21 @@ function renderAllInstances(instancesList) {
         emptyState.classList.add('hidden');
         instancesList.forEach(inst => {
             addInstanceCard(inst);
-            // If logs/node tree exist, fill them
-            inst.logs.forEach(line => addLogLine(inst.id, line));
+            const previousBody = consoleBodies[`console-body-${inst.id}`];
+            if (previousBody) {
+                document.getElementById(`console-body-${inst.id}`).replaceWith(previousBody);
+            } else {
+                logOffsets[inst.id] = 0;
+            }
+            logCatchUps[inst.id] = false;
+            if (logLevels[inst.id] && logLevels[inst.id] !== 'ALL') {
+                // the new connection starts without a level filter
+                document.getElementById(`log-level-${inst.id}`).value = logLevels[inst.id];
+                sendLogLevel(inst.id);
+            } else {
+                requestLogs(inst.id);
+            }
+            // If node tree exists, fill it
             if (inst.nodeTree && inst.nodeTree.length > 0) {
                 renderNodeTree(inst.id, inst.nodeTree);
                 Object.keys(inst.nodeValues).forEach(nodeId => {
@@ -314,6 +358,7 @@ function addInstanceCard(inst) {
             <div class="tree-view">
                 <div class="panel-header">
                     <span><i class="fa-solid fa-network-wired"></i> OPC-UA Namespace (Client View)</span>
+                    <input type="search" class="tree-search" placeholder="Search browse names..." oninput="onTreeSearch('${inst.id}', this.value)">
                 </div>
                 <div id="tree-body-${inst.id}" class="tree-body">
                     <div class="no-nodes">Connect and start to explore nodes.</div>
@@ -324,6 +369,12 @@ function addInstanceCard(inst) {
             <div class="terminal-view">
                 <div class="panel-header">
                     <span><i class="fa-solid fa-terminal"></i> Console Output</span>
+                    <select id="log-level-${inst.id}" class="log-level" onchange="onLogLevelChange('${inst.id}', this.value)">
+                        <option value="ALL">All</option>
+                        <option value="INFO">Info</option>
+                        <option value="WARNING">Warning</option>
+                        <option value="SEVERE">Severe</option>
+                    </select>
                     <button class="action-btn" style="padding: 0.1rem 0.4rem; font-size: 0.75rem;" onclick="clearLogs('${inst.id}')">Clear</button>
                 </div>
                 <div id="console-body-${inst.id}" class="console-body">
@@ -418,11 +469,51 @@ function addLogLine(id, line) {
         div.textContent = line;
     }
     consoleBody.appendChild(div);
+    while (consoleBody.childElementCount > maxConsoleLines) {
+        consoleBody.firstChild.remove();
+    }
     
     // Auto scroll to bottom
     consoleBody.scrollTop = consoleBody.scrollHeight;
 }
 
+// A batch of console lines, either the lines of the last frame or the answer to a catch-up request
+function onLogBatch(msg) {
+    const expected = logOffsets[msg.id] || 0;
+    if (msg.from > expected) {
+        // a batch was dropped on the way, fetch everything from the last line seen
+        requestLogs(msg.id);
+        return;
+    }
+    logCatchUps[msg.id] = false;
+    msg.lines.forEach(line => {
+        if (line.o >= expected) {
+            addLogLine(msg.id, line.t);
+        }
+    });
+    logOffsets[msg.id] = Math.max(expected, msg.next);
+}
+
+function requestLogs(id) {
+    if (logCatchUps[id] || !socket || socket.readyState !== WebSocket.OPEN) return;
+    logCatchUps[id] = true;
+    socket.send(JSON.stringify({ action: 'logs', id: id, offset: logOffsets[id] || 0 }));
+}
+
+// The server filters the console lines on level, the stored lines are fetched again with the new filter
+function onLogLevelChange(id, level) {
+    clearLogs(id);
+    logOffsets[id] = 0;
+    logLevels[id] = level;
+    sendLogLevel(id);
+}
+
+function sendLogLevel(id) {
+    if (!socket || socket.readyState !== WebSocket.OPEN) return;
+    logCatchUps[id] = true;
+    socket.send(JSON.stringify({ action: 'log_level', id: id, level: logLevels[id], offset: logOffsets[id] || 0 }));
+}
+
 function clearLogs(id) {
     const consoleBody = document.getElementById(`console-body-${id}`);
     if (consoleBody) {
@@ -454,55 +545,179 @@ function renderNodeTree(instId, nodes) {
         }
     });
     
-    function buildHTML(node, depth) {
-        const isFolder = node.type === 'Object';
-        const iconClass = isFolder ? 'fa-folder icon-folder' : 'fa-circle-dot icon-tag';
-        const nodeHtml = document.createElement('div');
-        nodeHtml.className = 'tree-node';
-        
-        const infoHtml = document.createElement('div');
-        infoHtml.className = 'tree-node-info';
-        
-        infoHtml.innerHTML = `
-            <i class="fa-solid ${iconClass} tree-node-icon"></i>
-            <span class="tree-node-name">${node.name}</span>
-            <span class="tree-node-id">${node.id}</span>
-        `;
-        
-        if (!isFolder) {
-            const valSpan = document.createElement('span');
-            valSpan.id = `val-${instId}-${node.id.replace(/=/g, '_').replace(/;/g, '_')}`;
-            valSpan.className = 'tree-node-val';
-            valSpan.innerText = '-';
-            infoHtml.appendChild(valSpan);
-        }
-        
-        nodeHtml.appendChild(infoHtml);
-        
-        if (node.children && node.children.length > 0) {
-            node.children.forEach(child => {
-                nodeHtml.appendChild(buildHTML(child, depth + 1));
-            });
-        }
-        
-        return nodeHtml;
-    }
+    // search results are shown in place of the tree while a search is active
+    const searchHtml = document.createElement('div');
+    searchHtml.id = `tree-search-${instId}`;
+    searchHtml.className = 'hidden';
+    container.appendChild(searchHtml);
+    const rootsHtml = document.createElement('div');
+    rootsHtml.id = `tree-roots-${instId}`;
+    container.appendChild(rootsHtml);
     
     roots.forEach(root => {
-        container.appendChild(buildHTML(root, 0));
+        rootsHtml.appendChild(buildTreeNode(instId, root));
     });
+    observeTreeValues(instId, container);
+}
+
+function buildTreeNode(instId, node) {
+    const isFolder = node.type === 'Object';
+    const iconClass = isFolder ? 'fa-folder icon-folder' : 'fa-circle-dot icon-tag';
+    const nodeHtml = document.createElement('div');
+    nodeHtml.className = 'tree-node';
+    
+    const infoHtml = document.createElement('div');
+    infoHtml.className = 'tree-node-info';
+    if (isFolder) {
+        infoHtml.onclick = () => {
+            if (node.lazy && !nodeHtml.dataset.loaded) {
+                // children of lazy folders are browsed on the first expand
+                nodeHtml.dataset.loaded = 'true';
+                loadChildren(instId, node.id, nodeHtml, 0);
+            } else {
+                // collapsing a folder hides its values, which ends their monitoring
+                nodeHtml.classList.toggle('collapsed');
+            }
+        };
+    }
+    
+    infoHtml.innerHTML = `
+        <i class="fa-solid ${iconClass} tree-node-icon"></i>
+        <span class="tree-node-name">${node.name}</span>
+        <span class="tree-node-id">${node.id}</span>
+    `;
+    
+    if (!isFolder) {
+        const valSpan = document.createElement('span');
+        valSpan.id = `val-${instId}-${node.id.replace(/=/g, '_').replace(/;/g, '_')}`;
+        valSpan.className = 'tree-node-val';
+        valSpan.dataset.nodeId = node.id;
+        valSpan.innerText = '-';
+        infoHtml.appendChild(valSpan);
+    }
+    
+    nodeHtml.appendChild(infoHtml);
+    
+    if (node.children && node.children.length > 0) {
+        node.children.forEach(child => {
+            nodeHtml.appendChild(buildTreeNode(instId, child));
+        });
+    }
+    
+    return nodeHtml;
+}
+
+// Fetch one page of children of a folder and append them, with a 'load more' entry when there are more
+function loadChildren(instId, nodeId, parentHtml, offset) {
+    fetch(`/api/instances/${instId}/browse?nodeId=${encodeURIComponent(nodeId)}&offset=${offset}&limit=${browsePageSize}`)
+        .then(res => res.json())
+        .then(page => {
+            const oldMore = parentHtml.querySelector(':scope > .tree-load-more');
+            if (oldMore) {
+                oldMore.remove();
+            }
+            const children = page.nodes || [];
+            children.forEach(child => parentHtml.appendChild(buildTreeNode(instId, child)));
+            const loaded = page.offset + children.length;
+            if (loaded < page.total) {
+                const moreHtml = document.createElement('div');
+                moreHtml.className = 'tree-node tree-load-more';
+                moreHtml.innerText = `Load more (${loaded} of ${page.total})`;
+                moreHtml.onclick = () => loadChildren(instId, nodeId, parentHtml, loaded);
+                parentHtml.appendChild(moreHtml);
+            }
+            observeNewValues(instId, parentHtml);
+        })
+        .catch(err => {
+            console.error("Failed to browse node", err);
+            delete parentHtml.dataset.loaded;
+        });
+}
+
+function onTreeSearch(instId, query) {
+    clearTimeout(searchTimers[instId]);
+    searchTimers[instId] = setTimeout(() => searchNodes(instId, query.trim()), 250);
+}
+
+function searchNodes(instId, query) {
+    const searchHtml = document.getElementById(`tree-search-${instId}`);
+    const rootsHtml = document.getElementById(`tree-roots-${instId}`);
+    if (!searchHtml || !rootsHtml) return;
+    if (query.length === 0) {
+        searchHtml.classList.add('hidden');
+        searchHtml.innerHTML = '';
+        rootsHtml.classList.remove('hidden');
+        return;
+    }
+    fetch(`/api/instances/${instId}/search?q=${encodeURIComponent(query)}`)
+        .then(res => res.json())
+        .then(nodes => {
+            searchHtml.innerHTML = '';
+            if (nodes.length === 0) {
+                searchHtml.innerHTML = '<div class="no-nodes">No browse names found (yet).</div>';
+            }
+            nodes.forEach(node => searchHtml.appendChild(buildTreeNode(instId, node)));
+            rootsHtml.classList.add('hidden');
+            searchHtml.classList.remove('hidden');
+            observeNewValues(instId, searchHtml);
+        })
+        .catch(err => console.error("Failed to search nodes", err));
+}
+
+// Track which values are scrolled into view and let the server monitor just those
+function observeTreeValues(instId, container) {
+    if (viewportObservers[instId]) {
+        viewportObservers[instId].disconnect();
+    }
+    visibleNodes[instId] = new Set();
+    const observer = new IntersectionObserver(entries => {
+        entries.forEach(entry => {
+            const nodeId = entry.target.dataset.nodeId;
+            if (entry.isIntersecting) {
+                visibleNodes[instId].add(nodeId);
+            } else {
+                visibleNodes[instId].delete(nodeId);
+            }
+        });
+        scheduleWatch(instId);
+    }, { root: container });
+    container.querySelectorAll('.tree-node-val').forEach(span => observer.observe(span));
+    viewportObservers[instId] = observer;
+}
+
+function observeNewValues(instId, parentHtml) {
+    const observer = viewportObservers[instId];
+    if (observer) {
+        parentHtml.querySelectorAll('.tree-node-val').forEach(span => observer.observe(span));
+    }
+}
+
+function scheduleWatch(instId) {
+    // scrolling fires many intersection changes, send the resulting set once it settles
+    clearTimeout(watchTimers[instId]);
+    watchTimers[instId] = setTimeout(() => sendWatch(instId), 200);
+}
+
+function sendWatch(instId) {
+    if (socket && socket.readyState === WebSocket.OPEN && visibleNodes[instId]) {
+        socket.send(JSON.stringify({
+            action: 'watch',
+            id: instId,
+            nodeIds: Array.from(visibleNodes[instId])
+        }));
+    }
 }
 
 function updateNodeValue(instId, nodeId, value) {
-    const elementId = `val-${instId}-${nodeId.replace(/=/g, '_').replace(/;/g, '_')}`;
-    const valSpan = document.getElementById(elementId);
-    if (valSpan) {
+    // a node can be shown both in the tree and in the search results
+    const selector = `#tree-body-${instId} .tree-node-val[data-node-id="${CSS.escape(nodeId)}"]`;
+    document.querySelectorAll(selector).forEach(valSpan => {
         valSpan.innerText = value;
         valSpan.classList.add('val-flash');
         setTimeout(() => {
             valSpan.classList.remove('val-flash');
         }, 500);
-    }
+    });
 }
 
 function triggerPopulateNamespace(id) {